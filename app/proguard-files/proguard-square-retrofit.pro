@@ -4,6 +4,8 @@
 
 -dontwarn io.reactivex.**
 -dontwarn okio.**
+-dontwarn org.conscrypt.**
+-dontwarn okhttp3.internal.platform.**
 -keepclasseswithmembers class * {
     @retrofit2.http.* <methods>;
 }
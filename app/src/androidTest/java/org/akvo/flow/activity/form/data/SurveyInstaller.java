@@ -30,6 +30,7 @@ import com.google.gson.GsonBuilder;
 import com.squareup.sqlbrite2.BriteDatabase;
 import com.squareup.sqlbrite2.SqlBrite;
 
+import org.akvo.flow.data.dao.SurveyCache;
 import org.akvo.flow.data.database.SurveyDbDataSource;
 import org.akvo.flow.data.database.cascade.CascadeDB;
 import org.akvo.flow.database.DatabaseHelper;
@@ -80,7 +81,8 @@ public class SurveyInstaller {
         DatabaseHelper databaseHelper = new DatabaseHelper(context, new LanguageTable());
         BriteDatabase db = sqlBrite
                 .wrapDatabaseHelper(databaseHelper, AndroidSchedulers.mainThread());
-        this.adapter = new SurveyDbDataSource(context, db);
+        this.adapter = new SurveyDbDataSource(context, db,
+                new SurveyCache(SurveyCache.DEFAULT_MAX_SIZE));
     }
 
     public Survey installSurvey(int resId, Context context) {
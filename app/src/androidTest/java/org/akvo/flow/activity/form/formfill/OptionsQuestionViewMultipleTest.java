@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017,2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -45,6 +45,7 @@ import org.junit.runner.RunWith;
 import static android.support.test.espresso.Espresso.onView;
 import static android.support.test.espresso.action.ViewActions.click;
 import static android.support.test.espresso.action.ViewActions.typeText;
+import static android.support.test.espresso.assertion.ViewAssertions.doesNotExist;
 import static android.support.test.espresso.assertion.ViewAssertions.matches;
 import static android.support.test.espresso.matcher.ViewMatchers.isChecked;
 import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
@@ -135,6 +136,32 @@ public class OptionsQuestionViewMultipleTest {
         verifySubmitButtonEnabled();
     }
 
+    @Test
+    public void ensureOptionsUnchangedWhenFormReopened() throws Exception {
+        verifyQuestionTitleDisplayed();
+
+        fillOptionsQuestion(2);
+        fillOtherValue("other option");
+
+        rule.finishActivity();
+        rule.launchActivity(null);
+
+        verifyQuestionTitleDisplayed();
+        verifyOptionsDisplayed();
+
+        rule.finishActivity();
+        rule.launchActivity(null);
+
+        verifyOptionsDisplayed();
+    }
+
+    private void verifyOptionsDisplayed() {
+        getCheckbox(0).check(matches(allOf(isDisplayed(), withText("Option1"))));
+        getCheckbox(1).check(matches(allOf(isDisplayed(), withText("Option2"))));
+        getCheckbox(2).check(matches(allOf(isDisplayed(), withText(R.string.othertext))));
+        getCheckbox(3).check(doesNotExist());
+    }
+
     private void fillOtherValue(String text) {
         onView(withId(R.id.other_option_input)).perform(typeText(text));
         onView(withId(android.R.id.button1)).perform(click());
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.dao.SurveyCache;
+import org.akvo.flow.database.DatabaseHelper;
+import org.akvo.flow.database.LanguageTable;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.entity.User;
+import org.akvo.flow.util.ConstantUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the journal to the app database through SurveyDbDataSource.saveResponses
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResponseJournalDatabaseTest {
+
+    private static final long LONG_DEBOUNCE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private SurveyDbDataSource dataSource;
+    private BriteDatabase briteDatabase;
+    private ResponseJournal journal;
+    private long surveyInstanceId;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        briteDatabase = new SqlBrite.Builder().build().wrapDatabaseHelper(
+                new DatabaseHelper(context, new LanguageTable()), Schedulers.trampoline());
+        dataSource = new SurveyDbDataSource(context, briteDatabase,
+                new SurveyCache(SurveyCache.DEFAULT_MAX_SIZE));
+        dataSource.open();
+        surveyInstanceId = dataSource.createSurveyRespondent("journal-form", 1.0,
+                new User(1L, "user"), "journal-record");
+        journal = new ResponseJournal(new ResponseJournal.Writer() {
+            @Override
+            public void write(@NonNull List<QuestionResponse> responses,
+                    @NonNull List<ResponseJournal.Deletion> deletions) {
+                dataSource.saveResponses(responses, deletions);
+            }
+        }, Executors.newSingleThreadScheduledExecutor(), LONG_DEBOUNCE_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        dataSource.deleteResponses(String.valueOf(surveyInstanceId));
+        dataSource.deleteEmptySurveyInstances();
+        dataSource.close();
+        briteDatabase.close();
+    }
+
+    @Test
+    public void flushShouldStoreLatestResponses() {
+        for (int i = 0; i < 10; i++) {
+            journal.put(response("1", -1, "text " + i));
+            journal.put(response("2", 0, "first " + i));
+            journal.put(response("2", 1, "second " + i));
+        }
+        journal.put(response("3", -1, "deleted"));
+        assertTrue(journal.flush());
+
+        journal.put(response("1", -1, "edited"));
+        journal.delete(surveyInstanceId, "2", 1);
+        journal.delete(surveyInstanceId, "3", null);
+        assertTrue(journal.flush());
+
+        Map<String, QuestionResponse> stored = dataSource.getResponses(surveyInstanceId);
+        assertEquals(2, stored.size());
+        assertEquals("edited", stored.get("1").getValue());
+        assertEquals("first 9", stored.get("2").getValue());
+    }
+
+    @Test
+    public void flushShouldReportFailedWrite() {
+        journal.put(response("1", -1, "text"));
+        dataSource.close();
+
+        assertFalse(journal.flush());
+        assertTrue(journal.hasPendingChanges());
+
+        dataSource.open();
+        assertTrue(journal.flush());
+        assertEquals("text", dataSource.getResponses(surveyInstanceId).get("1").getValue());
+    }
+
+    private QuestionResponse response(String questionId, int iteration, String value) {
+        return new QuestionResponse.QuestionResponseBuilder()
+                .setSurveyInstanceId(surveyInstanceId)
+                .setQuestionId(questionId)
+                .setIteration(iteration)
+                .setValue(value)
+                .setType(ConstantUtil.VALUE_RESPONSE_TYPE)
+                .createQuestionResponse();
+    }
+}
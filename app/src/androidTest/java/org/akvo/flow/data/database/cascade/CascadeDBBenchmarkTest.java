@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database.cascade;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.akvo.flow.database.cascade.CascadeSearchIndex;
+import org.akvo.flow.domain.Node;
+import org.akvo.flow.domain.NodePath;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the cascade access strategies on a generated 200k nodes cascade
+ * (10 regions, 100 districts per region, 200 villages per district).
+ * Results are logged, they depend too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CascadeDBBenchmarkTest {
+
+    private static final String TAG = "CascadeDBBenchmark";
+    private static final String DB_NAME = "cascade_benchmark.sqlite";
+    private static final int REGIONS = 10;
+    private static final int DISTRICTS = 100;
+    private static final int VILLAGES = 200;
+    private static final int TOTAL_NODES = REGIONS + REGIONS * DISTRICTS
+            + REGIONS * DISTRICTS * VILLAGES;
+    private static final int DRILL_DOWNS = 200;
+    private static final int SEARCHES = 100;
+    private static final int SEARCH_LIMIT = 50;
+
+    private static File dbFile;
+
+    @BeforeClass
+    public static void beforeClass() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        dbFile = context.getDatabasePath(DB_NAME);
+        context.deleteDatabase(DB_NAME);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        db.execSQL("CREATE TABLE nodes (id INTEGER PRIMARY KEY, name TEXT, code TEXT,"
+                + " parent INTEGER)");
+        db.execSQL("CREATE INDEX node_parent_idx ON nodes (parent)");
+        SQLiteStatement insert = db
+                .compileStatement("INSERT INTO nodes (id, name, code, parent) VALUES (?,?,?,?)");
+        db.beginTransaction();
+        try {
+            long id = 1;
+            for (int r = 0; r < REGIONS; r++) {
+                long regionId = id++;
+                insertNode(insert, regionId, "Region " + r, 0);
+                for (int d = 0; d < DISTRICTS; d++) {
+                    long districtId = id++;
+                    insertNode(insert, districtId, "District " + r + "-" + d, regionId);
+                    for (int v = 0; v < VILLAGES; v++) {
+                        insertNode(insert, id++, "Village " + r + "-" + d + "-" + v,
+                                districtId);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        long start = System.nanoTime();
+        assertTrue(new CascadeSearchIndex().createIndex(dbFile));
+        Log.i(TAG, "Search index of " + TOTAL_NODES + " nodes built in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void cachedAndPreloadedValuesShouldMatchDatabase() {
+        CascadeDB uncached = openCascade(0);
+        CascadeDB preloaded = openCascade(CascadeDB.DEFAULT_CACHE_SIZE);
+        assertTrue(preloaded.preload(TOTAL_NODES));
+
+        List<Node> regions = uncached.getValues(0);
+        assertEquals(REGIONS, regions.size());
+        assertEquals(regions, preloaded.getValues(0));
+        long regionId = regions.get(3).getId();
+        List<Node> districts = uncached.getValues(regionId);
+        assertEquals(DISTRICTS, districts.size());
+        assertEquals(districts, preloaded.getValues(regionId));
+        long districtId = districts.get(42).getId();
+        assertEquals(uncached.getValues(districtId), preloaded.getValues(districtId));
+
+        uncached.close();
+        preloaded.close();
+    }
+
+    @Test
+    public void benchmarkDrillDown() {
+        CascadeDB uncached = openCascade(0);
+        long uncachedTime = drillDown(uncached);
+        uncached.close();
+
+        CascadeDB cached = openCascade(CascadeDB.DEFAULT_CACHE_SIZE);
+        long coldCacheTime = drillDown(cached);
+        long warmCacheTime = drillDown(cached);
+        cached.close();
+
+        CascadeDB preloaded = openCascade(CascadeDB.DEFAULT_CACHE_SIZE);
+        long start = System.nanoTime();
+        assertTrue(preloaded.preload(TOTAL_NODES));
+        long preloadTime = System.nanoTime() - start;
+        long preloadedTime = drillDown(preloaded);
+        preloaded.close();
+
+        Log.i(TAG, "Drill-down of " + DRILL_DOWNS + " villages. No cache: " + uncachedTime / 1000
+                + "us, cold cache: " + coldCacheTime / 1000 + "us, warm cache: "
+                + warmCacheTime / 1000 + "us, preloaded: " + preloadedTime / 1000
+                + "us (preload of " + TOTAL_NODES + " nodes: " + preloadTime / 1000 + "us)");
+    }
+
+    @Test
+    public void searchShouldReturnNodesWithTheirPath() {
+        CascadeDB cascadeDB = openCascade(0);
+        assertTrue(cascadeDB.hasSearchIndex());
+
+        List<NodePath> results = cascadeDB.search("vill 3 42 7", TOTAL_NODES);
+
+        assertTrue(results.size() > 0);
+        boolean found = false;
+        for (NodePath result : results) {
+            if ("Village 3-42-7".equals(result.getNode().getName())) {
+                found = true;
+                assertEquals(2, result.getAncestors().size());
+                assertEquals("Region 3", result.getAncestors().get(0).getName());
+                assertEquals("District 3-42", result.getAncestors().get(1).getName());
+                assertEquals(result.getAncestors().get(1).getId(),
+                        result.getNode().getParent());
+            }
+        }
+        assertTrue(found);
+        cascadeDB.close();
+    }
+
+    @Test
+    public void benchmarkSearch() {
+        CascadeDB cascadeDB = openCascade(0);
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < SEARCHES; i++) {
+            cascadeDB.search("village " + random.nextInt(REGIONS) + " "
+                    + random.nextInt(DISTRICTS), SEARCH_LIMIT);
+        }
+        long searchTime = System.nanoTime() - start;
+        cascadeDB.close();
+
+        Log.i(TAG, SEARCHES + " searches of " + TOTAL_NODES + " nodes: "
+                + searchTime / 1000 / SEARCHES + "us per search");
+    }
+
+    /**
+     * Simulates the spinner selections of CascadeQuestionView, going down to a random village
+     * and coming back to the same region, as happens when re-opening saved responses
+     */
+    private long drillDown(CascadeDB cascadeDB) {
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < DRILL_DOWNS; i++) {
+            List<Node> regions = cascadeDB.getValues(0);
+            Node region = regions.get(random.nextInt(regions.size()));
+            List<Node> districts = cascadeDB.getValues(region.getId());
+            Node district = districts.get(random.nextInt(districts.size()));
+            List<Node> villages = cascadeDB.getValues(district.getId());
+            Node village = villages.get(random.nextInt(villages.size()));
+            cascadeDB.getValues(village.getId());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private CascadeDB openCascade(int cacheSize) {
+        CascadeDB cascadeDB = new CascadeDB(InstrumentationRegistry.getTargetContext(),
+                dbFile.getAbsolutePath(), cacheSize);
+        cascadeDB.open();
+        return cascadeDB;
+    }
+
+    private static void insertNode(SQLiteStatement insert, long id, String name, long parent) {
+        insert.bindLong(1, id);
+        insert.bindString(2, name);
+        insert.bindString(3, "C" + id);
+        insert.bindLong(4, parent);
+        insert.executeInsert();
+        insert.clearBindings();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database.cascade;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.akvo.flow.database.cascade.CascadeSearchIndex;
+import org.akvo.flow.domain.NodePath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CascadeSearchTest {
+
+    private static final String DB_NAME = "cascade_search_test.sqlite";
+
+    private CascadeDB cascadeDB;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        File dbFile = context.getDatabasePath(DB_NAME);
+        context.deleteDatabase(DB_NAME);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        db.execSQL("CREATE TABLE nodes (id INTEGER PRIMARY KEY, name TEXT, code TEXT,"
+                + " parent INTEGER)");
+        db.execSQL("INSERT INTO nodes (id, name, code, parent) VALUES"
+                + " (1, 'Île-de-France', 'IDF', 0), (2, 'École Centrale', 'EC', 1),"
+                + " (3, 'Or Valley', 'OV', 1)");
+        db.close();
+        assertTrue(new CascadeSearchIndex().createIndex(dbFile));
+
+        cascadeDB = new CascadeDB(context, dbFile.getAbsolutePath(), 0);
+        cascadeDB.open();
+    }
+
+    @After
+    public void tearDown() {
+        cascadeDB.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void searchShouldIgnoreCaseOfNonAsciiLetters() {
+        for (String query : new String[] { "École", "école", "ÉCOLE", "ecole cent" }) {
+            List<NodePath> results = cascadeDB.search(query, 10);
+            assertEquals(query, 1, results.size());
+            assertEquals("École Centrale", results.get(0).getNode().getName());
+            assertEquals("Île-de-France", results.get(0).getAncestors().get(0).getName());
+        }
+    }
+
+    @Test
+    public void searchShouldFindOperatorWords() {
+        List<NodePath> results = cascadeDB.search("or", 10);
+        assertEquals(1, results.size());
+        assertEquals("Or Valley", results.get(0).getNode().getName());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bounding box queries of the record_location grid index against a scan of all
+ * the data points, for small and large boxes and boxes crossing the antimeridian.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPointBoundsTest {
+
+    private static final String DB_NAME = "datapoint_bounds_test.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final int DATA_POINTS = 5000;
+
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+    private double[][] locations;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+        insertDataPoints();
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void boundsShouldReturnTheDataPointsInside() {
+        assertBounds(-1.2, 33.1, 0.4, 34.7);
+        assertBounds(-1.2, 33.1, -1.19, 33.2);
+        assertBounds(-60, -170, 70, 150);
+        assertBounds(-90, -180, 90, 180);
+    }
+
+    @Test
+    public void boundsShouldCrossTheAntimeridian() {
+        assertBounds(-10, 170, 10, -170);
+        assertBounds(-80, 20, 80, 10);
+    }
+
+    @Test
+    public void boundsShouldFollowLocationChanges() {
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        db.execSQL("UPDATE record SET latitude = 45.5, longitude = 45.5 WHERE record_id = 'r-1'");
+        db.execSQL("UPDATE record SET latitude = NULL WHERE record_id = 'r-2'");
+        db.execSQL("DELETE FROM record WHERE record_id = 'r-3'");
+
+        assertTrue(query(45, 45, 46, 46).contains("r-1"));
+        Set<String> located = query(-90, -180, 90, 180);
+        assertEquals(DATA_POINTS - DATA_POINTS / 10 - 2, located.size());
+        assertFalse(located.contains("r-2"));
+        assertFalse(located.contains("r-3"));
+    }
+
+    private void assertBounds(double south, double west, double north, double east) {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < DATA_POINTS; i++) {
+            double[] location = locations[i];
+            if (location == null || location[0] < south || location[0] > north) {
+                continue;
+            }
+            boolean insideLongitudes = west <= east ?
+                    location[1] >= west && location[1] <= east :
+                    location[1] >= west || location[1] <= east;
+            if (insideLongitudes) {
+                expected.add("r-" + i);
+            }
+        }
+        assertEquals(expected, query(south, west, north, east));
+    }
+
+    private Set<String> query(double south, double west, double north, double east) {
+        Cursor cursor = dataSource.getDataPointsInBounds(SURVEY_GROUP_ID, south, west, north,
+                east).blockingFirst();
+        Set<String> ids = new HashSet<>();
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow("record_id");
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(idColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private void insertDataPoints() {
+        Random random = new Random(42);
+        locations = new double[DATA_POINTS][];
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < DATA_POINTS; i++) {
+                if (i % 10 == 0) {
+                    db.execSQL("INSERT INTO record (record_id, survey_group_id) VALUES (?, ?)",
+                            new Object[] {
+                                    "r-" + i, SURVEY_GROUP_ID
+                            });
+                    continue;
+                }
+                // Half of them clustered in a small region
+                double latitude = i % 2 == 0 ? -1 + random.nextDouble() : random.nextDouble()
+                        * 180 - 90;
+                double longitude = i % 2 == 0 ? 33.5 + random.nextDouble() : random.nextDouble()
+                        * 360 - 180;
+                locations[i] = new double[] {
+                        latitude, longitude
+                };
+                db.execSQL("INSERT INTO record (record_id, survey_group_id, latitude, longitude)"
+                        + " VALUES (?, ?, ?, ?)", new Object[] {
+                        "r-" + i, SURVEY_GROUP_ID, latitude, longitude
+                });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.akvo.flow.database.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the nearest data points against all the data points sorted by their distance, for
+ * locations inside and far from the data points, and compares the time of both.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPointNearestTest {
+
+    private static final String TAG = "DataPointNearestTest";
+    private static final String DB_NAME = "datapoint_nearest_test.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final int DATA_POINTS = 20000;
+    private static final int NEAREST = 50;
+
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+    private final List<Located> located = new ArrayList<>();
+    private final List<String> unlocated = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+        insertDataPoints();
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void nearestShouldMatchAllDataPointsSortedByDistance() {
+        assertNearest(-1.1, 33.9);
+        assertNearest(-0.5, 34.5);
+        assertNearest(60, -120);
+        assertNearest(0.1, 179.9);
+    }
+
+    @Test
+    public void nearestShouldEndWithTheDataPointsWithoutLocation() {
+        List<String> all = query(-1.1, 33.9, -1);
+        assertEquals(DATA_POINTS, all.size());
+        assertEquals(sortedByDistance(-1.1, 33.9), all.subList(0, located.size()));
+        assertEquals(unlocated, all.subList(located.size(), all.size()));
+    }
+
+    @Test
+    public void benchmarkNearest() {
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            query(-1.1 + i * 0.01, 33.9, NEAREST);
+        }
+        long nearestMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            query(-1.1 + i * 0.01, 33.9, -1);
+        }
+        long allMillis = (System.nanoTime() - start) / 1000000;
+
+        Log.i(TAG, "10 location updates of " + DATA_POINTS + " data points: nearest "
+                + NEAREST + " " + nearestMillis + " ms, all sorted " + allMillis + " ms");
+    }
+
+    private void assertNearest(double latitude, double longitude) {
+        assertEquals(sortedByDistance(latitude, longitude).subList(0, NEAREST),
+                query(latitude, longitude, NEAREST));
+    }
+
+    private List<String> sortedByDistance(final double latitude, final double longitude) {
+        List<Located> sorted = new ArrayList<>(located);
+        Collections.sort(sorted, new Comparator<Located>() {
+            @Override
+            public int compare(Located first, Located second) {
+                int byDistance = Double.compare(first.distance(latitude, longitude),
+                        second.distance(latitude, longitude));
+                return byDistance != 0 ? byDistance : first.id.compareTo(second.id);
+            }
+        });
+        List<String> ids = new ArrayList<>(sorted.size());
+        for (Located dataPoint : sorted) {
+            ids.add(dataPoint.id);
+        }
+        return ids;
+    }
+
+    private List<String> query(double latitude, double longitude, int limit) {
+        Cursor cursor = dataSource.getDataPointsPage(SURVEY_GROUP_ID, null, latitude, longitude,
+                Constants.ORDER_BY_DISTANCE, null, limit).blockingFirst();
+        List<String> ids = new ArrayList<>();
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow("record_id");
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(idColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private void insertDataPoints() {
+        Random random = new Random(42);
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < DATA_POINTS; i++) {
+                String id = String.format("r-%05d", i);
+                if (i % 10 == 0) {
+                    unlocated.add(id);
+                    db.execSQL("INSERT INTO record (record_id, survey_group_id) VALUES (?, ?)",
+                            new Object[] {
+                                    id, SURVEY_GROUP_ID
+                            });
+                    continue;
+                }
+                // Most of them in a small region
+                double latitude = i % 5 == 0 ? random.nextDouble() * 180 - 90
+                        : -1 + random.nextDouble();
+                double longitude = i % 5 == 0 ? random.nextDouble() * 360 - 180
+                        : 33.5 + random.nextDouble();
+                located.add(new Located(id, latitude, longitude));
+                db.execSQL("INSERT INTO record (record_id, survey_group_id, latitude, longitude)"
+                        + " VALUES (?, ?, ?, ?)", new Object[] {
+                        id, SURVEY_GROUP_ID, latitude, longitude
+                });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static class Located {
+
+        final String id;
+        final double latitude;
+        final double longitude;
+
+        Located(String id, double latitude, double longitude) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        /**
+         * Great circle distance in kilometres
+         */
+        double distance(double fromLatitude, double fromLongitude) {
+            double latitudeSin = Math.sin(Math.toRadians(latitude - fromLatitude) / 2);
+            double longitudeSin = Math.sin(Math.toRadians(longitude - fromLongitude) / 2);
+            double a = latitudeSin * latitudeSin + Math.cos(Math.toRadians(fromLatitude))
+                    * Math.cos(Math.toRadians(latitude)) * longitudeSin * longitudeSin;
+            return 2 * 6371.0088 * Math.asin(Math.min(1, Math.sqrt(a)));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.DataPointMapper;
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.akvo.flow.database.Constants;
+import org.akvo.flow.database.britedb.DataPointPageKey;
+import org.akvo.flow.domain.entity.DataPoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Walks the data points page by page in every order and checks that the result is the same
+ * as loading them all at once. Names, dates, statuses and locations are repeated so that the
+ * record id has to break the ties.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPointPagingTest {
+
+    private static final String DB_NAME = "datapoint_paging_test.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final long OTHER_SURVEY_GROUP_ID = 2L;
+    private static final int DATA_POINTS = 500;
+    private static final int PAGE_SIZE = 7;
+    private static final double LATITUDE = 10.5;
+    private static final double LONGITUDE = 20.5;
+
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+    private final DataPointMapper mapper = new DataPointMapper();
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+        insertDataPoints();
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void pagesShouldMatchAllDataPointsInEveryOrder() {
+        int[] orders = {
+                Constants.ORDER_BY_NONE, Constants.ORDER_BY_DATE, Constants.ORDER_BY_DISTANCE,
+                Constants.ORDER_BY_STATUS, Constants.ORDER_BY_NAME
+        };
+        for (int orderBy : orders) {
+            List<String> all = ids(load(null, orderBy, null, -1));
+            assertEquals(DATA_POINTS, all.size());
+            assertEquals(all, ids(loadPages(null, orderBy)));
+        }
+    }
+
+    @Test
+    public void pagesShouldMatchAllSearchResults() {
+        List<String> all = ids(load("point", Constants.ORDER_BY_NAME, null, -1));
+        assertEquals(DATA_POINTS / 2, all.size());
+        assertEquals(all, ids(loadPages("point", Constants.ORDER_BY_NAME)));
+    }
+
+    @Test
+    public void searchShouldIgnoreCaseOfNonAsciiLetters() {
+        briteDatabase.getWritableDatabase().execSQL("INSERT INTO record (record_id, "
+                + "survey_group_id, name) VALUES ('record-school', ?, 'École du Lac')",
+                new Object[] {
+                        OTHER_SURVEY_GROUP_ID
+                });
+        for (String filter : new String[] { "École", "école", "ÉCOLE", "ecole du" }) {
+            Cursor cursor = dataSource.getDataPointsPage(OTHER_SURVEY_GROUP_ID, filter, LATITUDE,
+                    LONGITUDE, Constants.ORDER_BY_NAME, null, -1).blockingFirst();
+            assertEquals(filter, Collections.singletonList("record-school"),
+                    ids(mapper.getDataPoints(cursor)));
+        }
+    }
+
+    private List<DataPoint> loadPages(String filter, int orderBy) {
+        List<DataPoint> dataPoints = new ArrayList<>();
+        DataPoint after = null;
+        List<DataPoint> page;
+        do {
+            page = load(filter, orderBy, after, PAGE_SIZE);
+            dataPoints.addAll(page);
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+        } while (page.size() == PAGE_SIZE);
+        return dataPoints;
+    }
+
+    private List<DataPoint> load(String filter, int orderBy, DataPoint after, int limit) {
+        DataPointPageKey afterKey = after == null ? null : new DataPointPageKey(after.getId(),
+                after.getLastModified(), after.getName(), after.getStatus(), after.getLatitude(),
+                after.getLongitude());
+        Cursor cursor = dataSource.getDataPointsPage(SURVEY_GROUP_ID, filter, LATITUDE,
+                LONGITUDE, orderBy, afterKey, limit).blockingFirst();
+        return mapper.getDataPoints(cursor);
+    }
+
+    private List<String> ids(List<DataPoint> dataPoints) {
+        List<String> ids = new ArrayList<>(dataPoints.size());
+        for (DataPoint dataPoint : dataPoints) {
+            ids.add(dataPoint.getId());
+        }
+        return ids;
+    }
+
+    private void insertDataPoints() {
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        for (int i = 0; i < DATA_POINTS; i++) {
+            String recordId = "record-" + i;
+            String name = i % 2 == 0 ? "Point " + i % 20 : (i % 3 == 0 ? null : "Well " + i % 20);
+            String location = i % 5 == 0 ? "NULL, NULL" : i % 11 + ", " + i % 13;
+            db.execSQL("INSERT INTO record (record_id, survey_group_id, name, latitude, "
+                    + "longitude, last_modified) VALUES (?, ?, ?, " + location + ", ?)",
+                    new Object[] {
+                            recordId, SURVEY_GROUP_ID, name, i % 17
+                    });
+            if (i % 4 != 0) {
+                db.execSQL("INSERT INTO survey_instance (uuid, survey_id, user_id, start_date,"
+                                + " submitted_date, status, surveyed_locale_id)"
+                                + " VALUES (?, 1, 1, 0, 0, ?, ?)",
+                        new Object[] {
+                                "uuid-" + i, i % 5, recordId
+                        });
+            }
+        }
+    }
+}
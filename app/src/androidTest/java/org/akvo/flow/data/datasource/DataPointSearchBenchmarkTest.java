@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.akvo.flow.database.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Types a search query one character at a time on a database of 50k data points and
+ * compares the full text search with loading and filtering every data point, as the list
+ * used to do. Latencies are logged, they depend too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPointSearchBenchmarkTest {
+
+    private static final String TAG = "DataPointSearchBenchmark";
+    private static final String DB_NAME = "datapoint_search_benchmark.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final int DATA_POINTS = 50000;
+    private static final String QUERY = "well 4242";
+    private static final int PAGE_SIZE = 50;
+
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+        insertRecords();
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void searchShouldMatchWordPrefixesOfNameAndId() {
+        assertEquals(1, search("well 42424").getCount());
+        assertEquals(1, search("abcd-42424").getCount());
+        assertEquals(11, search("village 4242").getCount());
+        assertEquals(0, search("ell").getCount());
+        assertEquals(DATA_POINTS, search("").getCount());
+    }
+
+    @Test
+    public void searchShouldFollowUpdatesOfTheRecords() {
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        db.execSQL("UPDATE record SET name = 'Renamed point' WHERE record_id = 'abcd-1'");
+        db.execSQL("DELETE FROM record WHERE record_id = 'abcd-2'");
+
+        assertEquals(1, search("renamed").getCount());
+        assertEquals(0, search("well 2 village 0").getCount());
+        Cursor cursor = briteDatabase.query("SELECT COUNT(*) FROM record_search");
+        cursor.moveToFirst();
+        assertEquals(DATA_POINTS - 1, cursor.getLong(0));
+        cursor.close();
+    }
+
+    @Test
+    public void benchmarkKeystrokes() {
+        long searchNanos = 0;
+        long filterNanos = 0;
+        for (int i = 1; i <= QUERY.length(); i++) {
+            String typed = QUERY.substring(0, i);
+
+            long start = System.nanoTime();
+            Cursor cursor = dataSource.getDataPointsPage(SURVEY_GROUP_ID, typed, null, null,
+                    Constants.ORDER_BY_NAME, null, PAGE_SIZE).blockingFirst();
+            cursor.getCount();
+            cursor.close();
+            long search = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int matches = filterInMemory(typed);
+            long filter = System.nanoTime() - start;
+
+            Log.i(TAG, "'" + typed + "': search " + search / 1000000 + "ms, in memory filter "
+                    + filter / 1000000 + "ms (" + matches + " matches)");
+            searchNanos += search;
+            filterNanos += filter;
+        }
+        Log.i(TAG, DATA_POINTS + " data points, average per keystroke: search "
+                + searchNanos / QUERY.length() / 1000000 + "ms, in memory filter "
+                + filterNanos / QUERY.length() / 1000000 + "ms");
+    }
+
+    private void insertRecords() {
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("INSERT INTO record "
+                    + "(record_id, survey_group_id, name, latitude, longitude) "
+                    + "VALUES (?, ?, ?, ?, ?)");
+            for (int i = 0; i < DATA_POINTS; i++) {
+                statement.clearBindings();
+                statement.bindString(1, "abcd-" + i);
+                statement.bindLong(2, SURVEY_GROUP_ID);
+                statement.bindString(3, "Well " + i + " village " + i / 10);
+                statement.bindDouble(4, i % 90);
+                statement.bindDouble(5, i % 180);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private Cursor search(String filter) {
+        return dataSource.getDataPointsPage(SURVEY_GROUP_ID, filter, null, null,
+                Constants.ORDER_BY_NONE, null, -1).blockingFirst();
+    }
+
+    /**
+     * What the list did before the full text index: every data point is read and filtered
+     */
+    private int filterInMemory(String filter) {
+        String lowerCaseFilter = filter.toLowerCase(Locale.ROOT);
+        Cursor cursor = dataSource.getDataPoints(SURVEY_GROUP_ID, null, null,
+                Constants.ORDER_BY_NAME).blockingFirst();
+        int matches = 0;
+        try {
+            int nameColumn = cursor.getColumnIndexOrThrow("name");
+            int idColumn = cursor.getColumnIndexOrThrow("record_id");
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameColumn);
+                String id = cursor.getString(idColumn);
+                if ((name != null && name.toLowerCase(Locale.ROOT).contains(lowerCaseFilter))
+                        || (id != null && id.toLowerCase(Locale.ROOT)
+                        .contains(lowerCaseFilter))) {
+                    matches++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.ApiDataPoint;
+import org.akvo.flow.data.entity.ApiQuestionAnswer;
+import org.akvo.flow.data.entity.ApiSurveyInstance;
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Syncs a synthetic payload of 20k data points (one form instance with 10 answers, 2 of
+ * them repeated, each) in batches as the server returns them. Throughput is logged, it
+ * depends too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPointSyncBenchmarkTest {
+
+    private static final String TAG = "DataPointSyncBenchmark";
+    private static final String DB_NAME = "datapoint_sync_benchmark.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final int DATA_POINTS = 20000;
+    private static final int BATCH_SIZE = 300;
+    private static final int QUESTIONS = 10;
+    private static final int REPEATED_QUESTIONS = 2;
+
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void syncShouldNumberIterationsOfRepeatedAnswers() {
+        dataSource.syncDataPoints(Collections.singletonList(dataPoint(0, 1000L)));
+        // Synced again, as when the data point is modified on the server
+        dataSource.syncDataPoints(Collections.singletonList(dataPoint(0, 2000L)));
+
+        assertEquals(1, count("SELECT COUNT(*) FROM record"));
+        assertEquals(1, count("SELECT COUNT(*) FROM survey_instance"));
+        assertEquals(QUESTIONS + REPEATED_QUESTIONS, count("SELECT COUNT(*) FROM response"));
+        assertEquals(QUESTIONS - REPEATED_QUESTIONS,
+                count("SELECT COUNT(*) FROM response WHERE iteration = -1"));
+        assertEquals(REPEATED_QUESTIONS,
+                count("SELECT COUNT(*) FROM response WHERE iteration = 1"));
+        assertEquals(2000L, count("SELECT last_modified FROM record"));
+    }
+
+    @Test
+    public void benchmarkSync() {
+        long start = System.nanoTime();
+        for (int i = 0; i < DATA_POINTS; i += BATCH_SIZE) {
+            List<ApiDataPoint> batch = new ArrayList<>(BATCH_SIZE);
+            for (int j = i; j < Math.min(i + BATCH_SIZE, DATA_POINTS); j++) {
+                batch.add(dataPoint(j, 1000L + j));
+            }
+            dataSource.syncDataPoints(batch);
+        }
+        long millis = Math.max((System.nanoTime() - start) / 1000000, 1);
+
+        long rows = count("SELECT COUNT(*) FROM record")
+                + count("SELECT COUNT(*) FROM survey_instance")
+                + count("SELECT COUNT(*) FROM response");
+        assertEquals(DATA_POINTS * (2 + QUESTIONS + REPEATED_QUESTIONS), rows);
+        Log.i(TAG, DATA_POINTS + " data points (" + rows + " rows) synced in " + millis
+                + "ms: " + rows * 1000 / millis + " rows/s");
+    }
+
+    private ApiDataPoint dataPoint(int index, long lastModified) {
+        List<ApiQuestionAnswer> answers = new ArrayList<>(QUESTIONS + REPEATED_QUESTIONS);
+        for (int q = 0; q < QUESTIONS; q++) {
+            answers.add(answer(q, "answer " + index + "-" + q));
+        }
+        for (int q = 0; q < REPEATED_QUESTIONS; q++) {
+            answers.add(answer(q, "repeated answer " + index + "-" + q));
+        }
+        ApiSurveyInstance surveyInstance = new ApiSurveyInstance();
+        surveyInstance.setUuid("uuid-" + index);
+        surveyInstance.setSurveyId(2L);
+        surveyInstance.setSubmitter("submitter");
+        surveyInstance.setCollectionDate(lastModified);
+        surveyInstance.setQasList(answers);
+
+        ApiDataPoint dataPoint = new ApiDataPoint();
+        dataPoint.setId("datapoint-" + index);
+        dataPoint.setSurveyGroupId(SURVEY_GROUP_ID);
+        dataPoint.setDisplayName("Data point " + index);
+        dataPoint.setLatitude(index % 90 * 1.0);
+        dataPoint.setLongitude(index % 180 * 1.0);
+        dataPoint.setLastModified(lastModified);
+        dataPoint.setSurveyInstances(Collections.singletonList(surveyInstance));
+        return dataPoint;
+    }
+
+    private ApiQuestionAnswer answer(int question, String value) {
+        ApiQuestionAnswer answer = new ApiQuestionAnswer();
+        answer.setQuestionId(String.valueOf(question));
+        answer.setAnswer(value);
+        answer.setType("VALUE");
+        return answer;
+    }
+
+    private long count(String sql) {
+        Cursor cursor = briteDatabase.query(sql);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
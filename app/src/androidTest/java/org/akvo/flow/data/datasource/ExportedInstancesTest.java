@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.datasource;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.akvo.flow.database.SurveyInstanceColumns;
+import org.akvo.flow.database.SurveyInstanceStatus;
+import org.akvo.flow.database.Tables;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a form instance is only marked as exported once all its transmissions are saved
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExportedInstancesTest {
+
+    private static final String DB_NAME = "exported_instances_test.db";
+
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void saveShouldSkipInstancesWithFailedTransmissions() {
+        long exported = saveForm("uuid-1");
+        long failed = saveForm("uuid-2");
+        // insert() swallows the error and returns -1
+        briteDatabase.getWritableDatabase().execSQL("CREATE TRIGGER fail_transmission"
+                + " BEFORE INSERT ON transmission WHEN new.filename = 'broken.jpg'"
+                + " BEGIN SELECT RAISE(ABORT, 'Transmission not saved'); END");
+        Map<Long, FormInstanceMetadata> instances = new HashMap<>();
+        instances.put(exported, metadata("uuid-1", "photo.jpg"));
+        instances.put(failed, metadata("uuid-2", "broken.jpg"));
+
+        Set<Long> failedInstances = dataSource.saveExportedInstances(instances);
+
+        assertEquals(Collections.singleton(failed), failedInstances);
+        assertEquals(SurveyInstanceStatus.SUBMITTED, status(exported));
+        assertEquals(2, transmissions(exported));
+        assertEquals(SurveyInstanceStatus.SUBMIT_REQUESTED, status(failed));
+        assertEquals(0, transmissions(failed));
+    }
+
+    private long saveForm(String uuid) {
+        ContentValues values = new ContentValues();
+        values.put(SurveyInstanceColumns.SURVEY_ID, "2");
+        values.put(SurveyInstanceColumns.UUID, uuid);
+        values.put(SurveyInstanceColumns.STATUS, SurveyInstanceStatus.SUBMIT_REQUESTED);
+        values.put(SurveyInstanceColumns.RECORD_ID, "record-" + uuid);
+        return briteDatabase.insert(Tables.SURVEY_INSTANCE, values);
+    }
+
+    private static FormInstanceMetadata metadata(String uuid, String mediaFileName) {
+        Set<String> mediaFileNames = new HashSet<>();
+        mediaFileNames.add(mediaFileName);
+        return new FormInstanceMetadata(uuid + ".zip", "2", mediaFileNames);
+    }
+
+    private int status(long formInstanceId) {
+        return (int) queryLong("SELECT status FROM survey_instance WHERE _id = ?",
+                formInstanceId);
+    }
+
+    private long transmissions(long formInstanceId) {
+        return queryLong("SELECT COUNT(*) FROM transmission WHERE survey_instance_id = ?",
+                formInstanceId);
+    }
+
+    private long queryLong(String sql, long id) {
+        Cursor cursor = briteDatabase.query(sql, String.valueOf(id));
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.database.Constants;
+import org.akvo.flow.database.SurveyDbAdapter;
+import org.akvo.flow.database.SurveyInstanceStatus;
+import org.akvo.flow.database.britedb.BriteSurveyDbAdapter;
+import org.akvo.flow.database.britedb.DataPointPageKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Records the SQL of every query run by the hot paths of BriteSurveyDbAdapter and
+ * SurveyDbAdapter (data point list and map, form instances, responses, transmissions and
+ * forms) and fails if the plan of any of them reads a whole table, as it would once the
+ * index it relies on is dropped or the query changed so that it can no longer be used.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final String DB_NAME = "query_plan_test.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final String RECORD_ID = "r-1";
+    private static final String FORM_ID = "2";
+    private static final long FORM_INSTANCE_ID = 1L;
+
+    private final QueryRecorder recorder = new QueryRecorder();
+    private BriteDatabase briteDatabase;
+    private BriteSurveyDbAdapter briteSurveyDbAdapter;
+    private SurveyDbAdapter surveyDbAdapter;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME, recorder);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        briteSurveyDbAdapter = new BriteSurveyDbAdapter(briteDatabase);
+        surveyDbAdapter = new SurveyDbAdapter(briteDatabase.getWritableDatabase());
+        insertData(briteDatabase.getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void dataPointQueriesShouldUseIndexes() {
+        DataPointPageKey after = new DataPointPageKey(RECORD_ID, 1000L, "Well", 0, -1.0, 36.0);
+        int[] orders = {
+                Constants.ORDER_BY_NONE, Constants.ORDER_BY_DATE, Constants.ORDER_BY_STATUS,
+                Constants.ORDER_BY_NAME, Constants.ORDER_BY_DISTANCE
+        };
+        for (int orderBy : orders) {
+            close(briteSurveyDbAdapter.getDataPointsPage(SURVEY_GROUP_ID, null, -1.0, 36.0,
+                    orderBy, null, 20).blockingFirst());
+            close(briteSurveyDbAdapter.getDataPointsPage(SURVEY_GROUP_ID, null, -1.0, 36.0,
+                    orderBy, after, 20).blockingFirst());
+            close(briteSurveyDbAdapter.getDataPointsPage(SURVEY_GROUP_ID, "well", -1.0, 36.0,
+                    orderBy, after, 20).blockingFirst());
+            close(briteSurveyDbAdapter.getFilteredDataPoints(SURVEY_GROUP_ID, -1.0, 36.0,
+                    orderBy).blockingFirst());
+        }
+        close(briteSurveyDbAdapter.getDataPointsInBounds(SURVEY_GROUP_ID, -2, 35, 0, 37)
+                .blockingFirst());
+        close(briteSurveyDbAdapter.getLocatedDataPoints(SURVEY_GROUP_ID));
+        close(briteSurveyDbAdapter.getSyncTime(SURVEY_GROUP_ID));
+
+        close(surveyDbAdapter.getSurveyedLocale(RECORD_ID));
+        close(surveyDbAdapter.getDatapointStatus(RECORD_ID));
+        close(surveyDbAdapter.getDataPointForms(SURVEY_GROUP_ID, RECORD_ID));
+        close(surveyDbAdapter.getDataPointForms(SURVEY_GROUP_ID, null));
+
+        assertNoFullScans();
+    }
+
+    @Test
+    public void formInstanceQueriesShouldUseIndexes() {
+        close(briteSurveyDbAdapter.getSurveyInstancesByStatus(SurveyInstanceStatus.SAVED));
+        close(briteSurveyDbAdapter.getResponses(FORM_INSTANCE_ID));
+
+        close(surveyDbAdapter.getFormInstance(FORM_INSTANCE_ID));
+        close(surveyDbAdapter.getFormInstances(RECORD_ID));
+        close(surveyDbAdapter.getFormInstancesWithResponses(RECORD_ID));
+        surveyDbAdapter.getFormInstances(RECORD_ID, FORM_ID, SurveyInstanceStatus.SAVED);
+        surveyDbAdapter.getLastSurveyInstance(RECORD_ID, FORM_ID);
+        surveyDbAdapter.getSurveyedLocaleId(FORM_INSTANCE_ID);
+        close(surveyDbAdapter.getResponses(FORM_INSTANCE_ID));
+        close(surveyDbAdapter.getResponse(FORM_INSTANCE_ID, "q1"));
+        close(surveyDbAdapter.getResponse(FORM_INSTANCE_ID, "q1", 1));
+
+        assertNoFullScans();
+    }
+
+    @Test
+    public void transmissionAndFormQueriesShouldUseIndexes() {
+        close(briteSurveyDbAdapter.getUnSyncedTransmissions());
+        close(briteSurveyDbAdapter.getUnSyncedTransmissions(FORM_ID));
+        close(briteSurveyDbAdapter.getTransmissionForFileName("file.zip"));
+        close(briteSurveyDbAdapter.getTransmissionUpload(1L));
+        close(briteSurveyDbAdapter.getTransmissionParts(1L));
+        close(briteSurveyDbAdapter.getForms(SURVEY_GROUP_ID));
+        close(briteSurveyDbAdapter.getFormIds(String.valueOf(SURVEY_GROUP_ID)));
+
+        close(surveyDbAdapter.getSurveyInstanceTransmissions(FORM_INSTANCE_ID));
+        close(surveyDbAdapter.getSurvey(FORM_ID));
+        close(surveyDbAdapter.getSurveyGroup(SURVEY_GROUP_ID));
+
+        assertNoFullScans();
+    }
+
+    private void assertNoFullScans() {
+        List<String> statements = recorder.getStatements();
+        assertFalse(statements.isEmpty());
+        StringBuilder failures = new StringBuilder();
+        SQLiteDatabase db = briteDatabase.getReadableDatabase();
+        for (String sql : statements) {
+            List<String> plan = explain(db, sql);
+            for (String detail : plan) {
+                if (isFullScan(detail)) {
+                    failures.append("\n").append(sql).append("\n    ").append(plan);
+                    break;
+                }
+            }
+        }
+        if (failures.length() > 0) {
+            fail("Queries reading a whole table:" + failures);
+        }
+    }
+
+    /**
+     * Plans read a table with SCAN and look rows up with SEARCH. Full text queries and
+     * subqueries are scanned too, but not the tables they are computed from.
+     */
+    private static boolean isFullScan(String detail) {
+        return detail.startsWith("SCAN ")
+                && !detail.contains("VIRTUAL TABLE")
+                && !detail.contains("CONSTANT ROW")
+                && !detail.toLowerCase().contains("subquery");
+    }
+
+    /**
+     * Arguments are left unbound, they are not used to plan the query
+     */
+    private static List<String> explain(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        List<String> plan = new ArrayList<>();
+        try {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private static void close(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    private void insertData(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO survey_group (survey_group_id, name, register_survey_id)"
+                + " VALUES (" + SURVEY_GROUP_ID + ", 'Wells', '" + FORM_ID + "')");
+        db.execSQL("INSERT INTO survey (survey_id, survey_group_id, name) VALUES ('" + FORM_ID
+                + "', " + SURVEY_GROUP_ID + ", 'Registration')");
+        db.execSQL("INSERT INTO record (record_id, survey_group_id, name, latitude, longitude)"
+                + " VALUES ('" + RECORD_ID + "', " + SURVEY_GROUP_ID + ", 'Well', -1, 36)");
+        db.execSQL("INSERT INTO record (record_id, survey_group_id, name) VALUES ('r-2', "
+                + SURVEY_GROUP_ID + ", 'Well without location')");
+        db.execSQL("INSERT INTO survey_instance (_id, uuid, survey_id, record_id, status,"
+                + " start_date) VALUES (" + FORM_INSTANCE_ID + ", 'uuid-1', '" + FORM_ID
+                + "', '" + RECORD_ID + "', " + SurveyInstanceStatus.SAVED + ", 1000)");
+        db.execSQL("INSERT INTO response (survey_instance_id, question_id, answer, type)"
+                + " VALUES (" + FORM_INSTANCE_ID + ", 'q1', 'answer', 'VALUE')");
+        db.execSQL("INSERT INTO transmission (survey_instance_id, survey_id, filename, status)"
+                + " VALUES (" + FORM_INSTANCE_ID + ", '" + FORM_ID + "', 'file.zip', 0)");
+        // Only the queries of the tests are checked
+        recorder.clear();
+    }
+
+    /**
+     * Keeps the SQL of every query run on the database, as cursors are created
+     */
+    private static class QueryRecorder implements SQLiteDatabase.CursorFactory {
+
+        private static final String PREFIX = "SQLiteQuery: ";
+
+        private final Set<String> statements = new LinkedHashSet<>();
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                String editTable, SQLiteQuery query) {
+            String sql = query.toString();
+            if (sql.startsWith(PREFIX)) {
+                sql = sql.substring(PREFIX.length());
+            }
+            if (!sql.startsWith("EXPLAIN")) {
+                synchronized (statements) {
+                    statements.add(sql);
+                }
+            }
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+
+        List<String> getStatements() {
+            synchronized (statements) {
+                return new ArrayList<>(statements);
+            }
+        }
+
+        void clear() {
+            synchronized (statements) {
+                statements.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.datasource;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.SqlBrite;
+
+import org.akvo.flow.data.entity.ApiDataPoint;
+import org.akvo.flow.data.entity.ApiQuestionAnswer;
+import org.akvo.flow.data.entity.ApiSurveyInstance;
+import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.akvo.flow.database.RecordStatusTriggers;
+import org.akvo.flow.database.SurveyInstanceColumns;
+import org.akvo.flow.database.SurveyInstanceStatus;
+import org.akvo.flow.database.Tables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the status and last activity kept in the record table against the form instances
+ * after every kind of write: sync, form save, status update and deletion.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecordStatusTest {
+
+    private static final String DB_NAME = "record_status_test.db";
+    private static final long SURVEY_GROUP_ID = 1L;
+
+    private final RecordStatusTriggers recordStatusTriggers = new RecordStatusTriggers();
+    private BriteDatabase briteDatabase;
+    private DatabaseDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        TestDatabaseHelper helper = new TestDatabaseHelper(context, DB_NAME);
+        briteDatabase = new SqlBrite.Builder().build()
+                .wrapDatabaseHelper(helper, Schedulers.trampoline());
+        dataSource = new DatabaseDataSource(briteDatabase, new SurveyInstanceIdMapper());
+    }
+
+    @After
+    public void tearDown() {
+        briteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void statusShouldFollowEveryWrite() {
+        dataSource.syncDataPoints(Arrays.asList(dataPoint("a", 1000L), dataPoint("b", 2000L)));
+        assertConsistent();
+        assertEquals(SurveyInstanceStatus.DOWNLOADED, status("a"));
+
+        // Later than the sync date
+        long savedDate = System.currentTimeMillis() + 60000;
+        long formInstanceId = saveForm("a", savedDate);
+        assertConsistent();
+        assertEquals(SurveyInstanceStatus.SAVED, status("a"));
+        assertEquals(savedDate, lastActivity("a"));
+
+        dataSource.setInstanceStatusToRequested(formInstanceId).blockingFirst();
+        assertConsistent();
+        assertEquals(SurveyInstanceStatus.SUBMIT_REQUESTED, status("a"));
+
+        // Synced again, the record is replaced
+        dataSource.syncDataPoints(Collections.singletonList(dataPoint("a", 3000L)));
+        assertConsistent();
+        assertEquals(SurveyInstanceStatus.SUBMIT_REQUESTED, status("a"));
+
+        briteDatabase.delete(Tables.SURVEY_INSTANCE, SurveyInstanceColumns._ID + " = ?",
+                String.valueOf(formInstanceId));
+        assertConsistent();
+        assertEquals(SurveyInstanceStatus.DOWNLOADED, status("a"));
+        assertEquals(SurveyInstanceStatus.DOWNLOADED, status("b"));
+    }
+
+    @Test
+    public void populateShouldFixEveryRecord() {
+        dataSource.syncDataPoints(Arrays.asList(dataPoint("a", 1000L), dataPoint("b", 2000L)));
+        saveForm("b", 5000L);
+        SQLiteDatabase db = briteDatabase.getWritableDatabase();
+        db.execSQL("UPDATE record SET status = 9, last_activity = 0");
+        assertEquals(Arrays.asList("a", "b"), recordStatusTriggers.getInconsistentRecords(db));
+
+        recordStatusTriggers.populate(db);
+
+        assertConsistent();
+        assertEquals(SurveyInstanceStatus.SAVED, status("b"));
+    }
+
+    private void assertConsistent() {
+        assertEquals(Collections.<String>emptyList(),
+                recordStatusTriggers.getInconsistentRecords(briteDatabase.getReadableDatabase()));
+    }
+
+    /**
+     * Same values as a form started on the device
+     */
+    private long saveForm(String recordId, long time) {
+        ContentValues values = new ContentValues();
+        values.put(SurveyInstanceColumns.SURVEY_ID, "2");
+        values.put(SurveyInstanceColumns.VERSION, 1.0);
+        values.put(SurveyInstanceColumns.USER_ID, 1L);
+        values.put(SurveyInstanceColumns.STATUS, SurveyInstanceStatus.SAVED);
+        values.put(SurveyInstanceColumns.UUID, "local-" + recordId);
+        values.put(SurveyInstanceColumns.START_DATE, time);
+        values.put(SurveyInstanceColumns.SAVED_DATE, time);
+        values.put(SurveyInstanceColumns.RECORD_ID, recordId);
+        return briteDatabase.insert(Tables.SURVEY_INSTANCE, values);
+    }
+
+    private ApiDataPoint dataPoint(String id, long lastModified) {
+        ApiQuestionAnswer answer = new ApiQuestionAnswer();
+        answer.setQuestionId("1");
+        answer.setAnswer("answer " + id);
+        answer.setType("VALUE");
+        List<ApiQuestionAnswer> answers = new ArrayList<>(1);
+        answers.add(answer);
+
+        ApiSurveyInstance surveyInstance = new ApiSurveyInstance();
+        surveyInstance.setUuid("uuid-" + id);
+        surveyInstance.setSurveyId(2L);
+        surveyInstance.setSubmitter("submitter");
+        surveyInstance.setCollectionDate(lastModified);
+        surveyInstance.setQasList(answers);
+
+        ApiDataPoint dataPoint = new ApiDataPoint();
+        dataPoint.setId(id);
+        dataPoint.setSurveyGroupId(SURVEY_GROUP_ID);
+        dataPoint.setDisplayName("Data point " + id);
+        dataPoint.setLastModified(lastModified);
+        dataPoint.setSurveyInstances(Collections.singletonList(surveyInstance));
+        return dataPoint;
+    }
+
+    private int status(String recordId) {
+        return (int) queryLong("SELECT status FROM record WHERE record_id = ?", recordId);
+    }
+
+    private long lastActivity(String recordId) {
+        return queryLong("SELECT last_activity FROM record WHERE record_id = ?", recordId);
+    }
+
+    private long queryLong(String sql, String... args) {
+        Cursor cursor = briteDatabase.query(sql, args);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.entity;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.util.Pair;
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import org.akvo.flow.data.util.FileHelper;
+import org.akvo.flow.database.ResponseColumns;
+import org.akvo.flow.database.SurveyInstanceColumns;
+import org.akvo.flow.database.UserColumns;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+import org.akvo.flow.domain.util.TextValueCleaner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the peak heap used to export a large form instance (20000 responses of 1 KB) when
+ * streaming it to the zip file with the previous implementation, which built the whole
+ * FormInstance, serialized it to a String and wrote its bytes to the zip file.
+ * Results are logged, they depend too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FormInstanceZipWriterBenchmarkTest {
+
+    private static final String TAG = "ZipWriterBenchmark";
+    private static final String[] COLUMNS = {
+            SurveyInstanceColumns.UUID, SurveyInstanceColumns.SURVEY_ID,
+            SurveyInstanceColumns.RECORD_ID, SurveyInstanceColumns.SUBMITTED_DATE,
+            SurveyInstanceColumns.DURATION, SurveyInstanceColumns.VERSION, UserColumns.NAME,
+            UserColumns.EMAIL, ResponseColumns.QUESTION_ID, ResponseColumns.ITERATION,
+            ResponseColumns.ANSWER, ResponseColumns.TYPE, ResponseColumns.FILENAME
+    };
+    private static final int RESPONSES = 20000;
+    private static final int VALUE_LENGTH = 1024;
+    private static final int MEDIA_EVERY = 20;
+    private static final int MB = 1024 * 1024;
+
+    private final Gson gson = new Gson();
+    private final TextValueCleaner textValueCleaner = new TextValueCleaner();
+    private final ResponseMapper responseMapper = new ResponseMapper();
+    private final FileHelper fileHelper = new FileHelper();
+    private final FormInstanceMapper formInstanceMapper = new FormInstanceMapper(
+            textValueCleaner, responseMapper, fileHelper);
+
+    private File folder;
+
+    @Before
+    public void setUp() {
+        folder = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "zip_writer_benchmark");
+    }
+
+    @After
+    public void tearDown() {
+        fileHelper.deleteFilesInDirectory(folder, true);
+    }
+
+    @Test
+    public void benchmarkPeakHeap() throws Exception {
+        final File previousFolder = new File(folder, "previous");
+        final File streamedFolder = new File(folder, "streamed");
+        previousFolder.mkdirs();
+        streamedFolder.mkdirs();
+        final FormInstanceZipWriter writer = new FormInstanceZipWriter(gson, formInstanceMapper,
+                textValueCleaner, responseMapper);
+
+        // The cursor is filled before measuring, a database cursor keeps a window of rows
+        final Set<?>[] mediaFileNames = new Set[2];
+        final Cursor previousCursor = largeCursor();
+        long previousPeak = measurePeakHeap(new Export() {
+            @Override
+            public void run() throws IOException {
+                mediaFileNames[0] = previousExport(previousCursor, previousFolder);
+            }
+        });
+        final Cursor streamedCursor = largeCursor();
+        long streamedPeak = measurePeakHeap(new Export() {
+            @Override
+            public void run() throws IOException {
+                FormInstanceMetadata metadata = writer
+                        .write(streamedCursor, "device", streamedFolder);
+                mediaFileNames[1] = metadata.getMediaFileNames();
+            }
+        });
+
+        assertEquals(mediaFileNames[0], mediaFileNames[1]);
+        assertEquals(readDataJson(new File(previousFolder, "uuid.zip")),
+                readDataJson(new File(streamedFolder, "uuid.zip")));
+        Log.i(TAG, "Export of " + RESPONSES + " responses, peak heap: previous "
+                + previousPeak / MB + "MB, streamed " + streamedPeak / MB + "MB");
+    }
+
+    private Set<String> previousExport(Cursor cursor, File zipFolder) throws IOException {
+        Pair<FormInstance, Set<String>> formInstance = formInstanceMapper
+                .getFormInstanceWithMedia("device", cursor);
+        String data = gson.toJson(formInstance.first, FormInstance.class);
+        ZipOutputStream zos = new ZipOutputStream(new CheckedOutputStream(
+                new FileOutputStream(new File(zipFolder, "uuid.zip")), new Adler32()));
+        zos.putNextEntry(new ZipEntry("data.json"));
+        byte[] allBytes = data.getBytes("UTF-8");
+        zos.write(allBytes, 0, allBytes.length);
+        zos.closeEntry();
+        zos.close();
+        return formInstance.second;
+    }
+
+    /**
+     * The heap is sampled from another thread as there is no peak usage on Android
+     *
+     * @return the peak heap used while exporting, over the heap used before starting
+     */
+    private static long measurePeakHeap(Export export) throws IOException {
+        Runtime.getRuntime().gc();
+        final long before = usedHeap();
+        final long[] peak = { before };
+        final boolean[] done = { false };
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (peak) {
+                        if (done[0]) {
+                            return;
+                        }
+                        peak[0] = Math.max(peak[0], usedHeap());
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        sampler.start();
+        try {
+            export.run();
+        } finally {
+            synchronized (peak) {
+                peak[0] = Math.max(peak[0], usedHeap());
+                done[0] = true;
+            }
+        }
+        return peak[0] - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Cursor largeCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, RESPONSES);
+        for (int row = 0; row < RESPONSES; row++) {
+            char[] value = new char[VALUE_LENGTH];
+            Arrays.fill(value, (char) ('a' + row % 26));
+            cursor.addRow(new Object[] {
+                    "uuid", "123", "abcd-efgh-ijkl", 1500000000000L, 65000L, 2.0, "name",
+                    "name@example.com", String.valueOf(row % 100), row / 100, new String(value),
+                    "VALUE", row % MEDIA_EVERY == 0 ? "/akvoflow/media/" + row + ".jpg" : null
+            });
+        }
+        return cursor;
+    }
+
+    private static String readDataJson(File zipFile) throws IOException {
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            InputStream input = zip.getInputStream(zip.getEntry("data.json"));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            zip.close();
+        }
+    }
+
+    private interface Export {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the single pass checksum with the previous implementation, which read every file
+ * twice (once per encoding) with a 2 KB buffer, over a folder of media files of 5 to 50 MB.
+ * Results are logged, they depend too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileHelperBenchmarkTest {
+
+    private static final String TAG = "FileHelperBenchmark";
+    private static final int MB = 1024 * 1024;
+    private static final int[] FILE_SIZES_MB = { 5, 10, 25, 50 };
+
+    private static final List<File> mediaFiles = new ArrayList<>();
+
+    private static File folder;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        folder = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "checksum_benchmark");
+        folder.mkdirs();
+        Random random = new Random(42);
+        byte[] block = new byte[MB];
+        for (int size : FILE_SIZES_MB) {
+            File file = new File(folder, "video_" + size + ".mp4");
+            OutputStream output = new FileOutputStream(file);
+            try {
+                for (int i = 0; i < size; i++) {
+                    random.nextBytes(block);
+                    output.write(block);
+                }
+            } finally {
+                output.close();
+            }
+            mediaFiles.add(file);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        new FileHelper().deleteFilesInDirectory(folder, true);
+    }
+
+    @Test
+    public void benchmarkChecksum() throws Exception {
+        FileHelper fileHelper = new FileHelper();
+
+        // Warm up the file cache and the digest code
+        for (File file : mediaFiles) {
+            fileHelper.getMD5Checksum(file);
+        }
+
+        long start = System.nanoTime();
+        List<String> previous = new ArrayList<>(mediaFiles.size());
+        for (File file : mediaFiles) {
+            // The base64 and hex encodings were each computed from their own read of the file
+            twoPassChecksum(file);
+            previous.add(fileHelper.toHex(twoPassChecksum(file)));
+        }
+        long previousMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        List<String> singlePass = new ArrayList<>(mediaFiles.size());
+        for (File file : mediaFiles) {
+            singlePass.add(fileHelper.toHex(fileHelper.getMD5Checksum(file)));
+        }
+        long singlePassMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(previous, singlePass);
+        Log.i(TAG, "Checksum of " + totalSizeMb() + " MB: two passes " + previousMillis
+                + "ms, single pass " + singlePassMillis + "ms");
+    }
+
+    private static int totalSizeMb() {
+        int total = 0;
+        for (int size : FILE_SIZES_MB) {
+            total += size;
+        }
+        return total;
+    }
+
+    private static byte[] twoPassChecksum(File file)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[2048];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+            return md.digest();
+        } finally {
+            in.close();
+        }
+    }
+}
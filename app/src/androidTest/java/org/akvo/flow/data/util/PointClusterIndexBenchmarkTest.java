@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.util;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.akvo.flow.domain.entity.PointCluster;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Build, query and update times of the cluster index for 10k, 50k and 100k data points, half
+ * of them in a region of one degree like the data points of a field survey.
+ * Results are logged, they depend too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PointClusterIndexBenchmarkTest {
+
+    private static final String TAG = "PointClusterBenchmark";
+    private static final int[] SIZES = { 10000, 50000, 100000 };
+    private static final int SYNC_BATCH = 1000;
+
+    @Test
+    public void benchmarkClusters() {
+        // Warm up
+        build(SIZES[0]);
+
+        for (int size : SIZES) {
+            long start = System.nanoTime();
+            PointClusterIndex index = build(size);
+            long buildMillis = (System.nanoTime() - start) / 1000000;
+
+            // Zoom levels of the whole world, the country, the region and the village
+            start = System.nanoTime();
+            int clusters = 0;
+            clusters += query(index, 2, -85, -180, 85, 180);
+            clusters += query(index, 7, -3, -2, 3, 2);
+            clusters += query(index, 10, 0.2, 0.2, 0.6, 0.6);
+            clusters += query(index, 15, 0.45, 0.45, 0.46, 0.46);
+            long queryMicros = (System.nanoTime() - start) / 1000;
+
+            // A page of synced data points, half of them new and half of them moved
+            Random random = new Random(size);
+            start = System.nanoTime();
+            for (int i = 0; i < SYNC_BATCH; i++) {
+                String id = "point-" + (i % 2 == 0 ? size + i : i);
+                index.put(id, "Synced " + i, random.nextDouble(), random.nextDouble());
+            }
+            long syncMicros = (System.nanoTime() - start) / 1000;
+
+            assertEquals(size + SYNC_BATCH / 2, index.size());
+            Log.i(TAG, size + " data points: build " + buildMillis + "ms, 4 viewports ("
+                    + clusters + " clusters) " + queryMicros + "us, " + SYNC_BATCH
+                    + " synced data points " + syncMicros + "us");
+        }
+    }
+
+    private static PointClusterIndex build(int size) {
+        Random random = new Random(42);
+        PointClusterIndex index = new PointClusterIndex();
+        for (int i = 0; i < size; i++) {
+            double latitude = i % 2 == 0 ? random.nextDouble() : random.nextDouble() * 170 - 85;
+            double longitude = i % 2 == 0 ? random.nextDouble() : random.nextDouble() * 360 - 180;
+            index.put("point-" + i, "Point " + i, latitude, longitude);
+        }
+        return index;
+    }
+
+    private static int query(PointClusterIndex index, double zoom, double south, double west,
+            double north, double east) {
+        List<PointCluster> clusters = index.getClusters(zoom, south, west, north, east);
+        return clusters.size();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the extraction of a 300 MB cascade archive with the previous implementation, which
+ * copied each entry straight to its final path with a 1 KB buffer.
+ * Results are logged, they depend too much on the device to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ZipExtractorBenchmarkTest {
+
+    private static final String TAG = "ZipExtractorBenchmark";
+    private static final int MB = 1024 * 1024;
+    private static final int CASCADE_SIZE_MB = 300;
+    private static final String CASCADE_NAME = "cascade-123-v1.sqlite";
+
+    private static File folder;
+    private static File archive;
+    private static long cascadeCrc;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        folder = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "extraction_benchmark");
+        folder.mkdirs();
+        archive = new File(folder, "cascade-123-v1.sqlite.zip");
+        ZipOutputStream zos = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archive), MB));
+        zos.setLevel(Deflater.BEST_SPEED);
+        CRC32 crc = new CRC32();
+        try {
+            zos.putNextEntry(new ZipEntry(CASCADE_NAME));
+            // Pages of node rows (id, name, parent), compressible like a real cascade database
+            Random random = new Random(42);
+            byte[] page = new byte[MB];
+            for (int i = 0; i < CASCADE_SIZE_MB; i++) {
+                fillPage(page, random);
+                crc.update(page);
+                zos.write(page);
+            }
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+        cascadeCrc = crc.getValue();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        new FileHelper().deleteFilesInDirectory(folder, true);
+    }
+
+    @Test
+    public void benchmarkExtraction() throws Exception {
+        ZipExtractor zipExtractor = new ZipExtractor();
+        File previousFolder = new File(folder, "previous");
+        File extractorFolder = new File(folder, "extractor");
+        previousFolder.mkdirs();
+        extractorFolder.mkdirs();
+
+        // Warm up the file cache
+        previousExtract(archive, previousFolder);
+
+        long start = System.nanoTime();
+        previousExtract(archive, previousFolder);
+        long previousMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        zipExtractor.extract(new FileInputStream(archive), extractorFolder);
+        long extractorMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(cascadeCrc, crc(new File(previousFolder, CASCADE_NAME)));
+        assertEquals(cascadeCrc, crc(new File(extractorFolder, CASCADE_NAME)));
+        Log.i(TAG, "Extraction of a " + CASCADE_SIZE_MB + " MB cascade: previous "
+                + previousMillis + "ms, extractor " + extractorMillis + "ms");
+    }
+
+    private static void fillPage(byte[] page, Random random) {
+        int position = 0;
+        while (position < page.length) {
+            String row = random.nextInt(1000000) + "|Node " + random.nextInt(5000) + "|"
+                    + random.nextInt(20000) + "\n";
+            for (int i = 0; i < row.length() && position < page.length; i++) {
+                page[position++] = (byte) row.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * The previous FileHelper extraction
+     */
+    private static void previousExtract(File archive, File destination) throws IOException {
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(archive));
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null && !entry.isDirectory()) {
+                OutputStream out = new FileOutputStream(new File(destination, entry.getName()));
+                try {
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = zis.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    out.flush();
+                } finally {
+                    out.close();
+                }
+                zis.closeEntry();
+            }
+        } finally {
+            zis.close();
+        }
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[MB];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return crc.getValue();
+    }
+}
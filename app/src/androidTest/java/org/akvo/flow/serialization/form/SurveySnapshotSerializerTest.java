@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.serialization.form;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.akvo.flow.domain.Option;
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.util.FileUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.akvo.flow.tests.R.raw.all_questions_form;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class SurveySnapshotSerializerTest {
+
+    private static final String TAG = "SurveySnapshotTest";
+    private static final int BENCHMARK_RUNS = 20;
+    private static final long SOURCE_LENGTH = 1234L;
+    private static final long SOURCE_MODIFIED = 5678L;
+
+    private static byte[] xml;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        InputStream input = InstrumentationRegistry.getContext().getResources()
+                .openRawResource(all_questions_form);
+        xml = FileUtil.readText(input).getBytes("UTF-8");
+    }
+
+    @Test
+    public void readShouldReturnSameSurveyAsXml() throws IOException {
+        Survey parsed = new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+        byte[] snapshot = writeSnapshot(parsed, 1.0);
+
+        Survey loaded = readSnapshot(snapshot, 1.0, SOURCE_LENGTH);
+
+        assertNotNull(loaded);
+        assertEquals(parsed.getName(), loaded.getName());
+        assertEquals(parsed.getVersion(), loaded.getVersion(), 0);
+        assertEquals(parsed.getDefaultLanguageCode(), loaded.getDefaultLanguageCode());
+        assertEquals(parsed.getAvailableLanguageCodes(), loaded.getAvailableLanguageCodes());
+        assertEquals(parsed.getQuestionGroups().size(), loaded.getQuestionGroups().size());
+        for (int i = 0; i < parsed.getQuestionGroups().size(); i++) {
+            assertGroupEquals(parsed.getQuestionGroups().get(i),
+                    loaded.getQuestionGroups().get(i));
+        }
+    }
+
+    @Test
+    public void readShouldReturnNullWhenVersionChanged() throws IOException {
+        Survey parsed = new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+        byte[] snapshot = writeSnapshot(parsed, 1.0);
+
+        assertNull(readSnapshot(snapshot, 2.0, SOURCE_LENGTH));
+    }
+
+    @Test
+    public void readShouldReturnNullWhenSourceChanged() throws IOException {
+        Survey parsed = new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+        byte[] snapshot = writeSnapshot(parsed, 1.0);
+
+        assertNull(readSnapshot(snapshot, 1.0, SOURCE_LENGTH + 1));
+    }
+
+    /**
+     * Compares the time needed to build the survey from the xml and from the snapshot.
+     * Results are logged, they depend too much on the device to be asserted.
+     */
+    @Test
+    public void benchmarkColdOpen() throws IOException {
+        Survey parsed = new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+        byte[] snapshot = writeSnapshot(parsed, 1.0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+        }
+        long xmlTime = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            readSnapshot(snapshot, 1.0, SOURCE_LENGTH);
+        }
+        long snapshotTime = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        Log.i(TAG, "xml: " + xmlTime / 1000 + "us (" + xml.length + " bytes), snapshot: "
+                + snapshotTime / 1000 + "us (" + snapshot.length + " bytes)");
+    }
+
+    private byte[] writeSnapshot(Survey survey, double version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new SurveySnapshotSerializer()
+                .write(survey, version, SOURCE_LENGTH, SOURCE_MODIFIED,
+                        new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private Survey readSnapshot(byte[] snapshot, double version, long sourceLength)
+            throws IOException {
+        return new SurveySnapshotSerializer()
+                .read(new DataInputStream(new ByteArrayInputStream(snapshot)), version,
+                        sourceLength, SOURCE_MODIFIED);
+    }
+
+    private void assertGroupEquals(QuestionGroup expected, QuestionGroup actual) {
+        assertEquals(expected.getHeading(), actual.getHeading());
+        assertEquals(expected.isRepeatable(), actual.isRepeatable());
+        assertEquals(expected.getQuestions().size(), actual.getQuestions().size());
+        for (int i = 0; i < expected.getQuestions().size(); i++) {
+            Question expectedQuestion = expected.getQuestions().get(i);
+            Question actualQuestion = actual.getQuestions().get(i);
+            assertEquals(expectedQuestion.getId(), actualQuestion.getId());
+            assertEquals(expectedQuestion.getText(), actualQuestion.getText());
+            assertEquals(expectedQuestion.getType(), actualQuestion.getType());
+            assertEquals(expectedQuestion.isMandatory(), actualQuestion.isMandatory());
+            assertEquals(expectedQuestion.getSrc(), actualQuestion.getSrc());
+            assertOptionsEquals(expectedQuestion.getOptions(), actualQuestion.getOptions());
+            assertEquals(size(expectedQuestion.getDependencies()),
+                    size(actualQuestion.getDependencies()));
+            assertEquals(size(expectedQuestion.getLevels()), size(actualQuestion.getLevels()));
+        }
+    }
+
+    private void assertOptionsEquals(List<Option> expected, List<Option> actual) {
+        assertEquals(size(expected), size(actual));
+        if (expected != null) {
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getText(), actual.get(i).getText());
+                assertEquals(expected.get(i).getCode(), actual.get(i).getCode());
+            }
+        }
+    }
+
+    private int size(List<?> list) {
+        return list == null ? -1 : list.size();
+    }
+}
@@ -46,13 +46,15 @@ import android.widget.Toast;
 
 import org.akvo.flow.R;
 import org.akvo.flow.app.FlowApp;
-import org.akvo.flow.data.dao.SurveyDao;
+import org.akvo.flow.data.dao.SurveyLoader;
+import org.akvo.flow.data.database.ResponseJournal;
 import org.akvo.flow.data.database.SurveyDbDataSource;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.database.SurveyDbAdapter;
 import org.akvo.flow.database.SurveyInstanceStatus;
 import org.akvo.flow.database.SurveyLanguagesDataSource;
 import org.akvo.flow.database.SurveyLanguagesDbDataSource;
+import org.akvo.flow.domain.DependencyEngine;
 import org.akvo.flow.domain.QuestionGroup;
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.domain.Survey;
@@ -81,17 +83,13 @@ import org.akvo.flow.util.MediaFileHelper;
 import org.akvo.flow.util.PlatformUtil;
 import org.akvo.flow.util.StorageHelper;
 import org.akvo.flow.util.ViewUtil;
-import org.akvo.flow.util.files.FormFileBrowser;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
@@ -105,7 +103,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
         MobileDataSettingDialog.MobileDataSettingListener {
 
     @Inject
-    FormFileBrowser formFileBrowser;
+    SurveyLoader surveyLoader;
 
     @Inject
     MediaFileHelper mediaFileHelper;
@@ -152,6 +150,9 @@ public class FormActivity extends BackActivity implements SurveyListener,
     private LanguageMapper languageMapper;
 
     private Map<String, QuestionResponse> mQuestionResponses; // QuestionId - QuestionResponse
+    private ResponseJournal responseJournal;
+    private final DependencyEngine dependencyEngine =
+            new DependencyEngine(DependencyEngine.OPTION_VALUE_PARSER);
     private String surveyId;
 
     private Uri imagePath;
@@ -172,6 +173,13 @@ public class FormActivity extends BackActivity implements SurveyListener,
 
         mQuestionResponses = new HashMap<>();
         mDatabase.open();
+        responseJournal = new ResponseJournal(new ResponseJournal.Writer() {
+            @Override
+            public void write(@NonNull List<QuestionResponse> responses,
+                    @NonNull List<ResponseJournal.Deletion> deletions) {
+                mDatabase.saveResponses(responses, deletions);
+            }
+        }, Executors.newSingleThreadScheduledExecutor(), ResponseJournal.DEFAULT_DEBOUNCE_MILLIS);
 
         Context context = getApplicationContext();
         languageMapper = new LanguageMapper(context);
@@ -261,23 +269,9 @@ public class FormActivity extends BackActivity implements SurveyListener,
 
     private void loadSurvey(String surveyId) {
         Survey surveyMeta = mDatabase.getSurvey(surveyId);
-        InputStream in = null;
-        try {
-            File file = formFileBrowser
-                    .findFile(getApplicationContext(), surveyMeta.getFileName());
-            in = new FileInputStream(file);
-            mSurvey = SurveyDao.loadSurvey(surveyMeta, in);
+        mSurvey = surveyLoader.loadSurvey(getApplicationContext(), surveyMeta);
+        if (mSurvey != null) {
             mSurvey.setId(surveyId);
-        } catch (FileNotFoundException e) {
-            Timber.e(e, "Could not load survey xml file");
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    //EMPTY
-                }
-            }
         }
     }
 
@@ -300,6 +294,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
      * Load state for the current survey instance
      */
     private void loadResponses() {
+        responseJournal.flush();
         Map<String, QuestionResponse> responses = mDatabase.getResponses(mSurveyInstanceId);
         displayResponses(responses);
     }
@@ -336,7 +331,11 @@ public class FormActivity extends BackActivity implements SurveyListener,
         }
     }
 
-    private void saveState() {
+    /**
+     * @return false if the pending responses could not be written
+     */
+    private boolean saveState() {
+        boolean responsesSaved = responseJournal.flush();
         if (!mReadOnly) {
             mDatabase.updateSurveyInstanceStatus(mSurveyInstanceId, SurveyInstanceStatus.SAVED);
             mDatabase.updateRecordModifiedDate(mRecordId, System.currentTimeMillis());
@@ -347,6 +346,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
                 saveRecordMetaData();
             }
         }
+        return responsesSaved;
     }
 
     private void saveRecordMetaData() {
@@ -429,6 +429,9 @@ public class FormActivity extends BackActivity implements SurveyListener,
         if (mAdapter != null) {
             mAdapter.onDestroy();
         }
+        if (responseJournal != null) {
+            responseJournal.close();
+        }
         if (mDatabase != null) {
             mDatabase.close();
         }
@@ -482,6 +485,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
                 new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
+                        responseJournal.clear();
                         mDatabase.deleteResponses(String.valueOf(mSurveyInstanceId));
                         resetRecordName();
                         loadResponses();
@@ -670,7 +674,11 @@ public class FormActivity extends BackActivity implements SurveyListener,
     @Override
     public void onSurveySubmit() {
         recordDuration(false);
-        saveState();
+        if (!saveState()) {
+            // Exporting now would leave out the responses which could not be written
+            showErrorExport();
+            return;
+        }
         presenter.onSubmitPressed(mSurveyInstanceId);
     }
 
@@ -734,16 +742,16 @@ public class FormActivity extends BackActivity implements SurveyListener,
     public void deleteResponse(String questionId) {
         QuestionResponse questionResponse = mQuestionResponses.remove(questionId);
         if (questionResponse != null && questionResponse.isAnswerToRepeatableGroup()) {
-            mDatabase.deleteResponse(mSurveyInstanceId, questionResponse.getQuestionId(),
-                    questionResponse.getIteration() + "");
+            responseJournal.delete(mSurveyInstanceId, questionResponse.getQuestionId(),
+                    questionResponse.getIteration());
         } else {
-            mDatabase.deleteResponse(mSurveyInstanceId, questionId);
+            responseJournal.delete(mSurveyInstanceId, questionId, null);
         }
     }
 
     public void deleteResponse(String questionId, String iteration) {
         mQuestionResponses.remove(questionId);
-        mDatabase.deleteResponse(mSurveyInstanceId, questionId, iteration);
+        responseJournal.delete(mSurveyInstanceId, questionId, Integer.valueOf(iteration));
     }
 
     @Override
@@ -761,6 +769,31 @@ public class FormActivity extends BackActivity implements SurveyListener,
         return mSurvey.getId();
     }
 
+    @Override
+    public DependencyEngine getDependencyEngine() {
+        return dependencyEngine;
+    }
+
+    @Override
+    public void evaluateDependencies() {
+        updateDependentQuestions(dependencyEngine.evaluateAll(mQuestionResponses));
+    }
+
+    /**
+     * Shows or hides the given questions and stores the new include flag of their responses.
+     * Nested dependencies have already been resolved by the engine, so no further event is
+     * fired.
+     */
+    private void updateDependentQuestions(List<String> questionIds) {
+        for (String questionId : questionIds) {
+            QuestionView questionView = getQuestionView(questionId);
+            if (questionView != null && questionView
+                    .onDependenciesChanged(dependencyEngine.isVisible(questionId))) {
+                storeAnswer(questionView);
+            }
+        }
+    }
+
     /**
      * event handler that can be used to handle events fired by individual
      * questions at the Activity level. Because we can't launch the photo
@@ -784,7 +817,10 @@ public class FormActivity extends BackActivity implements SurveyListener,
         } else if (QuestionInteractionEvent.QUESTION_CLEAR_EVENT.equals(event.getEventType())) {
             clearQuestion(event);
         } else if (QuestionInteractionEvent.QUESTION_ANSWER_EVENT.equals(event.getEventType())) {
-            storeAnswer(event);
+            storeAnswer(event.getSource());
+            updateDependentQuestions(dependencyEngine
+                    .onResponseChanged(event.getSource().getQuestion().getId(),
+                            mQuestionResponses));
         } else if (QuestionInteractionEvent.CADDISFLY.equals(event.getEventType())) {
             navigateToCaddisfly(event);
         } else if (QuestionInteractionEvent.PLOTTING_EVENT.equals(event.getEventType())) {
@@ -819,9 +855,9 @@ public class FormActivity extends BackActivity implements SurveyListener,
         navigator.navigateToCaddisfly(this, event.getData(), getString(R.string.caddisfly_test));
     }
 
-    private void storeAnswer(QuestionInteractionEvent event) {
-        String questionIdKey = event.getSource().getQuestion().getId();
-        QuestionResponse eventResponse = event.getSource().getResponse();
+    private void storeAnswer(QuestionView source) {
+        String questionIdKey = source.getQuestion().getId();
+        QuestionResponse eventResponse = source.getResponse();
 
         // Store the response if it contains a value. Otherwise, delete it
         if (eventResponse != null && eventResponse.hasValue()) {
@@ -837,10 +873,10 @@ public class FormActivity extends BackActivity implements SurveyListener,
                     .setIncludeFlag(eventResponse.getIncludeFlag())
                     .setIteration(eventResponse.getIteration())
                     .createQuestionResponse();
-            responseToSave = mDatabase.createOrUpdateSurveyResponse(responseToSave);
+            responseJournal.put(responseToSave);
             mQuestionResponses.put(questionIdKey, responseToSave);
         } else {
-            event.getSource().setResponse(null, true);// Invalidate previous response
+            source.setResponse(null, true);// Invalidate previous response
             deleteResponse(questionIdKey);
         }
     }
@@ -848,6 +884,8 @@ public class FormActivity extends BackActivity implements SurveyListener,
     private void clearQuestion(QuestionInteractionEvent event) {
         String questionId = event.getSource().getQuestion().getId();
         deleteResponse(questionId);
+        updateDependentQuestions(dependencyEngine.onResponseChanged(questionId,
+                mQuestionResponses));
     }
 
     private void navigateToBarcodeScanner(QuestionInteractionEvent event) {
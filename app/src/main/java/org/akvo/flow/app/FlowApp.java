@@ -31,6 +31,7 @@ import com.crashlytics.android.core.CrashlyticsCore;
 import com.squareup.leakcanary.LeakCanary;
 
 import org.akvo.flow.BuildConfig;
+import org.akvo.flow.data.dao.SurveyCache;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.domain.entity.User;
 import org.akvo.flow.domain.interactor.DefaultObserver;
@@ -62,6 +63,9 @@ public class FlowApp extends Application {
     @Inject
     Prefs prefs;
 
+    @Inject
+    SurveyCache surveyCache;
+
     @Inject
     @Named("getSelectedUser")
     UseCase getSelectedUser;
@@ -167,6 +171,14 @@ public class FlowApp extends Application {
 
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (surveyCache != null) {
+            surveyCache.trimMemory(level);
+        }
+    }
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
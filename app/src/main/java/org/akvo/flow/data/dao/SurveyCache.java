@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.dao;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import org.akvo.flow.domain.Option;
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.Survey;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application wide cache of parsed forms, keyed by form id and version.
+ * The size of each form is estimated from its number of questions and options, which
+ * is what dominates the memory used by the Survey graph.
+ * Cached forms are shared between form sessions so they must be treated as read only.
+ */
+public class SurveyCache {
+
+    /**
+     * Roughly 5 big household forms (400 questions and thousands of options each)
+     */
+    public static final int DEFAULT_MAX_SIZE = 25000;
+
+    private static final String KEY_SEPARATOR = "_v";
+
+    private final LruCache<String, Entry> cache;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    public SurveyCache(int maxSize) {
+        this.cache = new LruCache<String, Entry>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.size;
+            }
+        };
+    }
+
+    /**
+     * @param sourceLength       size of the form xml, a different value means the form
+     *                           was re-installed and the cached instance is stale
+     * @param sourceLastModified modification date of the form xml
+     */
+    @Nullable
+    public Survey get(@NonNull String surveyId, double version, long sourceLength,
+            long sourceLastModified) {
+        String key = key(surveyId, version);
+        Entry entry = cache.get(key);
+        if (entry != null && (entry.sourceLength != sourceLength
+                || entry.sourceLastModified != sourceLastModified)) {
+            cache.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.survey;
+    }
+
+    public void put(@NonNull Survey survey, double version, long sourceLength,
+            long sourceLastModified) {
+        cache.put(key(survey.getId(), version),
+                new Entry(survey, sourceLength, sourceLastModified, estimateSize(survey)));
+    }
+
+    /**
+     * Removes all the cached versions of the given form
+     */
+    public void invalidate(@NonNull String surveyId) {
+        String prefix = surveyId + KEY_SEPARATOR;
+        for (Map.Entry<String, Entry> entry : cache.snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                cache.remove(entry.getKey());
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * To be called from onTrimMemory: drop everything if the app is likely to be killed,
+     * keep only the most recently used forms if the system is only running low.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Misses include forms found in the cache with an outdated xml
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    private String key(String surveyId, double version) {
+        return surveyId + KEY_SEPARATOR + version;
+    }
+
+    private int estimateSize(Survey survey) {
+        int size = 1;
+        for (QuestionGroup group : survey.getQuestionGroups()) {
+            for (Question question : group.getQuestions()) {
+                size++;
+                List<Option> options = question.getOptions();
+                if (options != null) {
+                    size += options.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    private static class Entry {
+        final Survey survey;
+        final long sourceLength;
+        final long sourceLastModified;
+        final int size;
+
+        Entry(Survey survey, long sourceLength, long sourceLastModified, int size) {
+            this.survey = survey;
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.dao;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.serialization.form.SurveySnapshotSerializer;
+import org.akvo.flow.util.files.FormFileBrowser;
+import org.akvo.flow.util.files.FormSnapshotFileBrowser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.inject.Inject;
+
+import timber.log.Timber;
+
+/**
+ * Loads the full form definition. Forms are looked up in the in-memory cache first, then in
+ * the binary snapshot of the form if it is up to date, and as a last resort the form xml is
+ * parsed.
+ */
+public class SurveyLoader {
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final FormFileBrowser formFileBrowser;
+    private final FormSnapshotFileBrowser snapshotFileBrowser;
+    private final SurveyCache surveyCache;
+    private final SurveySnapshotSerializer serializer = new SurveySnapshotSerializer();
+
+    @Inject
+    public SurveyLoader(FormFileBrowser formFileBrowser,
+            FormSnapshotFileBrowser snapshotFileBrowser, SurveyCache surveyCache) {
+        this.formFileBrowser = formFileBrowser;
+        this.snapshotFileBrowser = snapshotFileBrowser;
+        this.surveyCache = surveyCache;
+    }
+
+    /**
+     * @param surveyMeta survey as stored in the database, it provides the id, version and
+     *                   xml file name
+     * @return the parsed survey or null if the form xml could not be found
+     */
+    @Nullable
+    public Survey loadSurvey(Context context, @NonNull Survey surveyMeta) {
+        File xmlFile = formFileBrowser.findFile(context, surveyMeta.getFileName());
+        Survey survey = surveyCache.get(surveyMeta.getId(), surveyMeta.getVersion(),
+                xmlFile.length(), xmlFile.lastModified());
+        Timber.d("Survey cache hits: %d, misses: %d", surveyCache.getHitCount(),
+                surveyCache.getMissCount());
+        if (survey != null) {
+            return survey;
+        }
+
+        File snapshotFile = snapshotFileBrowser
+                .getSnapshotFile(context, surveyMeta.getId(), surveyMeta.getVersion());
+        survey = readSnapshot(snapshotFile, surveyMeta, xmlFile);
+        if (survey == null) {
+            survey = parseXml(surveyMeta, xmlFile);
+            if (survey != null) {
+                writeSnapshot(context, survey, surveyMeta, xmlFile, snapshotFile);
+            }
+        }
+        if (survey != null) {
+            surveyCache.put(survey, surveyMeta.getVersion(), xmlFile.length(),
+                    xmlFile.lastModified());
+        }
+        return survey;
+    }
+
+    /**
+     * Parses the form xml and stores its snapshot, so the first opening of the form does not
+     * need to parse the xml. Called when a form is installed.
+     */
+    public void compileSnapshot(Context context, @NonNull Survey surveyMeta) {
+        File xmlFile = formFileBrowser.findFile(context, surveyMeta.getFileName());
+        Survey survey = parseXml(surveyMeta, xmlFile);
+        if (survey != null) {
+            File snapshotFile = snapshotFileBrowser
+                    .getSnapshotFile(context, surveyMeta.getId(), surveyMeta.getVersion());
+            writeSnapshot(context, survey, surveyMeta, xmlFile, snapshotFile);
+        }
+    }
+
+    @Nullable
+    private Survey readSnapshot(File snapshotFile, Survey surveyMeta, File xmlFile) {
+        if (!snapshotFile.exists() || !xmlFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(snapshotFile), BUFFER_SIZE));
+            Survey survey = serializer.read(in, surveyMeta.getVersion(), xmlFile.length(),
+                    xmlFile.lastModified());
+            if (survey != null) {
+                survey.setId(surveyMeta.getId());
+            }
+            return survey;
+        } catch (IOException e) {
+            Timber.w(e, "Could not read form snapshot %s", snapshotFile.getName());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    @Nullable
+    private Survey parseXml(Survey surveyMeta, File xmlFile) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(xmlFile);
+            return SurveyDao.loadSurvey(surveyMeta, in);
+        } catch (FileNotFoundException e) {
+            Timber.e(e, "Could not load survey xml file");
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * The snapshot is written to a temporary file first, so a crash never leaves a truncated
+     * snapshot in place.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void writeSnapshot(Context context, Survey survey, Survey surveyMeta, File xmlFile,
+            File snapshotFile) {
+        File tmpFile = new File(snapshotFile.getAbsolutePath() + TMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE));
+            serializer.write(survey, surveyMeta.getVersion(), xmlFile.length(),
+                    xmlFile.lastModified(), out);
+            out.close();
+            out = null;
+            if (tmpFile.renameTo(snapshotFile)) {
+                snapshotFileBrowser
+                        .deleteOtherSnapshots(context, surveyMeta.getId(), snapshotFile);
+            } else {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Could not write form snapshot %s", snapshotFile.getName());
+            tmpFile.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private void close(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //EMPTY
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.QuestionResponse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Write-behind journal for the responses of a form session.
+ * Answers are merged in memory by question and iteration, so only the latest value of each
+ * response is written. Pending changes are written in a single transaction, either on the
+ * background executor once no change has been received for the debounce delay, or
+ * synchronously when flush() is called, which must happen before the responses are read from
+ * the database (pausing or submitting the form). A form must not be submitted unless flush()
+ * succeeds, otherwise it would be exported without its latest responses.
+ */
+public class ResponseJournal {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    /**
+     * Persists a batch of changes. Each call must be a single transaction.
+     * Deletions are applied before the responses.
+     */
+    public interface Writer {
+        void write(@NonNull List<QuestionResponse> responses, @NonNull List<Deletion> deletions);
+    }
+
+    private final Writer writer;
+    private final ScheduledExecutorService executor;
+    private final long debounceMillis;
+
+    // Guarded by this: pending changes by response key, in arrival order
+    private final Map<String, QuestionResponse> responses = new LinkedHashMap<>();
+    private final Map<String, Deletion> deletions = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    // Keeps batches in order: a batch is taken from the journal and written under this lock
+    private final Object writeLock = new Object();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ResponseJournal(Writer writer, ScheduledExecutorService executor,
+            long debounceMillis) {
+        this.writer = writer;
+        this.executor = executor;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Queues a response, replacing any pending change of the same question and iteration
+     */
+    public synchronized void put(@NonNull QuestionResponse response) {
+        responses.put(key(response.getQuestionId(), response.getIteration()), response);
+        scheduleFlush();
+    }
+
+    /**
+     * Queues the deletion of the responses of a question, all iterations included if
+     * iteration is null
+     */
+    public synchronized void delete(long surveyInstanceId, @NonNull String questionId,
+            @Nullable Integer iteration) {
+        if (iteration == null) {
+            Iterator<QuestionResponse> pending = responses.values().iterator();
+            while (pending.hasNext()) {
+                if (questionId.equals(pending.next().getQuestionId())) {
+                    pending.remove();
+                }
+            }
+        } else {
+            responses.remove(key(questionId, iteration));
+        }
+        Deletion deletion = new Deletion(surveyInstanceId, questionId, iteration);
+        deletions.put(key(questionId, iteration), deletion);
+        scheduleFlush();
+    }
+
+    /**
+     * Drops all pending changes, used when all the responses are deleted at once
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                cancelScheduledFlush();
+                responses.clear();
+                deletions.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending changes on the calling thread, waiting for any write in progress
+     *
+     * @return false if the changes could not be written, they are kept for the next flush
+     */
+    public boolean flush() {
+        synchronized (writeLock) {
+            List<QuestionResponse> batch;
+            List<Deletion> deletionBatch;
+            synchronized (this) {
+                cancelScheduledFlush();
+                if (responses.isEmpty() && deletions.isEmpty()) {
+                    return true;
+                }
+                batch = new ArrayList<>(responses.values());
+                deletionBatch = new ArrayList<>(deletions.values());
+                responses.clear();
+                deletions.clear();
+            }
+            try {
+                writer.write(batch, deletionBatch);
+                return true;
+            } catch (RuntimeException e) {
+                Timber.e(e, "Error writing %d responses", batch.size());
+                requeue(batch, deletionBatch);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending changes and stops the background executor
+     */
+    public void close() {
+        flush();
+        executor.shutdown();
+    }
+
+    public synchronized boolean hasPendingChanges() {
+        return !responses.isEmpty() || !deletions.isEmpty();
+    }
+
+    /**
+     * Failed changes are kept unless they have been superseded while writing
+     */
+    private synchronized void requeue(List<QuestionResponse> batch, List<Deletion> deletionBatch) {
+        for (Deletion deletion : deletionBatch) {
+            String key = key(deletion.getQuestionId(), deletion.getIteration());
+            if (!deletions.containsKey(key)) {
+                deletions.put(key, deletion);
+            }
+        }
+        for (QuestionResponse response : batch) {
+            String key = key(response.getQuestionId(), response.getIteration());
+            if (!responses.containsKey(key) && !deletions.containsKey(key)) {
+                responses.put(key, response);
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        cancelScheduledFlush();
+        if (!executor.isShutdown()) {
+            scheduledFlush = executor.schedule(flushTask, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private static String key(String questionId, @Nullable Integer iteration) {
+        return questionId + "|" + iteration;
+    }
+
+    public static class Deletion {
+        private final long surveyInstanceId;
+        private final String questionId;
+        @Nullable
+        private final Integer iteration;
+
+        Deletion(long surveyInstanceId, String questionId, @Nullable Integer iteration) {
+            this.surveyInstanceId = surveyInstanceId;
+            this.questionId = questionId;
+            this.iteration = iteration;
+        }
+
+        public long getSurveyInstanceId() {
+            return surveyInstanceId;
+        }
+
+        public String getQuestionId() {
+            return questionId;
+        }
+
+        /**
+         * @return the iteration to delete, null to delete all iterations
+         */
+        @Nullable
+        public Integer getIteration() {
+            return iteration;
+        }
+    }
+}
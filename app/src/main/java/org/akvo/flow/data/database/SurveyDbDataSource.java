@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -25,10 +25,12 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.squareup.sqlbrite2.BriteDatabase;
 
+import org.akvo.flow.data.dao.SurveyCache;
 import org.akvo.flow.database.RecordColumns;
 import org.akvo.flow.database.ResponseColumns;
 import org.akvo.flow.database.SurveyColumns;
@@ -60,11 +62,14 @@ public class SurveyDbDataSource {
     private final BriteSurveyDbAdapter briteSurveyDbAdapter;
     private final SurveyMapper surveyMapper = new SurveyMapper();
     private final TransmissionsMapper transmissionsMapper = new TransmissionsMapper();
+    private final SurveyCache surveyCache;
 
     @Inject
-    public SurveyDbDataSource(Context context, BriteDatabase briteDatabase) {
+    public SurveyDbDataSource(Context context, BriteDatabase briteDatabase,
+            SurveyCache surveyCache) {
         this.briteSurveyDbAdapter = new BriteSurveyDbAdapter(briteDatabase);
         this.surveyDbAdapter = new SurveyDbAdapter(context);
+        this.surveyCache = surveyCache;
     }
 
     /**
@@ -174,27 +179,12 @@ public class SurveyDbDataSource {
         } else {
             cursor = surveyDbAdapter.getResponse(surveyInstanceId, questionId);
         }
+        QuestionResponse storedResponse = null;
         if (cursor != null && cursor.moveToFirst()) {
-            String type = cursor.getString(cursor.getColumnIndexOrThrow(ResponseColumns.TYPE));
-            if (newResponse.getType() != null) {
-                type = newResponse.getType();
-            }
-            Long id = cursor.getLong(cursor.getColumnIndexOrThrow(ResponseColumns._ID));
-            int iteration = cursor.getInt(cursor.getColumnIndexOrThrow(ResponseColumns.ITERATION));
-            resp = new QuestionResponse.QuestionResponseBuilder()
-                    .setValue(newResponse.getValue())
-                    .setType(type)
-                    .setId(id)
-                    .setSurveyInstanceId(surveyInstanceId)
-                    .setQuestionId(questionId)
-                    .setFilename(newResponse.getFilename())
-                    .setIncludeFlag(newResponse.getIncludeFlag())
-                    .setIteration(iteration)
+            storedResponse = getQuestionResponseBuilder(cursor, new QuestionResponseColumns(cursor))
                     .createQuestionResponse();
-        } else {
-            resp = new QuestionResponse.QuestionResponseBuilder()
-                    .createFromQuestionResponse(newResponse);
         }
+        resp = mergeResponse(newResponse, storedResponse);
 
         if (cursor != null) {
             cursor.close();
@@ -211,6 +201,108 @@ public class SurveyDbDataSource {
      */
     public QuestionResponse createOrUpdateSurveyResponse(@NonNull QuestionResponse newResponse) {
         QuestionResponse responseToSave = getResponseToSave(newResponse);
+        long id = surveyDbAdapter.updateSurveyResponse(responseToSave.getId(),
+                getResponseValues(responseToSave));
+        return new QuestionResponse.QuestionResponseBuilder().createFromQuestionResponse(
+                responseToSave, id);
+    }
+
+    /**
+     * Applies a batch of response changes in a single transaction. Deletions are applied first.
+     * The stored responses of each form instance are read with a single query instead of
+     * looking up every response.
+     */
+    public void saveResponses(@NonNull List<QuestionResponse> responses,
+            @NonNull List<ResponseJournal.Deletion> deletions) {
+        surveyDbAdapter.beginTransaction();
+        try {
+            for (ResponseJournal.Deletion deletion : deletions) {
+                if (deletion.getIteration() == null) {
+                    surveyDbAdapter.deleteResponse(deletion.getSurveyInstanceId(),
+                            deletion.getQuestionId());
+                } else {
+                    surveyDbAdapter.deleteResponse(deletion.getSurveyInstanceId(),
+                            deletion.getQuestionId(), String.valueOf(deletion.getIteration()));
+                }
+            }
+
+            Map<Long, Map<String, QuestionResponse>> storedResponses = new HashMap<>();
+            for (QuestionResponse newResponse : responses) {
+                Long surveyInstanceId = newResponse.getSurveyInstanceId();
+                Map<String, QuestionResponse> stored = storedResponses.get(surveyInstanceId);
+                if (stored == null) {
+                    stored = getStoredResponses(surveyInstanceId);
+                    storedResponses.put(surveyInstanceId, stored);
+                }
+                String key = getStoredResponseKey(newResponse.getQuestionId(),
+                        newResponse.isAnswerToRepeatableGroup(), newResponse.getIteration());
+                QuestionResponse responseToSave = mergeResponse(newResponse, stored.get(key));
+                long id = surveyDbAdapter.updateSurveyResponse(responseToSave.getId(),
+                        getResponseValues(responseToSave));
+                stored.put(key, new QuestionResponse.QuestionResponseBuilder()
+                        .createFromQuestionResponse(responseToSave, id));
+            }
+            surveyDbAdapter.setTransactionSuccessful();
+        } finally {
+            surveyDbAdapter.endTransaction();
+        }
+    }
+
+    /**
+     * Stored responses by question id, and by question id and iteration for repeated
+     * questions, mirroring the lookups done in getResponseToSave()
+     */
+    private Map<String, QuestionResponse> getStoredResponses(long surveyInstanceId) {
+        Map<String, QuestionResponse> stored = new HashMap<>();
+        Cursor cursor = surveyDbAdapter.getResponses(surveyInstanceId);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                QuestionResponseColumns columns = new QuestionResponseColumns(cursor);
+                do {
+                    QuestionResponse response = getQuestionResponseBuilder(cursor, columns)
+                            .setSurveyInstanceId(surveyInstanceId)
+                            .createQuestionResponse();
+                    String questionId = response.getQuestionId();
+                    stored.put(getStoredResponseKey(questionId, true, response.getIteration()),
+                            response);
+                    String key = getStoredResponseKey(questionId, false, 0);
+                    if (!stored.containsKey(key)) {
+                        stored.put(key, response);
+                    }
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        return stored;
+    }
+
+    private String getStoredResponseKey(String questionId, boolean repeated, int iteration) {
+        return repeated ? questionId + "|" + iteration : questionId;
+    }
+
+    @NonNull
+    private QuestionResponse mergeResponse(@NonNull QuestionResponse newResponse,
+            @Nullable QuestionResponse storedResponse) {
+        if (storedResponse == null) {
+            return new QuestionResponse.QuestionResponseBuilder()
+                    .createFromQuestionResponse(newResponse);
+        }
+        String type = newResponse.getType() != null ?
+                newResponse.getType() :
+                storedResponse.getType();
+        return new QuestionResponse.QuestionResponseBuilder()
+                .setValue(newResponse.getValue())
+                .setType(type)
+                .setId(storedResponse.getId())
+                .setSurveyInstanceId(newResponse.getSurveyInstanceId())
+                .setQuestionId(newResponse.getQuestionId())
+                .setFilename(newResponse.getFilename())
+                .setIncludeFlag(newResponse.getIncludeFlag())
+                .setIteration(storedResponse.getIteration())
+                .createQuestionResponse();
+    }
+
+    private ContentValues getResponseValues(QuestionResponse responseToSave) {
         ContentValues initialValues = new ContentValues();
         initialValues.put(ResponseColumns.ANSWER, responseToSave.getValue());
         initialValues.put(ResponseColumns.TYPE, responseToSave.getType());
@@ -219,9 +311,7 @@ public class SurveyDbDataSource {
         initialValues.put(ResponseColumns.FILENAME, responseToSave.getFilename());
         initialValues.put(ResponseColumns.INCLUDE, responseToSave.getIncludeFlag() ? 1 : 0);
         initialValues.put(ResponseColumns.ITERATION, responseToSave.getIteration());
-        long id = surveyDbAdapter.updateSurveyResponse(responseToSave.getId(), initialValues);
-        return new QuestionResponse.QuestionResponseBuilder().createFromQuestionResponse(
-                responseToSave, id);
+        return initialValues;
     }
 
     public long createSurveyRespondent(String surveyId, double version, User user,
@@ -264,6 +354,23 @@ public class SurveyDbDataSource {
         updatedValues.put(SurveyColumns.HELP_DOWNLOADED, survey.isHelpDownloaded() ? 1 : 0);
 
         briteSurveyDbAdapter.updateSurvey(updatedValues, survey.getId());
+        surveyCache.invalidate(survey.getId());
+    }
+
+    /**
+     * Saves the given surveys, and their survey groups, in a single transaction
+     */
+    public void saveSurveys(@NonNull List<Survey> surveys) {
+        BriteDatabase.Transaction transaction = briteSurveyDbAdapter.beginTransaction();
+        try {
+            for (Survey survey : surveys) {
+                addSurveyGroup(survey.getSurveyGroup());
+                saveSurvey(survey);
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
     }
 
     /**
@@ -381,6 +488,7 @@ public class SurveyDbDataSource {
 
     public void deleteAllSurveys() {
         briteSurveyDbAdapter.deleteAllSurveys();
+        surveyCache.invalidateAll();
     }
 
     public void deleteEmptyRecords() {
@@ -22,29 +22,59 @@ package org.akvo.flow.data.database.cascade;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
 import android.util.SparseArray;
 
+import org.akvo.flow.database.cascade.CascadeSearchIndex;
 import org.akvo.flow.domain.Node;
+import org.akvo.flow.domain.NodePath;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import timber.log.Timber;
+
+/**
+ * Read access to a cascade resource. Children lists are kept in a bounded cache, so drilling
+ * down and re-opening saved responses do not query the same levels again, and small cascades
+ * can be loaded in memory altogether with preload(), from a background thread. Both survive
+ * close() and open().
+ */
 public class CascadeDB {
 
     private static final String TABLE_NODE = "nodes";
 
+    /**
+     * Number of nodes kept in the children cache
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * Cascades up to this size take a few hundred KB once preloaded
+     */
+    public static final int DEFAULT_PRELOAD_MAX_NODES = 20000;
+
     private final String mDBPath;
     private final Context mContext;
     private final NodeMapper nodeMapper = new NodeMapper();
+    private final CascadeNodeCache cache;
 
     private SQLiteDatabase mDatabase;
     private CascadeDatabaseHelper mHelper;
 
+    private volatile CascadeIndex index;
+
     public CascadeDB(Context context, String dbPath) {
+        this(context, dbPath, DEFAULT_CACHE_SIZE);
+    }
+
+    public CascadeDB(Context context, String dbPath, int cacheSize) {
         mContext = context;
         mDBPath = dbPath;
+        cache = new CascadeNodeCache(cacheSize);
     }
 
     public void open() throws SQLException {
@@ -61,8 +91,57 @@ public class CascadeDB {
         return mDatabase != null;
     }
 
+    /**
+     * Loads the whole cascade in memory if it has no more than maxNodes nodes. The nodes are
+     * read with a connection of their own, so this can run on a background thread while the
+     * cascade is in use: getValues() switches to the preloaded nodes once they are ready.
+     *
+     * @return true if the cascade is preloaded
+     */
+    public synchronized boolean preload(int maxNodes) {
+        if (index != null) {
+            return true;
+        }
+        CascadeDatabaseHelper helper = new CascadeDatabaseHelper(mContext, mDBPath);
+        try {
+            SQLiteDatabase database = helper.getReadableDatabase();
+            if (DatabaseUtils.queryNumEntries(database, TABLE_NODE) > maxNodes) {
+                return false;
+            }
+            Cursor c = database.query(TABLE_NODE, null, null, null, null, null,
+                    NodeColumns.PARENT + "," + NodeColumns.NAME);
+            if (c == null) {
+                return false;
+            }
+            index = nodeMapper.mapIndex(c);
+            return true;
+        } catch (SQLException e) {
+            Timber.w(e, "Could not preload cascade %s", mDBPath);
+            return false;
+        } catch (IllegalArgumentException e) {
+            // Parent ids not stored as integers, keep querying the database
+            Timber.w(e, "Could not preload cascade %s", mDBPath);
+            return false;
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * @return a new, mutable, list with the children of the given node, sorted by name
+     */
     public List<Node> getValues(long parent) {
-        List<Node> result = new ArrayList<>();
+        CascadeIndex preloaded = index;
+        if (preloaded != null) {
+            // Levels cached before the preload finished are no longer needed
+            cache.clear();
+            return preloaded.getChildren(parent);
+        }
+        List<Node> result = cache.get(parent);
+        if (result != null) {
+            return result;
+        }
+        result = new ArrayList<>();
         if (!isOpen()) {
             return result;
         }
@@ -73,10 +152,59 @@ public class CascadeDB {
 
         if (c != null) {
             result = nodeMapper.mapNodes(c);
+            cache.put(parent, result);
         }
         return result;
     }
 
+    /**
+     * Resources installed before the search index was introduced do not have one
+     */
+    public boolean hasSearchIndex() {
+        return isOpen() && CascadeSearchIndex.hasIndex(mDatabase);
+    }
+
+    /**
+     * Finds the nodes, at any level, with a name containing words starting with the words
+     * of the query
+     */
+    public List<NodePath> search(String query, int limit) {
+        List<NodePath> result = new ArrayList<>();
+        if (!hasSearchIndex()) {
+            return result;
+        }
+        Cursor c = CascadeSearchIndex.search(mDatabase, query, limit);
+        if (c == null) {
+            return result;
+        }
+        try {
+            while (c.moveToNext()) {
+                long parent = c.getLong(3);
+                Node node = new Node(c.getLong(0), c.getString(1), c.getString(2), parent);
+                result.add(new NodePath(node, mapAncestors(c.getString(4), c.getString(5))));
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    private List<Node> mapAncestors(String ancestorIds, String ancestorNames) {
+        List<Node> ancestors = new ArrayList<>();
+        if (TextUtils.isEmpty(ancestorIds)) {
+            return ancestors;
+        }
+        String[] ids = ancestorIds.split(CascadeSearchIndex.PATH_SEPARATOR);
+        String[] names = ancestorNames.split(CascadeSearchIndex.PATH_SEPARATOR, -1);
+        long parent = 0;
+        for (int i = 0; i < ids.length; i++) {
+            long id = Long.parseLong(ids[i]);
+            ancestors.add(new Node(id, i < names.length ? names[i] : "", null, parent));
+            parent = id;
+        }
+        return ancestors;
+    }
+
     public SparseArray<List<Node>> getValues() {
         SparseArray<List<Node>> result = new SparseArray<>();
         if (!isOpen()) {
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database.cascade;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * In-memory copy of a whole cascade, stored in parallel arrays sorted by parent (and name
+ * within each parent) so the children of a node are a contiguous range found with a binary
+ * search. Names and codes are concatenated into a single string each, only the offsets are
+ * kept per node.
+ */
+class CascadeIndex {
+
+    private final long[] ids;
+    private final long[] parents;
+    private final int[] nameOffsets;
+    private final String names;
+    private final int[] codeOffsets;
+    private final String codes;
+    private final BitSet nullCodes;
+
+    private CascadeIndex(long[] ids, long[] parents, int[] nameOffsets, String names,
+            int[] codeOffsets, String codes, BitSet nullCodes) {
+        this.ids = ids;
+        this.parents = parents;
+        this.nameOffsets = nameOffsets;
+        this.names = names;
+        this.codeOffsets = codeOffsets;
+        this.codes = codes;
+        this.nullCodes = nullCodes;
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return a new, mutable, list with the children of the given node, sorted by name
+     */
+    @NonNull
+    List<Node> getChildren(long parent) {
+        int start = firstChild(parent);
+        int end = start;
+        while (end < parents.length && parents[end] == parent) {
+            end++;
+        }
+        List<Node> children = new ArrayList<>(end - start + 1);
+        for (int i = start; i < end; i++) {
+            children.add(new Node(ids[i], name(i), code(i), parent));
+        }
+        return children;
+    }
+
+    private int firstChild(long parent) {
+        int low = 0;
+        int high = parents.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (parents[mid] < parent) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private String name(int position) {
+        return names.substring(nameOffsets[position], nameOffsets[position + 1]);
+    }
+
+    @Nullable
+    private String code(int position) {
+        if (nullCodes.get(position)) {
+            return null;
+        }
+        return codes.substring(codeOffsets[position], codeOffsets[position + 1]);
+    }
+
+    /**
+     * Nodes must be added sorted by parent id
+     */
+    static class Builder {
+
+        private long[] ids;
+        private long[] parents;
+        private int[] nameOffsets;
+        private int[] codeOffsets;
+        private final StringBuilder names = new StringBuilder();
+        private final StringBuilder codes = new StringBuilder();
+        private final BitSet nullCodes = new BitSet();
+        private int size;
+
+        Builder(int capacity) {
+            int initialCapacity = Math.max(capacity, 1);
+            ids = new long[initialCapacity];
+            parents = new long[initialCapacity];
+            nameOffsets = new int[initialCapacity + 1];
+            codeOffsets = new int[initialCapacity + 1];
+        }
+
+        Builder add(long id, @Nullable String name, @Nullable String code, long parent) {
+            if (size > 0 && parent < parents[size - 1]) {
+                throw new IllegalArgumentException("Nodes must be sorted by parent");
+            }
+            if (size == ids.length) {
+                grow();
+            }
+            ids[size] = id;
+            parents[size] = parent;
+            names.append(name == null ? "" : name);
+            nameOffsets[size + 1] = names.length();
+            if (code == null) {
+                nullCodes.set(size);
+            } else {
+                codes.append(code);
+            }
+            codeOffsets[size + 1] = codes.length();
+            size++;
+            return this;
+        }
+
+        CascadeIndex build() {
+            return new CascadeIndex(Arrays.copyOf(ids, size), Arrays.copyOf(parents, size),
+                    Arrays.copyOf(nameOffsets, size + 1), names.toString(),
+                    Arrays.copyOf(codeOffsets, size + 1), codes.toString(), nullCodes);
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+            codeOffsets = Arrays.copyOf(codeOffsets, capacity + 1);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database.cascade;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
+
+import org.akvo.flow.domain.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Least recently used cache of the children of cascade nodes, keyed by parent id without
+ * boxing. The size of the cache is the number of cached nodes (plus one per parent, so
+ * leaves without children count as well).
+ */
+class CascadeNodeCache {
+
+    private final LongSparseArray<Entry> entries = new LongSparseArray<>();
+    private final int maxSize;
+    private int size;
+
+    // Most recently used entry first
+    private Entry head;
+    private Entry tail;
+
+    CascadeNodeCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return a new, mutable, copy of the cached children or null if not cached
+     */
+    @Nullable
+    List<Node> get(long parent) {
+        Entry entry = entries.get(parent);
+        if (entry == null) {
+            return null;
+        }
+        moveToHead(entry);
+        return new ArrayList<>(entry.nodes);
+    }
+
+    void put(long parent, @NonNull List<Node> nodes) {
+        Entry entry = entries.get(parent);
+        if (entry != null) {
+            remove(entry);
+        }
+        entry = new Entry(parent, new ArrayList<>(nodes));
+        if (entry.size > maxSize) {
+            return;
+        }
+        entries.put(parent, entry);
+        addToHead(entry);
+        size += entry.size;
+        while (size > maxSize && tail != null) {
+            remove(tail);
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        head = null;
+        tail = null;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.parent);
+        unlink(entry);
+        size -= entry.size;
+    }
+
+    private void moveToHead(Entry entry) {
+        if (entry != head) {
+            unlink(entry);
+            addToHead(entry);
+        }
+    }
+
+    private void addToHead(Entry entry) {
+        entry.previous = null;
+        entry.next = head;
+        if (head != null) {
+            head.previous = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        } else {
+            tail = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    private static class Entry {
+        final long parent;
+        final List<Node> nodes;
+        final int size;
+        Entry previous;
+        Entry next;
+
+        Entry(long parent, List<Node> nodes) {
+            this.parent = parent;
+            this.nodes = nodes;
+            this.size = nodes.size() + 1;
+        }
+    }
+}
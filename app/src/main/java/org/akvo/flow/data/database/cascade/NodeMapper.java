@@ -38,9 +38,9 @@ class NodeMapper {
     List<Node> mapNodes(Cursor c) {
         List<Node> result = new ArrayList<Node>(c.getCount());
         if (c.moveToFirst()) {
-            final int codeCol = c.getColumnIndex(NodeColumns.CODE);
+            final ColumnIndexes columns = new ColumnIndexes(c);
             do {
-                Node node = mapNode(c, codeCol);
+                Node node = mapNode(c, columns);
                 result.add(node);
             } while (c.moveToNext());
         }
@@ -48,6 +48,24 @@ class NodeMapper {
         return result;
     }
 
+    /**
+     * The cursor must be sorted by parent
+     */
+    @NonNull
+    CascadeIndex mapIndex(Cursor c) {
+        CascadeIndex.Builder builder = new CascadeIndex.Builder(c.getCount());
+        if (c.moveToFirst()) {
+            final ColumnIndexes columns = new ColumnIndexes(c);
+            do {
+                builder.add(c.getLong(columns.id), c.getString(columns.name),
+                        columns.code > -1 ? c.getString(columns.code) : null,
+                        c.getLong(columns.parent));
+            } while (c.moveToNext());
+        }
+        c.close();
+        return builder.build();
+    }
+
     @NonNull
     SparseArray<List<Node>> nodesAsMap(Cursor c) {
         SparseArray<List<Node>> resultMap = new SparseArray<>();
@@ -65,11 +83,28 @@ class NodeMapper {
     }
 
     @NonNull
-    private Node mapNode(Cursor c, int codeColulumnIdx) {
-        Long id = c.getLong(c.getColumnIndex(NodeColumns.ID));
-        String name = c.getString(c.getColumnIndex(NodeColumns.NAME));
-        String code = codeColulumnIdx > -1 ? c.getString(codeColulumnIdx) : null;
-        long parent = c.getLong(c.getColumnIndex(NodeColumns.PARENT));
+    private Node mapNode(Cursor c, ColumnIndexes columns) {
+        long id = c.getLong(columns.id);
+        String name = c.getString(columns.name);
+        String code = columns.code > -1 ? c.getString(columns.code) : null;
+        long parent = c.getLong(columns.parent);
         return new Node(id, name, code, parent);
     }
+
+    /**
+     * Column positions are looked up once per cursor instead of once per row
+     */
+    private static class ColumnIndexes {
+        final int id;
+        final int name;
+        final int code;
+        final int parent;
+
+        ColumnIndexes(Cursor c) {
+            id = c.getColumnIndex(NodeColumns.ID);
+            name = c.getColumnIndex(NodeColumns.NAME);
+            code = c.getColumnIndex(NodeColumns.CODE);
+            parent = c.getColumnIndex(NodeColumns.PARENT);
+        }
+    }
 }
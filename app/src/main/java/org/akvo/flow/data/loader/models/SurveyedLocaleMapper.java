@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -23,8 +23,8 @@ package org.akvo.flow.data.loader.models;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
 
+import org.akvo.flow.database.RecordColumns;
 import org.akvo.flow.database.SurveyDbAdapter;
-import org.akvo.flow.database.SurveyInstanceColumns;
 import org.akvo.flow.domain.SurveyedLocale;
 
 public class SurveyedLocaleMapper {
@@ -44,7 +44,7 @@ public class SurveyedLocaleMapper {
             latitude = cursor.getDouble(SurveyDbAdapter.RecordQuery.LATITUDE);
             longitude = cursor.getDouble(SurveyDbAdapter.RecordQuery.LONGITUDE);
         }
-        int columnIndex = cursor.getColumnIndex(SurveyInstanceColumns.STATUS);
+        int columnIndex = cursor.getColumnIndex(RecordColumns.STATUS);
         int status = 0;
         if (columnIndex != -1) {
             status = cursor.getInt(columnIndex);
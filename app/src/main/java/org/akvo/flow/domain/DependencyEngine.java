@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.domain;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.serialization.response.value.OptionValue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Form level index of question dependencies.
+ * Each dependent question is registered once with its (already resolved) parent question ids,
+ * and the expected answers are split only once. When a response changes, only the questions
+ * reachable from it are re-evaluated, in topological order, and each response value is parsed
+ * at most once per change.
+ * A question is visible when, for every dependency, its parent is visible and the parent
+ * response contains one of the expected answers.
+ */
+public class DependencyEngine {
+
+    private static final String ANSWER_SEPARATOR = "\\|";
+
+    /**
+     * Extracts the option texts of a response value
+     */
+    public interface ValueParser {
+        @NonNull
+        Collection<String> parse(@NonNull String value);
+    }
+
+    public static final ValueParser OPTION_VALUE_PARSER = new ValueParser() {
+        @NonNull
+        @Override
+        public Collection<String> parse(@NonNull String value) {
+            List<Option> options = OptionValue.deserialize(value);
+            List<String> texts = new ArrayList<>(options.size());
+            for (Option option : options) {
+                texts.add(option.getText());
+            }
+            return texts;
+        }
+    };
+
+    private final ValueParser parser;
+
+    // Child question id -> dependencies of that question, keeps registration order
+    private final Map<String, List<Edge>> dependencies = new LinkedHashMap<>();
+    // Parent question id -> questions depending on it
+    private final Map<String, List<String>> dependents = new HashMap<>();
+    // Expected answers -> trimmed answer tokens, shared by all the questions using them
+    private final Map<String, Set<String>> answerSets = new HashMap<>();
+    private final Map<String, ParsedValue> parsedValues = new HashMap<>();
+    private final Set<String> hidden = new HashSet<>();
+
+    // Topological rank of each question, null when the graph has changed
+    private Map<String, Integer> ranks;
+
+    public DependencyEngine(ValueParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Registers (or replaces) the dependencies of a question. Parent question ids must already
+     * include the iteration for questions inside repeatable groups.
+     * A question with dependencies is hidden until it is evaluated.
+     */
+    public void setDependencies(@NonNull String questionId,
+            @Nullable List<Dependency> questionDependencies) {
+        removeQuestion(questionId);
+        if (questionDependencies == null || questionDependencies.isEmpty()) {
+            return;
+        }
+        List<Edge> edges = new ArrayList<>(questionDependencies.size());
+        for (Dependency dependency : questionDependencies) {
+            String parentId = dependency.getQuestion();
+            if (parentId == null || parentId.equals(questionId)) {
+                continue;
+            }
+            edges.add(new Edge(parentId, getAnswerSet(dependency.getAnswer())));
+            List<String> children = dependents.get(parentId);
+            if (children == null) {
+                children = new ArrayList<>();
+                dependents.put(parentId, children);
+            }
+            children.add(questionId);
+        }
+        if (!edges.isEmpty()) {
+            dependencies.put(questionId, edges);
+            hidden.add(questionId);
+        }
+        ranks = null;
+    }
+
+    /**
+     * Removes a question from the graph, its dependents will consider it as not answered
+     */
+    public void removeQuestion(@NonNull String questionId) {
+        List<Edge> edges = dependencies.remove(questionId);
+        if (edges != null) {
+            for (Edge edge : edges) {
+                List<String> children = dependents.get(edge.parentId);
+                if (children != null) {
+                    children.remove(questionId);
+                    if (children.isEmpty()) {
+                        dependents.remove(edge.parentId);
+                    }
+                }
+            }
+            ranks = null;
+        }
+        hidden.remove(questionId);
+        parsedValues.remove(questionId);
+    }
+
+    public boolean isVisible(@NonNull String questionId) {
+        return !hidden.contains(questionId);
+    }
+
+    /**
+     * Evaluates every registered question
+     *
+     * @return the ids of the questions whose visibility changed, in topological order
+     */
+    @NonNull
+    public List<String> evaluateAll(@NonNull Map<String, QuestionResponse> responses) {
+        return evaluate(dependencies.keySet(), responses);
+    }
+
+    /**
+     * Re-evaluates the questions depending, directly or not, on the given question
+     *
+     * @return the ids of the questions whose visibility changed, in topological order
+     */
+    @NonNull
+    public List<String> onResponseChanged(@NonNull String questionId,
+            @NonNull Map<String, QuestionResponse> responses) {
+        List<String> children = dependents.get(questionId);
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        return evaluate(children, responses);
+    }
+
+    private List<String> evaluate(Collection<String> seeds,
+            Map<String, QuestionResponse> responses) {
+        final Map<String, Integer> order = getRanks();
+        Queue<String> queue = new PriorityQueue<>(Math.max(seeds.size(), 1),
+                new Comparator<String>() {
+                    @Override
+                    public int compare(String q1, String q2) {
+                        return order.get(q1).compareTo(order.get(q2));
+                    }
+                });
+        Set<String> queued = new HashSet<>(seeds);
+        queue.addAll(seeds);
+
+        List<String> changed = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            String questionId = queue.poll();
+            boolean visible = areDependenciesSatisfied(questionId, responses);
+            if (visible == isVisible(questionId)) {
+                continue;
+            }
+            if (visible) {
+                hidden.remove(questionId);
+            } else {
+                hidden.add(questionId);
+            }
+            changed.add(questionId);
+
+            // Visibility of this question affects its own dependents
+            List<String> children = dependents.get(questionId);
+            if (children != null) {
+                for (String child : children) {
+                    if (queued.add(child)) {
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean areDependenciesSatisfied(String questionId,
+            Map<String, QuestionResponse> responses) {
+        List<Edge> edges = dependencies.get(questionId);
+        if (edges == null) {
+            return true;
+        }
+        for (Edge edge : edges) {
+            if (!isVisible(edge.parentId) || !matches(edge, responses.get(edge.parentId))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(Edge edge, @Nullable QuestionResponse response) {
+        if (response == null || !response.hasValue() || edge.answers.isEmpty()) {
+            return false;
+        }
+        for (String text : getParsedValue(edge.parentId, response.getValue())) {
+            if (edge.answers.contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> getParsedValue(String questionId, String value) {
+        ParsedValue parsedValue = parsedValues.get(questionId);
+        if (parsedValue == null || !parsedValue.value.equals(value)) {
+            Set<String> texts = new HashSet<>();
+            for (String text : parser.parse(value)) {
+                if (text != null) {
+                    texts.add(text.trim());
+                }
+            }
+            parsedValue = new ParsedValue(value, texts);
+            parsedValues.put(questionId, parsedValue);
+        }
+        return parsedValue.texts;
+    }
+
+    /**
+     * An empty set means the dependency can never be satisfied
+     */
+    private Set<String> getAnswerSet(@Nullable String answer) {
+        if (answer == null) {
+            return Collections.emptySet();
+        }
+        Set<String> answers = answerSets.get(answer);
+        if (answers == null) {
+            answers = new HashSet<>();
+            for (String token : answer.split(ANSWER_SEPARATOR, -1)) {
+                answers.add(token.trim());
+            }
+            answerSets.put(answer, answers);
+        }
+        return answers;
+    }
+
+    /**
+     * Kahn's algorithm over the registered questions. Questions in a cycle, which a valid form
+     * should not contain, are ranked last so evaluation always terminates.
+     */
+    private Map<String, Integer> getRanks() {
+        if (ranks != null) {
+            return ranks;
+        }
+        Map<String, Integer> inDegrees = new HashMap<>();
+        for (Map.Entry<String, List<Edge>> entry : dependencies.entrySet()) {
+            inDegrees.put(entry.getKey(), entry.getValue().size());
+        }
+        Queue<String> roots = new LinkedList<>();
+        for (String parentId : dependents.keySet()) {
+            if (!inDegrees.containsKey(parentId)) {
+                roots.add(parentId);
+            }
+        }
+
+        Map<String, Integer> computed = new HashMap<>();
+        int rank = 0;
+        while (!roots.isEmpty()) {
+            String questionId = roots.poll();
+            computed.put(questionId, rank++);
+            List<String> children = dependents.get(questionId);
+            if (children != null) {
+                for (String child : children) {
+                    int inDegree = inDegrees.get(child) - 1;
+                    inDegrees.put(child, inDegree);
+                    if (inDegree == 0) {
+                        roots.add(child);
+                    }
+                }
+            }
+        }
+        for (String questionId : dependencies.keySet()) {
+            if (!computed.containsKey(questionId)) {
+                computed.put(questionId, rank++);
+            }
+        }
+        ranks = computed;
+        return ranks;
+    }
+
+    private static class Edge {
+        final String parentId;
+        final Set<String> answers;
+
+        Edge(String parentId, Set<String> answers) {
+            this.parentId = parentId;
+            this.answers = answers;
+        }
+    }
+
+    private static class ParsedValue {
+        final String value;
+        final Set<String> texts;
+
+        ParsedValue(String value, Set<String> texts) {
+            this.value = value;
+            this.texts = texts;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.domain;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Cascade node found by a search, with the nodes leading to it from the root
+ */
+public class NodePath {
+
+    private final Node node;
+    private final List<Node> ancestors;
+
+    public NodePath(@NonNull Node node, @NonNull List<Node> ancestors) {
+        this.node = node;
+        this.ancestors = ancestors;
+    }
+
+    @NonNull
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * @return the ancestors of the node, root first. Their codes are not loaded.
+     */
+    @NonNull
+    public List<Node> getAncestors() {
+        return ancestors;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder path = new StringBuilder();
+        for (Node ancestor : ancestors) {
+            path.append(ancestor.getName()).append(" / ");
+        }
+        return path.append(node.getName()).toString();
+    }
+}
@@ -51,6 +51,10 @@ public class Option {
         altTextMap.put(altText.getLanguage(), altText);
     }
 
+    public HashMap<String, AltText> getAltTextMap() {
+        return altTextMap;
+    }
+
     public AltText getAltText(String lang) {
         return altTextMap.get(lang);
     }
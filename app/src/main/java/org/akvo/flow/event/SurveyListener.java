@@ -19,6 +19,7 @@
 
 package org.akvo.flow.event;
 
+import org.akvo.flow.domain.DependencyEngine;
 import org.akvo.flow.domain.QuestionGroup;
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.ui.view.QuestionView;
@@ -40,4 +41,11 @@ public interface SurveyListener {
     QuestionView getQuestionView(String questionId);
     String getDatapointId();
     String getFormId();
+    DependencyEngine getDependencyEngine();
+
+    /**
+     * Re-evaluates all the registered dependencies, to be called once question views have
+     * been added or removed
+     */
+    void evaluateDependencies();
 }
@@ -28,6 +28,7 @@ import com.squareup.sqlbrite2.BriteDatabase;
 import org.akvo.flow.app.FlowApp;
 import org.akvo.flow.broadcast.BootReceiver;
 import org.akvo.flow.broadcast.DataTimeoutReceiver;
+import org.akvo.flow.data.dao.SurveyCache;
 import org.akvo.flow.domain.executor.PostExecutionThread;
 import org.akvo.flow.domain.executor.ThreadExecutor;
 import org.akvo.flow.domain.repository.ApkRepository;
@@ -82,6 +83,8 @@ public interface ApplicationComponent {
 
     Gson gson();
 
+    SurveyCache surveyCache();
+
     void inject(FileChangeTrackingService fileChangeTrackingService);
 
     void inject(SurveyDownloadService surveyDownloadService);
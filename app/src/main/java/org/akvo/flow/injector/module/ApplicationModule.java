@@ -30,10 +30,13 @@ import com.squareup.sqlbrite2.SqlBrite;
 
 import org.akvo.flow.BuildConfig;
 import org.akvo.flow.app.FlowApp;
+import org.akvo.flow.data.dao.SurveyCache;
 import org.akvo.flow.data.datasource.preferences.SharedPreferencesDataSource;
 import org.akvo.flow.data.executor.JobExecutor;
 import org.akvo.flow.data.net.Encoder;
 import org.akvo.flow.data.net.HMACInterceptor;
+import org.akvo.flow.data.net.RequestMetrics;
+import org.akvo.flow.data.net.RequestMetricsListener;
 import org.akvo.flow.data.net.RestApi;
 import org.akvo.flow.data.net.RestServiceFactory;
 import org.akvo.flow.data.net.S3User;
@@ -70,7 +73,6 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
 
@@ -79,6 +81,7 @@ import dagger.Provides;
 import io.reactivex.schedulers.Schedulers;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
+import timber.log.Timber;
 
 @Module
 public class ApplicationModule {
@@ -88,11 +91,6 @@ public class ApplicationModule {
     private static final String TIMEZONE = "GMT";
     private static final String PREFS_NAME = "flow_prefs";
     private static final int PREFS_MODE = Context.MODE_PRIVATE;
-    private static final int CONNECTION_TIMEOUT = 10;
-    /**
-     * Requests to GAE take a long time especially when there are a lot of datapoints
-     */
-    private static final int NO_TIMEOUT = 0;
 
     private final FlowApp application;
 
@@ -190,16 +188,22 @@ public class ApplicationModule {
         SimpleDateFormat simpleDateFormat = new SimpleDateFormat(SERVICE_FACTORY_DATE_PATTERN,
                 Locale.US);
         simpleDateFormat.setTimeZone(TimeZone.getTimeZone(TIMEZONE));
-        OkHttpClient.Builder httpClient = createHttpClient(loggingInterceptor);
-        httpClient.addInterceptor(
-                new HMACInterceptor(BuildConfig.API_KEY, simpleDateFormat, encoder,
-                        signatureHelper));
-        OkHttpClient okHttpClientWithHmac = httpClient.build();
+        HMACInterceptor hmacInterceptor = new HMACInterceptor(BuildConfig.API_KEY,
+                simpleDateFormat, encoder, signatureHelper);
+        OkHttpClient baseClient = new OkHttpClient.Builder()
+                .addInterceptor(loggingInterceptor)
+                .build();
 
-        OkHttpClient.Builder httpClient2 = createHttpClient(loggingInterceptor);
-        OkHttpClient okHttpClient = httpClient2.build();
-
-        return new RestServiceFactory(okHttpClientWithHmac, okHttpClient);
+        RequestMetricsListener metricsListener = null;
+        if (BuildConfig.DEBUG) {
+            metricsListener = new RequestMetricsListener() {
+                @Override
+                public void onRequestMetrics(@NonNull RequestMetrics metrics) {
+                    Timber.d("Request metrics: %s", metrics);
+                }
+            };
+        }
+        return new RestServiceFactory(baseClient, hmacInterceptor, metricsListener);
     }
 
     @Provides
@@ -253,13 +257,9 @@ public class ApplicationModule {
         return new Gson();
     }
 
-    @NonNull
-    private OkHttpClient.Builder createHttpClient(
-            HttpLoggingInterceptor loggingInterceptor) {
-        OkHttpClient.Builder httpClient = new OkHttpClient.Builder();
-        httpClient.addInterceptor(loggingInterceptor);
-        httpClient.connectTimeout(CONNECTION_TIMEOUT, TimeUnit.SECONDS);
-        httpClient.readTimeout(NO_TIMEOUT, TimeUnit.SECONDS);
-        return httpClient;
+    @Provides
+    @Singleton
+    SurveyCache provideSurveyCache() {
+        return new SurveyCache(SurveyCache.DEFAULT_MAX_SIZE);
     }
 }
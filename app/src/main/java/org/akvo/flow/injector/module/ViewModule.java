@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2016-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2016-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -28,6 +28,7 @@ import org.akvo.flow.domain.interactor.CopyVideo;
 import org.akvo.flow.domain.interactor.DeleteSurvey;
 import org.akvo.flow.domain.interactor.ExportSurveyInstance;
 import org.akvo.flow.domain.interactor.GetAllSurveys;
+import org.akvo.flow.domain.interactor.GetDataPointClusters;
 import org.akvo.flow.domain.interactor.GetIsDeviceSetUp;
 import org.akvo.flow.domain.interactor.GetPublishDataTime;
 import org.akvo.flow.domain.interactor.GetSavedDataPoints;
@@ -80,6 +81,12 @@ public class ViewModule {
         return getSavedDataPoints;
     }
 
+    @Provides
+    @Named("getDataPointClusters")
+    UseCase provideGetDataPointClustersUseCase(GetDataPointClusters getDataPointClusters) {
+        return getDataPointClusters;
+    }
+
     @Provides
     @Named("getUserSettings")
     UseCase provideGetUserSettings(GetUserSettings getUserSettings) {
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -47,18 +47,26 @@ import java.util.List;
 
 class DataPointListAdapter extends BaseAdapter {
 
+    /**
+     * Number of data points left to display when the next page is requested
+     */
+    private static final int LOAD_MORE_THRESHOLD = 10;
+
     private Double latitude;
     private Double longitude;
     private final LayoutInflater inflater;
     private final String dataLabel;
     private final List<ListDataPoint> dataPoints;
+    private final LoadMoreListener loadMoreListener;
 
     DataPointListAdapter(Context context, @Nullable Double latitude,
-            @Nullable Double longitude, SurveyGroup surveyGroup) {
+            @Nullable Double longitude, SurveyGroup surveyGroup,
+            LoadMoreListener loadMoreListener) {
         this.latitude = latitude;
         this.longitude = longitude;
         this.inflater = LayoutInflater.from(context);
         this.dataLabel = context.getString(getDateLabel(surveyGroup));
+        this.loadMoreListener = loadMoreListener;
         dataPoints = new ArrayList<>();
     }
 
@@ -103,6 +111,10 @@ class DataPointListAdapter extends BaseAdapter {
         TextView statusView = (TextView) view.findViewById(R.id.status);
         ImageView statusImage = (ImageView) view.findViewById(R.id.status_img);
 
+        if (position >= getCount() - LOAD_MORE_THRESHOLD) {
+            loadMoreListener.onLoadMore();
+        }
+
         final ListDataPoint dataPoint = getItem(position);
         Context context = parent.getContext();
         int status = dataPoint.getStatus();
@@ -185,8 +197,18 @@ class DataPointListAdapter extends BaseAdapter {
         notifyDataSetChanged();
     }
 
+    void addDataPoints(List<ListDataPoint> dataPoints) {
+        this.dataPoints.addAll(dataPoints);
+        notifyDataSetChanged();
+    }
+
     void updateLocation(double latitude, double longitude) {
         this.latitude = latitude;
         this.longitude = longitude;
     }
+
+    interface LoadMoreListener {
+
+        void onLoadMore();
+    }
 }
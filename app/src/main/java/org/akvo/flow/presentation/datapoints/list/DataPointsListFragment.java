@@ -166,7 +166,13 @@ public class DataPointsListFragment extends Fragment implements LocationListener
         emptyIv = view.findViewById(R.id.empty_iv);
         SurveyGroup surveyGroup = (SurveyGroup) getArguments()
                 .getSerializable(ConstantUtil.SURVEY_GROUP_EXTRA);
-        mAdapter = new DataPointListAdapter(getActivity(), mLatitude, mLongitude, surveyGroup);
+        mAdapter = new DataPointListAdapter(getActivity(), mLatitude, mLongitude, surveyGroup,
+                new DataPointListAdapter.LoadMoreListener() {
+                    @Override
+                    public void onLoadMore() {
+                        presenter.onLoadMore();
+                    }
+                });
         listView.setAdapter(mAdapter);
         listView.setOnItemClickListener(this);
         progressBar = view.findViewById(R.id.progress);
@@ -433,6 +439,13 @@ public class DataPointsListFragment extends Fragment implements LocationListener
         }
     }
 
+    @Override
+    public void appendData(List<ListDataPoint> listDataPoints) {
+        if (mAdapter != null) {
+            mAdapter.addDataPoints(listDataPoints);
+        }
+    }
+
     @Override
     public void showErrorMissingLocation() {
         //TODO: should we prompt the user to enable location?
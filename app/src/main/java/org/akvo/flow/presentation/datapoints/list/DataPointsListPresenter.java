@@ -21,6 +21,7 @@
 package org.akvo.flow.presentation.datapoints.list;
 
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 
 import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.domain.entity.DataPoint;
@@ -48,10 +49,13 @@ import javax.inject.Named;
 
 import timber.log.Timber;
 
+import static org.akvo.flow.domain.entity.DownloadResult.ResultCode.IN_PROGRESS;
 import static org.akvo.flow.domain.entity.DownloadResult.ResultCode.SUCCESS;
 
 public class DataPointsListPresenter implements Presenter {
 
+    private static final int PAGE_SIZE = 50;
+
     private final UseCase getSavedDataPoints;
     private final DownloadDataPoints downloadDataPoints;
     private final UseCase checkDeviceNotification;
@@ -63,6 +67,13 @@ public class DataPointsListPresenter implements Presenter {
     private int orderBy = ConstantUtil.ORDER_BY_DATE;
     private Double latitude;
     private Double longitude;
+    private String filter;
+
+    private DataPoint lastDataPoint;
+    private int loadedCount;
+    private int window;
+    private boolean loadingPage;
+    private boolean hasMorePages;
 
     @Inject
     DataPointsListPresenter(@Named("getSavedDataPoints") UseCase getSavedDataPoints,
@@ -94,65 +105,114 @@ public class DataPointsListPresenter implements Presenter {
     }
 
     void loadDataPoints() {
-        getSavedDataPoints.dispose();
-        if (surveyGroup != null) {
-            Map<String, Object> params = new HashMap<>(8);
-            params.put(GetSavedDataPoints.KEY_SURVEY_GROUP_ID, surveyGroup.getId());
-            params.put(GetSavedDataPoints.KEY_ORDER_BY, orderBy);
-            params.put(GetSavedDataPoints.KEY_LATITUDE, latitude);
-            params.put(GetSavedDataPoints.KEY_LONGITUDE, longitude);
-            getSavedDataPoints.execute(new DefaultObserver<List<DataPoint>>() {
+        filter = null;
+        loadWindow(PAGE_SIZE);
+    }
 
-                @Override
-                public void onError(Throwable e) {
-                    Timber.e(e, "Error loading saved datapoints");
-                    view.displayData(Collections.EMPTY_LIST);
-                    view.showNoDataPoints(surveyGroup.isMonitored());
-                }
+    void getFilteredDataPoints(String filter) {
+        this.filter = filter;
+        loadWindow(PAGE_SIZE);
+    }
 
-                @Override
-                public void onNext(List<DataPoint> dataPoints) {
-                    List<ListDataPoint> mapDataPoints = mapper.transform(dataPoints);
-                    view.displayData(mapDataPoints);
-                    if (mapDataPoints.isEmpty()) {
-                        view.showNoDataPoints(surveyGroup.isMonitored());
-                    }
-                }
-            }, params);
-        } else {
+    /**
+     * Loads the first data points and keeps them up to date. When they change after more pages
+     * have been loaded, all the loaded data points are reloaded so the list keeps its position.
+     */
+    private void loadWindow(final int windowSize) {
+        getSavedDataPoints.dispose();
+        window++;
+        loadedCount = 0;
+        loadingPage = false;
+        hasMorePages = false;
+        if (surveyGroup == null) {
             noSurveySelected();
+            return;
         }
+        Map<String, Object> params = createParams();
+        params.put(GetSavedDataPoints.KEY_PAGE_SIZE, windowSize);
+        getSavedDataPoints.execute(new DefaultObserver<List<DataPoint>>() {
+
+            @Override
+            public void onError(Throwable e) {
+                Timber.e(e, "Error loading saved datapoints");
+                view.displayData(Collections.EMPTY_LIST);
+                showEmptyList();
+            }
+
+            @Override
+            public void onNext(List<DataPoint> dataPoints) {
+                if (loadedCount > windowSize) {
+                    loadWindow(loadedCount);
+                    return;
+                }
+                window++;
+                loadedCount = dataPoints.size();
+                updatePaging(dataPoints, windowSize);
+                List<ListDataPoint> listDataPoints = mapper.transform(dataPoints);
+                view.displayData(listDataPoints);
+                if (listDataPoints.isEmpty()) {
+                    showEmptyList();
+                }
+            }
+        }, params);
     }
 
-    void getFilteredDataPoints(String filter) {
-        getSavedDataPoints.dispose();
-        if (surveyGroup != null) {
-            Map<String, Object> params = new HashMap<>(8);
-            params.put(GetSavedDataPoints.KEY_SURVEY_GROUP_ID, surveyGroup.getId());
-            params.put(GetSavedDataPoints.KEY_ORDER_BY, orderBy);
-            params.put(GetSavedDataPoints.KEY_LATITUDE, latitude);
-            params.put(GetSavedDataPoints.KEY_LONGITUDE, longitude);
-            params.put(GetSavedDataPoints.KEY_FILTER, filter);
-            getSavedDataPoints.execute(new DefaultObserver<List<DataPoint>>() {
+    void onLoadMore() {
+        if (loadingPage || !hasMorePages || surveyGroup == null) {
+            return;
+        }
+        loadingPage = true;
+        final int pageWindow = window;
+        Map<String, Object> params = createParams();
+        params.put(GetSavedDataPoints.KEY_PAGE_SIZE, PAGE_SIZE);
+        params.put(GetSavedDataPoints.KEY_AFTER, lastDataPoint);
+        getSavedDataPoints.execute(new DefaultObserver<List<DataPoint>>() {
 
-                @Override
-                public void onError(Throwable e) {
-                    Timber.e(e, "Error loading saved datapoints");
-                    view.displayData(Collections.EMPTY_LIST);
-                    view.displayNoSearchResultsFound();
+            @Override
+            public void onError(Throwable e) {
+                Timber.e(e, "Error loading saved datapoints page");
+                if (pageWindow == window) {
+                    loadingPage = false;
+                    hasMorePages = false;
                 }
+            }
 
-                @Override
-                public void onNext(List<DataPoint> dataPoints) {
-                    List<ListDataPoint> listDataPoints = mapper.transform(dataPoints);
-                    view.displayData(listDataPoints);
-                    if (listDataPoints.isEmpty()) {
-                        view.displayNoSearchResultsFound();
-                    }
+            @Override
+            public void onNext(List<DataPoint> dataPoints) {
+                if (pageWindow != window) {
+                    // The first data points were reloaded in the meantime
+                    return;
                 }
-            }, params);
+                loadingPage = false;
+                loadedCount += dataPoints.size();
+                updatePaging(dataPoints, PAGE_SIZE);
+                view.appendData(mapper.transform(dataPoints));
+            }
+        }, params);
+    }
+
+    private Map<String, Object> createParams() {
+        Map<String, Object> params = new HashMap<>(8);
+        params.put(GetSavedDataPoints.KEY_SURVEY_GROUP_ID, surveyGroup.getId());
+        params.put(GetSavedDataPoints.KEY_ORDER_BY, orderBy);
+        params.put(GetSavedDataPoints.KEY_LATITUDE, latitude);
+        params.put(GetSavedDataPoints.KEY_LONGITUDE, longitude);
+        params.put(GetSavedDataPoints.KEY_FILTER, filter);
+        return params;
+    }
+
+    private void updatePaging(List<DataPoint> dataPoints, int pageSize) {
+        hasMorePages = dataPoints.size() == pageSize;
+        if (!dataPoints.isEmpty()) {
+            lastDataPoint = dataPoints.get(dataPoints.size() - 1);
+        }
+    }
+
+    private void showEmptyList() {
+        if (TextUtils.isEmpty(filter)) {
+            view.showNoDataPoints(surveyGroup.isMonitored());
         } else {
-            noSurveySelected();
+            view.displayNoSearchResultsFound();
         }
     }
 
@@ -183,6 +243,10 @@ public class DataPointsListPresenter implements Presenter {
 
             @Override
             public void onNext(DownloadResult result) {
+                if (result.getResultCode() == IN_PROGRESS) {
+                    // Synced data points are displayed as they are saved
+                    return;
+                }
                 if (result.getResultCode() == SUCCESS) {
                     if (result.getNumberOfSyncedItems() > 0) {
                         view.showSyncedResults(result.getNumberOfSyncedItems());
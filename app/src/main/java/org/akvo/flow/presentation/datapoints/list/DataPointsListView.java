@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -40,6 +40,8 @@ interface DataPointsListView {
 
     void displayData(List<ListDataPoint> listDataPoints);
 
+    void appendData(List<ListDataPoint> listDataPoints);
+
     void showErrorMissingLocation();
 
     void showNoSurveySelected();
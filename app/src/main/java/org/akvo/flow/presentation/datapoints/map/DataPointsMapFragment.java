@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -46,11 +46,14 @@ import com.google.android.gms.maps.GoogleMap.OnInfoWindowClickListener;
 import com.google.android.gms.maps.GoogleMapOptions;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
-import com.google.maps.android.clustering.ClusterManager;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.maps.android.ui.IconGenerator;
 
 import org.akvo.flow.R;
 import org.akvo.flow.app.FlowApp;
@@ -64,15 +67,19 @@ import org.akvo.flow.ui.Navigator;
 import org.akvo.flow.ui.fragment.RecordListListener;
 import org.akvo.flow.util.ConstantUtil;
 
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 
 public class DataPointsMapFragment extends SupportMapFragment implements OnInfoWindowClickListener,
-        OnMapReadyCallback, DataPointsMapView {
+        GoogleMap.OnMarkerClickListener, OnMapReadyCallback, DataPointsMapView {
 
     private static final int MAP_ZOOM_LEVEL = 10;
+    private static final int CLUSTER_ZOOM_STEP = 2;
+    private static final int MAX_CLUSTER_ICONS = 200;
     private static final String MAP_OPTIONS = "MapOptions";
 
     @Inject
@@ -87,7 +94,15 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
     @Nullable
     private RecordListListener mListener;
 
-    private List<MapDataPoint> mItems;
+    /**
+     * Markers displayed, by data point id or by cluster position and size
+     */
+    private final Map<String, Marker> markers = new HashMap<>();
+    private final Map<Marker, MapDataPoint> markerItems = new HashMap<>();
+    private final Map<Integer, BitmapDescriptor> clusterIcons = new HashMap<>();
+
+    @Nullable
+    private IconGenerator clusterIconGenerator;
 
     @Nullable
     private ProgressBar progressBar;
@@ -95,7 +110,6 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
     @Nullable
     private GoogleMap mMap;
 
-    private ClusterManager<MapDataPoint> mClusterManager;
     private boolean activityJustCreated;
     private Integer menuRes = null;
 
@@ -113,7 +127,6 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mItems = new ArrayList<>();
         setHasOptionsMenu(true);
     }
 
@@ -174,7 +187,7 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
     public void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
         configMap();
-        presenter.onViewReady();
+        updateViewport();
     }
 
     private void configMap() {
@@ -184,13 +197,13 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
                 mMap.setMyLocationEnabled(true);
             }
             mMap.setOnInfoWindowClickListener(this);
-            mClusterManager = new ClusterManager<>(activity, mMap);
-            mClusterManager.setRenderer(new PointRenderer(mMap, activity, mClusterManager));
-            mMap.setOnMarkerClickListener(mClusterManager);
+            mMap.setOnMarkerClickListener(this);
+            clusterIconGenerator = new IconGenerator(activity);
+            clusterIconGenerator.setStyle(IconGenerator.STYLE_BLUE);
             mMap.setOnCameraChangeListener(new GoogleMap.OnCameraChangeListener() {
                 @Override
                 public void onCameraChange(CameraPosition cameraPosition) {
-                    cluster();
+                    updateViewport();
                 }
             });
             centerMapOnUserLocation();
@@ -203,35 +216,14 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
                 Manifest.permission.ACCESS_FINE_LOCATION) == PermissionChecker.PERMISSION_GRANTED;
     }
 
-    private void cluster() {
+    private void updateViewport() {
         if (mMap == null) {
             return;
         }
-
-        final LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
-        LatLng ne = bounds.northeast;
-        LatLng sw = bounds.southwest;
-        double latDst = Math.abs(ne.latitude - sw.latitude);
-        double lonDst = Math.abs(ne.longitude - sw.longitude);
-
-        final double scale = 1d;
-        LatLngBounds newBounds =
-                bounds.including(
-                        new LatLng(ne.latitude + latDst / scale, ne.longitude + lonDst / scale))
-                        .including(new LatLng(sw.latitude - latDst / scale,
-                                ne.longitude + lonDst / scale))
-                        .including(new LatLng(sw.latitude - latDst / scale,
-                                sw.longitude - lonDst / scale))
-                        .including(new LatLng(ne.latitude + latDst / scale,
-                                sw.longitude - lonDst / scale));
-
-        mClusterManager.clearItems();
-        for (MapDataPoint item : mItems) {
-            if (item.getPosition() != null && newBounds.contains(item.getPosition())) {
-                mClusterManager.addItem(item);
-            }
-        }
-        mClusterManager.cluster();
+        LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        presenter.onViewportChanged(mMap.getCameraPosition().zoom, bounds.southwest.latitude,
+                bounds.southwest.longitude, bounds.northeast.latitude,
+                bounds.northeast.longitude);
     }
 
     private void centerMapOnUserLocation() {
@@ -319,6 +311,20 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
         }
     }
 
+    /**
+     * Zooms in on the clusters, the data points show their info window
+     */
+    @Override
+    public boolean onMarkerClick(Marker marker) {
+        MapDataPoint item = markerItems.get(marker);
+        if (mMap == null || item == null || !item.isCluster()) {
+            return false;
+        }
+        mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(item.getPosition(),
+                mMap.getCameraPosition().zoom + CLUSTER_ZOOM_STEP));
+        return true;
+    }
+
     @Override
     public void onInfoWindowClick(Marker marker) {
         final String surveyedLocaleId = marker.getSnippet();
@@ -329,9 +335,57 @@ public class DataPointsMapFragment extends SupportMapFragment implements OnInfoW
 
     @Override
     public void displayData(List<MapDataPoint> surveyedLocales) {
-        mItems.clear();
-        mItems.addAll(surveyedLocales);
-        cluster();
+        if (mMap == null) {
+            return;
+        }
+        // Markers which are still displayed are kept as they are, to avoid flickering
+        Map<String, MapDataPoint> items = new HashMap<>(surveyedLocales.size());
+        for (MapDataPoint item : surveyedLocales) {
+            items.put(getMarkerKey(item), item);
+        }
+        Iterator<Map.Entry<String, Marker>> iterator = markers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Marker> entry = iterator.next();
+            if (items.remove(entry.getKey()) == null) {
+                markerItems.remove(entry.getValue());
+                entry.getValue().remove();
+                iterator.remove();
+            }
+        }
+        for (Map.Entry<String, MapDataPoint> entry : items.entrySet()) {
+            MapDataPoint item = entry.getValue();
+            MarkerOptions options = new MarkerOptions().position(item.getPosition());
+            if (item.isCluster()) {
+                options.icon(getClusterIcon(item.getCount())).anchor(0.5f, 0.5f);
+            } else {
+                options.title(item.getName()).snippet(item.getId());
+            }
+            Marker marker = mMap.addMarker(options);
+            markers.put(entry.getKey(), marker);
+            markerItems.put(marker, item);
+        }
+    }
+
+    private String getMarkerKey(MapDataPoint item) {
+        if (item.isCluster()) {
+            return item.getCount() + "@" + item.getPosition().latitude + ","
+                    + item.getPosition().longitude;
+        }
+        return item.getId() + "@" + item.getPosition().latitude + ","
+                + item.getPosition().longitude + "," + item.getName();
+    }
+
+    private BitmapDescriptor getClusterIcon(int count) {
+        BitmapDescriptor icon = clusterIcons.get(count);
+        if (icon == null && clusterIconGenerator != null) {
+            if (clusterIcons.size() == MAX_CLUSTER_ICONS) {
+                clusterIcons.clear();
+            }
+            icon = BitmapDescriptorFactory
+                    .fromBitmap(clusterIconGenerator.makeIcon(String.valueOf(count)));
+            clusterIcons.put(count, icon);
+        }
+        return icon;
     }
 
     @Override
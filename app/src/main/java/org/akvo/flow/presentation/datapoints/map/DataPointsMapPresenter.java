@@ -23,13 +23,13 @@ package org.akvo.flow.presentation.datapoints.map;
 import android.support.annotation.NonNull;
 
 import org.akvo.flow.domain.SurveyGroup;
-import org.akvo.flow.domain.entity.DataPoint;
 import org.akvo.flow.domain.entity.DownloadResult;
+import org.akvo.flow.domain.entity.PointCluster;
 import org.akvo.flow.domain.interactor.DefaultFlowableObserver;
 import org.akvo.flow.domain.interactor.DefaultObserver;
 import org.akvo.flow.domain.interactor.DownloadDataPoints;
 import org.akvo.flow.domain.interactor.ErrorComposable;
-import org.akvo.flow.domain.interactor.GetSavedDataPoints;
+import org.akvo.flow.domain.interactor.GetDataPointClusters;
 import org.akvo.flow.domain.interactor.UseCase;
 import org.akvo.flow.domain.util.Constants;
 import org.akvo.flow.presentation.Presenter;
@@ -46,24 +46,36 @@ import javax.inject.Named;
 
 import timber.log.Timber;
 
+import static org.akvo.flow.domain.entity.DownloadResult.ResultCode.IN_PROGRESS;
 import static org.akvo.flow.domain.entity.DownloadResult.ResultCode.SUCCESS;
 
 public class DataPointsMapPresenter implements Presenter {
 
+    private static final double WORLD_LONGITUDES = 360;
+
     private final MapDataPointMapper mapper;
     private final DownloadDataPoints downloadDataPoints;
-    private final UseCase getSavedDataPoints;
+    private final UseCase getDataPointClusters;
     private final UseCase checkDeviceNotification;
     private final UseCase upload;
 
     private DataPointsMapView view;
     private SurveyGroup surveyGroup;
 
-    @Inject DataPointsMapPresenter(@Named("getSavedDataPoints") UseCase getSavedDataPoints,
+    /**
+     * Bounds of the loaded clusters: south, west, north, east. The clusters of the visible
+     * region are loaded with a margin of one region on each side, so that panning does not
+     * reload them every time, and again when the zoom level changes.
+     */
+    private double[] loadedBounds;
+    private int loadedZoom;
+
+    @Inject DataPointsMapPresenter(
+            @Named("getDataPointClusters") UseCase getDataPointClusters,
             MapDataPointMapper mapper, DownloadDataPoints downloadDataPoints,
             @Named("checkDeviceNotification") UseCase checkDeviceNotification,
             @Named("uploadSync") UseCase upload) {
-        this.getSavedDataPoints = getSavedDataPoints;
+        this.getDataPointClusters = getDataPointClusters;
         this.mapper = mapper;
         this.downloadDataPoints = downloadDataPoints;
         this.checkDeviceNotification = checkDeviceNotification;
@@ -87,40 +99,110 @@ public class DataPointsMapPresenter implements Presenter {
         }
     }
 
-    void onViewReady() {
-        loadDataPoints();
+    /**
+     * Loads the clusters around the visible region at the zoom of the map, unless they are
+     * already loaded. West is greater than east when the region crosses the antimeridian.
+     */
+    void onViewportChanged(float zoom, double south, double west, double north, double east) {
+        int zoomLevel = (int) zoom;
+        if (loadedBounds != null && loadedZoom == zoomLevel
+                && contains(loadedBounds, south, west, north, east)) {
+            return;
+        }
+        double latitudeSpan = north - south;
+        double longitudeSpan = getLongitudeSpan(west, east);
+        if (longitudeSpan * 3 >= WORLD_LONGITUDES) {
+            west = -180;
+            east = 180;
+        } else {
+            west = normalizeLongitude(west - longitudeSpan);
+            east = normalizeLongitude(east + longitudeSpan);
+        }
+        loadedBounds = new double[] {
+                Math.max(south - latitudeSpan, -90), west,
+                Math.min(north + latitudeSpan, 90), east
+        };
+        loadedZoom = zoomLevel;
+        loadClusters(false);
     }
 
+    /**
+     * Builds the clusters again from the saved data points, which may have changed while the
+     * map was not visible
+     */
     void loadDataPoints() {
-        getSavedDataPoints.dispose();
-        if (surveyGroup != null) {
-            Map<String, Object> params = new HashMap<>(2);
-            params.put(GetSavedDataPoints.KEY_SURVEY_GROUP_ID, surveyGroup.getId());
-            getSavedDataPoints.execute(new DefaultObserver<List<DataPoint>>() {
+        loadClusters(true);
+    }
+
+    private void loadClusters(boolean reload) {
+        getDataPointClusters.dispose();
+        if (surveyGroup != null && loadedBounds != null) {
+            Map<String, Object> params = new HashMap<>(14);
+            params.put(GetDataPointClusters.KEY_SURVEY_GROUP_ID, surveyGroup.getId());
+            params.put(GetDataPointClusters.KEY_RELOAD, reload);
+            params.put(GetDataPointClusters.KEY_ZOOM, (double) loadedZoom);
+            params.put(GetDataPointClusters.KEY_SOUTH, loadedBounds[0]);
+            params.put(GetDataPointClusters.KEY_WEST, loadedBounds[1]);
+            params.put(GetDataPointClusters.KEY_NORTH, loadedBounds[2]);
+            params.put(GetDataPointClusters.KEY_EAST, loadedBounds[3]);
+            getDataPointClusters.execute(new DefaultObserver<List<PointCluster>>() {
                 @Override
                 public void onError(Throwable e) {
                     Timber.e(e, "Error loading saved datapoints");
                 }
 
                 @Override
-                public void onNext(List<DataPoint> dataPoints) {
-                    List<MapDataPoint> mapDataPoints = mapper.transform(dataPoints);
+                public void onNext(List<PointCluster> clusters) {
+                    List<MapDataPoint> mapDataPoints = mapper.transform(clusters);
                     view.displayData(mapDataPoints);
                 }
             }, params);
         }
     }
 
+    private static boolean contains(double[] bounds, double south, double west, double north,
+            double east) {
+        if (south < bounds[0] || north > bounds[2]) {
+            return false;
+        }
+        double boundsSpan = getLongitudeSpan(bounds[1], bounds[3]);
+        if (boundsSpan >= WORLD_LONGITUDES) {
+            return true;
+        }
+        double offset = getLongitudeSpan(bounds[1], west);
+        return offset + getLongitudeSpan(west, east) <= boundsSpan;
+    }
+
+    /**
+     * Degrees from west to east, going east
+     */
+    private static double getLongitudeSpan(double west, double east) {
+        if (west == -180 && east == 180) {
+            return WORLD_LONGITUDES;
+        }
+        return east >= west ? east - west : east + WORLD_LONGITUDES - west;
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude < -180) {
+            return longitude + WORLD_LONGITUDES;
+        }
+        if (longitude > 180) {
+            return longitude - WORLD_LONGITUDES;
+        }
+        return longitude;
+    }
+
     @Override
     public void destroy() {
-        getSavedDataPoints.dispose();
+        getDataPointClusters.dispose();
         downloadDataPoints.dispose();
         checkDeviceNotification.dispose();
         upload.dispose();
     }
 
     public void onNewSurveySelected(SurveyGroup surveyGroup) {
-        getSavedDataPoints.dispose();
+        getDataPointClusters.dispose();
         downloadDataPoints.dispose();
         view.hideProgress();
         onDataReady(surveyGroup);
@@ -147,6 +229,10 @@ public class DataPointsMapPresenter implements Presenter {
             public void onNext(DownloadResult result) {
                 Timber.d("onNext datapoint sync: synced : %d", result.getNumberOfSyncedItems());
 
+                if (result.getResultCode() == IN_PROGRESS) {
+                    // Synced data points are displayed as they are saved
+                    return;
+                }
                 if (result.getResultCode() == SUCCESS) {
                     if (result.getNumberOfSyncedItems() > 0) {
                         view.showSyncedResults(result.getNumberOfSyncedItems());
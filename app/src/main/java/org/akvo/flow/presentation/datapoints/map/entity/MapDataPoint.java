@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -21,18 +21,22 @@
 package org.akvo.flow.presentation.datapoints.map.entity;
 
 import com.google.android.gms.maps.model.LatLng;
-import com.google.maps.android.clustering.ClusterItem;
 
-public class MapDataPoint implements ClusterItem {
+/**
+ * Marker of the map, either a single data point or a cluster of data points without id
+ */
+public class MapDataPoint {
 
     private final String id;
     private final String name;
     private final LatLng position;
+    private final int count;
 
-    public MapDataPoint(String id, String name, LatLng position) {
+    public MapDataPoint(String id, String name, LatLng position, int count) {
         this.id = id;
         this.name = name;
         this.position = position;
+        this.count = count;
     }
 
     public String getId() {
@@ -43,18 +47,15 @@ public class MapDataPoint implements ClusterItem {
         return name;
     }
 
-    @Override
     public LatLng getPosition() {
         return position;
     }
 
-    @Override
-    public String getTitle() {
-        return name;
+    public int getCount() {
+        return count;
     }
 
-    @Override
-    public String getSnippet() {
-        return id;
+    public boolean isCluster() {
+        return id == null;
     }
 }
@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.serialization.form;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.AltText;
+import org.akvo.flow.domain.Dependency;
+import org.akvo.flow.domain.Level;
+import org.akvo.flow.domain.Option;
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.QuestionHelp;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.domain.SurveyGroup;
+import org.akvo.flow.domain.ValidationRule;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary snapshot of a parsed {@link Survey} graph. Reading a snapshot avoids the SAX pass
+ * over the form xml, which is the most expensive part of opening a big form.
+ * The header stores the survey version and the size and modification date of the source xml,
+ * so a snapshot that does not match the installed xml is reported as stale and ignored.
+ */
+public class SurveySnapshotSerializer {
+
+    /**
+     * Increase every time the layout below changes, so older snapshots are discarded
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x464c4f57; // "FLOW"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * @param version            installed version of the survey, as stored in the database
+     * @param sourceLength       size of the xml the survey was parsed from
+     * @param sourceLastModified modification date of the xml the survey was parsed from
+     */
+    public void write(@NonNull Survey survey, double version, long sourceLength,
+            long sourceLastModified, @NonNull DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeDouble(version);
+        out.writeLong(sourceLength);
+        out.writeLong(sourceLastModified);
+
+        out.writeDouble(survey.getVersion());
+        writeString(out, survey.getId());
+        writeString(out, survey.getName());
+        writeString(out, survey.getLanguage());
+        writeString(out, survey.getSourceSurveyId());
+        writeString(out, survey.getApp());
+        writeSurveyGroup(out, survey.getSurveyGroup());
+
+        List<QuestionGroup> groups = survey.getQuestionGroups();
+        out.writeInt(groups.size());
+        for (QuestionGroup group : groups) {
+            writeQuestionGroup(out, group);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the survey stored in the snapshot or null if the snapshot does not match the
+     * given version and source file
+     */
+    @Nullable
+    public Survey read(@NonNull DataInputStream in, double version, long sourceLength,
+            long sourceLastModified) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                || in.readDouble() != version || in.readLong() != sourceLength
+                || in.readLong() != sourceLastModified) {
+            return null;
+        }
+
+        Survey survey = new Survey();
+        survey.setVersion(in.readDouble());
+        survey.setId(readString(in));
+        survey.setName(readString(in));
+        survey.setLanguage(readString(in));
+        survey.setSourceSurveyId(readString(in));
+        survey.setApp(readString(in));
+        survey.setSurveyGroup(readSurveyGroup(in));
+
+        int groupCount = in.readInt();
+        for (int i = 0; i < groupCount; i++) {
+            survey.addQuestionGroup(readQuestionGroup(in));
+        }
+        return survey;
+    }
+
+    private void writeSurveyGroup(DataOutputStream out, SurveyGroup surveyGroup)
+            throws IOException {
+        out.writeBoolean(surveyGroup != null);
+        if (surveyGroup != null) {
+            out.writeLong(surveyGroup.getId());
+            writeString(out, surveyGroup.getName());
+            writeString(out, surveyGroup.getRegisterSurveyId());
+            out.writeBoolean(surveyGroup.isMonitored());
+        }
+    }
+
+    @Nullable
+    private SurveyGroup readSurveyGroup(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        long id = in.readLong();
+        String name = readString(in);
+        String registerSurveyId = readString(in);
+        boolean monitored = in.readBoolean();
+        return new SurveyGroup(id, name, registerSurveyId, monitored);
+    }
+
+    private void writeQuestionGroup(DataOutputStream out, QuestionGroup group)
+            throws IOException {
+        out.writeInt(group.getOrder());
+        writeString(out, group.getHeading());
+        out.writeBoolean(group.isRepeatable());
+        List<Question> questions = group.getQuestions();
+        out.writeInt(questions.size());
+        for (Question question : questions) {
+            writeQuestion(out, question);
+        }
+    }
+
+    private QuestionGroup readQuestionGroup(DataInputStream in) throws IOException {
+        QuestionGroup group = new QuestionGroup();
+        group.setOrder(in.readInt());
+        group.setHeading(readString(in));
+        group.setRepeatable(in.readBoolean());
+        int questionCount = in.readInt();
+        for (int i = 0; i < questionCount; i++) {
+            group.addQuestion(readQuestion(in));
+        }
+        return group;
+    }
+
+    private void writeQuestion(DataOutputStream out, Question question) throws IOException {
+        writeString(out, question.getId());
+        writeString(out, question.getText());
+        out.writeInt(question.getOrder());
+        writeString(out, question.getRenderType());
+        out.writeBoolean(question.isMandatory());
+        writeString(out, question.getType());
+        out.writeBoolean(question.isAllowOther());
+        out.writeBoolean(question.isAllowMultiple());
+        out.writeBoolean(question.isLocked());
+        out.writeBoolean(question.useStrength());
+        out.writeInt(question.getStrengthMin());
+        out.writeInt(question.getStrengthMax());
+        out.writeBoolean(question.isLocaleName());
+        out.writeBoolean(question.isLocaleLocation());
+        writeString(out, question.getSourceQuestionId());
+        out.writeBoolean(question.isDoubleEntry());
+        out.writeBoolean(question.isAllowPoints());
+        out.writeBoolean(question.isAllowLine());
+        out.writeBoolean(question.isAllowPolygon());
+        writeString(out, question.getCaddisflyRes());
+        writeString(out, question.getSrc());
+
+        writeValidationRule(out, question.getValidationRule());
+        writeAltTexts(out, question.getLanguageTranslationMap().values());
+
+        List<QuestionHelp> helpList = question.getQuestionHelp();
+        out.writeInt(helpList == null ? -1 : helpList.size());
+        if (helpList != null) {
+            for (QuestionHelp help : helpList) {
+                writeString(out, help.getType());
+                writeString(out, help.getText());
+                writeString(out, help.getValue());
+                writeAltTexts(out, help.getAltTextMap().values());
+            }
+        }
+
+        List<Option> options = question.getOptions();
+        out.writeInt(options == null ? -1 : options.size());
+        if (options != null) {
+            for (Option option : options) {
+                writeString(out, option.getText());
+                writeString(out, option.getCode());
+                out.writeBoolean(option.isOther());
+                writeAltTexts(out, option.getAltTextMap().values());
+            }
+        }
+
+        List<Dependency> dependencies = question.getDependencies();
+        out.writeInt(dependencies == null ? -1 : dependencies.size());
+        if (dependencies != null) {
+            for (Dependency dependency : dependencies) {
+                writeString(out, dependency.getQuestion());
+                writeString(out, dependency.getAnswer());
+            }
+        }
+
+        List<Level> levels = question.getLevels();
+        out.writeInt(levels == null ? -1 : levels.size());
+        if (levels != null) {
+            for (Level level : levels) {
+                writeString(out, level.getText());
+                writeAltTexts(out, level.getAltTextMap().values());
+            }
+        }
+    }
+
+    private Question readQuestion(DataInputStream in) throws IOException {
+        Question question = new Question();
+        question.setId(readString(in));
+        question.setText(readString(in));
+        question.setOrder(in.readInt());
+        question.setRenderType(readString(in));
+        question.setMandatory(in.readBoolean());
+        question.setType(readString(in));
+        question.setAllowOther(in.readBoolean());
+        question.setAllowMultiple(in.readBoolean());
+        question.setLocked(in.readBoolean());
+        question.setUseStrength(in.readBoolean());
+        question.setStrengthMin(in.readInt());
+        question.setStrengthMax(in.readInt());
+        question.setIsLocaleName(in.readBoolean());
+        question.setIsLocaleLocation(in.readBoolean());
+        question.setSourceQuestionId(readString(in));
+        question.setIsDoubleEntry(in.readBoolean());
+        question.setAllowPoints(in.readBoolean());
+        question.setAllowLine(in.readBoolean());
+        question.setAllowPolygon(in.readBoolean());
+        question.setCaddisflyRes(readString(in));
+        question.setSrc(readString(in));
+
+        question.setValidationRule(readValidationRule(in));
+        for (AltText altText : readAltTexts(in)) {
+            question.addAltText(altText);
+        }
+
+        int helpCount = in.readInt();
+        for (int i = 0; i < helpCount; i++) {
+            QuestionHelp help = new QuestionHelp();
+            help.setType(readString(in));
+            help.setText(readString(in));
+            help.setValue(readString(in));
+            for (AltText altText : readAltTexts(in)) {
+                help.addAltText(altText);
+            }
+            question.addQuestionHelp(help);
+        }
+
+        int optionCount = in.readInt();
+        if (optionCount >= 0) {
+            ArrayList<Option> options = new ArrayList<>(optionCount);
+            for (int i = 0; i < optionCount; i++) {
+                Option option = new Option();
+                option.setText(readString(in));
+                option.setCode(readString(in));
+                option.setIsOther(in.readBoolean());
+                for (AltText altText : readAltTexts(in)) {
+                    option.addAltText(altText);
+                }
+                options.add(option);
+            }
+            question.setOptions(options);
+        }
+
+        int dependencyCount = in.readInt();
+        for (int i = 0; i < dependencyCount; i++) {
+            Dependency dependency = new Dependency();
+            dependency.setQuestion(readString(in));
+            dependency.setAnswer(readString(in));
+            question.addDependency(dependency);
+        }
+
+        int levelCount = in.readInt();
+        if (levelCount >= 0) {
+            List<Level> levels = new ArrayList<>(levelCount);
+            for (int i = 0; i < levelCount; i++) {
+                Level level = new Level();
+                level.setText(readString(in));
+                for (AltText altText : readAltTexts(in)) {
+                    level.addAltText(altText);
+                }
+                levels.add(level);
+            }
+            question.setLevels(levels);
+        }
+        return question;
+    }
+
+    private void writeValidationRule(DataOutputStream out, ValidationRule rule)
+            throws IOException {
+        out.writeBoolean(rule != null);
+        if (rule != null) {
+            writeString(out, rule.getValidationType());
+            writeNullableInt(out, rule.getMaxLength());
+            writeNullableBoolean(out, rule.getAllowSigned());
+            writeNullableBoolean(out, rule.getAllowDecimal());
+            writeNullableDouble(out, rule.getMinVal());
+            writeNullableDouble(out, rule.getMaxVal());
+        }
+    }
+
+    @Nullable
+    private ValidationRule readValidationRule(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        ValidationRule rule = new ValidationRule(readString(in));
+        rule.setMaxLength(readNullableInt(in));
+        rule.setAllowSigned(readNullableBoolean(in));
+        rule.setAllowDecimal(readNullableBoolean(in));
+        rule.setMinVal(readNullableDouble(in));
+        rule.setMaxVal(readNullableDouble(in));
+        return rule;
+    }
+
+    private void writeAltTexts(DataOutputStream out, Collection<AltText> altTexts)
+            throws IOException {
+        out.writeInt(altTexts.size());
+        for (AltText altText : altTexts) {
+            writeString(out, altText.getLanguage());
+            writeString(out, altText.getType());
+            writeString(out, altText.getText());
+        }
+    }
+
+    private List<AltText> readAltTexts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<AltText> altTexts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AltText altText = new AltText();
+            altText.setLanguage(readString(in));
+            altText.setType(readString(in));
+            altText.setText(readString(in));
+            altTexts.add(altText);
+        }
+        return altTexts;
+    }
+
+    /**
+     * writeUTF is limited to 64KB, long help texts need the length as an int
+     */
+    private void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Nullable
+    private String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void writeNullableInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private void writeNullableBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeBoolean(value);
+        }
+    }
+
+    private Boolean readNullableBoolean(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readBoolean() : null;
+    }
+
+    private void writeNullableDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private Double readNullableDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+}
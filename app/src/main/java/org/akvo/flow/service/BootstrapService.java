@@ -1,5 +1,5 @@
 /*
- *  Copyright (C) 2010-2018 Stichting Akvo (Akvo Foundation)
+ *  Copyright (C) 2010-2019 Stichting Akvo (Akvo Foundation)
  *
  *  This file is part of Akvo Flow.
  *
@@ -28,12 +28,14 @@ import android.text.TextUtils;
 
 import org.akvo.flow.R;
 import org.akvo.flow.app.FlowApp;
+import org.akvo.flow.data.dao.SurveyLoader;
 import org.akvo.flow.data.database.SurveyDbDataSource;
+import org.akvo.flow.data.util.ZipExtractor;
+import org.akvo.flow.database.cascade.CascadeSearchIndex;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.domain.SurveyMetadata;
 import org.akvo.flow.serialization.form.SurveyMetadataParser;
 import org.akvo.flow.util.ConstantUtil;
-import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.NotificationHelper;
 import org.akvo.flow.util.StatusUtil;
 import org.akvo.flow.util.SurveyFileNameGenerator;
@@ -43,16 +45,18 @@ import org.akvo.flow.util.files.FormFileBrowser;
 import org.akvo.flow.util.files.FormResourcesFileBrowser;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import javax.inject.Inject;
 
@@ -81,6 +85,7 @@ public class BootstrapService extends IntentService {
     public volatile static boolean isProcessing = false;
 
     private static final String TAG = "BOOTSTRAP_SERVICE";
+    private static final int WORKER_COUNT = 3;
 
     @Inject
     FormFileBrowser formFileBrowser;
@@ -91,9 +96,16 @@ public class BootstrapService extends IntentService {
     @Inject
     SurveyDbDataSource databaseAdapter;
 
+    @Inject
+    SurveyLoader surveyLoader;
+
+    @Inject
+    ZipExtractor zipExtractor;
+
     private final SurveyIdGenerator surveyIdGenerator = new SurveyIdGenerator();
     private final SurveyFileNameGenerator surveyFileNameGenerator = new SurveyFileNameGenerator();
     private final ZipFileLister zipFileLister = new ZipFileLister();
+    private final CascadeSearchIndex cascadeSearchIndex = new CascadeSearchIndex();
     private Handler mHandler;
 
     public BootstrapService() {
@@ -132,10 +144,11 @@ public class BootstrapService extends IntentService {
             String startMessage = getString(R.string.bootstrapstart);
             displayNotification(startMessage);
             databaseAdapter.open();
+            ExecutorService executor = Executors.newFixedThreadPool(WORKER_COUNT);
             try {
                 for (File file : zipFiles) {
                     try {
-                        processFile(file);
+                        processFile(file, executor);
                         installedFiles++;
                     } catch (Exception e) {
                         // try to roll back any database changes (if the zip has a rollback file)
@@ -147,6 +160,7 @@ public class BootstrapService extends IntentService {
                 String endMessage = getString(R.string.bootstrapcomplete);
                 displayNotification(endMessage);
             } finally {
+                executor.shutdownNow();
                 if (databaseAdapter != null) {
                     databaseAdapter.close();
                 }
@@ -172,50 +186,135 @@ public class BootstrapService extends IntentService {
     }
 
     /**
-     * processes a bootstrap zip file
+     * processes a bootstrap zip file. Entries are extracted by the worker pool, then the forms
+     * are saved in a single transaction. If any entry fails, the remaining ones are cancelled
+     * and the error is thrown once the running ones are finished.
      */
-    private void processFile(File file) throws Exception {
+    private void processFile(File file, ExecutorService executor) throws Exception {
         final ZipFile zipFile = new ZipFile(file);
-        Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-            ZipEntry entry = entries.nextElement();
-            String entryName = entry.getName();
-
-            // Skip directories and hidden/unwanted files
-            if (entry.isDirectory() || TextUtils
-                    .isEmpty(entryName) || entryName.startsWith(".") ||
-                    entryName.endsWith(ConstantUtil.BOOTSTRAP_ROLLBACK_FILE) || entryName
-                    .endsWith(ConstantUtil.BOOTSTRAP_DB_FILE)) {
-                continue;
-            }
-
-            if (entryName.endsWith(ConstantUtil.CASCADE_RES_SUFFIX)) {
-                // Cascade resource
-                FileUtil.extract(new ZipInputStream(zipFile.getInputStream(entry)),
-                        resourcesFileUtil.getExistingAppInternalFolder(getApplicationContext()));
-            } else if (entryName.endsWith(ConstantUtil.XML_SUFFIX)) {
-                String filename = surveyFileNameGenerator.generateFileName(entryName);
-                String id = surveyIdGenerator.getSurveyIdFromFilePath(entryName);
-                processSurveyFile(zipFile, entry, filename, id);
-            } else {
-                String filename = surveyFileNameGenerator.generateFileName(entryName);
-                String id = surveyIdGenerator.getSurveyIdFromFilePath(entryName);
-                // Help media file
-                File helpDir = new File(formFileBrowser.getExistingAppInternalFolder(getApplicationContext()),
-                        id);
-                if (!helpDir.exists()) {
-                    helpDir.mkdir();
+        try {
+            List<Future<Survey>> tasks = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                String entryName = entry.getName();
+
+                // Skip directories and hidden/unwanted files
+                if (entry.isDirectory() || TextUtils
+                        .isEmpty(entryName) || entryName.startsWith(".") ||
+                        entryName.endsWith(ConstantUtil.BOOTSTRAP_ROLLBACK_FILE) || entryName
+                        .endsWith(ConstantUtil.BOOTSTRAP_DB_FILE)) {
+                    continue;
                 }
-                FileUtil.copy(zipFile.getInputStream(entry),
-                        new FileOutputStream(new File(helpDir, filename)));
+
+                tasks.add(executor.submit(new Callable<Survey>() {
+                    @Override
+                    public Survey call() throws Exception {
+                        return processEntry(zipFile, entry);
+                    }
+                }));
+            }
+            final List<Survey> surveys = getResults(tasks);
+
+            // Save the Surveys, SurveyGroups, and languages at once
+            databaseAdapter.saveSurveys(surveys);
+
+            // Store the parsed forms so opening them does not need to parse the xml again
+            List<Future<Survey>> snapshots = new ArrayList<>(surveys.size());
+            for (final Survey survey : surveys) {
+                snapshots.add(executor.submit(new Callable<Survey>() {
+                    @Override
+                    public Survey call() {
+                        surveyLoader.compileSnapshot(getApplicationContext(), survey);
+                        return null;
+                    }
+                }));
             }
+            getResults(snapshots);
+        } finally {
+            zipFile.close();
         }
 
         // now rename the zip file so we don't process it again
         file.renameTo(new File(file.getAbsolutePath() + ConstantUtil.PROCESSED_OK_SUFFIX));
     }
 
-    private void processSurveyFile(@NonNull ZipFile zipFile, @NonNull ZipEntry entry,
+    /**
+     * Waits for all the tasks, in order. The first error cancels the tasks not started yet and
+     * is thrown once the running ones are finished.
+     *
+     * @return the non null results
+     */
+    @NonNull
+    private List<Survey> getResults(@NonNull List<Future<Survey>> tasks) throws Exception {
+        List<Survey> results = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                Survey result = tasks.get(i).get();
+                if (result != null) {
+                    results.add(result);
+                }
+            } catch (ExecutionException e) {
+                List<Future<Survey>> remaining = tasks.subList(i + 1, tasks.size());
+                for (Future<Survey> task : remaining) {
+                    task.cancel(false);
+                }
+                for (Future<Survey> task : remaining) {
+                    try {
+                        if (!task.isCancelled()) {
+                            task.get();
+                        }
+                    } catch (ExecutionException ignored) {
+                        // Only the first error is reported
+                    }
+                }
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Extracts a single entry, called from the worker pool
+     *
+     * @return the survey to save if the entry is a form, null otherwise
+     */
+    @Nullable
+    private Survey processEntry(@NonNull ZipFile zipFile, @NonNull ZipEntry entry)
+            throws IOException {
+        String entryName = entry.getName();
+        if (entryName.endsWith(ConstantUtil.CASCADE_RES_SUFFIX)) {
+            // Cascade resource
+            List<File> cascades = zipExtractor.extract(zipFile.getInputStream(entry),
+                    resourcesFileUtil.getExistingAppInternalFolder(getApplicationContext()));
+            for (File cascade : cascades) {
+                cascadeSearchIndex.createIndex(cascade);
+            }
+            return null;
+        }
+        String filename = surveyFileNameGenerator.generateFileName(entryName);
+        String id = surveyIdGenerator.getSurveyIdFromFilePath(entryName);
+        if (entryName.endsWith(ConstantUtil.XML_SUFFIX)) {
+            return processSurveyFile(zipFile, entry, filename, id);
+        }
+        // Help media file
+        File helpDir = new File(formFileBrowser.getExistingAppInternalFolder(getApplicationContext()),
+                id);
+        if (!helpDir.exists()) {
+            helpDir.mkdir();
+        }
+        zipExtractor.copy(zipFile.getInputStream(entry), new File(helpDir, filename));
+        return null;
+    }
+
+    /**
+     * Copies the form xml while its metadata is parsed, so the entry is only read once
+     *
+     * @return the survey to save
+     */
+    @NonNull
+    private Survey processSurveyFile(@NonNull ZipFile zipFile, @NonNull ZipEntry entry,
             @NonNull String filename, @NonNull String idFromFolderName) throws IOException {
 
         Survey survey = databaseAdapter.getSurvey(idFromFolderName);
@@ -224,33 +323,17 @@ public class BootstrapService extends IntentService {
 
         // in both cases (new survey and existing), we need to update the xml
         File surveyFile = generateNewSurveyFile(filename, surveyFolderName);
-        FileUtil.copy(zipFile.getInputStream(entry), new FileOutputStream(surveyFile));
-        // now read the survey XML back into memory to see if there is a version
-        SurveyMetadata surveyMetadata = readBasicSurveyData(surveyFile);
-        if (surveyMetadata == null) {
-            // Something went wrong, we cannot continue with this survey
-            return;
-        }
+        SurveyMetadata surveyMetadata = zipExtractor.copy(zipFile.getInputStream(entry),
+                surveyFile, new ZipExtractor.StreamReader<SurveyMetadata>() {
+                    @Override
+                    public SurveyMetadata read(@NonNull InputStream input) {
+                        return new SurveyMetadataParser().parse(input);
+                    }
+                });
 
         verifyAppId(surveyMetadata);
 
-        survey = updateSurvey(filename, idFromFolderName, survey, surveyFolderName, surveyMetadata);
-
-        // Save the Survey, SurveyGroup, and languages.
-        updateSurveyStorage(survey);
-    }
-
-    @Nullable
-    private SurveyMetadata readBasicSurveyData(File surveyFile) {
-        SurveyMetadata surveyMetadata = null;
-        try {
-            InputStream in = new FileInputStream(surveyFile);
-            SurveyMetadataParser parser = new SurveyMetadataParser();
-            surveyMetadata = parser.parse(in);
-        } catch (FileNotFoundException e) {
-            Timber.e("Could not load survey xml file");
-        }
-        return surveyMetadata;
+        return updateSurvey(filename, idFromFolderName, survey, surveyFolderName, surveyMetadata);
     }
 
     @NonNull
@@ -315,11 +398,6 @@ public class BootstrapService extends IntentService {
         }
     }
 
-    private void updateSurveyStorage(@NonNull Survey survey) {
-        databaseAdapter.addSurveyGroup(survey.getSurveyGroup());
-        databaseAdapter.saveSurvey(survey);
-    }
-
     @NonNull
     private File generateNewSurveyFile(@NonNull String filename,
             @Nullable String surveyFolderName) {
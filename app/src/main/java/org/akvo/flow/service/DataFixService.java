@@ -26,6 +26,7 @@ import android.support.v4.app.JobIntentService;
 import android.support.v4.content.LocalBroadcastManager;
 
 import org.akvo.flow.app.FlowApp;
+import org.akvo.flow.domain.entity.ExportResult;
 import org.akvo.flow.domain.interactor.CheckSubmittedFiles;
 import org.akvo.flow.domain.interactor.DefaultObserver;
 import org.akvo.flow.domain.interactor.ExportSurveyInstances;
@@ -107,7 +108,17 @@ public class DataFixService extends JobIntentService {
     }
 
     private void export() {
-        exportSurveyInstances.execute(new DefaultObserver<Boolean>() {
+        exportSurveyInstances.execute(new DefaultObserver<List<ExportResult>>() {
+            @Override
+            public void onNext(List<ExportResult> results) {
+                for (ExportResult result : results) {
+                    if (!result.isSuccess()) {
+                        Timber.w("Form instance %d not exported: %s", result.getInstanceId(),
+                                result.getResultCode());
+                    }
+                }
+            }
+
             @Override
             public void onComplete() {
                 broadcastDataPointStatusChange();
@@ -44,6 +44,7 @@ import timber.log.Timber;
 public class SurveyTabAdapter extends PagerAdapter implements ViewPager.OnPageChangeListener {
 
     private final ViewPager mPager;
+    private final SurveyListener mSurveyListener;
     private List<QuestionGroup> mQuestionGroups;
     private List<QuestionGroupTab> mQuestionGroupTabs;
     private SubmitTab mSubmitTab;
@@ -51,6 +52,7 @@ public class SurveyTabAdapter extends PagerAdapter implements ViewPager.OnPageCh
     public SurveyTabAdapter(Context context, ViewPager pager, SurveyListener surveyListener,
             QuestionInteractionListener questionListener) {
         mPager = pager;
+        mSurveyListener = surveyListener;
         init(context, surveyListener, questionListener);
     }
 
@@ -87,7 +89,7 @@ public class SurveyTabAdapter extends PagerAdapter implements ViewPager.OnPageCh
             Timber.d("Loading Tab #%d", position);
             tab.load();
             tab.loadState();
-            setupDependencies();// Dependencies might occur across tabs
+            mSurveyListener.evaluateDependencies();// Dependencies might occur across tabs
         }
     }
 
@@ -98,6 +100,7 @@ public class SurveyTabAdapter extends PagerAdapter implements ViewPager.OnPageCh
                 questionGroupTab.loadState();
             }
         }
+        mSurveyListener.evaluateDependencies();
     }
 
     /**
@@ -160,22 +163,6 @@ public class SurveyTabAdapter extends PagerAdapter implements ViewPager.OnPageCh
         return questionView;
     }
 
-    /**
-     * Sets up question dependencies across question groups and registers
-     * questionInteractionListeners on the dependent views. This should be
-     * called each time a new tab is hydrated. It will iterate over all
-     * questions in the survey and install dependencies and the
-     * questionInteractionListeners. After installation, it will check to see if
-     * the parent question contains a response. If so, it will fire a
-     * questionInteractionEvent to ensure dependent questions are put into the
-     * correct state
-     */
-    private void setupDependencies() {
-        for (QuestionGroupTab tab : mQuestionGroupTabs) {
-            tab.setupDependencies();
-        }
-    }
-
     @NonNull
     @Override
     public Object instantiateItem(@NonNull ViewGroup container, int position) {
@@ -39,6 +39,7 @@ import org.akvo.flow.domain.Level;
 import org.akvo.flow.domain.Node;
 import org.akvo.flow.domain.Question;
 import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.executor.ThreadExecutor;
 import org.akvo.flow.domain.response.value.CascadeNode;
 import org.akvo.flow.event.SurveyListener;
 import org.akvo.flow.injector.component.DaggerViewComponent;
@@ -61,6 +62,9 @@ public class CascadeQuestionView extends QuestionView
     @Inject
     FormResourcesFileBrowser resourcesFileUtil;
 
+    @Inject
+    ThreadExecutor threadExecutor;
+
     private static final int POSITION_NONE = -1; // no spinner position id
     private static final long ID_NONE = -1; // no node id
     private static final long ID_ROOT = 0; // root node id
@@ -97,11 +101,25 @@ public class CascadeQuestionView extends QuestionView
             if (db.exists()) {
                 mDatabase = new CascadeDB(getContext(), db.getAbsolutePath());
                 mDatabase.open();
+                preload(mDatabase);
             }
         }
         updateSpinners(POSITION_NONE);
     }
 
+    /**
+     * Counting and reading the nodes of the cascade can take a while, the spinners are filled
+     * from the database until the preload is done
+     */
+    private void preload(final CascadeDB database) {
+        threadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                database.preload(CascadeDB.DEFAULT_PRELOAD_MAX_NODES);
+            }
+        });
+    }
+
     private void initialiseInjector() {
         ViewComponent viewComponent =
                 DaggerViewComponent.builder().applicationComponent(getApplicationComponent())
@@ -111,7 +111,7 @@ public class QuestionGroupTab extends ConstraintLayout
                 @Override
                 public void onClick(View v) {
                     loadGroup();
-                    setupDependencies();
+                    mSurveyListener.evaluateDependencies();
                 }
             });
         }
@@ -177,6 +177,9 @@ public class QuestionGroupTab extends ConstraintLayout
         // If the group is repeatable, delete multiple iterations
         if (mQuestionGroup.isRepeatable()) {
             mContainer.removeAllViews();
+            for (String questionId : mQuestionViews.keySet()) {
+                mSurveyListener.getDependencyEngine().removeQuestion(questionId);
+            }
             mQuestionViews.clear();
 
             // Load existing iterations. If no iteration is available, show one by default.
@@ -325,6 +328,7 @@ public class QuestionGroupTab extends ConstraintLayout
 
             // Add question interaction listener
             questionView.addQuestionInteractionListener(mQuestionListener);
+            registerDependencies(q, repetitionId);
 
             mQuestionViews.put(q.getId(), questionView);// Store the reference to the View
 
@@ -361,6 +365,7 @@ public class QuestionGroupTab extends ConstraintLayout
             if (qv != null) {
                 qv.onDestroy();
                 mQuestionViews.remove(qid);
+                mSurveyListener.getDependencyEngine().removeQuestion(qid);
                 mContainer.removeView(qv);
             }
             mSurveyListener.deleteResponse(questionId, String.valueOf(repetitionID));
@@ -382,45 +387,32 @@ public class QuestionGroupTab extends ConstraintLayout
         groupIterations.remove(repetitionID);
         updateRepetitionsHeader();
         updateGroupIterationHeaders();
+        mSurveyListener.evaluateDependencies();
     }
 
-    public void setupDependencies() {
-        for (QuestionView qv : mQuestionViews.values()) {
-            setupDependencies(qv);
-        }
-    }
-
-    private void setupDependencies(QuestionView qv) {
-        final List<Dependency> dependencies = qv.getQuestion().getDependencies();
+    /**
+     * Adds the question dependencies to the form dependency graph. Dependencies on questions
+     * of the same repeatable group refer to the question of the same iteration
+     * (questionId|iteration).
+     */
+    private void registerDependencies(Question question, int repetitionId) {
+        List<Dependency> dependencies = question.getDependencies();
         if (dependencies == null) {
             return;// No dependencies for this question
         }
 
+        List<Dependency> resolved = new ArrayList<>(dependencies.size());
         for (Dependency dependency : dependencies) {
-            QuestionView parentQ;
             String parentQId = dependency.getQuestion();
             if (mQuestionGroup.isRepeatable() && mQuestions.contains(parentQId)) {
-                // Internal dependencies need to compound the inner question ID (questionId|iteration)
-                parentQId += "|" + parseRepetitionId(qv.getQuestion().getId());
-                dependency.setQuestion(parentQId);
-                parentQ = getQuestionView(parentQId);// Local search
+                Dependency internal = new Dependency(dependency);
+                internal.setQuestion(parentQId + "|" + repetitionId);
+                resolved.add(internal);
             } else {
-                parentQ = mSurveyListener.getQuestionView(parentQId);// Global search
-            }
-
-            if (parentQ != null && qv != parentQ) {
-                parentQ.addQuestionInteractionListener(qv);
-                qv.checkDependencies();
+                resolved.add(dependency);
             }
         }
-    }
-
-    private int parseRepetitionId(String questionId) {
-        String[] qid = questionId.split("\\|", -1);
-        if (qid.length == 2) {
-            return Integer.parseInt(qid[1]);
-        }
-        return -1;
+        mSurveyListener.getDependencyEngine().setDependencies(question.getId(), resolved);
     }
 
     static class RepeatableGroupIterations implements Iterable<Integer> {
@@ -37,7 +37,6 @@ import android.widget.TextView.BufferType;
 import org.akvo.flow.R;
 import org.akvo.flow.app.FlowApp;
 import org.akvo.flow.domain.AltText;
-import org.akvo.flow.domain.Dependency;
 import org.akvo.flow.domain.Question;
 import org.akvo.flow.domain.QuestionHelp;
 import org.akvo.flow.domain.QuestionResponse;
@@ -50,10 +49,8 @@ import org.akvo.flow.util.ViewUtil;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.StringTokenizer;
 
-public abstract class QuestionView extends LinearLayout implements QuestionInteractionListener {
+public abstract class QuestionView extends LinearLayout {
     protected static String[] sColors = null;
     final ErrorMessageFormatter errorMessageFormatter = new ErrorMessageFormatter();
 
@@ -272,7 +269,7 @@ public abstract class QuestionView extends LinearLayout implements QuestionInter
         if (mListeners == null) {
             mListeners = new ArrayList<>();
         }
-        if (listener != null && !mListeners.contains(listener) && listener != this) {
+        if (listener != null && !mListeners.contains(listener)) {
             mListeners.add(listener);
         }
     }
@@ -335,73 +332,17 @@ public abstract class QuestionView extends LinearLayout implements QuestionInter
         }
     }
 
-    @Override
-    public void onQuestionInteraction(QuestionInteractionEvent event) {
-        if (QuestionInteractionEvent.QUESTION_ANSWER_EVENT.equals(event.getEventType())) {
-            // if this question is dependent, see if it has been satisfied
-            List<Dependency> dependencies = mQuestion.getDependencies();
-            if (dependencies != null) {
-                for (int i = 0; i < dependencies.size(); i++) {
-                    Dependency d = dependencies.get(i);
-                    if (d.getQuestion().equalsIgnoreCase(
-                            event.getSource().getQuestion().getId())) {
-                        if (handleDependencyParentResponse(d, event.getSource().getResponse())) {
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-    }
-
     /**
-     * updates the state of this question view based on the value in the
-     * dependency parent response. This method returns true if there is a value
-     * match and false otherwise.
+     * Updates the state of this question view once its dependencies have been evaluated.
+     * Hidden questions keep their response, but it is excluded from the submission.
      *
-     * @param dep
-     * @param resp
-     * @return
+     * @return true if the include flag of an existing response has been updated
      */
-    public boolean handleDependencyParentResponse(Dependency dep, QuestionResponse resp) {
-        boolean isMatch = false;
-        if (dep.getAnswer() != null && resp != null && dep.isMatch(resp.getValue()) && resp
-                .getIncludeFlag()) {
-            isMatch = true;
-        } else if (dep.getAnswer() != null && resp != null && resp.getIncludeFlag()) {
-            if (resp.getValue() != null) {
-                StringTokenizer strTok = new StringTokenizer(resp.getValue(), "|");
-                while (strTok.hasMoreTokens()) {
-                    if (dep.isMatch(strTok.nextToken().trim())) {
-                        isMatch = true;
-                    }
-                }
-            }
-        }
-
-        boolean setVisible = false;
-        // if we're here, then the question on which we depend
-        // has been answered. Check the value to see if it's the
-        // one we are looking for
-        boolean includeFlag = true;
-        if (isMatch) {
-            setVisibility(View.VISIBLE);
-            setVisible = true;
-        } else {
-            includeFlag = false;
-            setVisibility(View.GONE);
-        }
+    public boolean onDependenciesChanged(boolean satisfied) {
+        setVisibility(satisfied ? View.VISIBLE : View.GONE);
         mResponse = new QuestionResponse.QuestionResponseBuilder()
-                .createFromQuestionResponse(mResponse, includeFlag);
-
-        // now notify our own listeners to make sure we correctly toggle
-        // nested dependencies (i.e. if A -> B -> C and C changes, A needs to
-        // know too).
-        if (mResponse != null) {
-            notifyQuestionListeners(QuestionInteractionEvent.QUESTION_ANSWER_EVENT);
-        }
-
-        return setVisible;
+                .createFromQuestionResponse(mResponse, satisfied);
+        return mResponse != null;
     }
 
     public final void captureResponse() {
@@ -543,19 +484,7 @@ public abstract class QuestionView extends LinearLayout implements QuestionInter
      * @return true if no dependency is broken, false otherwise
      */
     public boolean areDependenciesSatisfied() {
-        List<Dependency> dependencies = getQuestion().getDependencies();
-        if (dependencies != null) {
-            Map<String, QuestionResponse> responses = mSurveyListener.getResponses();
-            for (Dependency dependency : dependencies) {
-                QuestionResponse resp = responses.get(dependency.getQuestion());
-                if (resp == null || !resp.hasValue()
-                        || !dependency.isMatch(resp.getValue())
-                        || !resp.getIncludeFlag()) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return mSurveyListener.getDependencyEngine().isVisible(mQuestion.getId());
     }
 
     private QuestionResponse createResponse(Question question, String value, String type) {
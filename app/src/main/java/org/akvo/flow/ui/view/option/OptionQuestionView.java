@@ -41,6 +41,7 @@ import org.akvo.flow.serialization.response.value.OptionValue;
 import org.akvo.flow.ui.view.QuestionView;
 import org.akvo.flow.util.ConstantUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -72,7 +73,7 @@ public abstract class OptionQuestionView extends QuestionView {
     void init() {
         // Just inflate the header. Options will be added dynamically
         setQuestionView(R.layout.question_header);
-        mOptions = mQuestion.getOptions();
+        mOptions = copyOptions(mQuestion.getOptions());
 
         mSuppressListeners = true;
 
@@ -87,6 +88,22 @@ public abstract class OptionQuestionView extends QuestionView {
 
     abstract void initOptionViews();
 
+    /**
+     * The question may belong to a Survey shared through SurveyCache, so the view works on its own
+     * copy of the options: the OTHER option is appended to it and edited with the typed text.
+     */
+    @Nullable
+    private static List<Option> copyOptions(@Nullable List<Option> options) {
+        if (options == null) {
+            return null;
+        }
+        List<Option> copy = new ArrayList<>(options.size() + 1);
+        for (Option option : options) {
+            copy.add(new Option(option));
+        }
+        return copy;
+    }
+
     private void appendOtherOption() {
         if (mQuestion.isAllowOther()) {
             Option other = new Option();
@@ -1,5 +1,5 @@
 /*
- *  Copyright (C) 2010-2018 Stichting Akvo (Akvo Foundation)
+ *  Copyright (C) 2010-2019 Stichting Akvo (Akvo Foundation)
  *
  *  This file is part of Akvo Flow.
  *
@@ -29,14 +29,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import timber.log.Timber;
 
@@ -127,24 +124,6 @@ public class FileUtil {
         return out;
     }
 
-    /**
-     * extract zip file contents into destination folder.
-     */
-    public static void extract(ZipInputStream zis, File dst) throws IOException {
-        ZipEntry entry;
-        try {
-            while ((entry = zis.getNextEntry()) != null && !entry.isDirectory()) {
-                File f = new File(dst, entry.getName());
-                FileOutputStream fout = new FileOutputStream(f);
-                FileUtil.copy(zis, fout);
-                fout.close();
-                zis.closeEntry();
-            }
-        } finally {
-            close(zis);
-        }
-    }
-
     /**
      * deletes all files in the directory (recursively) AND then deletes the
      * directory itself if the "deleteFlag" is true
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.util.files;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+
+import javax.inject.Inject;
+
+public class FormSnapshotFileBrowser {
+
+    // Pre-parsed forms, one file per form id and version
+    private static final String DIR_FORM_SNAPSHOTS = "forms_snapshots";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String VERSION_SEPARATOR = "_v";
+
+    private final FileBrowser fileBrowser;
+
+    @Inject
+    public FormSnapshotFileBrowser(FileBrowser fileBrowser) {
+        this.fileBrowser = fileBrowser;
+    }
+
+    @NonNull
+    public File getSnapshotFile(Context context, @NonNull String surveyId, double version) {
+        File folder = fileBrowser.getExistingAppInternalFolder(context, DIR_FORM_SNAPSHOTS);
+        return new File(folder, surveyId + VERSION_SEPARATOR + version + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Removes all snapshots of the given form except the one passed as parameter
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public void deleteOtherSnapshots(Context context, @NonNull String surveyId,
+            @NonNull File current) {
+        File folder = fileBrowser.getExistingAppInternalFolder(context, DIR_FORM_SNAPSHOTS);
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = surveyId + VERSION_SEPARATOR;
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && !file.equals(current)) {
+                file.delete();
+            }
+        }
+    }
+}
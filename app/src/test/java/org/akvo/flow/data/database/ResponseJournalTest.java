@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database;
+
+import android.support.annotation.NonNull;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseJournalTest {
+
+    private static final long SURVEY_INSTANCE_ID = 1L;
+    private static final long LONG_DEBOUNCE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int EDITS = 500;
+
+    private FakeResponseTable table;
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        table = new FakeResponseTable();
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void flushShouldWriteRapidEditsInOneTransaction() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+
+        // Typing in 3 questions, one of them inside a repeated group (2 iterations)
+        for (int i = 0; i < EDITS; i++) {
+            journal.put(response("1", -1, "text " + i));
+            journal.put(response("2", -1, String.valueOf(i)));
+            journal.put(response("3", 0, "a" + i));
+            journal.put(response("3", 1, "b" + i));
+        }
+        journal.flush();
+
+        assertEquals(1, table.transactions);
+        assertEquals(4, table.rows.size());
+        assertEquals("text " + (EDITS - 1), table.rows.get("1|-1"));
+        assertEquals("b" + (EDITS - 1), table.rows.get("3|1"));
+        assertFalse(journal.hasPendingChanges());
+    }
+
+    @Test
+    public void flushShouldNotWriteWhenNothingChanged() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+
+        journal.flush();
+
+        assertEquals(0, table.transactions);
+    }
+
+    @Test
+    public void debounceShouldWriteRapidEditsInOneTransaction() throws InterruptedException {
+        table.expectedTransactions = new CountDownLatch(1);
+        ResponseJournal journal = new ResponseJournal(table, executor, 200);
+
+        for (int i = 0; i < EDITS; i++) {
+            journal.put(response("1", -1, "text " + i));
+        }
+
+        assertTrue(table.expectedTransactions.await(5, TimeUnit.SECONDS));
+        assertEquals(1, table.transactions);
+        assertEquals(1, table.rows.size());
+        assertEquals("text " + (EDITS - 1), table.rows.get("1|-1"));
+    }
+
+    @Test
+    public void deleteShouldDiscardPendingResponse() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+        journal.put(response("1", -1, "stored"));
+        journal.flush();
+
+        journal.put(response("1", -1, "edited"));
+        journal.delete(SURVEY_INSTANCE_ID, "1", null);
+        journal.flush();
+
+        assertEquals(2, table.transactions);
+        assertTrue(table.rows.isEmpty());
+    }
+
+    @Test
+    public void deleteShouldOnlyRemoveGivenIteration() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+        journal.put(response("3", 0, "a"));
+        journal.put(response("3", 1, "b"));
+
+        journal.delete(SURVEY_INSTANCE_ID, "3", 1);
+        journal.flush();
+
+        assertEquals(1, table.transactions);
+        assertEquals(1, table.rows.size());
+        assertEquals("a", table.rows.get("3|0"));
+    }
+
+    @Test
+    public void putAfterDeleteShouldKeepResponse() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+        journal.put(response("1", -1, "stored"));
+        journal.flush();
+
+        journal.delete(SURVEY_INSTANCE_ID, "1", null);
+        journal.put(response("1", -1, "new"));
+        journal.flush();
+
+        assertEquals(1, table.rows.size());
+        assertEquals("new", table.rows.get("1|-1"));
+    }
+
+    @Test
+    public void clearShouldDropPendingChanges() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+        journal.put(response("1", -1, "text"));
+
+        journal.clear();
+        journal.flush();
+
+        assertEquals(0, table.transactions);
+    }
+
+    @Test
+    public void failedWriteShouldBeRetried() {
+        ResponseJournal journal = new ResponseJournal(table, executor, LONG_DEBOUNCE_MILLIS);
+        journal.put(response("1", -1, "text"));
+        table.failNextWrite = true;
+
+        assertFalse(journal.flush());
+        assertTrue(journal.hasPendingChanges());
+
+        assertTrue(journal.flush());
+        assertEquals("text", table.rows.get("1|-1"));
+    }
+
+    private QuestionResponse response(String questionId, int iteration, String value) {
+        return new QuestionResponse.QuestionResponseBuilder()
+                .setSurveyInstanceId(SURVEY_INSTANCE_ID)
+                .setQuestionId(questionId)
+                .setIteration(iteration)
+                .setValue(value)
+                .createQuestionResponse();
+    }
+
+    /**
+     * Response table keyed by question id and iteration, every write call is a transaction
+     */
+    private static class FakeResponseTable implements ResponseJournal.Writer {
+
+        final Map<String, String> rows = new HashMap<>();
+        int transactions;
+        boolean failNextWrite;
+        CountDownLatch expectedTransactions;
+
+        @Override
+        public synchronized void write(@NonNull List<QuestionResponse> responses,
+                @NonNull List<ResponseJournal.Deletion> deletions) {
+            if (failNextWrite) {
+                failNextWrite = false;
+                throw new IllegalStateException("Database locked");
+            }
+            for (ResponseJournal.Deletion deletion : deletions) {
+                Iterator<String> keys = rows.keySet().iterator();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    boolean sameQuestion = key.startsWith(deletion.getQuestionId() + "|");
+                    if (sameQuestion && (deletion.getIteration() == null
+                            || key.equals(deletion.getQuestionId() + "|"
+                            + deletion.getIteration()))) {
+                        keys.remove();
+                    }
+                }
+            }
+            for (QuestionResponse response : responses) {
+                rows.put(response.getQuestionId() + "|" + response.getIteration(),
+                        response.getValue());
+            }
+            transactions++;
+            if (expectedTransactions != null) {
+                expectedTransactions.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database.cascade;
+
+import org.akvo.flow.domain.Node;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CascadeIndexTest {
+
+    @Test
+    public void getChildrenShouldReturnNodesOfParent() {
+        CascadeIndex index = new CascadeIndex.Builder(2)
+                .add(1, "Kenya", "KE", 0)
+                .add(2, "Uganda", "UG", 0)
+                .add(3, "Kisumu", null, 1)
+                .add(4, "Nairobi", "NBO", 1)
+                .add(5, "Kampala", "KLA", 2)
+                .build();
+
+        List<Node> children = index.getChildren(1);
+
+        assertEquals(5, index.size());
+        assertEquals(2, children.size());
+        assertEquals(new Node(4, "Nairobi", "NBO", 1), children.get(1));
+        assertEquals("Kisumu", children.get(0).getName());
+        assertNull(children.get(0).getCode());
+        assertEquals(2, index.getChildren(0).size());
+        assertEquals("Kampala", index.getChildren(2).get(0).getName());
+    }
+
+    @Test
+    public void getChildrenShouldReturnEmptyMutableListForLeaves() {
+        CascadeIndex index = new CascadeIndex.Builder(1)
+                .add(1, "Kenya", "KE", 0)
+                .build();
+
+        List<Node> children = index.getChildren(1);
+        children.add(new Node(-1, "Select", null, -1));
+
+        assertTrue(index.getChildren(1).isEmpty());
+        assertTrue(index.getChildren(-5).isEmpty());
+        assertTrue(index.getChildren(99).isEmpty());
+    }
+
+    @Test
+    public void getChildrenShouldKeepEmptyNames() {
+        CascadeIndex index = new CascadeIndex.Builder(0)
+                .add(1, "", "", 0)
+                .add(2, "Uganda", "", 0)
+                .build();
+
+        List<Node> children = index.getChildren(0);
+
+        assertEquals("", children.get(0).getName());
+        assertEquals("", children.get(0).getCode());
+        assertEquals("Uganda", children.get(1).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addShouldRejectUnsortedParents() {
+        new CascadeIndex.Builder(2)
+                .add(3, "Kisumu", null, 1)
+                .add(1, "Kenya", "KE", 0);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database.cascade;
+
+import org.akvo.flow.domain.Node;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CascadeNodeCacheTest {
+
+    @Test
+    public void getShouldReturnCopyOfCachedNodes() {
+        CascadeNodeCache cache = new CascadeNodeCache(10);
+        List<Node> nodes = Arrays.asList(node(1, 0), node(2, 0));
+        cache.put(0, nodes);
+
+        List<Node> cached = cache.get(0);
+        cached.add(0, node(-1, -1));
+
+        assertEquals(nodes, cache.get(0));
+        assertNotSame(cached, cache.get(0));
+    }
+
+    @Test
+    public void getShouldReturnNullWhenNotCached() {
+        CascadeNodeCache cache = new CascadeNodeCache(10);
+
+        assertNull(cache.get(0));
+    }
+
+    @Test
+    public void putShouldEvictLeastRecentlyUsed() {
+        CascadeNodeCache cache = new CascadeNodeCache(6);
+        cache.put(1, Arrays.asList(node(10, 1), node(11, 1)));
+        cache.put(2, Arrays.asList(node(20, 2), node(21, 2)));
+        cache.get(1);
+
+        cache.put(3, Collections.singletonList(node(30, 3)));
+
+        assertNull(cache.get(2));
+        assertEquals(2, cache.get(1).size());
+        assertEquals(1, cache.get(3).size());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void putShouldCacheLeaves() {
+        CascadeNodeCache cache = new CascadeNodeCache(10);
+
+        cache.put(5, Collections.<Node>emptyList());
+
+        assertTrue(cache.get(5).isEmpty());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void putShouldIgnoreListsBiggerThanCache() {
+        CascadeNodeCache cache = new CascadeNodeCache(2);
+
+        cache.put(1, Arrays.asList(node(10, 1), node(11, 1)));
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void putShouldReplaceExistingEntry() {
+        CascadeNodeCache cache = new CascadeNodeCache(10);
+        cache.put(1, Arrays.asList(node(10, 1), node(11, 1)));
+
+        cache.put(1, Collections.singletonList(node(10, 1)));
+
+        assertEquals(1, cache.get(1).size());
+        assertEquals(2, cache.size());
+    }
+
+    private Node node(long id, long parent) {
+        return new Node(id, "name " + id, "code " + id, parent);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.domain;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DependencyEngineTest {
+
+    private DependencyEngine engine;
+    private Map<String, QuestionResponse> responses;
+    private int parseCount;
+
+    @Before
+    public void setUp() {
+        parseCount = 0;
+        // Responses are stored as plain "text|text" values in these tests
+        engine = new DependencyEngine(new DependencyEngine.ValueParser() {
+            @NonNull
+            @Override
+            public Collection<String> parse(@NonNull String value) {
+                parseCount++;
+                return Arrays.asList(value.split("\\|"));
+            }
+        });
+        responses = new HashMap<>();
+    }
+
+    @Test
+    public void setDependenciesShouldHideQuestionUntilEvaluated() {
+        engine.setDependencies("2", dependencies("1", "yes"));
+
+        assertFalse(engine.isVisible("2"));
+        assertTrue(engine.isVisible("1"));
+    }
+
+    @Test
+    public void evaluateAllShouldShowSatisfiedQuestions() {
+        engine.setDependencies("2", dependencies("1", "yes"));
+        engine.setDependencies("3", dependencies("1", "no"));
+        answer("1", "yes");
+
+        List<String> changed = engine.evaluateAll(responses);
+
+        assertEquals(Collections.singletonList("2"), changed);
+        assertTrue(engine.isVisible("2"));
+        assertFalse(engine.isVisible("3"));
+    }
+
+    @Test
+    public void onResponseChangedShouldMatchAnyExpectedAnswer() {
+        engine.setDependencies("2", dependencies("1", "a | b"));
+
+        answer("1", "c|b");
+        engine.onResponseChanged("1", responses);
+
+        assertTrue(engine.isVisible("2"));
+    }
+
+    @Test
+    public void onResponseChangedShouldPropagateInTopologicalOrder() {
+        // 1 -> 2 -> 3 -> 4, registered in reverse order
+        engine.setDependencies("4", dependencies("3", "yes"));
+        engine.setDependencies("3", dependencies("2", "yes"));
+        engine.setDependencies("2", dependencies("1", "yes"));
+        answer("2", "yes");
+        answer("3", "yes");
+
+        answer("1", "yes");
+        List<String> shown = engine.onResponseChanged("1", responses);
+
+        assertEquals(Arrays.asList("2", "3", "4"), shown);
+
+        answer("1", "no");
+        List<String> hidden = engine.onResponseChanged("1", responses);
+
+        assertEquals(Arrays.asList("2", "3", "4"), hidden);
+        assertFalse(engine.isVisible("4"));
+    }
+
+    @Test
+    public void onResponseChangedShouldStopWhenVisibilityDoesNotChange() {
+        engine.setDependencies("2", dependencies("1", "yes|maybe"));
+        engine.setDependencies("3", dependencies("2", "yes"));
+        answer("2", "yes");
+        answer("1", "yes");
+        engine.onResponseChanged("1", responses);
+
+        answer("1", "maybe");
+        List<String> changed = engine.onResponseChanged("1", responses);
+
+        assertTrue(changed.isEmpty());
+        assertTrue(engine.isVisible("3"));
+    }
+
+    @Test
+    public void onResponseChangedShouldRequireAllDependencies() {
+        List<Dependency> dependencies = dependencies("1", "yes");
+        dependencies.addAll(dependencies("2", "yes"));
+        engine.setDependencies("3", dependencies);
+
+        answer("1", "yes");
+        engine.onResponseChanged("1", responses);
+        assertFalse(engine.isVisible("3"));
+
+        answer("2", "yes");
+        engine.onResponseChanged("2", responses);
+        assertTrue(engine.isVisible("3"));
+    }
+
+    @Test
+    public void onResponseChangedShouldParseEachValueOnce() {
+        engine.setDependencies("2", dependencies("1", "yes"));
+        engine.setDependencies("3", dependencies("1", "no"));
+        engine.setDependencies("4", dependencies("1", "yes"));
+        answer("1", "yes");
+
+        engine.onResponseChanged("1", responses);
+        engine.evaluateAll(responses);
+
+        assertEquals(1, parseCount);
+    }
+
+    @Test
+    public void onResponseChangedShouldHideQuestionWhenResponseDeleted() {
+        engine.setDependencies("2", dependencies("1", "yes"));
+        answer("1", "yes");
+        engine.onResponseChanged("1", responses);
+
+        responses.remove("1");
+        engine.onResponseChanged("1", responses);
+
+        assertFalse(engine.isVisible("2"));
+    }
+
+    @Test
+    public void removeQuestionShouldMakeQuestionVisible() {
+        engine.setDependencies("2", dependencies("1", "yes"));
+
+        engine.removeQuestion("2");
+
+        assertTrue(engine.isVisible("2"));
+        assertTrue(engine.onResponseChanged("1", responses).isEmpty());
+    }
+
+    @Test
+    public void evaluateAllShouldTerminateWithCycles() {
+        engine.setDependencies("1", dependencies("2", "yes"));
+        engine.setDependencies("2", dependencies("1", "yes"));
+
+        engine.evaluateAll(responses);
+
+        assertFalse(engine.isVisible("1"));
+        assertFalse(engine.isVisible("2"));
+    }
+
+    private List<Dependency> dependencies(String parentId, String answer) {
+        Dependency dependency = new Dependency();
+        dependency.setQuestion(parentId);
+        dependency.setAnswer(answer);
+        return new ArrayList<>(Collections.singletonList(dependency));
+    }
+
+    private void answer(String questionId, String value) {
+        responses.put(questionId, new QuestionResponse.QuestionResponseBuilder()
+                .setQuestionId(questionId)
+                .setValue(value)
+                .createQuestionResponse());
+    }
+}
@@ -22,6 +22,7 @@ package org.akvo.flow.data.datasource;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -32,24 +33,35 @@ import org.akvo.flow.data.entity.ApiDataPoint;
 import org.akvo.flow.data.entity.ApiFormHeader;
 import org.akvo.flow.data.entity.ApiQuestionAnswer;
 import org.akvo.flow.data.entity.ApiSurveyInstance;
+import org.akvo.flow.data.entity.MultipartUpload;
+import org.akvo.flow.data.entity.S3File;
 import org.akvo.flow.data.entity.SurveyInstanceIdMapper;
+import org.akvo.flow.data.entity.Transmission;
 import org.akvo.flow.data.entity.form.Form;
 import org.akvo.flow.data.util.FlowFileBrowser;
+import org.akvo.flow.data.util.PointClusterIndex;
 import org.akvo.flow.database.Constants;
 import org.akvo.flow.database.RecordColumns;
-import org.akvo.flow.database.ResponseColumns;
 import org.akvo.flow.database.SurveyColumns;
 import org.akvo.flow.database.SurveyGroupColumns;
-import org.akvo.flow.database.SurveyInstanceColumns;
 import org.akvo.flow.database.SurveyInstanceStatus;
 import org.akvo.flow.database.SyncTimeColumns;
+import org.akvo.flow.database.TransmissionColumns;
+import org.akvo.flow.database.TransmissionPartColumns;
 import org.akvo.flow.database.TransmissionStatus;
 import org.akvo.flow.database.britedb.BriteSurveyDbAdapter;
+import org.akvo.flow.database.britedb.DataPointBulkWriter;
+import org.akvo.flow.database.britedb.DataPointPageKey;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+import org.akvo.flow.domain.entity.PointCluster;
 import org.akvo.flow.domain.entity.User;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -57,6 +69,7 @@ import javax.inject.Inject;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
+import timber.log.Timber;
 
 public class DatabaseDataSource {
 
@@ -66,6 +79,15 @@ public class DatabaseDataSource {
 
     private final BriteSurveyDbAdapter briteSurveyDbAdapter;
     private final SurveyInstanceIdMapper surveyInstanceIdMapper;
+    private final Object clustersLock = new Object();
+
+    /**
+     * Map clusters of the last survey displayed, built once from the database and then kept up
+     * to date with the synced data points. Null until needed again.
+     */
+    @Nullable
+    private PointClusterIndex clusters;
+    private long clustersSurveyGroupId;
 
     @Inject
     public DatabaseDataSource(BriteDatabase db, SurveyInstanceIdMapper surveyInstanceIdMapper) {
@@ -78,6 +100,7 @@ public class DatabaseDataSource {
     }
 
     public Observable<Boolean> deleteSurvey(long surveyId) {
+        invalidateClusters();
         return briteSurveyDbAdapter.deleteSurveyAndGroup(surveyId);
     }
 
@@ -91,30 +114,149 @@ public class DatabaseDataSource {
         }
     }
 
+    public Observable<Cursor> getDataPointsPage(@NonNull Long surveyGroupId,
+            @Nullable String filter, @Nullable Double latitude, @Nullable Double longitude,
+            @Nullable Integer orderBy, @Nullable DataPointPageKey after, int limit) {
+        return briteSurveyDbAdapter.getDataPointsPage(surveyGroupId, filter, latitude,
+                longitude, orderBy == null ? Constants.ORDER_BY_NONE : orderBy, after, limit);
+    }
+
+    public Observable<Cursor> getDataPointsInBounds(long surveyGroupId, double south,
+            double west, double north, double east) {
+        return briteSurveyDbAdapter
+                .getDataPointsInBounds(surveyGroupId, south, west, north, east);
+    }
+
+    /**
+     * Clusters of the located data points inside the bounds at the given map zoom, emitted
+     * again when the data points change. The clusters are built from the database the first
+     * time, or again when reload is set, and then updated with every synced data point.
+     */
+    public Observable<List<PointCluster>> getDataPointClusters(final long surveyGroupId,
+            boolean reload, final double zoom, final double south, final double west,
+            final double north, final double east) {
+        if (reload) {
+            invalidateClusters();
+        }
+        return briteSurveyDbAdapter.getDataPointChanges()
+                .map(new Function<Boolean, List<PointCluster>>() {
+                    @Override
+                    public List<PointCluster> apply(Boolean changed) {
+                        synchronized (clustersLock) {
+                            return getClusterIndex(surveyGroupId)
+                                    .getClusters(zoom, south, west, north, east);
+                        }
+                    }
+                });
+    }
+
+    private PointClusterIndex getClusterIndex(long surveyGroupId) {
+        if (clusters == null || clustersSurveyGroupId != surveyGroupId) {
+            PointClusterIndex index = new PointClusterIndex();
+            Cursor cursor = briteSurveyDbAdapter.getLocatedDataPoints(surveyGroupId);
+            try {
+                int idColumn = cursor.getColumnIndexOrThrow(RecordColumns.RECORD_ID);
+                int nameColumn = cursor.getColumnIndexOrThrow(RecordColumns.NAME);
+                int latitudeColumn = cursor.getColumnIndexOrThrow(RecordColumns.LATITUDE);
+                int longitudeColumn = cursor.getColumnIndexOrThrow(RecordColumns.LONGITUDE);
+                while (cursor.moveToNext()) {
+                    index.put(cursor.getString(idColumn), cursor.getString(nameColumn),
+                            cursor.getDouble(latitudeColumn), cursor.getDouble(longitudeColumn));
+                }
+            } finally {
+                cursor.close();
+            }
+            clusters = index;
+            clustersSurveyGroupId = surveyGroupId;
+        }
+        return clusters;
+    }
+
+    /**
+     * Applies the synced data points to the clusters. A data point without form instances may
+     * be deleted by the sync, the clusters are built again in that case.
+     */
+    private void updateClusters(List<ApiDataPoint> apiDataPoints) {
+        synchronized (clustersLock) {
+            if (clusters == null) {
+                return;
+            }
+            for (ApiDataPoint dataPoint : apiDataPoints) {
+                if (dataPoint.getSurveyGroupId() != clustersSurveyGroupId) {
+                    continue;
+                }
+                if (dataPoint.getSurveyInstances().isEmpty()) {
+                    clusters = null;
+                    return;
+                }
+                Double latitude = dataPoint.getLatitude();
+                Double longitude = dataPoint.getLongitude();
+                if (latitude != null && longitude != null) {
+                    clusters.put(dataPoint.getId(), dataPoint.getDisplayName(), latitude,
+                            longitude);
+                } else {
+                    clusters.remove(dataPoint.getId());
+                }
+            }
+        }
+    }
+
+    private void invalidateClusters() {
+        synchronized (clustersLock) {
+            clusters = null;
+        }
+    }
+
     public Cursor getSyncedTime(long surveyGroupId) {
         return briteSurveyDbAdapter.getSyncTime(surveyGroupId);
     }
 
+    /**
+     * The clusters lock is held during the whole sync, taken before the database as when the
+     * clusters are built, and the synced data points are applied to the clusters once
+     * committed. The clusters queried again once notified of the change wait for them, and
+     * clusters built from the database meanwhile can not miss them.
+     */
     public void syncDataPoints(List<ApiDataPoint> apiDataPoints) {
         if (apiDataPoints == null || apiDataPoints.size() == 0) {
             return;
         }
+        synchronized (clustersLock) {
+            boolean committed = false;
+            try {
+                writeDataPoints(apiDataPoints);
+                committed = true;
+            } finally {
+                if (committed) {
+                    updateClusters(apiDataPoints);
+                } else {
+                    clusters = null;
+                }
+            }
+        }
+    }
+
+    private void writeDataPoints(List<ApiDataPoint> apiDataPoints) {
         BriteDatabase.Transaction transaction = briteSurveyDbAdapter.beginTransaction();
         try {
-            for (ApiDataPoint dataPoint : apiDataPoints) {
-                final String id = dataPoint.getId();
-                ContentValues values = new ContentValues();
-                values.put(RecordColumns.RECORD_ID, id);
-                values.put(RecordColumns.SURVEY_GROUP_ID, dataPoint.getSurveyGroupId());
-                values.put(RecordColumns.NAME, dataPoint.getDisplayName());
-                values.put(RecordColumns.LATITUDE, dataPoint.getLatitude());
-                values.put(RecordColumns.LONGITUDE, dataPoint.getLongitude());
-
-                syncSurveyInstances(dataPoint.getSurveyInstances(), id);
-
-                briteSurveyDbAdapter.updateRecord(id, values, dataPoint.getLastModified());
+            DataPointBulkWriter writer = briteSurveyDbAdapter.newDataPointWriter();
+            try {
+                Map<String, Long> surveyInstanceIds = writer
+                        .getSurveyInstanceIds(getSurveyInstanceUuids(apiDataPoints));
+                long syncDate = System.currentTimeMillis();
+                for (ApiDataPoint dataPoint : apiDataPoints) {
+                    final String id = dataPoint.getId();
+                    syncSurveyInstances(writer, dataPoint.getSurveyInstances(), id,
+                            surveyInstanceIds, syncDate);
+                    writer.insertRecord(id, dataPoint.getSurveyGroupId(),
+                            dataPoint.getDisplayName(), dataPoint.getLatitude(),
+                            dataPoint.getLongitude(), dataPoint.getLastModified());
+                }
+                updateLastUpdatedDateTime(apiDataPoints);
+                writer.deleteEmptyRecords();
+            } finally {
+                writer.close();
             }
-            updateLastUpdatedDateTime(apiDataPoints);
             transaction.markSuccessful();
         } finally {
             transaction.end();
@@ -156,50 +298,71 @@ public class DatabaseDataSource {
         briteSurveyDbAdapter.insertSyncedTime(values);
     }
 
-    private void syncSurveyInstances(List<ApiSurveyInstance> surveyInstances, String dataPointId) {
-        for (ApiSurveyInstance surveyInstance : surveyInstances) {
-
-            ContentValues values = new ContentValues();
-            values.put(SurveyInstanceColumns.SURVEY_ID, surveyInstance.getSurveyId());
-            values.put(SurveyInstanceColumns.SUBMITTED_DATE, surveyInstance.getCollectionDate());
-            values.put(SurveyInstanceColumns.RECORD_ID, dataPointId);
-            values.put(SurveyInstanceColumns.STATUS, SurveyInstanceStatus.DOWNLOADED);
-            values.put(SurveyInstanceColumns.SYNC_DATE, System.currentTimeMillis());
-            values.put(SurveyInstanceColumns.SUBMITTER, surveyInstance.getSubmitter());
-
-            long id = briteSurveyDbAdapter.syncSurveyInstance(values, surveyInstance.getUuid());
-
-            syncResponses(surveyInstance.getQasList(), id);
+    private Set<String> getSurveyInstanceUuids(List<ApiDataPoint> apiDataPoints) {
+        Set<String> uuids = new HashSet<>();
+        for (ApiDataPoint dataPoint : apiDataPoints) {
+            for (ApiSurveyInstance surveyInstance : dataPoint.getSurveyInstances()) {
+                uuids.add(surveyInstance.getUuid());
+            }
         }
-        briteSurveyDbAdapter.deleteEmptyRecords();
+        return uuids;
     }
 
-    private void syncResponses(List<ApiQuestionAnswer> responses, long surveyInstanceId) {
-        deleteResponses(responses, surveyInstanceId);
-        insertResponses(responses, surveyInstanceId);
+    private void syncSurveyInstances(DataPointBulkWriter writer,
+            List<ApiSurveyInstance> surveyInstances, String dataPointId,
+            Map<String, Long> surveyInstanceIds, long syncDate) {
+        for (ApiSurveyInstance surveyInstance : surveyInstances) {
+            String uuid = surveyInstance.getUuid();
+            Long id = surveyInstanceIds.get(uuid);
+            List<ApiQuestionAnswer> responses = surveyInstance.getQasList();
+            if (id == null) {
+                id = writer.insertSurveyInstance(uuid, surveyInstance.getSurveyId(),
+                        surveyInstance.getCollectionDate(), dataPointId, syncDate,
+                        surveyInstance.getSubmitter());
+                surveyInstanceIds.put(uuid, id);
+            } else {
+                writer.updateSurveyInstance(id, surveyInstance.getSurveyId(),
+                        surveyInstance.getCollectionDate(), dataPointId, syncDate,
+                        surveyInstance.getSubmitter());
+                deleteResponses(writer, responses, id);
+            }
+            insertResponses(writer, responses, id);
+        }
     }
 
-    private void deleteResponses(List<ApiQuestionAnswer> responses, long surveyInstanceId) {
+    private void deleteResponses(DataPointBulkWriter writer, List<ApiQuestionAnswer> responses,
+            long surveyInstanceId) {
+        Set<String> questionIds = new HashSet<>();
         for (ApiQuestionAnswer response : responses) {
-            briteSurveyDbAdapter.deleteResponses(surveyInstanceId, response.getQuestionId());
+            if (questionIds.add(response.getQuestionId())) {
+                writer.deleteResponses(surveyInstanceId, response.getQuestionId());
+            }
         }
     }
 
-    private void insertResponses(List<ApiQuestionAnswer> responses, long surveyInstanceId) {
+    /**
+     * Answers to the same question are iterations of a repeated question group, numbered in
+     * the order they are received. The iteration of a single answer is left unset (-1).
+     * Includes all answers as they are true by default when parsing api response.
+     */
+    private void insertResponses(DataPointBulkWriter writer, List<ApiQuestionAnswer> responses,
+            long surveyInstanceId) {
+        Map<String, Integer> iterationCounts = new HashMap<>();
         for (ApiQuestionAnswer response : responses) {
-
-            ContentValues values = new ContentValues();
-            values.put(ResponseColumns.ANSWER, response.getAnswer());
-            values.put(ResponseColumns.TYPE, response.getType());
-            values.put(ResponseColumns.QUESTION_ID, response.getQuestionId());
-            /*
-             * true by default when parsing api response
-             * Not sure what this fields is used for ??
-             */
-            values.put(ResponseColumns.INCLUDE, true);
-            values.put(ResponseColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
-
-            briteSurveyDbAdapter.syncResponse(surveyInstanceId, values, response.getQuestionId());
+            Integer count = iterationCounts.get(response.getQuestionId());
+            iterationCounts.put(response.getQuestionId(), count == null ? 1 : count + 1);
+        }
+        Map<String, Integer> nextIterations = new HashMap<>();
+        for (ApiQuestionAnswer response : responses) {
+            String questionId = response.getQuestionId();
+            int iteration = -1;
+            if (iterationCounts.get(questionId) > 1) {
+                Integer next = nextIterations.get(questionId);
+                iteration = next == null ? 0 : next;
+                nextIterations.put(questionId, iteration + 1);
+            }
+            writer.insertResponse(surveyInstanceId, questionId, response.getAnswer(),
+                    response.getType(), iteration);
         }
     }
 
@@ -227,11 +390,13 @@ public class DatabaseDataSource {
 
     public Observable<Boolean> clearCollectedData() {
         briteSurveyDbAdapter.clearCollectedData();
+        invalidateClusters();
         return Observable.just(true);
     }
 
     public Observable<Boolean> clearAllData() {
         briteSurveyDbAdapter.clearAllData();
+        invalidateClusters();
         return Observable.just(true);
     }
 
@@ -302,6 +467,82 @@ public class DatabaseDataSource {
         return Observable.just(briteSurveyDbAdapter.getUnSyncedTransmissions());
     }
 
+    /**
+     * Saves the checksums computed for the files of the given transmissions, so they are not
+     * computed again while the files stay the same
+     */
+    public void saveTransmissionChecksums(List<Transmission> transmissions) {
+        BriteDatabase.Transaction transaction = briteSurveyDbAdapter.beginTransaction();
+        try {
+            for (Transmission transmission : transmissions) {
+                S3File s3File = transmission.getS3File();
+                if (!s3File.isChecksumCached() && !TextUtils.isEmpty(s3File.getMd5Hex())) {
+                    briteSurveyDbAdapter.updateTransmissionChecksum(transmission.getId(),
+                            s3File.getMd5Hex(), s3File.getFileSize(), s3File.getFileModified());
+                    // The file has changed, the parts uploaded so far are no longer valid
+                    briteSurveyDbAdapter.clearTransmissionUpload(transmission.getId());
+                }
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    /**
+     * @return the multipart upload in progress of the given transmission, null if none
+     */
+    @Nullable
+    public MultipartUpload getMultipartUpload(long transmissionId) {
+        Cursor cursor = briteSurveyDbAdapter.getTransmissionUpload(transmissionId);
+        String uploadId = null;
+        long partSize = 0;
+        long startDate = 0;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                uploadId = cursor.getString(
+                        cursor.getColumnIndexOrThrow(TransmissionColumns.UPLOAD_ID));
+                partSize = cursor.getLong(
+                        cursor.getColumnIndexOrThrow(TransmissionColumns.PART_SIZE));
+                startDate = cursor.getLong(
+                        cursor.getColumnIndexOrThrow(TransmissionColumns.UPLOAD_DATE));
+            }
+            cursor.close();
+        }
+        if (TextUtils.isEmpty(uploadId) || partSize <= 0) {
+            return null;
+        }
+        Map<Integer, String> partEtags = new HashMap<>();
+        Cursor partsCursor = briteSurveyDbAdapter.getTransmissionParts(transmissionId);
+        if (partsCursor != null) {
+            if (partsCursor.moveToFirst()) {
+                int partNumberCol = partsCursor
+                        .getColumnIndexOrThrow(TransmissionPartColumns.PART_NUMBER);
+                int etagCol = partsCursor.getColumnIndexOrThrow(TransmissionPartColumns.ETAG);
+                do {
+                    partEtags.put(partsCursor.getInt(partNumberCol),
+                            partsCursor.getString(etagCol));
+                } while (partsCursor.moveToNext());
+            }
+            partsCursor.close();
+        }
+        return new MultipartUpload(uploadId, partSize, startDate, partEtags);
+    }
+
+    public void startMultipartUpload(long transmissionId, String uploadId, long partSize,
+            long startDate) {
+        briteSurveyDbAdapter.startTransmissionUpload(transmissionId, uploadId, partSize,
+                startDate);
+    }
+
+    public void saveUploadedPart(long transmissionId, int partNumber, String etag) {
+        briteSurveyDbAdapter.saveTransmissionPart(transmissionId, partNumber, etag);
+    }
+
+    public void clearMultipartUpload(long transmissionId) {
+        briteSurveyDbAdapter.clearTransmissionUpload(transmissionId);
+    }
+
     public void setFileTransmissionSucceeded(Long id) {
         briteSurveyDbAdapter.updateTransmissionStatus(id, TransmissionStatus.SYNCED);
     }
@@ -375,6 +616,50 @@ public class DatabaseDataSource {
         return Observable.just(true);
     }
 
+    /**
+     * Creates the transmissions of the exported form instances (their data zip and media
+     * files) and marks the instances as submitted, all in a single transaction. The rows of an
+     * instance that cannot be written are removed without rolling back the other instances.
+     *
+     * @return the ids of the instances that could not be saved
+     */
+    public Set<Long> saveExportedInstances(Map<Long, FormInstanceMetadata> exportedInstances) {
+        Set<Long> failedInstances = new HashSet<>();
+        BriteDatabase.Transaction transaction = briteSurveyDbAdapter.beginTransaction();
+        try {
+            for (Map.Entry<Long, FormInstanceMetadata> entry : exportedInstances.entrySet()) {
+                long instanceId = entry.getKey();
+                FormInstanceMetadata metadata = entry.getValue();
+                Set<String> filenames = new HashSet<>(metadata.getMediaFileNames());
+                filenames.add(metadata.getZipFileName());
+                List<Long> transmissionIds = new ArrayList<>(filenames.size());
+                try {
+                    for (String filename : filenames) {
+                        long transmissionId = briteSurveyDbAdapter
+                                .createTransmission(instanceId, metadata.getFormId(), filename);
+                        if (transmissionId == -1) {
+                            // insert() reports the error with -1 instead of throwing it
+                            throw new SQLException("Could not insert transmission " + filename);
+                        }
+                        transmissionIds.add(transmissionId);
+                    }
+                    briteSurveyDbAdapter
+                            .updateSurveyInstanceStatus(instanceId, SurveyInstanceStatus.SUBMITTED);
+                } catch (SQLException e) {
+                    Timber.e(e, "Error saving exported form instance %d", instanceId);
+                    for (long transmissionId : transmissionIds) {
+                        briteSurveyDbAdapter.deleteTransmission(transmissionId);
+                    }
+                    failedInstances.add(instanceId);
+                }
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+        return failedInstances;
+    }
+
     public Observable<Boolean> installTestForm() {
         briteSurveyDbAdapter.installTestForm();
         return Observable.just(true);
@@ -415,11 +700,6 @@ public class DatabaseDataSource {
         return Observable.just(true);
     }
 
-    public Observable<Boolean> deleteAllForms() {
-        briteSurveyDbAdapter.deleteAllSurveys();
-        return Observable.just(true);
-    }
-
     @NonNull
     private String getFormLanguage(ApiFormHeader formHeader) {
         final String language = formHeader != null ? formHeader.getLanguage() : "";
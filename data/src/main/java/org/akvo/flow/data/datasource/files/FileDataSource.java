@@ -27,12 +27,19 @@ import org.akvo.flow.data.util.Constants;
 import org.akvo.flow.data.util.ExternalStorageHelper;
 import org.akvo.flow.data.util.FileHelper;
 import org.akvo.flow.data.util.FlowFileBrowser;
+import org.akvo.flow.data.util.ZipExtractor;
+import org.akvo.flow.database.cascade.CascadeSearchIndex;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,13 +56,16 @@ public class FileDataSource {
     private final FileHelper fileHelper;
     private final FlowFileBrowser flowFileBrowser;
     private final ExternalStorageHelper externalStorageHelper;
+    private final ZipExtractor zipExtractor;
+    private final CascadeSearchIndex cascadeSearchIndex = new CascadeSearchIndex();
 
     @Inject
     public FileDataSource(FileHelper fileHelper, FlowFileBrowser flowFileBrowser,
-            ExternalStorageHelper externalStorageHelper) {
+            ExternalStorageHelper externalStorageHelper, ZipExtractor zipExtractor) {
         this.fileHelper = fileHelper;
         this.flowFileBrowser = flowFileBrowser;
         this.externalStorageHelper = externalStorageHelper;
+        this.zipExtractor = zipExtractor;
     }
 
     public Observable<List<String>> moveZipFiles() {
@@ -177,6 +187,9 @@ public class FileDataSource {
         List<File> foldersToDelete = flowFileBrowser
                 .findAllPossibleFolders(FlowFileBrowser.DIR_FORMS);
         foldersToDelete.addAll(flowFileBrowser.findAllPossibleFolders(FlowFileBrowser.DIR_RES));
+        foldersToDelete.add(flowFileBrowser.getInternalFolder(FlowFileBrowser.DIR_FORMS_STAGING));
+        foldersToDelete
+                .add(flowFileBrowser.getInternalFolder(FlowFileBrowser.DIR_RES_CHECKSUMS));
         File inboxFolder = flowFileBrowser.getPublicFolder(FlowFileBrowser.DIR_INBOX);
         if (inboxFolder != null && inboxFolder.exists()) {
             foldersToDelete.add(inboxFolder);
@@ -213,31 +226,156 @@ public class FileDataSource {
                 name));
     }
 
-    public Observable<Boolean> writeDataToZipFile(String zipFileName, String formInstanceData) {
-        File folder = flowFileBrowser.getExistingAppInternalFolder(FlowFileBrowser.DIR_DATA);
+    public Observable<File> getDataFolder() {
+        return Observable
+                .just(flowFileBrowser.getExistingAppInternalFolder(FlowFileBrowser.DIR_DATA));
+    }
+
+    /**
+     * Extracts a form archive into its own staging folder, the installed version of the form
+     * is left untouched until the new one is published
+     */
+    public Observable<Boolean> extractFormArchive(ResponseBody responseBody, String formId) {
+        File stagingFolder = getFormStagingFolder(formId);
+        fileHelper.deleteFilesInDirectory(stagingFolder, false);
+        //noinspection ResultOfMethodCallIgnored
+        stagingFolder.mkdirs();
         try {
-            fileHelper.writeZipFile(folder, zipFileName, formInstanceData);
-            return Observable.just(true);
+            zipExtractor.extract(responseBody.byteStream(), stagingFolder);
         } catch (IOException e) {
+            Timber.e(e);
             return Observable.error(e);
         }
-    }
-
-    public Observable<Boolean> extractRemoteArchive(ResponseBody responseBody, String folderName) {
-        File formFolder = flowFileBrowser.getExistingAppInternalFolder(folderName);
-        fileHelper.extractOnlineArchive(responseBody, formFolder);
+        if (!new File(stagingFolder, formId + FlowFileBrowser.XML_SUFFIX).exists()) {
+            return Observable.error(new FileNotFoundException(
+                    "Form archive " + formId + " does not contain the form file"));
+        }
         return Observable.just(true);
     }
 
-    public Observable<InputStream> getFormFile(String id) {
-        File formFolder = flowFileBrowser.getExistingAppInternalFolder(FlowFileBrowser.DIR_FORMS);
+    public Observable<InputStream> getStagedFormFile(String formId) {
+        File stagingFolder = getFormStagingFolder(formId);
         InputStream input;
         try {
-            input = new FileInputStream(new File(formFolder, id + FlowFileBrowser.XML_SUFFIX));
+            input = new FileInputStream(
+                    new File(stagingFolder, formId + FlowFileBrowser.XML_SUFFIX));
         } catch (FileNotFoundException e) {
             Timber.e(e);
             return Observable.error(e);
         }
         return Observable.just(input);
     }
+
+    /**
+     * Moves the staged files of a form into the forms folder, replacing the previous version
+     */
+    public Observable<Boolean> publishStagedForm(String formId) {
+        File stagingFolder = getFormStagingFolder(formId);
+        File formFolder = flowFileBrowser.getExistingAppInternalFolder(FlowFileBrowser.DIR_FORMS);
+        File[] files = stagingFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.renameTo(new File(formFolder, file.getName()))) {
+                    return Observable.error(
+                            new IOException("Error publishing form file " + file.getName()));
+                }
+            }
+        }
+        fileHelper.deleteFilesInDirectory(stagingFolder, true);
+        return Observable.just(true);
+    }
+
+    public Observable<Boolean> discardStagedForm(String formId) {
+        fileHelper.deleteFilesInDirectory(getFormStagingFolder(formId), true);
+        return Observable.just(true);
+    }
+
+    private File getFormStagingFolder(String formId) {
+        return new File(flowFileBrowser.getInternalFolder(FlowFileBrowser.DIR_FORMS_STAGING),
+                formId);
+    }
+
+    /**
+     * Extracts a cascade resource archive and remembers its checksum (S3 ETag) along with the
+     * extracted files, so it is not downloaded again while unchanged
+     */
+    public Observable<Boolean> extractResourceArchive(ResponseBody responseBody,
+            String resource, @Nullable String checksum) {
+        File resFolder = flowFileBrowser.getExistingAppInternalFolder(FlowFileBrowser.DIR_RES);
+        List<File> files;
+        try {
+            files = zipExtractor.extract(responseBody.byteStream(), resFolder);
+        } catch (IOException e) {
+            Timber.e(e);
+            return Observable.error(e);
+        }
+        // Cascade resources, index them once so searches do not scan the whole tree
+        for (File file : files) {
+            cascadeSearchIndex.createIndex(file);
+        }
+        saveResourceChecksum(resource, checksum, files);
+        return Observable.just(true);
+    }
+
+    /**
+     * @return the checksum of the installed resource, null if it was never downloaded or some
+     * of its files are missing
+     */
+    @Nullable
+    public String getResourceChecksum(String resource) {
+        File checksumFile = getResourceChecksumFile(resource);
+        if (!checksumFile.exists()) {
+            return null;
+        }
+        File resFolder = flowFileBrowser.getInternalFolder(FlowFileBrowser.DIR_RES);
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(checksumFile));
+            String checksum = reader.readLine();
+            String fileName;
+            while ((fileName = reader.readLine()) != null) {
+                if (!new File(resFolder, fileName).exists()) {
+                    return null;
+                }
+            }
+            return TextUtils.isEmpty(checksum) ? null : checksum;
+        } catch (IOException e) {
+            Timber.e(e);
+            return null;
+        } finally {
+            fileHelper.close(reader);
+        }
+    }
+
+    private void saveResourceChecksum(String resource, @Nullable String checksum,
+            List<File> files) {
+        File checksumFile = getResourceChecksumFile(resource);
+        if (TextUtils.isEmpty(checksum) || files.isEmpty()) {
+            //noinspection ResultOfMethodCallIgnored
+            checksumFile.delete();
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        checksumFile.getParentFile().mkdirs();
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(checksumFile));
+            writer.write(checksum);
+            for (File file : files) {
+                writer.write('\n');
+                writer.write(file.getName());
+            }
+        } catch (IOException e) {
+            Timber.e(e);
+            //noinspection ResultOfMethodCallIgnored
+            checksumFile.delete();
+        } finally {
+            fileHelper.close(writer);
+        }
+    }
+
+    private File getResourceChecksumFile(String resource) {
+        return new File(flowFileBrowser.getInternalFolder(FlowFileBrowser.DIR_RES_CHECKSUMS),
+                resource);
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -23,8 +23,8 @@ package org.akvo.flow.data.entity;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
 
+import org.akvo.flow.database.RecordColumns;
 import org.akvo.flow.database.SurveyDbAdapter;
-import org.akvo.flow.database.SurveyInstanceColumns;
 import org.akvo.flow.domain.entity.DataPoint;
 
 import java.util.ArrayList;
@@ -52,7 +52,7 @@ public class DataPointMapper {
             latitude = cursor.getDouble(SurveyDbAdapter.RecordQuery.LATITUDE);
             longitude = cursor.getDouble(SurveyDbAdapter.RecordQuery.LONGITUDE);
         }
-        int columnIndex = cursor.getColumnIndex(SurveyInstanceColumns.STATUS);
+        int columnIndex = cursor.getColumnIndex(RecordColumns.STATUS);
         int status = 0;
         if (columnIndex != -1) {
             status = cursor.getInt(columnIndex);
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.entity;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+/**
+ * Reads a data point download page as a stream. Data points are handed over in chunks as
+ * soon as they are read, so only one chunk is kept in memory whatever the size of the page.
+ */
+public class DataPointStreamParser {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private static final String DATA_POINTS = "surveyedLocaleData";
+
+    public interface ChunkListener {
+        void onChunk(@NonNull List<ApiDataPoint> dataPoints);
+    }
+
+    private final Gson gson;
+    private final int chunkSize;
+
+    @Inject
+    public DataPointStreamParser(Gson gson) {
+        this(gson, DEFAULT_CHUNK_SIZE);
+    }
+
+    @VisibleForTesting
+    DataPointStreamParser(Gson gson, int chunkSize) {
+        this.gson = gson;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the number of data points read
+     */
+    public int parse(@NonNull Reader input, @NonNull ChunkListener listener)
+            throws IOException {
+        JsonReader reader = new JsonReader(input);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return 0;
+            }
+            int count = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (DATA_POINTS.equals(reader.nextName())
+                        && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    count += parseDataPoints(reader, listener);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private int parseDataPoints(JsonReader reader, ChunkListener listener) throws IOException {
+        int count = 0;
+        List<ApiDataPoint> chunk = new ArrayList<>(chunkSize);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ApiDataPoint dataPoint = gson.fromJson(reader, ApiDataPoint.class);
+            if (dataPoint == null) {
+                continue;
+            }
+            chunk.add(dataPoint);
+            count++;
+            if (chunk.size() == chunkSize) {
+                listener.onChunk(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        reader.endArray();
+        if (!chunk.isEmpty()) {
+            listener.onChunk(chunk);
+        }
+        return count;
+    }
+}
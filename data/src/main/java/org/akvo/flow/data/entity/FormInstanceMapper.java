@@ -139,14 +139,14 @@ public class FormInstanceMapper {
         return cursor.getLong(cursor.getColumnIndexOrThrow(SurveyInstanceColumns._ID));
     }
 
-    private String getFilename(Cursor data) {
+    String getFilename(Cursor data) {
         int filenameCol = data.getColumnIndexOrThrow(ResponseColumns.FILENAME);
         String filePath = data.getString(filenameCol);
         return fileHelper.getFilenameFromPath(filePath);
     }
 
     @NonNull
-    private FormInstance getFormInstance(@NonNull String deviceId, Cursor data) {
+    FormInstance getFormInstance(@NonNull String deviceId, Cursor data) {
         int surveyIdColumn = data.getColumnIndexOrThrow(SurveyInstanceColumns.SURVEY_ID);
         int emailColumn = data.getColumnIndexOrThrow(UserColumns.EMAIL);
         int submittedDateColumn = data.getColumnIndexOrThrow(SurveyInstanceColumns.SUBMITTED_DATE);
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.entity;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import org.akvo.flow.data.util.Constants;
+import org.akvo.flow.database.ResponseColumns;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+import org.akvo.flow.domain.entity.Response;
+import org.akvo.flow.domain.util.TextValueCleaner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.inject.Inject;
+
+import timber.log.Timber;
+
+/**
+ * Writes the data zip file of a form instance straight from the responses cursor. Responses
+ * are written one by one to the zip entry as they are read, so neither the whole FormInstance
+ * nor its json are ever held in memory. The json is the same one Gson produces for
+ * {@link FormInstance}.
+ */
+public class FormInstanceZipWriter {
+
+    private final Gson gson;
+    private final FormInstanceMapper formInstanceMapper;
+    private final TextValueCleaner textValueCleaner;
+    private final ResponseMapper responseMapper;
+
+    @Inject
+    public FormInstanceZipWriter(Gson gson, FormInstanceMapper formInstanceMapper,
+            TextValueCleaner textValueCleaner, ResponseMapper responseMapper) {
+        this.gson = gson;
+        this.formInstanceMapper = formInstanceMapper;
+        this.textValueCleaner = textValueCleaner;
+        this.responseMapper = responseMapper;
+    }
+
+    /**
+     * Writes the zip file to the given folder and closes the cursor.
+     *
+     * @return the metadata of the written file, invalid if the cursor had no rows
+     */
+    @NonNull
+    public FormInstanceMetadata write(Cursor data, @NonNull String deviceId,
+            @NonNull File zipFolder) throws IOException {
+        try {
+            if (data == null || !data.moveToFirst()) {
+                return new FormInstanceMetadata(null, null, new HashSet<String>());
+            }
+            FormInstance formInstance = formInstanceMapper.getFormInstance(deviceId, data);
+            String zipFileName = formInstance.getUUID() + Constants.ARCHIVE_SUFFIX;
+            File zipFile = new File(zipFolder, zipFileName);
+            Timber.d("Writing zip to file " + zipFile.getName());
+            Set<String> mediaFileNames;
+            try {
+                mediaFileNames = writeZip(zipFile, formInstance, data);
+            } catch (IOException | RuntimeException e) {
+                if (zipFile.exists() && !zipFile.delete()) {
+                    Timber.w("Could not delete incomplete zip file " + zipFile.getName());
+                }
+                throw e;
+            }
+            return new FormInstanceMetadata(zipFileName, formInstance.getFormId(),
+                    mediaFileNames);
+        } finally {
+            if (data != null) {
+                data.close();
+            }
+        }
+    }
+
+    private Set<String> writeZip(File zipFile, FormInstance formInstance, Cursor data)
+            throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(
+                new CheckedOutputStream(new FileOutputStream(zipFile), new Adler32()));
+        try {
+            zos.putNextEntry(new ZipEntry(Constants.SURVEY_DATA_FILE_JSON));
+            JsonWriter writer = gson.newJsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(zos, Constants.UTF_8_CHARSET)));
+            Set<String> mediaFileNames = writeFormInstance(writer, formInstance, data);
+            writer.flush();
+            zos.closeEntry();
+            return mediaFileNames;
+        } finally {
+            zos.close();
+        }
+    }
+
+    /**
+     * Same fields, in the same order, as the Gson serialization of {@link FormInstance}
+     */
+    private Set<String> writeFormInstance(JsonWriter writer, FormInstance formInstance,
+            Cursor data) throws IOException {
+        writer.beginObject();
+        writer.name("uuid").value(formInstance.getUUID());
+        writer.name("dataPointId").value(formInstance.getDataPointId());
+        writer.name("deviceId").value(formInstance.getDeviceId());
+        writer.name("username").value(formInstance.getUsername());
+        writer.name("email").value(formInstance.getEmail());
+        writer.name("formId").value(formInstance.getFormId());
+        writer.name("submissionDate").value(formInstance.getSubmissionDate());
+        writer.name("duration").value(formInstance.getDuration());
+        writer.name("formVersion").value(formInstance.getFormVersion());
+        writer.name("responses");
+        Set<String> mediaFileNames = writeResponses(writer, data);
+        writer.endObject();
+        return mediaFileNames;
+    }
+
+    private Set<String> writeResponses(JsonWriter writer, Cursor data) throws IOException {
+        Set<String> mediaFileNames = new HashSet<>();
+        int answerColumn = data.getColumnIndexOrThrow(ResponseColumns.ANSWER);
+        writer.beginArray();
+        do {
+            String value = textValueCleaner.sanitizeValue(data.getString(answerColumn));
+
+            // empty answers will be ignored
+            if (!TextUtils.isEmpty(value)) {
+                String filename = formInstanceMapper.getFilename(data);
+                if (!TextUtils.isEmpty(filename)) {
+                    mediaFileNames.add(filename);
+                }
+                Response response = responseMapper.extractResponse(data, value);
+                gson.toJson(response, Response.class, writer);
+            }
+        } while (data.moveToNext());
+        writer.endArray();
+        return mediaFileNames;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.entity;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State of the multipart upload of a transmission: the S3 upload id, the size of its parts, when
+ * it was started and the ETags of the parts already uploaded, by part number (starting at 1)
+ */
+public class MultipartUpload {
+
+    private final String uploadId;
+    private final long partSize;
+    private final long startDate;
+    private final Map<Integer, String> partEtags;
+
+    public MultipartUpload(@NonNull String uploadId, long partSize, long startDate,
+            @NonNull Map<Integer, String> partEtags) {
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        this.startDate = startDate;
+        this.partEtags = new HashMap<>(partEtags);
+    }
+
+    @NonNull
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public long getStartDate() {
+        return startDate;
+    }
+
+    public int getPartCount(long fileSize) {
+        return (int) Math.max(1, (fileSize + partSize - 1) / partSize);
+    }
+
+    /**
+     * @return the ETag of the part if it has already been uploaded, null otherwise
+     */
+    @Nullable
+    public String getPartEtag(int partNumber) {
+        return partEtags.get(partNumber);
+    }
+
+    public void setPartEtag(int partNumber, @NonNull String etag) {
+        partEtags.put(partNumber, etag);
+    }
+}
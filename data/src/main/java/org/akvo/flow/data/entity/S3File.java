@@ -40,9 +40,23 @@ public class S3File {
     private final String md5Base64;
     private final String md5Hex;
     private final String filename;
+    private final long fileSize;
+    private final long fileModified;
+    private final boolean checksumCached;
 
     public S3File(File file, boolean isPublic, String dir, String action, String md5Base64,
             String md5Hex) {
+        this(file, isPublic, dir, action, md5Base64, md5Hex, file.length(), file.lastModified(),
+                false);
+    }
+
+    /**
+     * @param fileSize       size of the file the checksum was computed from
+     * @param fileModified   modification date of the file the checksum was computed from
+     * @param checksumCached true if the checksum was read from the transmission table
+     */
+    public S3File(File file, boolean isPublic, String dir, String action, String md5Base64,
+            String md5Hex, long fileSize, long fileModified, boolean checksumCached) {
         this.file = file;
         this.isPublic = isPublic;
         this.dir = dir;
@@ -50,6 +64,9 @@ public class S3File {
         this.md5Base64 = md5Base64;
         this.filename = file.getName();
         this.md5Hex = md5Hex;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.checksumCached = checksumCached;
     }
 
     public File getFile() {
@@ -100,4 +117,16 @@ public class S3File {
     public String getMd5Hex() {
         return md5Hex;
     }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getFileModified() {
+        return fileModified;
+    }
+
+    public boolean isChecksumCached() {
+        return checksumCached;
+    }
 }
@@ -45,13 +45,33 @@ public class S3FileMapper {
 
     @Nullable
     public S3File transform(String filename) {
+        return transform(filename, null, 0, 0);
+    }
+
+    /**
+     * The cached checksum is only used if the file size and modification date have not
+     * changed since it was computed, otherwise the file is read again, once.
+     */
+    @Nullable
+    public S3File transform(String filename, @Nullable String cachedMd5Hex, long cachedFileSize,
+            long cachedFileModified) {
         S3File trans = null;
         File transmissionFile = getFile(filename);
         if (transmissionFile != null && transmissionFile.exists()) {
-            String md5Checksum = fileHelper.getMd5Base64(transmissionFile);
-            String md5Hex = fileHelper.hexMd5(transmissionFile);
+            long fileSize = transmissionFile.length();
+            long fileModified = transmissionFile.lastModified();
+            byte[] md5 = null;
+            boolean checksumCached = false;
+            if (fileSize == cachedFileSize && fileModified == cachedFileModified) {
+                md5 = fileHelper.fromHex(cachedMd5Hex);
+                checksumCached = md5 != null;
+            }
+            if (md5 == null) {
+                md5 = fileHelper.getMD5Checksum(transmissionFile);
+            }
             trans = new S3File(transmissionFile, isFilePublic(filename), getDir(filename),
-                    getAction(filename), md5Checksum, md5Hex);
+                    getAction(filename), fileHelper.toBase64(md5), fileHelper.toHex(md5),
+                    fileSize, fileModified, checksumCached);
         }
         return trans;
     }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.entity;
+
+/**
+ * Range of a file uploaded as one part of a multipart upload, with its checksum
+ */
+public class S3Part {
+
+    private final S3File s3File;
+    private final int partNumber;
+    private final long offset;
+    private final long length;
+    private final String md5Base64;
+    private final String md5Hex;
+
+    public S3Part(S3File s3File, int partNumber, long offset, long length, String md5Base64,
+            String md5Hex) {
+        this.s3File = s3File;
+        this.partNumber = partNumber;
+        this.offset = offset;
+        this.length = length;
+        this.md5Base64 = md5Base64;
+        this.md5Hex = md5Hex;
+    }
+
+    public S3File getS3File() {
+        return s3File;
+    }
+
+    public int getPartNumber() {
+        return partNumber;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getMd5Base64() {
+        return md5Base64;
+    }
+
+    public String getMd5Hex() {
+        return md5Hex;
+    }
+}
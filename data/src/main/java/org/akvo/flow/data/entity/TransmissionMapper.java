@@ -51,9 +51,14 @@ public class TransmissionMapper {
                 final int surveyInstanceCol = cursor
                         .getColumnIndexOrThrow(TransmissionColumns.SURVEY_INSTANCE_ID);
                 final int fileCol = cursor.getColumnIndexOrThrow(TransmissionColumns.FILENAME);
+                final int md5Col = cursor.getColumnIndexOrThrow(TransmissionColumns.MD5);
+                final int fileSizeCol = cursor.getColumnIndexOrThrow(TransmissionColumns.FILE_SIZE);
+                final int fileModifiedCol = cursor
+                        .getColumnIndexOrThrow(TransmissionColumns.FILE_MODIFIED);
                 do {
                     String filename = cursor.getString(fileCol);
-                    S3File s3File = fileMapper.transform(filename);
+                    S3File s3File = fileMapper.transform(filename, cursor.getString(md5Col),
+                            cursor.getLong(fileSizeCol), cursor.getLong(fileModifiedCol));
                     if (s3File != null) {
                         Transmission trans = new Transmission(cursor.getLong(idCol),
                                 cursor.getLong(surveyInstanceCol), cursor.getString(formIdCol),
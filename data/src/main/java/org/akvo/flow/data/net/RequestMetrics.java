@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.net;
+
+import java.util.Locale;
+
+/**
+ * Timing of a single http call. Durations are in milliseconds, phases that did not happen
+ * (dns, connection and tls handshake when a pooled connection is reused) are 0.
+ */
+public class RequestMetrics {
+
+    private final String endpoint;
+    private final String method;
+    private final String path;
+    private final long dnsMillis;
+    private final long connectMillis;
+    private final long tlsMillis;
+    private final long timeToFirstByteMillis;
+    private final long totalMillis;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final boolean connectionReused;
+    private final boolean failed;
+
+    public RequestMetrics(String endpoint, String method, String path, long dnsMillis,
+            long connectMillis, long tlsMillis, long timeToFirstByteMillis, long totalMillis,
+            long requestBytes, long responseBytes, boolean connectionReused, boolean failed) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.path = path;
+        this.dnsMillis = dnsMillis;
+        this.connectMillis = connectMillis;
+        this.tlsMillis = tlsMillis;
+        this.timeToFirstByteMillis = timeToFirstByteMillis;
+        this.totalMillis = totalMillis;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.connectionReused = connectionReused;
+        this.failed = failed;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the path of the url, without the query which may contain device identifiers
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    public long getTimeToFirstByteMillis() {
+        return timeToFirstByteMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s %s %s: %d ms (dns %d, connect %d, tls %d, first byte %d), sent %d B, "
+                        + "received %d B%s%s", endpoint, method, path, totalMillis, dnsMillis,
+                connectMillis, tlsMillis, timeToFirstByteMillis, requestBytes, responseBytes,
+                connectionReused ? ", reused connection" : "", failed ? ", failed" : "");
+    }
+}
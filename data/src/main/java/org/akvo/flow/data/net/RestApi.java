@@ -22,12 +22,13 @@ package org.akvo.flow.data.net;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 
 import org.akvo.flow.data.entity.ApiApkData;
 import org.akvo.flow.data.entity.ApiFilesResult;
-import org.akvo.flow.data.entity.ApiLocaleResult;
 import org.akvo.flow.data.entity.S3File;
+import org.akvo.flow.data.entity.S3Part;
 import org.akvo.flow.data.entity.Transmission;
 import org.akvo.flow.data.net.gae.DataPointDownloadService;
 import org.akvo.flow.data.net.gae.DeviceFilesService;
@@ -36,18 +37,24 @@ import org.akvo.flow.data.net.gae.ProcessingNotificationService;
 import org.akvo.flow.data.net.s3.AmazonAuthHelper;
 import org.akvo.flow.data.net.s3.AwsS3;
 import org.akvo.flow.data.net.s3.BodyCreator;
+import org.akvo.flow.data.net.s3.NoSuchUploadException;
 import org.akvo.flow.data.util.ApiUrls;
 import org.akvo.flow.domain.util.DeviceHelper;
 
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.inject.Singleton;
 
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
+import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.HttpException;
@@ -58,6 +65,10 @@ public class RestApi {
     private static final String PAYLOAD_PUT_PUBLIC = "PUT\n%s\n%s\n%s\nx-amz-acl:public-read\n/%s/%s";// md5, type, date, bucket, obj
     private static final String PAYLOAD_PUT_PRIVATE = "PUT\n%s\n%s\n%s\n/%s/%s";// md5, type, date, bucket, obj
     private static final String PAYLOAD_GET = "GET\n\n\n%s\n/%s/%s";// date, bucket, obj
+    private static final String PAYLOAD_POST_PUBLIC = "POST\n%s\n%s\n%s\nx-amz-acl:public-read\n/%s/%s";// md5, type, date, bucket, obj
+    private static final String PAYLOAD_POST_PRIVATE = "POST\n%s\n%s\n%s\n/%s/%s";// md5, type, date, bucket, obj
+    private static final String PAYLOAD_DELETE = "DELETE\n%s\n%s\n%s\n/%s/%s";// md5, type, date, bucket, obj
+    private static final String XML_CONTENT_TYPE = "application/xml";
     private static final String SURVEYS_FOLDER = "surveys";
 
     private final String androidId;
@@ -86,7 +97,10 @@ public class RestApi {
         this.bodyCreator = bodyCreator;
     }
 
-    public Flowable<ApiLocaleResult> downloadDataPoints(long surveyGroup,
+    /**
+     * The body is not buffered, it has to be read (and closed) as a stream
+     */
+    public Flowable<ResponseBody> downloadDataPoints(long surveyGroup,
             @NonNull String timestamp) {
         String lastUpdated = !TextUtils.isEmpty(timestamp) ? timestamp : "0";
         String phoneNumber = encoder.encodeParam(this.phoneNumber);
@@ -119,6 +133,151 @@ public class RestApi {
         }
     }
 
+    /**
+     * Starts a multipart upload of the given file
+     *
+     * @return the upload id
+     */
+    public Observable<String> initiateMultipartUpload(final S3File s3File) {
+        final String date = getDate();
+        String contentType = s3File.getContentType();
+        RequestBody body = RequestBody.create(null, new byte[0]);
+        String resource = s3File.getObjectKey() + "?uploads";
+        Observable<Response<ResponseBody>> request;
+        if (s3File.isPublic()) {
+            String authorization = amazonAuthHelper
+                    .getAmazonAuthForMultipart(date, PAYLOAD_POST_PUBLIC, "", contentType,
+                            resource);
+            request = createRetrofitService()
+                    .initiatePublicMultipartUpload(s3File.getDir(), s3File.getFilename(),
+                            contentType, date, authorization, body);
+        } else {
+            String authorization = amazonAuthHelper
+                    .getAmazonAuthForMultipart(date, PAYLOAD_POST_PRIVATE, "", contentType,
+                            resource);
+            request = createRetrofitService()
+                    .initiateMultipartUpload(s3File.getDir(), s3File.getFilename(), contentType,
+                            date, authorization, body);
+        }
+        return request.concatMap(new Function<Response<ResponseBody>, Observable<String>>() {
+            @Override
+            public Observable<String> apply(Response<ResponseBody> response) throws Exception {
+                String uploadId = getXmlValue(readMultipartResponse(response), "UploadId");
+                if (TextUtils.isEmpty(uploadId)) {
+                    return Observable.error(new Exception(
+                            "Multipart upload to S3 could not be started" + s3File.getFilename()));
+                }
+                return Observable.just(uploadId);
+            }
+        });
+    }
+
+    /**
+     * Uploads one part of a multipart upload, its ETag is verified against the checksum of the
+     * part
+     *
+     * @param partNumber starting at 1, all parts but the last one have partSize bytes
+     * @return the ETag of the uploaded part
+     */
+    public Observable<String> uploadPart(final S3File s3File, final String uploadId,
+            final int partNumber, final long partSize) {
+        return Observable.defer(new Callable<Observable<String>>() {
+            @Override
+            public Observable<String> call() throws Exception {
+                return uploadPart(bodyCreator.createPart(s3File, partNumber, partSize),
+                        uploadId);
+            }
+        });
+    }
+
+    private Observable<String> uploadPart(final S3Part part, String uploadId) {
+        final String date = getDate();
+        S3File s3File = part.getS3File();
+        String resource = s3File.getObjectKey() + "?partNumber=" + part.getPartNumber()
+                + "&uploadId=" + uploadId;
+        String authorization = amazonAuthHelper
+                .getAmazonAuthForMultipart(date, PAYLOAD_PUT_PRIVATE, part.getMd5Base64(),
+                        BodyCreator.PART_CONTENT_TYPE, resource);
+        return createRetrofitService()
+                .uploadPart(s3File.getDir(), s3File.getFilename(), part.getPartNumber(),
+                        uploadId, part.getMd5Base64(), BodyCreator.PART_CONTENT_TYPE, date,
+                        authorization, bodyCreator.createPartBody(part))
+                .concatMap(new Function<Response<ResponseBody>, Observable<String>>() {
+                    @Override
+                    public Observable<String> apply(Response<ResponseBody> response)
+                            throws Exception {
+                        readMultipartResponse(response);
+                        String etag = getEtag(response);
+                        if (TextUtils.isEmpty(etag) || !etag.equals(part.getMd5Hex())) {
+                            return Observable.error(new Exception(
+                                    "Part upload to S3 Failed" + part.getPartNumber()));
+                        }
+                        return Observable.just(etag);
+                    }
+                });
+    }
+
+    /**
+     * Assembles the uploaded parts, the resulting ETag is verified against the checksums of
+     * the parts
+     *
+     * @param partEtags ETags of all the parts, in order
+     */
+    public Observable<String> completeMultipartUpload(final S3File s3File, String uploadId,
+            final List<String> partEtags) {
+        final String date = getDate();
+        String resource = s3File.getObjectKey() + "?uploadId=" + uploadId;
+        String authorization = amazonAuthHelper
+                .getAmazonAuthForMultipart(date, PAYLOAD_POST_PRIVATE, "", XML_CONTENT_TYPE,
+                        resource);
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < partEtags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>\"")
+                    .append(partEtags.get(i)).append("\"</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        RequestBody body = RequestBody.create(MediaType.parse(XML_CONTENT_TYPE), xml.toString());
+        return createRetrofitService()
+                .completeMultipartUpload(s3File.getDir(), s3File.getFilename(), uploadId,
+                        XML_CONTENT_TYPE, date, authorization, body)
+                .concatMap(new Function<Response<ResponseBody>, Observable<String>>() {
+                    @Override
+                    public Observable<String> apply(Response<ResponseBody> response)
+                            throws Exception {
+                        String etag = getXmlValue(readMultipartResponse(response), "ETag");
+                        if (etag != null) {
+                            etag = etag.replace("&quot;", "").replace("\"", "");
+                        }
+                        if (TextUtils.isEmpty(etag) || !etag.equals(getMultipartEtag(partEtags))) {
+                            return Observable.error(new Exception(
+                                    "File upload to S3 Failed" + s3File.getFilename()));
+                        }
+                        return Observable.just(etag);
+                    }
+                });
+    }
+
+    /**
+     * Aborts a multipart upload, S3 then deletes the parts uploaded so far. An upload that no
+     * longer exists fails with a {@link NoSuchUploadException}.
+     */
+    public Observable<Boolean> abortMultipartUpload(S3File s3File, String uploadId) {
+        final String date = getDate();
+        String resource = s3File.getObjectKey() + "?uploadId=" + uploadId;
+        String authorization = amazonAuthHelper
+                .getAmazonAuthForMultipart(date, PAYLOAD_DELETE, "", "", resource);
+        return createRetrofitService()
+                .abortMultipartUpload(s3File.getDir(), s3File.getFilename(), uploadId, date,
+                        authorization)
+                .map(new Function<Response<ResponseBody>, Boolean>() {
+                    @Override
+                    public Boolean apply(Response<ResponseBody> response) throws Exception {
+                        readMultipartResponse(response);
+                        return true;
+                    }
+                });
+    }
+
     public Observable<ApiApkData> loadApkData(String appVersion) {
         return serviceFactory.createRetrofitService(FlowApiService.class, apiUrls.getGaeUrl())
                 .loadApkData(appVersion);
@@ -142,6 +301,20 @@ public class RestApi {
         return createRetrofitService().getSurvey(SURVEYS_FOLDER, fileName, date, authorization);
     }
 
+    /**
+     * Downloads an archive only if it changed since it was downloaded with the given ETag.
+     * Unchanged archives get a 304 (Not Modified) response without body.
+     */
+    public Observable<Response<ResponseBody>> downloadArchiveIfChanged(String fileName,
+            @Nullable String etag) {
+        final String date = getDate();
+        String authorization = amazonAuthHelper
+                .getAmazonAuthForGet(date, PAYLOAD_GET, SURVEYS_FOLDER + "/" + fileName);
+        String ifNoneMatch = etag == null ? null : "\"" + etag + "\"";
+        return createRetrofitService()
+                .getSurveyIfChanged(SURVEYS_FOLDER, fileName, ifNoneMatch, date, authorization);
+    }
+
     private Observable<Response<ResponseBody>> uploadPublicFile(String date, final S3File s3File) {
             String authorization = amazonAuthHelper.getAmazonAuthForPut(date, PAYLOAD_PUT_PUBLIC, s3File);
         return createRetrofitService()
@@ -159,7 +332,7 @@ public class RestApi {
     }
 
     private AwsS3 createRetrofitService() {
-        return serviceFactory.createRetrofitService(AwsS3.class, apiUrls.getS3Url());
+        return serviceFactory.createS3Service(AwsS3.class, apiUrls.getS3Url());
     }
 
     private Observable<Response<ResponseBody>> uploadPrivateFile(String date, final S3File s3File) {
@@ -191,8 +364,61 @@ public class RestApi {
         return Observable.just(response);
     }
 
+    /**
+     * Errors of multipart requests may come with a successful status code, so the body is
+     * always checked
+     *
+     * @return the body of a successful response
+     */
+    @NonNull
+    private String readMultipartResponse(Response<ResponseBody> response) throws Exception {
+        if (response.code() == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new NoSuchUploadException("Multipart upload not found");
+        } else if (!response.isSuccessful()) {
+            throw new HttpException(response);
+        }
+        ResponseBody body = response.body();
+        String content = body == null ? "" : body.string();
+        if (content.contains("<Error>")) {
+            if ("NoSuchUpload".equals(getXmlValue(content, "Code"))) {
+                throw new NoSuchUploadException("Multipart upload not found");
+            }
+            throw new Exception("Multipart upload to S3 Failed: " + getXmlValue(content, "Code"));
+        }
+        return content;
+    }
+
+    @Nullable
+    private String getXmlValue(String xml, String tag) {
+        int start = xml.indexOf("<" + tag + ">");
+        int end = xml.indexOf("</" + tag + ">");
+        if (start == -1 || end < start) {
+            return null;
+        }
+        return xml.substring(start + tag.length() + 2, end).trim();
+    }
+
+    /**
+     * The ETag of a multipart upload is the MD5 of the concatenated MD5 of its parts, followed by
+     * the number of parts
+     */
+    @VisibleForTesting
+    static String getMultipartEtag(List<String> partEtags) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        for (String etag : partEtags) {
+            for (int i = 0; i + 1 < etag.length(); i += 2) {
+                md.update((byte) Integer.parseInt(etag.substring(i, i + 2), 16));
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : md.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.append('-').append(partEtags.size()).toString();
+    }
+
     @Nullable
-    private String getEtag(Response<ResponseBody> response) {
+    public String getEtag(Response<ResponseBody> response) {
         String eTag = response.headers().get("ETag");
         if (!TextUtils.isEmpty(eTag)) {
             eTag = eTag.replaceAll("\"", "");
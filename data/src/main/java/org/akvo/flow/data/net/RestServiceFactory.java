@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -20,48 +20,188 @@
 
 package org.akvo.flow.data.net;
 
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
-import retrofit2.Converter;
+import okhttp3.Protocol;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.converter.scalars.ScalarsConverterFactory;
 
+/**
+ * Creates the retrofit services, each combination of service class, base url, endpoint and
+ * converter is only built once. Every endpoint gets its own http client, derived from the base
+ * one, so S3 transfers and GAE api calls do not share connection pools or timeouts.
+ */
 @Singleton
 public class RestServiceFactory {
 
-    private final OkHttpClient okHttpClientWithHmac;
-    private final OkHttpClient okHttpClient;
+    private static final int GAE_CONNECTION_TIMEOUT = 10;
+    /**
+     * Requests to GAE take a long time especially when there are a lot of datapoints
+     */
+    private static final int NO_TIMEOUT = 0;
+    private static final int S3_TIMEOUT = 60;
+    private static final int GAE_MAX_IDLE_CONNECTIONS = 2;
+    private static final int S3_MAX_IDLE_CONNECTIONS = 4;
+    private static final int KEEP_ALIVE_MINUTES = 5;
+
+    enum Endpoint {
+        GAE, GAE_SIGNED, S3
+    }
+
+    enum Converter {
+        GSON, SCALARS
+    }
+
+    private final OkHttpClient baseClient;
+    private final Interceptor hmacInterceptor;
+
+    @Nullable
+    private final RequestMetricsListener metricsListener;
+
+    private final ConcurrentMap<ServiceKey, Object> services = new ConcurrentHashMap<>();
+    private final Map<Endpoint, OkHttpClient> clients = new EnumMap<>(Endpoint.class);
 
     @Inject
-    public RestServiceFactory(OkHttpClient okHttpClientWithHmac, OkHttpClient okHttpClient) {
-        this.okHttpClientWithHmac = okHttpClientWithHmac;
-        this.okHttpClient = okHttpClient;
+    public RestServiceFactory(OkHttpClient baseClient, Interceptor hmacInterceptor,
+            @Nullable RequestMetricsListener metricsListener) {
+        this.baseClient = baseClient;
+        this.hmacInterceptor = hmacInterceptor;
+        this.metricsListener = metricsListener;
     }
 
     public <T> T createRetrofitServiceWithInterceptor(final Class<T> clazz, String baseUrl) {
-        return createRetrofit(clazz, baseUrl, okHttpClientWithHmac, GsonConverterFactory.create());
+        return getService(clazz, baseUrl, Endpoint.GAE_SIGNED, Converter.GSON);
     }
 
     public <T> T createRetrofitService(final Class<T> clazz, String baseUrl) {
-        return createRetrofit(clazz, baseUrl, okHttpClient, GsonConverterFactory.create());
+        return getService(clazz, baseUrl, Endpoint.GAE, Converter.GSON);
     }
 
     public <T> T createScalarsRetrofitService(final Class<T> clazz, String baseUrl) {
-        return createRetrofit(clazz, baseUrl, okHttpClient, ScalarsConverterFactory.create());
+        return getService(clazz, baseUrl, Endpoint.GAE, Converter.SCALARS);
+    }
+
+    /**
+     * Service for file transfers to and from S3: longer read and write timeouts and
+     * HTTP/1.1 only, so parallel uploads use separate connections
+     */
+    public <T> T createS3Service(final Class<T> clazz, String baseUrl) {
+        return getService(clazz, baseUrl, Endpoint.S3, Converter.GSON);
+    }
+
+    <T> T getService(Class<T> clazz, String baseUrl, Endpoint endpoint, Converter converter) {
+        ServiceKey key = new ServiceKey(clazz, baseUrl, endpoint, converter);
+        Object service = services.get(key);
+        if (service == null) {
+            Object created = createRetrofit(clazz, baseUrl, getClient(endpoint), converter);
+            service = services.putIfAbsent(key, created);
+            if (service == null) {
+                service = created;
+            }
+        }
+        return clazz.cast(service);
+    }
+
+    synchronized OkHttpClient getClient(Endpoint endpoint) {
+        OkHttpClient client = clients.get(endpoint);
+        if (client == null) {
+            client = createClient(endpoint);
+            clients.put(endpoint, client);
+        }
+        return client;
+    }
+
+    private OkHttpClient createClient(Endpoint endpoint) {
+        OkHttpClient.Builder builder = baseClient.newBuilder();
+        switch (endpoint) {
+            case S3:
+                builder.protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                        .connectionPool(new ConnectionPool(S3_MAX_IDLE_CONNECTIONS,
+                                KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                        .connectTimeout(GAE_CONNECTION_TIMEOUT, TimeUnit.SECONDS)
+                        .readTimeout(S3_TIMEOUT, TimeUnit.SECONDS)
+                        .writeTimeout(S3_TIMEOUT, TimeUnit.SECONDS);
+                break;
+            case GAE_SIGNED:
+                builder.addInterceptor(hmacInterceptor);
+                // fall through
+            case GAE:
+            default:
+                builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                        .connectionPool(new ConnectionPool(GAE_MAX_IDLE_CONNECTIONS,
+                                KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                        .connectTimeout(GAE_CONNECTION_TIMEOUT, TimeUnit.SECONDS)
+                        .readTimeout(NO_TIMEOUT, TimeUnit.SECONDS);
+                break;
+        }
+        if (metricsListener != null) {
+            builder.eventListenerFactory(
+                    TimingEventListener.factory(endpoint.name(), metricsListener));
+        }
+        return builder.build();
     }
 
     private <T> T createRetrofit(Class<T> clazz, String baseUrl, OkHttpClient okHttpClient,
-            Converter.Factory converter) {
+            Converter converter) {
         Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(baseUrl)
                 .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
-                .addConverterFactory(converter)
+                .addConverterFactory(converter == Converter.SCALARS ?
+                        ScalarsConverterFactory.create() : GsonConverterFactory.create())
                 .client(okHttpClient)
                 .build();
         return retrofit.create(clazz);
     }
+
+    private static class ServiceKey {
+        private final Class<?> clazz;
+        private final String baseUrl;
+        private final Endpoint endpoint;
+        private final Converter converter;
+
+        ServiceKey(Class<?> clazz, String baseUrl, Endpoint endpoint, Converter converter) {
+            this.clazz = clazz;
+            this.baseUrl = baseUrl;
+            this.endpoint = endpoint;
+            this.converter = converter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ServiceKey that = (ServiceKey) o;
+            return clazz.equals(that.clazz) && baseUrl.equals(that.baseUrl)
+                    && endpoint == that.endpoint && converter == that.converter;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = clazz.hashCode();
+            result = 31 * result + baseUrl.hashCode();
+            result = 31 * result + endpoint.hashCode();
+            result = 31 * result + converter.hashCode();
+            return result;
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.net;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+/**
+ * Measures the phases of a single call and reports them once the call has ended. A new
+ * instance is created for each call so no synchronization is needed.
+ */
+class TimingEventListener extends EventListener {
+
+    private final String endpoint;
+    private final RequestMetricsListener listener;
+
+    private long callStartNanos;
+    private long dnsStartNanos;
+    private long dnsMillis;
+    private long connectStartNanos;
+    private long connectMillis;
+    private long secureConnectStartNanos;
+    private long tlsMillis;
+    private long timeToFirstByteMillis;
+    private long requestBytes;
+    private long responseBytes;
+    // A pooled connection was reused when no connection was opened for this call
+    private boolean connected;
+
+    private TimingEventListener(String endpoint, RequestMetricsListener listener) {
+        this.endpoint = endpoint;
+        this.listener = listener;
+    }
+
+    static EventListener.Factory factory(final String endpoint,
+            final RequestMetricsListener listener) {
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(@NonNull Call call) {
+                return new TimingEventListener(endpoint, listener);
+            }
+        };
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        dnsMillis += millisSince(dnsStartNanos);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStartNanos = System.nanoTime();
+        connected = true;
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        secureConnectStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tlsMillis += millisSince(secureConnectStartNanos);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+            Protocol protocol) {
+        connectMillis += millisSince(connectStartNanos);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+            Protocol protocol, IOException ioe) {
+        connectMillis += millisSince(connectStartNanos);
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        requestBytes += byteCount;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        if (timeToFirstByteMillis == 0) {
+            timeToFirstByteMillis = millisSince(callStartNanos);
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        responseBytes += byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        report(call, false);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        report(call, true);
+    }
+
+    private void report(Call call, boolean failed) {
+        RequestMetrics metrics = new RequestMetrics(endpoint, call.request().method(),
+                call.request().url().encodedPath(), dnsMillis, connectMillis, tlsMillis,
+                timeToFirstByteMillis, millisSince(callStartNanos), requestBytes, responseBytes,
+                !connected, failed);
+        listener.onRequestMetrics(metrics);
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+}
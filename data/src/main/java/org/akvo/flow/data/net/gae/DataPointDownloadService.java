@@ -20,12 +20,12 @@
 
 package org.akvo.flow.data.net.gae;
 
-import org.akvo.flow.data.entity.ApiLocaleResult;
-
 import io.reactivex.Flowable;
+import okhttp3.ResponseBody;
 import retrofit2.http.GET;
 import retrofit2.http.Headers;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 import static org.akvo.flow.data.util.ApiUrls.ANDROID_ID;
 import static org.akvo.flow.data.util.ApiUrls.IMEI;
@@ -38,7 +38,8 @@ public interface DataPointDownloadService {
 
     @GET(SURVEYED_LOCALE)
     @Headers("Cache-Control: no-cache")
-    Flowable<ApiLocaleResult> loadNewDataPoints(@Query(ANDROID_ID) String androidId,
+    @Streaming
+    Flowable<ResponseBody> loadNewDataPoints(@Query(ANDROID_ID) String androidId,
             @Query(IMEI) String imei, @Query(LAST_UPDATED) String lastUpdated,
             @Query(PHONE_NUMBER) String phoneNumber, @Query(SURVEY_GROUP) String surveyGroup);
 }
@@ -56,6 +56,17 @@ public class AmazonAuthHelper {
         return createAuthorization(payload);
     }
 
+    /**
+     * @param resource object key, followed by the multipart sub-resources of the request
+     */
+    @NonNull
+    public String getAmazonAuthForMultipart(String date, String payloadStr, String md5Base64,
+            String contentType, String resource) {
+        final String payload = String
+                .format(payloadStr, md5Base64, contentType, date, s3User.getBucket(), resource);
+        return createAuthorization(payload);
+    }
+
     @VisibleForTesting
     String formatPayloadForPut(String date, String payloadStr, S3File s3File) {
         return String.format(payloadStr, s3File.getMd5Base64(), s3File.getContentType(), date,
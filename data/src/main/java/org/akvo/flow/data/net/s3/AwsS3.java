@@ -25,11 +25,14 @@ import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 import retrofit2.http.Body;
+import retrofit2.http.DELETE;
 import retrofit2.http.GET;
 import retrofit2.http.Header;
 import retrofit2.http.Headers;
+import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
+import retrofit2.http.Query;
 
 import static org.akvo.flow.data.util.ApiUrls.S3_FILE_PATH;
 
@@ -54,9 +57,60 @@ public interface AwsS3 {
             @Header("Authorization") String authorization,
             @Body RequestBody body);
 
+    @POST(S3_FILE_PATH + "?uploads")
+    Observable<Response<ResponseBody>> initiateMultipartUpload(@Path("key") String key,
+            @Path("file") String file,
+            @Header("Content-type") String contentType,
+            @Header("Date") String date,
+            @Header("Authorization") String authorization,
+            @Body RequestBody body);
+
+    @Headers({"x-amz-acl: public-read"})
+    @POST(S3_FILE_PATH + "?uploads")
+    Observable<Response<ResponseBody>> initiatePublicMultipartUpload(@Path("key") String key,
+            @Path("file") String file,
+            @Header("Content-type") String contentType,
+            @Header("Date") String date,
+            @Header("Authorization") String authorization,
+            @Body RequestBody body);
+
+    @PUT(S3_FILE_PATH)
+    Observable<Response<ResponseBody>> uploadPart(@Path("key") String key,
+            @Path("file") String file,
+            @Query("partNumber") int partNumber,
+            @Query("uploadId") String uploadId,
+            @Header("Content-MD5") String md5Base64,
+            @Header("Content-type") String contentType,
+            @Header("Date") String date,
+            @Header("Authorization") String authorization,
+            @Body RequestBody body);
+
+    @POST(S3_FILE_PATH)
+    Observable<Response<ResponseBody>> completeMultipartUpload(@Path("key") String key,
+            @Path("file") String file,
+            @Query("uploadId") String uploadId,
+            @Header("Content-type") String contentType,
+            @Header("Date") String date,
+            @Header("Authorization") String authorization,
+            @Body RequestBody body);
+
+    @DELETE(S3_FILE_PATH)
+    Observable<Response<ResponseBody>> abortMultipartUpload(@Path("key") String key,
+            @Path("file") String file,
+            @Query("uploadId") String uploadId,
+            @Header("Date") String date,
+            @Header("Authorization") String authorization);
+
     @GET(S3_FILE_PATH)
     Observable<ResponseBody> getSurvey(@Path("key") String key,
             @Path("file") String file,
             @Header("Date") String date,
             @Header("Authorization") String authorization);
+
+    @GET(S3_FILE_PATH)
+    Observable<Response<ResponseBody>> getSurveyIfChanged(@Path("key") String key,
+            @Path("file") String file,
+            @Header("If-None-Match") String etag,
+            @Header("Date") String date,
+            @Header("Authorization") String authorization);
 }
@@ -17,25 +17,92 @@
  * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package org.akvo.flow.data.net.s3;
 
 import android.support.annotation.NonNull;
 
 import org.akvo.flow.data.entity.S3File;
+import org.akvo.flow.data.entity.S3Part;
+import org.akvo.flow.data.util.FileHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 
 import javax.inject.Inject;
 
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
 
 public class BodyCreator {
 
+    public static final String PART_CONTENT_TYPE = "application/octet-stream";
+
+    private final FileHelper fileHelper;
+
     @Inject
-    public BodyCreator() {
+    public BodyCreator(FileHelper fileHelper) {
+        this.fileHelper = fileHelper;
     }
 
     @NonNull
     public RequestBody createBody(S3File s3File) {
         return RequestBody.create(MediaType.parse(s3File.getContentType()), s3File.getFile());
     }
+
+    /**
+     * Reads the range of the given part once to compute its checksum
+     *
+     * @param partNumber starting at 1
+     */
+    @NonNull
+    public S3Part createPart(S3File s3File, int partNumber, long partSize) throws IOException {
+        File file = s3File.getFile();
+        long offset = (partNumber - 1) * partSize;
+        long length = Math.min(partSize, file.length() - offset);
+        if (length < 0) {
+            throw new IOException("Part " + partNumber + " is out of " + file.getName());
+        }
+        byte[] md5 = fileHelper.getMD5Checksum(file, offset, length);
+        if (md5 == null) {
+            throw new IOException("Could not read part " + partNumber + " of " + file.getName());
+        }
+        return new S3Part(s3File, partNumber, offset, length, fileHelper.toBase64(md5),
+                fileHelper.toHex(md5));
+    }
+
+    /**
+     * The part is streamed from the file, it is never fully loaded in memory
+     */
+    @NonNull
+    public RequestBody createPartBody(final S3Part part) {
+        final MediaType mediaType = MediaType.parse(PART_CONTENT_TYPE);
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() {
+                return part.getLength();
+            }
+
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                FileInputStream input = new FileInputStream(part.getS3File().getFile());
+                try {
+                    input.getChannel().position(part.getOffset());
+                    Source source = Okio.source(input);
+                    sink.write(source, part.getLength());
+                } finally {
+                    input.close();
+                }
+            }
+        };
+    }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.repository;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.entity.ApiDataPoint;
+import org.akvo.flow.data.entity.ApiSurveyInstance;
+import org.akvo.flow.data.entity.DataPointStreamParser;
+import org.akvo.flow.data.net.RestApi;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+import timber.log.Timber;
+
+/**
+ * Downloads all the pages of data points of a survey group, one after the other without
+ * waiting: the pages are saved on a separate thread, so the next page is requested as soon as
+ * the previous one has been read, while its last chunks are still being written.
+ * Requests are only delayed after an error or when the server is throttling, with an
+ * exponential backoff.
+ * Emits the number of data points synced so far each time a page has been saved.
+ */
+class DataPointPager {
+
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_RETRIES = 5;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // Chunks read but not saved yet, bounds the memory used when the database is slower
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    private final RestApi restApi;
+    private final DataPointStreamParser parser;
+    private final DatabaseDataSource database;
+    private final long initialBackoffMillis;
+
+    DataPointPager(RestApi restApi, DataPointStreamParser parser, DatabaseDataSource database) {
+        this(restApi, parser, database, DEFAULT_INITIAL_BACKOFF_MILLIS);
+    }
+
+    @VisibleForTesting
+    DataPointPager(RestApi restApi, DataPointStreamParser parser, DatabaseDataSource database,
+            long initialBackoffMillis) {
+        this.restApi = restApi;
+        this.parser = parser;
+        this.database = database;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    Flowable<Integer> download(final long surveyGroupId, final String syncedTime) {
+        return Flowable.create(new FlowableOnSubscribe<Integer>() {
+            @Override
+            public void subscribe(FlowableEmitter<Integer> emitter) throws Exception {
+                new Download(surveyGroupId, new State(syncedTime), emitter.serialize()).run();
+            }
+        }, BackpressureStrategy.LATEST);
+    }
+
+    private class Download {
+
+        private final long surveyGroupId;
+        private final State state;
+        private final FlowableEmitter<Integer> emitter;
+        private final ExecutorService writer = Executors.newSingleThreadExecutor();
+        private final Semaphore pendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+        private final List<Future<?>> writes = new ArrayList<>();
+
+        Download(long surveyGroupId, State state, FlowableEmitter<Integer> emitter) {
+            this.surveyGroupId = surveyGroupId;
+            this.state = state;
+            this.emitter = emitter;
+        }
+
+        void run() throws Exception {
+            try {
+                do {
+                    downloadPage();
+                    final int synced = state.getRetrievedItems();
+                    write(new Runnable() {
+                        @Override
+                        public void run() {
+                            emitter.onNext(synced);
+                        }
+                    });
+                } while (!state.isLastPageEmpty() && !emitter.isCancelled());
+                awaitWrites();
+                emitter.onComplete();
+            } finally {
+                writer.shutdownNow();
+            }
+        }
+
+        private void downloadPage() throws Exception {
+            int retries = 0;
+            while (true) {
+                state.startPage();
+                try {
+                    readPage(restApi.downloadDataPoints(surveyGroupId, state.getTimestamp())
+                            .blockingFirst());
+                    state.endPage();
+                    return;
+                } catch (Exception e) {
+                    // Checked exceptions of the request are wrapped by blockingFirst()
+                    Throwable error = e.getCause() instanceof IOException ? e.getCause() : e;
+                    if (retries == MAX_RETRIES || !isRetryable(error)) {
+                        throw e;
+                    }
+                    long delay = getBackoffMillis(error, retries++);
+                    Timber.w(error, "Data point download failed, retrying in %d ms", delay);
+                    awaitWrites();
+                    Thread.sleep(delay);
+                }
+            }
+        }
+
+        private void readPage(ResponseBody responseBody) throws IOException {
+            try {
+                parser.parse(responseBody.charStream(), new DataPointStreamParser.ChunkListener() {
+                    @Override
+                    public void onChunk(@NonNull List<ApiDataPoint> dataPoints) {
+                        saveDataPoints(dataPoints);
+                    }
+                });
+            } finally {
+                responseBody.close();
+            }
+        }
+
+        private void saveDataPoints(List<ApiDataPoint> dataPoints) {
+            final List<ApiDataPoint> newDataPoints = new ArrayList<>(dataPoints.size());
+            for (ApiDataPoint dataPoint : dataPoints) {
+                List<ApiSurveyInstance> instances = dataPoint.getSurveyInstances();
+                if (instances != null && !instances.isEmpty() && state.add(dataPoint)) {
+                    newDataPoints.add(dataPoint);
+                }
+            }
+            if (!newDataPoints.isEmpty()) {
+                write(new Runnable() {
+                    @Override
+                    public void run() {
+                        database.syncDataPoints(newDataPoints);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Queues a write, waiting if too many are pending. Errors of previous writes are
+         * rethrown here, so the download stops.
+         */
+        private void write(final Runnable task) {
+            checkWrites();
+            pendingChunks.acquireUninterruptibly();
+            writes.add(writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        pendingChunks.release();
+                    }
+                }
+            }));
+        }
+
+        private void checkWrites() {
+            for (int i = writes.size() - 1; i >= 0; i--) {
+                Future<?> write = writes.get(i);
+                if (write.isDone()) {
+                    getResult(write);
+                    writes.remove(i);
+                }
+            }
+        }
+
+        private void awaitWrites() {
+            for (Future<?> write : writes) {
+                getResult(write);
+            }
+            writes.clear();
+        }
+
+        private void getResult(Future<?> write) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Network errors, server errors and throttling are retried, other http errors
+     * (such as a missing assignment) are not
+     */
+    private boolean isRetryable(Throwable error) {
+        if (error instanceof IOException) {
+            return true;
+        }
+        if (error instanceof HttpException) {
+            int code = ((HttpException) error).code();
+            return code == HTTP_TOO_MANY_REQUESTS || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        return false;
+    }
+
+    private long getBackoffMillis(Throwable error, int retries) {
+        Long retryAfter = getRetryAfterMillis(error);
+        if (retryAfter != null) {
+            return Math.min(retryAfter, MAX_BACKOFF_MILLIS);
+        }
+        return Math.min(initialBackoffMillis << retries, MAX_BACKOFF_MILLIS);
+    }
+
+    @Nullable
+    private Long getRetryAfterMillis(Throwable error) {
+        if (!(error instanceof HttpException)) {
+            return null;
+        }
+        Response<?> response = ((HttpException) error).response();
+        String retryAfter = response == null ? null : response.headers().get("Retry-After");
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            // Http dates are not used by our servers
+            return null;
+        }
+    }
+
+    /**
+     * Keeps track of the download across pages. The next page is requested from the
+     * modification date of the last data point, so a new page starts with the last data points
+     * of the previous one (same modification date): only their ids are kept to skip them.
+     */
+    static class State {
+
+        private String timestamp;
+        private int retrievedItems = 0;
+
+        private Set<String> lastPageIds = new HashSet<>();
+        private long lastPageTimestamp;
+
+        private Set<String> pageIds = new HashSet<>();
+        private long pageTimestamp;
+        private int pageItems;
+        private int retrievedBeforePage;
+
+        State(String timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Also called when a page is retried: the data points already saved will be saved
+         * again, but not counted twice
+         */
+        void startPage() {
+            pageIds = new HashSet<>();
+            pageItems = 0;
+            retrievedItems = retrievedBeforePage;
+        }
+
+        /**
+         * @return false if the data point was already saved with the previous page
+         */
+        boolean add(ApiDataPoint dataPoint) {
+            long lastModified = dataPoint.getLastModified();
+            if (lastModified == lastPageTimestamp && lastPageIds.contains(dataPoint.getId())) {
+                return false;
+            }
+            if (pageItems == 0 || lastModified != pageTimestamp) {
+                pageIds.clear();
+                pageTimestamp = lastModified;
+            }
+            pageIds.add(dataPoint.getId());
+            pageItems++;
+            retrievedItems++;
+            return true;
+        }
+
+        void endPage() {
+            if (pageItems != 0) {
+                timestamp = String.valueOf(pageTimestamp);
+                lastPageTimestamp = pageTimestamp;
+                lastPageIds = pageIds;
+            }
+            retrievedBeforePage = retrievedItems;
+        }
+
+        String getTimestamp() {
+            return timestamp;
+        }
+
+        int getRetrievedItems() {
+            return retrievedItems;
+        }
+
+        boolean isLastPageEmpty() {
+            return pageItems == 0;
+        }
+    }
+}
@@ -111,12 +111,6 @@ public class FileDataRepository implements FileRepository {
         return dataSourceFactory.getFileDataSource().getZipFile(uuid);
     }
 
-    @Override
-    public Observable<Boolean> createDataZip(String zipFileName, String formInstanceData) {
-        return dataSourceFactory.getFileDataSource()
-                .writeDataToZipFile(zipFileName, formInstanceData);
-    }
-
     @Override
     public Observable<String> copyVideo(final Uri uri, final boolean removeOriginal) {
         return dataSourceFactory.getVideoDataSource().copyVideo(uri, removeOriginal);
@@ -24,6 +24,7 @@ import android.database.Cursor;
 
 import org.akvo.flow.data.datasource.DataSourceFactory;
 import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.datasource.files.FileDataSource;
 import org.akvo.flow.data.entity.ApiFormHeader;
 import org.akvo.flow.data.entity.form.Form;
 import org.akvo.flow.data.entity.form.FormHeaderParser;
@@ -39,29 +40,50 @@ import java.util.List;
 import javax.inject.Inject;
 
 import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
 import okhttp3.ResponseBody;
 import timber.log.Timber;
 
+/**
+ * Forms are downloaded in parallel, up to the download concurrency. Each form is extracted
+ * into a staging folder and parsed before it replaces the installed version, so a form that
+ * fails to download stays usable. Cascade resources shared by several forms are downloaded
+ * once per run and skipped when unchanged.
+ */
 public class FormDataRepository implements FormRepository {
 
     private static final String TEST_FORM_ID = "0";
+    static final int DEFAULT_DOWNLOAD_CONCURRENCY = 4;
 
     private final FormHeaderParser formHeaderParser;
     private final XmlFormParser xmlParser;
     private final RestApi restApi;
     private final DataSourceFactory dataSourceFactory;
     private final FormIdMapper formIdMapper;
+    private final Scheduler scheduler;
+    private final int downloadConcurrency;
 
     @Inject
     public FormDataRepository(FormHeaderParser formHeaderParser, XmlFormParser xmlParser,
             RestApi restApi, DataSourceFactory dataSourceFactory, FormIdMapper formIdMapper) {
+        this(formHeaderParser, xmlParser, restApi, dataSourceFactory, formIdMapper,
+                Schedulers.io(), DEFAULT_DOWNLOAD_CONCURRENCY);
+    }
+
+    FormDataRepository(FormHeaderParser formHeaderParser, XmlFormParser xmlParser,
+            RestApi restApi, DataSourceFactory dataSourceFactory, FormIdMapper formIdMapper,
+            Scheduler scheduler, int downloadConcurrency) {
         this.formHeaderParser = formHeaderParser;
         this.xmlParser = xmlParser;
         this.restApi = restApi;
         this.dataSourceFactory = dataSourceFactory;
         this.formIdMapper = formIdMapper;
+        this.scheduler = scheduler;
+        this.downloadConcurrency = downloadConcurrency;
     }
 
     @Override
@@ -70,10 +92,14 @@ public class FormDataRepository implements FormRepository {
         if (TEST_FORM_ID.equals(formId)) {
             return dataBaseDataSource.installTestForm();
         } else {
-            return downloadFormHeader(formId, deviceId);
+            return downloadFormHeader(formId, deviceId, false, newResourceDownloader());
         }
     }
 
+    /**
+     * Downloads again all the installed forms. The installed forms are not deleted beforehand,
+     * each one is replaced once its new version has been extracted and parsed.
+     */
     @Override
     public Observable<Integer> reloadForms(final String deviceId) {
         final DatabaseDataSource dataBaseDataSource = dataSourceFactory.getDataBaseDataSource();
@@ -87,13 +113,7 @@ public class FormDataRepository implements FormRepository {
                 .concatMap(new Function<List<String>, Observable<Integer>>() {
                     @Override
                     public Observable<Integer> apply(final List<String> formIds) {
-                        return dataBaseDataSource.deleteAllForms()
-                                .concatMap(new Function<Boolean, Observable<Integer>>() {
-                                    @Override
-                                    public Observable<Integer> apply(Boolean aBoolean) {
-                                        return downloadFormHeaders(formIds, deviceId);
-                                    }
-                                });
+                        return downloadFormHeaders(formIds, deviceId);
                     }
                 });
     }
@@ -115,7 +135,8 @@ public class FormDataRepository implements FormRepository {
                 });
     }
 
-    private Observable<Boolean> downloadFormHeader(String formId, String deviceId) {
+    private Observable<Boolean> downloadFormHeader(String formId, String deviceId,
+            final boolean forceUpdate, final FormResourceDownloader resourceDownloader) {
         return restApi.downloadFormHeader(formId, deviceId)
                 .map(new Function<String, ApiFormHeader>() {
                     @Override
@@ -126,20 +147,25 @@ public class FormDataRepository implements FormRepository {
                 .concatMap(new Function<ApiFormHeader, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(final ApiFormHeader apiFormHeader) {
-                        return insertAndDownload(apiFormHeader);
+                        return insertAndDownload(apiFormHeader, forceUpdate, resourceDownloader);
                     }
                 });
     }
 
+    /**
+     * Failed forms do not stop the others, the first error is reported once all of them are
+     * done
+     */
     private Observable<Integer> downloadForms(List<ApiFormHeader> apiFormHeaders) {
+        final FormResourceDownloader resourceDownloader = newResourceDownloader();
         return Observable.fromIterable(apiFormHeaders)
-                .concatMap(new Function<ApiFormHeader, Observable<Boolean>>() {
+                .flatMap(new Function<ApiFormHeader, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(final ApiFormHeader apiFormHeader) {
-                        return insertAndDownload(apiFormHeader);
-
+                        return insertAndDownload(apiFormHeader, false, resourceDownloader)
+                                .subscribeOn(scheduler);
                     }
-                })
+                }, true, downloadConcurrency)
                 .toList()
                 .toObservable()
                 .map(new Function<List<Boolean>, Integer>() {
@@ -150,24 +176,27 @@ public class FormDataRepository implements FormRepository {
                 });
     }
 
-    private Observable<Boolean> insertAndDownload(final ApiFormHeader apiFormHeader) {
+    private Observable<Boolean> insertAndDownload(final ApiFormHeader apiFormHeader,
+            final boolean forceUpdate, final FormResourceDownloader resourceDownloader) {
         return dataSourceFactory.getDataBaseDataSource().insertSurveyGroup(apiFormHeader)
                 .concatMap(new Function<Boolean, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(Boolean ignored) {
-                        return downloadForm(apiFormHeader);
+                        return downloadForm(apiFormHeader, forceUpdate, resourceDownloader);
                     }
                 });
     }
 
     private Observable<Integer> downloadFormHeaders(List<String> formIds, final String deviceId) {
+        final FormResourceDownloader resourceDownloader = newResourceDownloader();
         return Observable.fromIterable(formIds)
-                .concatMap(new Function<String, Observable<Boolean>>() {
+                .flatMap(new Function<String, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(String formId) {
-                        return downloadFormHeader(formId, deviceId);
+                        return downloadFormHeader(formId, deviceId, true, resourceDownloader)
+                                .subscribeOn(scheduler);
                     }
-                })
+                }, true, downloadConcurrency)
                 .toList()
                 .toObservable()
                 .map(new Function<List<Boolean>, Integer>() {
@@ -178,13 +207,17 @@ public class FormDataRepository implements FormRepository {
                 });
     }
 
-    private Observable<Boolean> downloadForm(final ApiFormHeader apiFormHeader) {
+    private Observable<Boolean> downloadForm(final ApiFormHeader apiFormHeader,
+            boolean forceUpdate, final FormResourceDownloader resourceDownloader) {
+        if (forceUpdate) {
+            return downloadAndSaveForm(apiFormHeader, resourceDownloader);
+        }
         return dataSourceFactory.getDataBaseDataSource().formNeedsUpdate(apiFormHeader)
                 .concatMap(new Function<Boolean, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(Boolean updateNeeded) {
                         if (updateNeeded) {
-                            return downloadAndSaveForm(apiFormHeader);
+                            return downloadAndSaveForm(apiFormHeader, resourceDownloader);
                         } else {
                             return Observable.just(true);
                         }
@@ -193,31 +226,33 @@ public class FormDataRepository implements FormRepository {
                 });
     }
 
-    private Observable<Boolean> downloadAndSaveForm(final ApiFormHeader apiFormHeader) {
-        return downloadAndExtractFile(apiFormHeader.getId() + FlowFileBrowser.ZIP_SUFFIX,
-                FlowFileBrowser.DIR_FORMS)
-                .concatMap(new Function<Boolean, Observable<Boolean>>() {
-                    @Override
-                    public Observable<Boolean> apply(Boolean aBoolean) {
-                        return saveForm(apiFormHeader);
-                    }
-                });
-    }
-
-    private Observable<Boolean> downloadAndExtractFile(String fileName, final String folder) {
-        return restApi.downloadArchive(fileName)
+    private Observable<Boolean> downloadAndSaveForm(final ApiFormHeader apiFormHeader,
+            final FormResourceDownloader resourceDownloader) {
+        final String formId = apiFormHeader.getId();
+        return restApi.downloadArchive(formId + FlowFileBrowser.ZIP_SUFFIX)
                 .concatMap(new Function<ResponseBody, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(ResponseBody responseBody) {
                         return dataSourceFactory.getFileDataSource()
-                                .extractRemoteArchive(responseBody, folder);
-
+                                .extractFormArchive(responseBody, formId);
+                    }
+                })
+                .concatMap(new Function<Boolean, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> apply(Boolean aBoolean) {
+                        return saveForm(apiFormHeader, resourceDownloader);
                     }
                 });
     }
 
-    private Observable<Boolean> saveForm(final ApiFormHeader apiFormHeader) {
-        return dataSourceFactory.getFileDataSource().getFormFile(apiFormHeader.getId())
+    /**
+     * The staged form is only installed once it has been parsed. If its resources fail to
+     * download it is still installed, flagged as missing them, and the error is propagated.
+     */
+    private Observable<Boolean> saveForm(final ApiFormHeader apiFormHeader,
+            final FormResourceDownloader resourceDownloader) {
+        final FileDataSource fileDataSource = dataSourceFactory.getFileDataSource();
+        return fileDataSource.getStagedFormFile(apiFormHeader.getId())
                 .map(new Function<InputStream, Form>() {
                     @Override
                     public Form apply(InputStream inputStream) {
@@ -227,36 +262,65 @@ public class FormDataRepository implements FormRepository {
                 .concatMap(new Function<Form, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(final Form form) {
-                        return downloadResources(form)
+                        return downloadResources(form, resourceDownloader)
+                                .onErrorResumeNext(
+                                        new Function<Throwable, ObservableSource<Boolean>>() {
+                                            @Override
+                                            public ObservableSource<Boolean> apply(
+                                                    Throwable throwable) {
+                                                return installWithoutResources(apiFormHeader,
+                                                        form, throwable);
+                                            }
+                                        })
                                 .concatMap(new Function<Boolean, Observable<Boolean>>() {
                                     @Override
                                     public Observable<Boolean> apply(Boolean aBoolean) {
-                                        return dataSourceFactory.getDataBaseDataSource()
-                                                .insertSurvey(apiFormHeader, true, form);
-                                    }
-                                })
-                                .doOnError(new Consumer<Throwable>() {
-                                    @Override
-                                    public void accept(Throwable throwable) {
-                                        Timber.e(throwable);
-                                        dataSourceFactory.getDataBaseDataSource()
-                                                .insertSurvey(apiFormHeader, false, form);
+                                        return installForm(apiFormHeader, true, form);
                                     }
                                 });
                     }
+                })
+                .doOnError(new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        fileDataSource.discardStagedForm(apiFormHeader.getId());
+                    }
+                });
+    }
+
+    private Observable<Boolean> installWithoutResources(ApiFormHeader apiFormHeader,
+            Form form, final Throwable throwable) {
+        Timber.e(throwable);
+        return installForm(apiFormHeader, false, form)
+                .concatMap(new Function<Boolean, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> apply(Boolean ignored) {
+                        return Observable.error(throwable);
+                    }
                 });
+    }
 
+    private Observable<Boolean> installForm(final ApiFormHeader apiFormHeader,
+            final boolean resourcesDownloaded, final Form form) {
+        return dataSourceFactory.getFileDataSource().publishStagedForm(apiFormHeader.getId())
+                .concatMap(new Function<Boolean, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> apply(Boolean aBoolean) {
+                        return dataSourceFactory.getDataBaseDataSource()
+                                .insertSurvey(apiFormHeader, resourcesDownloaded, form);
+                    }
+                });
     }
 
-    private Observable<Boolean> downloadResources(Form form) {
+    private Observable<Boolean> downloadResources(Form form,
+            final FormResourceDownloader resourceDownloader) {
         return Observable.fromIterable(form.getResources())
-                .concatMap(new Function<String, Observable<Boolean>>() {
+                .flatMap(new Function<String, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(String resource) {
-                        return downloadAndExtractFile(resource + FlowFileBrowser.ZIP_SUFFIX,
-                                FlowFileBrowser.DIR_RES);
+                        return resourceDownloader.download(resource);
                     }
-                })
+                }, downloadConcurrency)
                 .toList()
                 .toObservable()
                 .map(new Function<List<Boolean>, Boolean>() {
@@ -266,4 +330,9 @@ public class FormDataRepository implements FormRepository {
                     }
                 });
     }
+
+    private FormResourceDownloader newResourceDownloader() {
+        return new FormResourceDownloader(restApi, dataSourceFactory.getFileDataSource(),
+                scheduler);
+    }
 }
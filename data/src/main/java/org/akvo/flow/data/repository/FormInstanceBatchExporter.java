@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.repository;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.entity.FormInstanceZipWriter;
+import org.akvo.flow.domain.entity.ExportResult;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
+import timber.log.Timber;
+
+/**
+ * Exports a batch of form instances. The data zip files are written in parallel, up to the
+ * export concurrency, each from its own responses cursor. Once all of them are written, the
+ * transmissions of the exported instances are saved in a single transaction.
+ * An instance that fails is left pending, so it is exported again on the next run, without
+ * affecting the others, and one {@link ExportResult} is emitted per instance.
+ */
+class FormInstanceBatchExporter {
+
+    static final int DEFAULT_EXPORT_CONCURRENCY = 3;
+
+    private final DatabaseDataSource database;
+    private final FormInstanceZipWriter zipWriter;
+    private final Scheduler scheduler;
+    private final int exportConcurrency;
+
+    FormInstanceBatchExporter(DatabaseDataSource database, FormInstanceZipWriter zipWriter,
+            Scheduler scheduler) {
+        this(database, zipWriter, scheduler, DEFAULT_EXPORT_CONCURRENCY);
+    }
+
+    FormInstanceBatchExporter(DatabaseDataSource database, FormInstanceZipWriter zipWriter,
+            Scheduler scheduler, int exportConcurrency) {
+        this.database = database;
+        this.zipWriter = zipWriter;
+        this.scheduler = scheduler;
+        this.exportConcurrency = exportConcurrency;
+    }
+
+    /**
+     * @return the result of every instance, in completion order
+     */
+    Observable<List<ExportResult>> export(@NonNull List<Long> instanceIds,
+            final String deviceId, final File zipFolder) {
+        return Observable.fromIterable(instanceIds)
+                .flatMap(new Function<Long, ObservableSource<ExportedInstance>>() {
+                    @Override
+                    public ObservableSource<ExportedInstance> apply(Long instanceId) {
+                        return writeZipFile(instanceId, deviceId, zipFolder)
+                                .subscribeOn(scheduler);
+                    }
+                }, exportConcurrency)
+                .toList()
+                .map(new Function<List<ExportedInstance>, List<ExportResult>>() {
+                    @Override
+                    public List<ExportResult> apply(List<ExportedInstance> exportedInstances) {
+                        return saveTransmissions(exportedInstances);
+                    }
+                })
+                .toObservable();
+    }
+
+    private Observable<ExportedInstance> writeZipFile(final long instanceId,
+            final String deviceId, final File zipFolder) {
+        return Observable
+                .defer(new Callable<ObservableSource<ExportedInstance>>() {
+                    @Override
+                    public ObservableSource<ExportedInstance> call() {
+                        return database.getResponses(instanceId)
+                                .map(new Function<Cursor, ExportedInstance>() {
+                                    @Override
+                                    public ExportedInstance apply(Cursor cursor)
+                                            throws IOException {
+                                        FormInstanceMetadata metadata = zipWriter
+                                                .write(cursor, deviceId, zipFolder);
+                                        return new ExportedInstance(instanceId, metadata);
+                                    }
+                                });
+                    }
+                })
+                .onErrorReturn(new Function<Throwable, ExportedInstance>() {
+                    @Override
+                    public ExportedInstance apply(Throwable throwable) {
+                        Timber.e(throwable, "Error exporting form instance %d", instanceId);
+                        return new ExportedInstance(instanceId,
+                                throwable instanceof IOException ?
+                                        ExportResult.ResultCode.ERROR_FILE :
+                                        ExportResult.ResultCode.ERROR_DATABASE);
+                    }
+                });
+    }
+
+    private List<ExportResult> saveTransmissions(List<ExportedInstance> exportedInstances) {
+        Map<Long, FormInstanceMetadata> validInstances = new LinkedHashMap<>();
+        for (ExportedInstance exportedInstance : exportedInstances) {
+            if (exportedInstance.resultCode == ExportResult.ResultCode.SUCCESS) {
+                validInstances.put(exportedInstance.instanceId, exportedInstance.metadata);
+            }
+        }
+        Set<Long> failedInstances = validInstances.isEmpty() ?
+                Collections.<Long>emptySet() :
+                database.saveExportedInstances(validInstances);
+
+        List<ExportResult> results = new ArrayList<>(exportedInstances.size());
+        for (ExportedInstance exportedInstance : exportedInstances) {
+            long instanceId = exportedInstance.instanceId;
+            ExportResult.ResultCode resultCode = failedInstances.contains(instanceId) ?
+                    ExportResult.ResultCode.ERROR_DATABASE :
+                    exportedInstance.resultCode;
+            results.add(new ExportResult(instanceId, resultCode));
+        }
+        return results;
+    }
+
+    private static class ExportedInstance {
+
+        final long instanceId;
+
+        @Nullable
+        final FormInstanceMetadata metadata;
+
+        final ExportResult.ResultCode resultCode;
+
+        ExportedInstance(long instanceId, @NonNull FormInstanceMetadata metadata) {
+            this.instanceId = instanceId;
+            this.metadata = metadata;
+            this.resultCode = metadata.isValid() ?
+                    ExportResult.ResultCode.SUCCESS :
+                    ExportResult.ResultCode.ERROR_INVALID_INSTANCE;
+        }
+
+        ExportedInstance(long instanceId, ExportResult.ResultCode resultCode) {
+            this.instanceId = instanceId;
+            this.metadata = null;
+            this.resultCode = resultCode;
+        }
+    }
+}
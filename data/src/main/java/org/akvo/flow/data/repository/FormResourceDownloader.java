@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.repository;
+
+import org.akvo.flow.data.datasource.files.FileDataSource;
+import org.akvo.flow.data.net.RestApi;
+import org.akvo.flow.data.util.FlowFileBrowser;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+import timber.log.Timber;
+
+/**
+ * Downloads the cascade resources of the forms of a single download run. A resource shared
+ * by several forms is only downloaded once, all of them wait for the same download, and
+ * resources which did not change since they were installed (same S3 ETag) are skipped.
+ */
+class FormResourceDownloader {
+
+    private final RestApi restApi;
+    private final FileDataSource fileDataSource;
+    private final Scheduler scheduler;
+    private final ConcurrentMap<String, Observable<Boolean>> downloads =
+            new ConcurrentHashMap<>();
+
+    FormResourceDownloader(RestApi restApi, FileDataSource fileDataSource,
+            Scheduler scheduler) {
+        this.restApi = restApi;
+        this.fileDataSource = fileDataSource;
+        this.scheduler = scheduler;
+    }
+
+    Observable<Boolean> download(String resource) {
+        Observable<Boolean> download = downloads.get(resource);
+        if (download == null) {
+            Observable<Boolean> created = createDownload(resource)
+                    .subscribeOn(scheduler)
+                    .cache();
+            download = downloads.putIfAbsent(resource, created);
+            if (download == null) {
+                download = created;
+            }
+        }
+        return download;
+    }
+
+    private Observable<Boolean> createDownload(final String resource) {
+        return Observable.defer(new Callable<ObservableSource<Response<ResponseBody>>>() {
+            @Override
+            public ObservableSource<Response<ResponseBody>> call() {
+                String checksum = fileDataSource.getResourceChecksum(resource);
+                return restApi.downloadArchiveIfChanged(resource + FlowFileBrowser.ZIP_SUFFIX,
+                        checksum);
+            }
+        }).concatMap(new Function<Response<ResponseBody>, Observable<Boolean>>() {
+            @Override
+            public Observable<Boolean> apply(Response<ResponseBody> response) {
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    Timber.d("Resource %s is up to date", resource);
+                    return Observable.just(true);
+                }
+                ResponseBody body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    return Observable.error(new HttpException(response));
+                }
+                return fileDataSource
+                        .extractResourceArchive(body, resource, restApi.getEtag(response));
+            }
+        });
+    }
+}
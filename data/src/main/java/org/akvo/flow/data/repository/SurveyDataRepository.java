@@ -26,57 +26,49 @@ import android.support.annotation.VisibleForTesting;
 
 import org.akvo.flow.data.datasource.DataSourceFactory;
 import org.akvo.flow.data.datasource.DatabaseDataSource;
-import org.akvo.flow.data.entity.ApiDataPoint;
-import org.akvo.flow.data.entity.ApiLocaleResult;
-import org.akvo.flow.data.entity.ApiSurveyInstance;
 import org.akvo.flow.data.entity.DataPointMapper;
+import org.akvo.flow.data.entity.DataPointStreamParser;
 import org.akvo.flow.data.entity.form.FormIdMapper;
 import org.akvo.flow.data.entity.FormInstanceMapper;
-import org.akvo.flow.data.entity.FormInstanceMetadataMapper;
-import org.akvo.flow.data.entity.S3File;
+import org.akvo.flow.data.entity.FormInstanceZipWriter;
 import org.akvo.flow.data.entity.SurveyMapper;
 import org.akvo.flow.data.entity.SyncedTimeMapper;
 import org.akvo.flow.data.entity.Transmission;
 import org.akvo.flow.data.entity.TransmissionFilenameMapper;
 import org.akvo.flow.data.entity.TransmissionMapper;
-import org.akvo.flow.data.entity.UploadError;
 import org.akvo.flow.data.entity.UploadFormDeletedError;
 import org.akvo.flow.data.entity.UploadResult;
 import org.akvo.flow.data.entity.UploadSuccess;
 import org.akvo.flow.data.entity.UserMapper;
 import org.akvo.flow.data.net.RestApi;
+import org.akvo.flow.database.britedb.DataPointPageKey;
 import org.akvo.flow.domain.entity.DataPoint;
+import org.akvo.flow.domain.entity.ExportResult;
 import org.akvo.flow.domain.entity.FormInstanceMetadata;
 import org.akvo.flow.domain.entity.InstanceIdUuid;
+import org.akvo.flow.domain.entity.PointCluster;
 import org.akvo.flow.domain.entity.Survey;
 import org.akvo.flow.domain.entity.User;
 import org.akvo.flow.domain.exception.AssignmentRequiredException;
 import org.akvo.flow.domain.repository.SurveyRepository;
-import org.reactivestreams.Publisher;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
-import io.reactivex.Single;
-import io.reactivex.SingleSource;
 import io.reactivex.functions.BiFunction;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
-import io.reactivex.functions.Predicate;
-import okhttp3.ResponseBody;
+import io.reactivex.schedulers.Schedulers;
 import retrofit2.HttpException;
-import retrofit2.Response;
-import timber.log.Timber;
 
 public class SurveyDataRepository implements SurveyRepository {
 
@@ -90,7 +82,8 @@ public class SurveyDataRepository implements SurveyRepository {
     private final FormIdMapper formIdMapper;
     private final TransmissionMapper transmissionMapper;
     private final FormInstanceMapper formInstanceMapper;
-    private final FormInstanceMetadataMapper formInstanceMetadataMapper;
+    private final FormInstanceZipWriter formInstanceZipWriter;
+    private final DataPointStreamParser dataPointStreamParser;
 
     //TODO: this needs to be split, too many methods and params
     @Inject
@@ -99,7 +92,8 @@ public class SurveyDataRepository implements SurveyRepository {
             SurveyMapper surveyMapper, UserMapper userMapper,
             TransmissionFilenameMapper transmissionFilenameMapper,
             TransmissionMapper transmissionMapper, FormInstanceMapper formInstanceMapper,
-            FormIdMapper formIdMapper, FormInstanceMetadataMapper formInstanceMetadataMapper) {
+            FormIdMapper formIdMapper, FormInstanceZipWriter formInstanceZipWriter,
+            DataPointStreamParser dataPointStreamParser) {
         this.dataSourceFactory = dataSourceFactory;
         this.dataPointMapper = dataPointMapper;
         this.syncedTimeMapper = syncedTimeMapper;
@@ -110,7 +104,8 @@ public class SurveyDataRepository implements SurveyRepository {
         this.formIdMapper = formIdMapper;
         this.transmissionMapper = transmissionMapper;
         this.formInstanceMapper = formInstanceMapper;
-        this.formInstanceMetadataMapper = formInstanceMetadataMapper;
+        this.formInstanceZipWriter = formInstanceZipWriter;
+        this.dataPointStreamParser = dataPointStreamParser;
     }
 
     @Override
@@ -137,6 +132,30 @@ public class SurveyDataRepository implements SurveyRepository {
                         });
     }
 
+    @Override
+    public Observable<List<DataPoint>> getDataPointsPage(Long surveyGroupId, String filter,
+            Double latitude, Double longitude, Integer orderBy, DataPoint after, int pageSize) {
+        DataPointPageKey afterKey = after == null ? null : new DataPointPageKey(after.getId(),
+                after.getLastModified(), after.getName(), after.getStatus(), after.getLatitude(),
+                after.getLongitude());
+        return dataSourceFactory.getDataBaseDataSource()
+                .getDataPointsPage(surveyGroupId, filter, latitude, longitude, orderBy, afterKey,
+                        pageSize)
+                .map(new Function<Cursor, List<DataPoint>>() {
+                    @Override
+                    public List<DataPoint> apply(Cursor cursor) {
+                        return dataPointMapper.getDataPoints(cursor);
+                    }
+                });
+    }
+
+    @Override
+    public Observable<List<PointCluster>> getDataPointClusters(long surveyGroupId,
+            boolean reload, double zoom, double south, double west, double north, double east) {
+        return dataSourceFactory.getDataBaseDataSource()
+                .getDataPointClusters(surveyGroupId, reload, zoom, south, west, north, east);
+    }
+
     @Override
     public Flowable<Integer> downloadDataPoints(final long surveyGroupId) {
         return syncDataPoints(surveyGroupId)
@@ -164,124 +183,16 @@ public class SurveyDataRepository implements SurveyRepository {
     }
 
     private Flowable<Integer> syncDataPoints(final long surveyGroupId) {
-        final State state = new State(getSyncedTime(surveyGroupId));
-        return downloadDataPoints(surveyGroupId, state)
-                .doOnNext(new Consumer<State>() {
-                    @Override
-                    public void accept(@NonNull State state) {
-                        List<ApiDataPoint> lastBatch = state.getLastBatch();
-                        dataSourceFactory.getDataBaseDataSource().syncDataPoints(lastBatch);
-                    }
-                })
-                .repeatWhen(new Function<Flowable<Object>, Publisher<?>>() {
-                    @Override
-                    public Publisher<?> apply(@NonNull Flowable<Object> flowable) {
-                        return flowable.delay(15, TimeUnit.SECONDS);
-                    }
-                })
-                .takeUntil(new Predicate<State>() {
-                    @Override
-                    public boolean test(State state) {
-                        return state.getLastBatch().isEmpty();
-                    }
-                })
-                .filter(new Predicate<State>() {
-                    @Override
-                    public boolean test(State state) {
-                        return state.getLastBatch().isEmpty();
-                    }
-                })
-                .map(new Function<State, Integer>() {
-                    @Override
-                    public Integer apply(State state) {
-                        return state.retrievedItems;
-                    }
-                });
-    }
-
-    private Flowable<State> downloadDataPoints(final long surveyGroupId,
-            final State state) {
-        return Flowable.defer(new Callable<Flowable<ApiLocaleResult>>() {
+        return Flowable.defer(new Callable<Flowable<Integer>>() {
             @Override
-            public Flowable<ApiLocaleResult> call() {
-                return restApi.downloadDataPoints(surveyGroupId,
-                        state.getTimestamp());
-            }
-        }).map(new Function<ApiLocaleResult, List<ApiDataPoint>>() {
-            @Override
-            public List<ApiDataPoint> apply(@NonNull ApiLocaleResult apiLocaleResult) {
-                if (apiLocaleResult == null || apiLocaleResult.getDataPoints() == null) {
-                    return Collections.emptyList();
-                }
-                List<ApiDataPoint> dataPoints = apiLocaleResult.getDataPoints();
-                dataPoints.removeAll(state.getLastBatch()); //remove duplicates
-                return dataPoints;
-            }
-        }).concatMap(new Function<List<ApiDataPoint>, Flowable<State>>() {
-            @Override
-            public Flowable<State> apply(@NonNull List<ApiDataPoint> dataPoints) {
-                return filterDataPoints(dataPoints, state);
+            public Flowable<Integer> call() {
+                DataPointPager pager = new DataPointPager(restApi, dataPointStreamParser,
+                        dataSourceFactory.getDataBaseDataSource());
+                return pager.download(surveyGroupId, getSyncedTime(surveyGroupId));
             }
         });
     }
 
-    private Flowable<State> filterDataPoints(@NonNull List<ApiDataPoint> dataPoints,
-            final State state) {
-        return Flowable.fromIterable(dataPoints)
-                .filter(new Predicate<ApiDataPoint>() {
-                    @Override
-                    public boolean test(@NonNull ApiDataPoint apiDataPoint) {
-                        List<ApiSurveyInstance> instances = apiDataPoint.getSurveyInstances();
-                        return instances != null && !instances.isEmpty();
-                    }
-                })
-                .toList()
-                .flatMap(new Function<List<ApiDataPoint>, SingleSource<State>>() {
-                    @Override
-                    public SingleSource<State> apply(@NonNull List<ApiDataPoint> points) {
-                        state.update(points);
-                        return Single.just(state);
-                    }
-                })
-                .toFlowable();
-    }
-
-    public class State {
-
-        @NonNull
-        private final List<ApiDataPoint> lastBatch;
-
-        private String timestamp;
-        private int retrievedItems = 0;
-
-        State(String timestamp) {
-            this.timestamp = timestamp;
-            this.lastBatch = new ArrayList<>();
-        }
-
-        void update(List<ApiDataPoint> dataPoints) {
-            if (dataPoints == null) {
-                return;
-            }
-            lastBatch.clear();
-            lastBatch.addAll(dataPoints);
-            retrievedItems += dataPoints.size();
-            int size = lastBatch.size();
-            if (size != 0) {
-                ApiDataPoint lastDataPoint = lastBatch.get(size - 1);
-                timestamp = String.valueOf(lastDataPoint.getLastModified());
-            }
-        }
-
-        String getTimestamp() {
-            return timestamp;
-        }
-
-        List<ApiDataPoint> getLastBatch() {
-            return lastBatch;
-        }
-    }
-
     @Override
     public Observable<Boolean> deleteSurvey(long surveyToDeleteId) {
         return dataSourceFactory.getDataBaseDataSource().deleteSurvey(surveyToDeleteId);
@@ -424,23 +335,32 @@ public class SurveyDataRepository implements SurveyRepository {
 
     @VisibleForTesting
     Observable<List<Transmission>> getFormTransmissions(String formId) {
-        return dataSourceFactory.getDataBaseDataSource()
-                .getUnSyncedTransmissions(formId)
-                .map(new Function<Cursor, List<Transmission>>() {
-                    @Override
-                    public List<Transmission> apply(Cursor cursor) {
-                        return transmissionMapper.transform(cursor);
-                    }
-                });
+        return mapTransmissions(dataSourceFactory.getDataBaseDataSource()
+                .getUnSyncedTransmissions(formId));
     }
 
     private Observable<List<Transmission>> getAllTransmissions() {
-        return dataSourceFactory.getDataBaseDataSource().getUnSyncedTransmissions()
+        return mapTransmissions(
+                dataSourceFactory.getDataBaseDataSource().getUnSyncedTransmissions());
+    }
+
+    /**
+     * Checksums computed while mapping are saved so that retries do not read the files again
+     */
+    private Observable<List<Transmission>> mapTransmissions(Observable<Cursor> transmissions) {
+        final DatabaseDataSource dataBaseDataSource = dataSourceFactory.getDataBaseDataSource();
+        return transmissions
                 .map(new Function<Cursor, List<Transmission>>() {
                     @Override
                     public List<Transmission> apply(Cursor cursor) {
                         return transmissionMapper.transform(cursor);
                     }
+                })
+                .doOnNext(new Consumer<List<Transmission>>() {
+                    @Override
+                    public void accept(List<Transmission> transmissions) {
+                        dataBaseDataSource.saveTransmissionChecksums(transmissions);
+                    }
                 });
     }
 
@@ -472,13 +392,21 @@ public class SurveyDataRepository implements SurveyRepository {
     }
 
     @Override
-    public Observable<FormInstanceMetadata> getFormInstanceData(final Long instanceId,
+    public Observable<FormInstanceMetadata> exportFormInstance(final Long instanceId,
             final String deviceId) {
-        return dataSourceFactory.getDataBaseDataSource().getResponses(instanceId)
-                .map(new Function<Cursor, FormInstanceMetadata>() {
+        return dataSourceFactory.getFileDataSource().getDataFolder()
+                .concatMap(new Function<File, Observable<FormInstanceMetadata>>() {
                     @Override
-                    public FormInstanceMetadata apply(Cursor cursor) {
-                        return formInstanceMetadataMapper.transform(cursor, deviceId);
+                    public Observable<FormInstanceMetadata> apply(final File folder) {
+                        return dataSourceFactory.getDataBaseDataSource().getResponses(instanceId)
+                                .map(new Function<Cursor, FormInstanceMetadata>() {
+                                    @Override
+                                    public FormInstanceMetadata apply(Cursor cursor)
+                                            throws IOException {
+                                        return formInstanceZipWriter
+                                                .write(cursor, deviceId, folder);
+                                    }
+                                });
                     }
                 })
                 .concatMap(new Function<FormInstanceMetadata, Observable<FormInstanceMetadata>>() {
@@ -495,6 +423,19 @@ public class SurveyDataRepository implements SurveyRepository {
                 });
     }
 
+    @Override
+    public Observable<List<ExportResult>> exportFormInstances(final List<Long> instanceIds,
+            final String deviceId) {
+        return dataSourceFactory.getFileDataSource().getDataFolder()
+                .concatMap(new Function<File, Observable<List<ExportResult>>>() {
+                    @Override
+                    public Observable<List<ExportResult>> apply(File folder) {
+                        return newFormInstanceBatchExporter()
+                                .export(instanceIds, deviceId, folder);
+                    }
+                });
+    }
+
     @Override
     public Observable<Boolean> createTransmissions(final Long instanceId, final String formId,
             Set<String> fileNames) {
@@ -538,13 +479,7 @@ public class SurveyDataRepository implements SurveyRepository {
     @VisibleForTesting
     Observable<Set<String>> syncTransmissions(List<Transmission> transmissions,
             final String deviceId) {
-        return Observable.fromIterable(transmissions)
-                .concatMap(new Function<Transmission, Observable<UploadResult>>() {
-                    @Override
-                    public Observable<UploadResult> apply(final Transmission transmission) {
-                        return syncTransmission(transmission, deviceId);
-                    }
-                })
+        return newTransmissionUploader().upload(transmissions, deviceId)
                 .toList().toObservable()
                 .concatMap(new Function<List<UploadResult>, Observable<Set<String>>>() {
                     @Override
@@ -557,45 +492,16 @@ public class SurveyDataRepository implements SurveyRepository {
     @VisibleForTesting
     Observable<UploadResult> syncTransmission(final Transmission transmission,
             final String deviceId) {
-        final DatabaseDataSource dataBaseDataSource = dataSourceFactory.getDataBaseDataSource();
-        final long transmissionId = transmission.getId();
-        final long surveyInstanceId = transmission.getRespondentId();
-        final String formId = transmission.getFormId();
-        return restApi.uploadFile(transmission)
-                .concatMap(new Function<Response<ResponseBody>, Observable<?>>() {
-                    @Override
-                    public Observable<?> apply(Response ignored) {
-                        S3File s3File = transmission.getS3File();
-                        return restApi.notifyFileAvailable(s3File.getAction(),
-                                transmission.getFormId(), s3File.getFile().getName(), deviceId);
-                    }
-                })
-                .doOnNext(new Consumer<Object>() {
-                    @Override
-                    public void accept(Object o) {
-                        dataBaseDataSource.setFileTransmissionSucceeded(transmissionId);
-                    }
-                })
-                .map(new Function<Object, UploadResult>() {
-                    @Override
-                    public UploadResult apply(Object ignored) {
-                        return new UploadSuccess(surveyInstanceId);
-                    }
-                })
-                .onErrorReturn(new Function<Throwable, UploadResult>() {
-                    @Override
-                    public UploadResult apply(Throwable throwable) {
-                        Timber.e(throwable);
-                        boolean formNotFound = throwable instanceof HttpException && (
-                                ((HttpException) throwable).code() == 404);
-                        if (formNotFound) {
-                            dataBaseDataSource.setFileTransmissionFormDeleted(transmissionId);
-                            return new UploadFormDeletedError(surveyInstanceId, formId);
-                        } else {
-                            dataBaseDataSource.setFileTransmissionFailed(transmissionId);
-                            return new UploadError(surveyInstanceId);
-                        }
-                    }
-                });
+        return newTransmissionUploader().upload(transmission, deviceId);
+    }
+
+    private TransmissionUploader newTransmissionUploader() {
+        return new TransmissionUploader(restApi, dataSourceFactory.getDataBaseDataSource(),
+                Schedulers.io());
+    }
+
+    private FormInstanceBatchExporter newFormInstanceBatchExporter() {
+        return new FormInstanceBatchExporter(dataSourceFactory.getDataBaseDataSource(),
+                formInstanceZipWriter, Schedulers.io());
     }
 }
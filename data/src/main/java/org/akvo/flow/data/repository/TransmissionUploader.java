@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.repository;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.entity.MultipartUpload;
+import org.akvo.flow.data.entity.S3File;
+import org.akvo.flow.data.entity.Transmission;
+import org.akvo.flow.data.entity.UploadError;
+import org.akvo.flow.data.entity.UploadFormDeletedError;
+import org.akvo.flow.data.entity.UploadResult;
+import org.akvo.flow.data.entity.UploadSuccess;
+import org.akvo.flow.data.net.RestApi;
+import org.akvo.flow.data.net.s3.NoSuchUploadException;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import retrofit2.HttpException;
+import timber.log.Timber;
+
+/**
+ * Uploads transmissions in two lanes: the S3 uploads run in parallel, up to the upload
+ * concurrency, and each uploaded file is then handed over to the notification lane, which has
+ * its own concurrency, so a slow notification does not hold an upload slot.
+ * Form data archives are uploaded before media files, smallest files first, so that form data
+ * reaches the dashboard as soon as possible.
+ * Files larger than the multipart threshold are uploaded in parts, the uploaded parts are
+ * saved so an interrupted upload resumes from the first missing part. Uploads not completed
+ * within the resume window are aborted and started over, so their parts do not stay in S3.
+ * The status of each transmission is updated as soon as it is known, and one
+ * {@link UploadResult} is emitted per transmission.
+ */
+class TransmissionUploader {
+
+    static final int DEFAULT_UPLOAD_CONCURRENCY = 3;
+    static final int DEFAULT_NOTIFICATION_CONCURRENCY = 1;
+    static final long DEFAULT_MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+
+    // S3 requires parts of at least 5 MB, except the last one
+    static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    static final long DEFAULT_RESUME_WINDOW = TimeUnit.DAYS.toMillis(7);
+
+    private final RestApi restApi;
+    private final DatabaseDataSource database;
+    private final Scheduler scheduler;
+    private final int uploadConcurrency;
+    private final int notificationConcurrency;
+    private final long multipartThreshold;
+    private final long partSize;
+    private final long resumeWindow;
+
+    TransmissionUploader(RestApi restApi, DatabaseDataSource database, Scheduler scheduler) {
+        this(restApi, database, scheduler, DEFAULT_UPLOAD_CONCURRENCY,
+                DEFAULT_NOTIFICATION_CONCURRENCY, DEFAULT_MULTIPART_THRESHOLD, DEFAULT_PART_SIZE,
+                DEFAULT_RESUME_WINDOW);
+    }
+
+    TransmissionUploader(RestApi restApi, DatabaseDataSource database, Scheduler scheduler,
+            int uploadConcurrency, int notificationConcurrency, long multipartThreshold,
+            long partSize, long resumeWindow) {
+        this.restApi = restApi;
+        this.database = database;
+        this.scheduler = scheduler;
+        this.uploadConcurrency = uploadConcurrency;
+        this.notificationConcurrency = notificationConcurrency;
+        this.multipartThreshold = multipartThreshold;
+        this.partSize = partSize;
+        this.resumeWindow = resumeWindow;
+    }
+
+    /**
+     * @return the result of every transmission, in completion order
+     */
+    Observable<UploadResult> upload(@NonNull List<Transmission> transmissions,
+            final String deviceId) {
+        return Observable.fromIterable(sortForUpload(transmissions))
+                .flatMap(new Function<Transmission, ObservableSource<UploadedFile>>() {
+                    @Override
+                    public ObservableSource<UploadedFile> apply(Transmission transmission) {
+                        return uploadFile(transmission).subscribeOn(scheduler);
+                    }
+                }, uploadConcurrency)
+                .flatMap(new Function<UploadedFile, ObservableSource<UploadResult>>() {
+                    @Override
+                    public ObservableSource<UploadResult> apply(UploadedFile uploadedFile) {
+                        return notifyFileAvailable(uploadedFile, deviceId)
+                                .subscribeOn(scheduler);
+                    }
+                }, notificationConcurrency);
+    }
+
+    /**
+     * Uploads and notifies a single transmission on the calling thread
+     */
+    Observable<UploadResult> upload(@NonNull Transmission transmission, final String deviceId) {
+        return uploadFile(transmission)
+                .concatMap(new Function<UploadedFile, ObservableSource<UploadResult>>() {
+                    @Override
+                    public ObservableSource<UploadResult> apply(UploadedFile uploadedFile) {
+                        return notifyFileAvailable(uploadedFile, deviceId);
+                    }
+                });
+    }
+
+    /**
+     * Form data archives first, then media, each of them by increasing size
+     */
+    @VisibleForTesting
+    static List<Transmission> sortForUpload(@NonNull List<Transmission> transmissions) {
+        final Map<Long, Long> sizes = new HashMap<>(transmissions.size());
+        for (Transmission transmission : transmissions) {
+            sizes.put(transmission.getId(), transmission.getS3File().getFile().length());
+        }
+        List<Transmission> sorted = new ArrayList<>(transmissions);
+        Collections.sort(sorted, new Comparator<Transmission>() {
+            @Override
+            public int compare(Transmission t1, Transmission t2) {
+                boolean isData1 = isFormData(t1);
+                boolean isData2 = isFormData(t2);
+                if (isData1 != isData2) {
+                    return isData1 ? -1 : 1;
+                }
+                long size1 = sizes.get(t1.getId());
+                long size2 = sizes.get(t2.getId());
+                return size1 < size2 ? -1 : (size1 == size2 ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private static boolean isFormData(Transmission transmission) {
+        return S3File.ACTION_SUBMIT.equals(transmission.getS3File().getAction());
+    }
+
+    private Observable<UploadedFile> uploadFile(final Transmission transmission) {
+        return Observable.defer(new Callable<ObservableSource<?>>() {
+            @Override
+            public ObservableSource<?> call() {
+                if (transmission.getS3File().getFileSize() > multipartThreshold) {
+                    return uploadMultipart(transmission);
+                }
+                return restApi.uploadFile(transmission);
+            }
+        })
+                .map(new Function<Object, UploadedFile>() {
+                    @Override
+                    public UploadedFile apply(Object ignored) {
+                        return new UploadedFile(transmission, null);
+                    }
+                })
+                .onErrorReturn(new Function<Throwable, UploadedFile>() {
+                    @Override
+                    public UploadedFile apply(Throwable throwable) {
+                        return new UploadedFile(transmission, onError(transmission, throwable));
+                    }
+                });
+    }
+
+    /**
+     * Resumes the multipart upload of the transmission if there is one, only the missing
+     * parts are uploaded
+     */
+    private Observable<String> uploadMultipart(Transmission transmission) {
+        final S3File s3File = transmission.getS3File();
+        final long transmissionId = transmission.getId();
+        MultipartUpload savedUpload = database.getMultipartUpload(transmissionId);
+        Observable<MultipartUpload> multipartUpload;
+        if (savedUpload == null) {
+            multipartUpload = startMultipartUpload(transmissionId, s3File);
+        } else if (System.currentTimeMillis() - savedUpload.getStartDate() > resumeWindow) {
+            multipartUpload = abortMultipartUpload(transmissionId, s3File,
+                    savedUpload.getUploadId())
+                    .concatMap(new Function<Boolean, ObservableSource<MultipartUpload>>() {
+                        @Override
+                        public ObservableSource<MultipartUpload> apply(Boolean ignored) {
+                            return startMultipartUpload(transmissionId, s3File);
+                        }
+                    });
+        } else {
+            multipartUpload = Observable.just(savedUpload);
+        }
+        return multipartUpload
+                .concatMap(new Function<MultipartUpload, ObservableSource<String>>() {
+                    @Override
+                    public ObservableSource<String> apply(MultipartUpload upload) {
+                        return uploadParts(transmissionId, s3File, upload);
+                    }
+                })
+                .doOnNext(new Consumer<String>() {
+                    @Override
+                    public void accept(String etag) {
+                        database.clearMultipartUpload(transmissionId);
+                    }
+                })
+                .doOnError(new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        if (throwable instanceof NoSuchUploadException) {
+                            database.clearMultipartUpload(transmissionId);
+                        }
+                    }
+                });
+    }
+
+    private Observable<MultipartUpload> startMultipartUpload(final long transmissionId,
+            S3File s3File) {
+        return restApi.initiateMultipartUpload(s3File)
+                .map(new Function<String, MultipartUpload>() {
+                    @Override
+                    public MultipartUpload apply(String uploadId) {
+                        long startDate = System.currentTimeMillis();
+                        database.startMultipartUpload(transmissionId, uploadId, partSize,
+                                startDate);
+                        return new MultipartUpload(uploadId, partSize, startDate,
+                                Collections.<Integer, String>emptyMap());
+                    }
+                });
+    }
+
+    /**
+     * An upload that S3 no longer has only needs to be forgotten
+     */
+    private Observable<Boolean> abortMultipartUpload(final long transmissionId, S3File s3File,
+            String uploadId) {
+        return restApi.abortMultipartUpload(s3File, uploadId)
+                .onErrorResumeNext(new Function<Throwable, ObservableSource<Boolean>>() {
+                    @Override
+                    public ObservableSource<Boolean> apply(Throwable throwable) {
+                        if (throwable instanceof NoSuchUploadException) {
+                            return Observable.just(false);
+                        }
+                        return Observable.error(throwable);
+                    }
+                })
+                .doOnNext(new Consumer<Boolean>() {
+                    @Override
+                    public void accept(Boolean aborted) {
+                        database.clearMultipartUpload(transmissionId);
+                    }
+                });
+    }
+
+    private Observable<String> uploadParts(final long transmissionId, final S3File s3File,
+            final MultipartUpload upload) {
+        final String uploadId = upload.getUploadId();
+        return Observable.range(1, upload.getPartCount(s3File.getFileSize()))
+                .concatMap(new Function<Integer, ObservableSource<String>>() {
+                    @Override
+                    public ObservableSource<String> apply(final Integer partNumber) {
+                        String etag = upload.getPartEtag(partNumber);
+                        if (etag != null) {
+                            return Observable.just(etag);
+                        }
+                        return restApi.uploadPart(s3File, uploadId, partNumber,
+                                upload.getPartSize())
+                                .doOnNext(new Consumer<String>() {
+                                    @Override
+                                    public void accept(String etag) {
+                                        database.saveUploadedPart(transmissionId, partNumber,
+                                                etag);
+                                    }
+                                });
+                    }
+                })
+                .toList().toObservable()
+                .concatMap(new Function<List<String>, ObservableSource<String>>() {
+                    @Override
+                    public ObservableSource<String> apply(List<String> partEtags) {
+                        return restApi.completeMultipartUpload(s3File, uploadId, partEtags);
+                    }
+                });
+    }
+
+    private Observable<UploadResult> notifyFileAvailable(UploadedFile uploadedFile,
+            final String deviceId) {
+        if (uploadedFile.error != null) {
+            return Observable.just(uploadedFile.error);
+        }
+        final Transmission transmission = uploadedFile.transmission;
+        return Observable.defer(new Callable<ObservableSource<?>>() {
+            @Override
+            public ObservableSource<?> call() {
+                S3File s3File = transmission.getS3File();
+                return restApi.notifyFileAvailable(s3File.getAction(), transmission.getFormId(),
+                        s3File.getFile().getName(), deviceId);
+            }
+        })
+                .map(new Function<Object, UploadResult>() {
+                    @Override
+                    public UploadResult apply(Object ignored) {
+                        database.setFileTransmissionSucceeded(transmission.getId());
+                        return new UploadSuccess(transmission.getRespondentId());
+                    }
+                })
+                .onErrorReturn(new Function<Throwable, UploadResult>() {
+                    @Override
+                    public UploadResult apply(Throwable throwable) {
+                        return onError(transmission, throwable);
+                    }
+                });
+    }
+
+    private UploadResult onError(Transmission transmission, Throwable throwable) {
+        Timber.e(throwable);
+        long transmissionId = transmission.getId();
+        long surveyInstanceId = transmission.getRespondentId();
+        boolean formNotFound = throwable instanceof HttpException
+                && ((HttpException) throwable).code() == HttpURLConnection.HTTP_NOT_FOUND;
+        if (formNotFound) {
+            database.setFileTransmissionFormDeleted(transmissionId);
+            return new UploadFormDeletedError(surveyInstanceId, transmission.getFormId());
+        } else {
+            database.setFileTransmissionFailed(transmissionId);
+            return new UploadError(surveyInstanceId);
+        }
+    }
+
+    private static class UploadedFile {
+
+        final Transmission transmission;
+
+        // Set if the upload failed, the file must not be notified then
+        @Nullable
+        final UploadResult error;
+
+        UploadedFile(Transmission transmission, @Nullable UploadResult error) {
+            this.transmission = transmission;
+            this.error = error;
+        }
+    }
+}
@@ -25,7 +25,6 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Base64;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -34,45 +33,58 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.zip.Adler32;
-import java.util.zip.CheckedOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import javax.inject.Inject;
 
-import okhttp3.ResponseBody;
 import timber.log.Timber;
 
 public class FileHelper {
 
-    private static final int BUFFER_SIZE = 2048;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     @Inject
-    FileHelper() {
+    public FileHelper() {
     }
 
     /**
-     * Compute MD5 checksum of the given file
+     * Compute MD5 checksum of the given file, reading it only once with a large direct buffer.
+     * Both encodings of the checksum can be derived from the result with toBase64 and toHex.
      */
     @Nullable
     public byte[] getMD5Checksum(File file) {
-        InputStream in = null;
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("MD5");
-            in = new BufferedInputStream(new FileInputStream(file));
-
-            byte[] buffer = new byte[BUFFER_SIZE];
+        return getMD5Checksum(file, 0, Long.MAX_VALUE);
+    }
 
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                md.update(buffer, 0, read);
+    /**
+     * Compute MD5 checksum of length bytes of the given file, starting at offset
+     */
+    @Nullable
+    public byte[] getMD5Checksum(File file, long offset, long length) {
+        FileInputStream in = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            channel.position(offset);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = channel.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                remaining -= read;
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
             }
-
             return md.digest();
         } catch (NoSuchAlgorithmException | IOException e) {
             Timber.e(e.getMessage());
@@ -84,8 +96,7 @@ public class FileHelper {
     }
 
     @NonNull
-    public String getMd5Base64(File file) {
-        byte[] md5Checksum = getMD5Checksum(file);
+    public String toBase64(@Nullable byte[] md5Checksum) {
         if (md5Checksum != null) {
             return Base64.encodeToString(md5Checksum, Base64.NO_WRAP);
         } else {
@@ -94,18 +105,37 @@ public class FileHelper {
     }
 
     @NonNull
-    public String hexMd5(File file) {
-        byte[] rawHash = getMD5Checksum(file);
+    public String toHex(@Nullable byte[] rawHash) {
         if (rawHash != null) {
-            StringBuilder builder = new StringBuilder();
+            StringBuilder builder = new StringBuilder(rawHash.length * 2);
             for (byte b : rawHash) {
-                builder.append(String.format("%02x", b));
+                builder.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
             }
             return builder.toString();
         }
         return "";
     }
 
+    /**
+     * @return the bytes of the given hexadecimal string, null if it is not valid
+     */
+    @Nullable
+    public byte[] fromHex(@Nullable String hex) {
+        if (hex == null || hex.isEmpty() || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high == -1 || low == -1) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
     public String copyFileToFolder(File originalFile, File destinationFolder) {
         File file = new File(destinationFolder, originalFile.getName());
         return copyFile(originalFile, file);
@@ -178,32 +208,11 @@ public class FileHelper {
         return filename;
     }
 
-    public void writeZipFile(File zipFolder, String zipFileName, String formInstanceData)
-            throws IOException {
-        File zipFile = new File(zipFolder, zipFileName);
-        Timber.d("Writing zip to file " + zipFile.getName());
-        FileOutputStream fout = new FileOutputStream(zipFile);
-        CheckedOutputStream checkedOutStream = new CheckedOutputStream(fout, new Adler32());
-        ZipOutputStream zos = new ZipOutputStream(checkedOutStream);
-        zos.putNextEntry(new ZipEntry(Constants.SURVEY_DATA_FILE_JSON));
-        byte[] allBytes = formInstanceData.getBytes(Constants.UTF_8_CHARSET);
-        zos.write(allBytes, 0, allBytes.length);
-        zos.closeEntry();
-        zos.close();
-        fout.close();
-    }
-
-    public void extractOnlineArchive(ResponseBody responseBody, File targetFolder) {
-        InputStream inputStream = responseBody.byteStream();
-        extractZipContent(inputStream, targetFolder);
-        close(inputStream);
-    }
-
     private void copyStream(InputStream inputStream, File destinationFile) {
         OutputStream out = null;
         try {
             out = new FileOutputStream(destinationFile);
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[BUFFER_SIZE];
             int read;
             while ((read = inputStream.read(buffer)) != -1) {
                 out.write(buffer, 0, read);
@@ -215,21 +224,4 @@ public class FileHelper {
             close(out);
         }
     }
-
-    private void extractZipContent(InputStream input, File destinationFolder) {
-        ZipInputStream zis = null;
-        try {
-            zis = new ZipInputStream(input);
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null && !entry.isDirectory()) {
-                File f = new File(destinationFolder, entry.getName());
-                copyStream(zis, f);
-                zis.closeEntry();
-            }
-        } catch (IOException e) {
-            Timber.e(e);
-        } finally {
-            close(zis);
-        }
-    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2018-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -43,6 +43,8 @@ public class FlowFileBrowser {
     public static final String DIR_TMP = "tmp";
     public static final String DIR_RES = "res";
     public static final String DIR_FORMS = "forms";
+    public static final String DIR_FORMS_STAGING = "forms_staging";
+    public static final String DIR_RES_CHECKSUMS = "res_checksums";
     public static final String DIR_INBOX = "akvoflow/inbox";
     public static final String XML_SUFFIX = ".xml";
     public static final String ZIP_SUFFIX = ".zip";
@@ -0,0 +1,556 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.util;
+
+import org.akvo.flow.domain.entity.PointCluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clusters of data points for every zoom level of the map, updated point by point.
+ *
+ * Every zoom level up to {@link #MAX_INDEXED_ZOOM} has a grid of cells of {@link #CELL_PIXELS}
+ * pixels over the web mercator projection, and every cell keeps the number of points inside
+ * and the sum of their coordinates for the position of the cluster. Adding, moving or removing
+ * a point updates a single cell per zoom level, so the clusters are never computed again from
+ * all the points, and a query only reads the cells of the visible region.
+ * The points of the cells of the last indexed zoom level are linked together, the clusters of
+ * the closer zoom levels are computed from them when requested.
+ *
+ * It is not thread safe.
+ */
+public class PointClusterIndex {
+
+    public static final int MAX_INDEXED_ZOOM = 12;
+    public static final int MAX_ZOOM = 21;
+
+    /**
+     * Map tiles are 256 pixels wide at every zoom level
+     */
+    private static final int CELL_PIXELS = 64;
+    private static final int TILE_CELLS = 256 / CELL_PIXELS;
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Grid[] grids = new Grid[MAX_INDEXED_ZOOM + 1];
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    // Points of the same cell of the last indexed zoom level
+    private int[] nextPoints = new int[INITIAL_CAPACITY];
+    private int[] previousPoints = new int[INITIAL_CAPACITY];
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeSlotCount;
+    private int usedSlots;
+
+    public PointClusterIndex() {
+        for (int zoom = 0; zoom <= MAX_INDEXED_ZOOM; zoom++) {
+            grids[zoom] = new Grid(TILE_CELLS << zoom, zoom == MAX_INDEXED_ZOOM);
+        }
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Adds a point or updates the one with the same id
+     */
+    public void put(String id, String name, double latitude, double longitude) {
+        Integer slot = slots.get(id);
+        if (slot != null) {
+            names[slot] = name;
+            if (latitudes[slot] == latitude && longitudes[slot] == longitude) {
+                return;
+            }
+            removeFromGrids(slot);
+        } else {
+            slot = newSlot();
+            slots.put(id, slot);
+            ids[slot] = id;
+            names[slot] = name;
+        }
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        addToGrids(slot);
+    }
+
+    public void remove(String id) {
+        Integer slot = slots.remove(id);
+        if (slot != null) {
+            removeFromGrids(slot);
+            ids[slot] = null;
+            names[slot] = null;
+            if (freeSlotCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+            }
+            freeSlots[freeSlotCount++] = slot;
+        }
+    }
+
+    /**
+     * Clusters of the points inside the bounding box at the given zoom level. West is greater
+     * than east when the bounding box crosses the antimeridian.
+     */
+    public List<PointCluster> getClusters(double zoom, double south, double west, double north,
+            double east) {
+        int level = (int) Math.max(0, Math.min(MAX_ZOOM, Math.floor(zoom)));
+        if (level <= MAX_INDEXED_ZOOM) {
+            return getIndexedClusters(grids[level], south, west, north, east);
+        }
+        return getPointClusters(level, south, west, north, east);
+    }
+
+    private List<PointCluster> getIndexedClusters(Grid grid, double south, double west,
+            double north, double east) {
+        int[] cells = getCells(grid, new CellRange(grid.side, south, west, north, east));
+        List<PointCluster> clusters = new ArrayList<>(cells.length);
+        for (int cell : cells) {
+            clusters.add(grid.toCluster(cell));
+        }
+        return clusters;
+    }
+
+    /**
+     * Clusters of the zoom levels which are not indexed, computed from the points of the
+     * cells of the last indexed zoom level in the bounding box
+     */
+    private List<PointCluster> getPointClusters(int level, double south, double west,
+            double north, double east) {
+        Grid grid = grids[MAX_INDEXED_ZOOM];
+        int side = TILE_CELLS << level;
+        CellRange range = new CellRange(side, south, west, north, east);
+        // Count, sums of the coordinates and first point of each cell
+        Map<Long, double[]> cells = new LinkedHashMap<>();
+        for (int cell : getCells(grid, new CellRange(grid.side, south, west, north, east))) {
+            for (int point = grid.heads[cell]; point != NONE; point = nextPoints[point]) {
+                double x = longitudeToX(longitudes[point]);
+                double y = latitudeToY(latitudes[point]);
+                int cellX = toCell(x, side);
+                int cellY = toCell(y, side);
+                if (!range.contains(cellX, cellY)) {
+                    continue;
+                }
+                Long key = (long) cellY * side + cellX;
+                double[] values = cells.get(key);
+                if (values == null) {
+                    cells.put(key, new double[] {
+                            1, x, y, point
+                    });
+                } else {
+                    values[0]++;
+                    values[1] += x;
+                    values[2] += y;
+                }
+            }
+        }
+        List<PointCluster> clusters = new ArrayList<>(cells.size());
+        for (double[] values : cells.values()) {
+            int count = (int) values[0];
+            if (count == 1) {
+                clusters.add(toPointCluster((int) values[3]));
+            } else {
+                clusters.add(new PointCluster(yToLatitude(values[2] / count),
+                        xToLongitude(values[1] / count), count, null, null));
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Indexes of the cells of the grid with points inside the range
+     */
+    private static int[] getCells(Grid grid, CellRange range) {
+        CellMap map = grid.cells;
+        int[] cells = new int[INITIAL_CAPACITY];
+        int count = 0;
+        if (range.size() > map.size()) {
+            // Fewer cells with points than cells in the range, they are all checked instead
+            for (int i = 0; i < map.capacity(); i++) {
+                int key = map.keyAt(i);
+                if (key != NONE && range.contains(key % grid.side, key / grid.side)) {
+                    if (count == cells.length) {
+                        cells = Arrays.copyOf(cells, count * 2);
+                    }
+                    cells[count++] = map.valueAt(i);
+                }
+            }
+        } else {
+            for (int y = range.top; y <= range.bottom; y++) {
+                for (int r = 0; r < range.columns.length; r += 2) {
+                    for (int x = range.columns[r]; x <= range.columns[r + 1]; x++) {
+                        int cell = map.get(y * grid.side + x);
+                        if (cell != NONE) {
+                            if (count == cells.length) {
+                                cells = Arrays.copyOf(cells, count * 2);
+                            }
+                            cells[count++] = cell;
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    private PointCluster toPointCluster(int slot) {
+        return new PointCluster(latitudes[slot], longitudes[slot], 1, ids[slot], names[slot]);
+    }
+
+    private void addToGrids(int slot) {
+        double x = longitudeToX(longitudes[slot]);
+        double y = latitudeToY(latitudes[slot]);
+        for (Grid grid : grids) {
+            int cell = grid.add(toKey(grid.side, x, y), slot, x, y);
+            if (grid.heads != null) {
+                int head = grid.heads[cell];
+                nextPoints[slot] = head;
+                previousPoints[slot] = NONE;
+                if (head != NONE) {
+                    previousPoints[head] = slot;
+                }
+                grid.heads[cell] = slot;
+            }
+        }
+    }
+
+    private void removeFromGrids(int slot) {
+        double x = longitudeToX(longitudes[slot]);
+        double y = latitudeToY(latitudes[slot]);
+        for (Grid grid : grids) {
+            int key = toKey(grid.side, x, y);
+            if (grid.heads != null) {
+                int cell = grid.cells.get(key);
+                int next = nextPoints[slot];
+                int previous = previousPoints[slot];
+                if (previous == NONE) {
+                    grid.heads[cell] = next;
+                } else {
+                    nextPoints[previous] = next;
+                }
+                if (next != NONE) {
+                    previousPoints[next] = previous;
+                }
+            }
+            grid.remove(key, slot, x, y);
+        }
+    }
+
+    private int newSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (usedSlots == ids.length) {
+            int capacity = usedSlots * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            nextPoints = Arrays.copyOf(nextPoints, capacity);
+            previousPoints = Arrays.copyOf(previousPoints, capacity);
+        }
+        return usedSlots++;
+    }
+
+    private static int toKey(int side, double x, double y) {
+        return toCell(y, side) * side + toCell(x, side);
+    }
+
+    private static int toCell(double coordinate, int side) {
+        return (int) Math.max(0, Math.min(side - 1, Math.floor(coordinate * side)));
+    }
+
+    private static double longitudeToX(double longitude) {
+        return (Math.max(-180, Math.min(180, longitude)) + 180) / 360;
+    }
+
+    private static double latitudeToY(double latitude) {
+        double sin = Math.sin(Math.toRadians(
+                Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    private static double xToLongitude(double x) {
+        return x * 360 - 180;
+    }
+
+    private static double yToLatitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    /**
+     * Cells of one zoom level which have points
+     */
+    private final class Grid {
+
+        final int side;
+        final CellMap cells = new CellMap();
+        int[] counts = new int[INITIAL_CAPACITY];
+        double[] sumsX = new double[INITIAL_CAPACITY];
+        double[] sumsY = new double[INITIAL_CAPACITY];
+        /**
+         * Slots of the points of each cell combined with xor, which is the slot of the point
+         * when a cell only has one
+         */
+        int[] slotsXor = new int[INITIAL_CAPACITY];
+        /**
+         * First point of each cell, only in the last indexed zoom level
+         */
+        int[] heads;
+        int[] freeCells = new int[INITIAL_CAPACITY];
+        int freeCellCount;
+        int usedCells;
+
+        Grid(int side, boolean linked) {
+            this.side = side;
+            if (linked) {
+                heads = new int[INITIAL_CAPACITY];
+            }
+        }
+
+        int add(int key, int slot, double x, double y) {
+            int cell = cells.get(key);
+            if (cell == NONE) {
+                cell = newCell();
+                cells.put(key, cell);
+            }
+            counts[cell]++;
+            sumsX[cell] += x;
+            sumsY[cell] += y;
+            slotsXor[cell] ^= slot;
+            return cell;
+        }
+
+        void remove(int key, int slot, double x, double y) {
+            int cell = cells.get(key);
+            if (--counts[cell] == 0) {
+                cells.remove(key);
+                sumsX[cell] = 0;
+                sumsY[cell] = 0;
+                slotsXor[cell] = 0;
+                if (freeCellCount == freeCells.length) {
+                    freeCells = Arrays.copyOf(freeCells, freeCellCount * 2);
+                }
+                freeCells[freeCellCount++] = cell;
+            } else {
+                sumsX[cell] -= x;
+                sumsY[cell] -= y;
+                slotsXor[cell] ^= slot;
+            }
+        }
+
+        PointCluster toCluster(int cell) {
+            int count = counts[cell];
+            if (count == 1) {
+                return toPointCluster(slotsXor[cell]);
+            }
+            return new PointCluster(yToLatitude(sumsY[cell] / count),
+                    xToLongitude(sumsX[cell] / count), count, null, null);
+        }
+
+        private int newCell() {
+            if (freeCellCount > 0) {
+                int cell = freeCells[--freeCellCount];
+                if (heads != null) {
+                    heads[cell] = NONE;
+                }
+                return cell;
+            }
+            if (usedCells == counts.length) {
+                int capacity = usedCells * 2;
+                counts = Arrays.copyOf(counts, capacity);
+                sumsX = Arrays.copyOf(sumsX, capacity);
+                sumsY = Arrays.copyOf(sumsY, capacity);
+                slotsXor = Arrays.copyOf(slotsXor, capacity);
+                if (heads != null) {
+                    heads = Arrays.copyOf(heads, capacity);
+                }
+            }
+            if (heads != null) {
+                heads[usedCells] = NONE;
+            }
+            return usedCells++;
+        }
+    }
+
+    /**
+     * Rows and ranges of columns of the cells of a bounding box, two ranges when it crosses
+     * the antimeridian
+     */
+    private static final class CellRange {
+
+        final int top;
+        final int bottom;
+        final int[] columns;
+
+        CellRange(int side, double south, double west, double north, double east) {
+            top = toCell(latitudeToY(north), side);
+            bottom = toCell(latitudeToY(south), side);
+            int first = toCell(longitudeToX(west), side);
+            int last = toCell(longitudeToX(east), side);
+            if (west <= east) {
+                columns = new int[] {
+                        first, last
+                };
+            } else {
+                columns = new int[] {
+                        first, side - 1, 0, last
+                };
+            }
+        }
+
+        long size() {
+            long width = 0;
+            for (int r = 0; r < columns.length; r += 2) {
+                width += columns[r + 1] - columns[r] + 1;
+            }
+            return Math.max(0, bottom - top + 1) * width;
+        }
+
+        boolean contains(int x, int y) {
+            if (y < top || y > bottom) {
+                return false;
+            }
+            for (int r = 0; r < columns.length; r += 2) {
+                if (x >= columns[r] && x <= columns[r + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Open addressing map from the key of a cell to its index in the arrays of the grid,
+     * without boxing the keys and values of the cells of the larger grids
+     */
+    private static final class CellMap {
+
+        private int[] keys;
+        private int[] values;
+        private int mask;
+        private int size;
+
+        CellMap() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        int keyAt(int index) {
+            return keys[index];
+        }
+
+        int valueAt(int index) {
+            return values[index];
+        }
+
+        int get(int key) {
+            for (int i = hash(key); ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+                if (keys[i] == NONE) {
+                    return NONE;
+                }
+            }
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                int[] oldKeys = keys;
+                int[] oldValues = values;
+                allocate(oldKeys.length * 2);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != NONE) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, value);
+        }
+
+        void remove(int key) {
+            int i = hash(key);
+            while (keys[i] != key) {
+                if (keys[i] == NONE) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = NONE;
+            size--;
+            // Moves back the following keys of the run which would not be found anymore
+            for (int j = (i + 1) & mask; keys[j] != NONE; j = (j + 1) & mask) {
+                int home = hash(keys[j]);
+                boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (!reachable) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    keys[j] = NONE;
+                    i = j;
+                }
+            }
+        }
+
+        private void insert(int key, int value) {
+            int i = hash(key);
+            while (keys[i] != NONE) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            Arrays.fill(keys, NONE);
+            values = new int[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        private int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Extracts zip archives (forms, cascade databases, help media) through file channels with
+ * large pooled buffers. Every file is written to a temporary file next to its destination and
+ * only renamed into place, atomically, once all the entries of the archive have been written
+ * and their CRCs checked. A failed or interrupted extraction never leaves a half written file
+ * behind and the previous version of the files, if any, is kept.
+ */
+@Singleton
+public class ZipExtractor {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    private static final int COMPRESSED_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Reads a stream while it is being copied
+     */
+    public interface StreamReader<T> {
+        T read(@NonNull InputStream input) throws IOException;
+    }
+
+    private final BlockingQueue<ByteBuffer> bufferPool =
+            new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    @Inject
+    public ZipExtractor() {
+    }
+
+    /**
+     * Extracts all the files of the archive, sub folders included, into the destination folder.
+     * The archive stream is closed.
+     *
+     * @return the extracted files
+     * @throws IOException if the archive is invalid, an entry has a wrong CRC or points
+     *                     outside of the destination folder, or a file cannot be written
+     */
+    @NonNull
+    public List<File> extract(@NonNull InputStream archive, @NonNull File destinationFolder)
+            throws IOException {
+        List<File> tempFiles = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        // ZipInputStream reads the compressed data in chunks of 512 bytes
+        ZipInputStream zis = new ZipInputStream(
+                new BufferedInputStream(archive, COMPRESSED_BUFFER_SIZE));
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            String canonicalFolder = destinationFolder.getCanonicalPath() + File.separator;
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                File file = new File(destinationFolder, entry.getName());
+                if (!file.getCanonicalPath().startsWith(canonicalFolder)) {
+                    throw new ZipException("Entry outside of destination: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    mkdirs(file);
+                    continue;
+                }
+                mkdirs(file.getParentFile());
+                File tempFile = tempFile(file);
+                tempFiles.add(tempFile);
+                long crc = write(zis, tempFile, buffer);
+                if (entry.getCrc() != -1 && entry.getCrc() != crc) {
+                    throw new ZipException("Invalid CRC for entry " + entry.getName());
+                }
+                zis.closeEntry();
+                files.add(file);
+            }
+            for (int i = 0; i < files.size(); i++) {
+                rename(tempFiles.get(i), files.get(i));
+            }
+            tempFiles.clear();
+            return files;
+        } finally {
+            releaseBuffer(buffer);
+            close(zis);
+            for (File tempFile : tempFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Copies the stream into the destination file, through a temporary file. The stream is
+     * closed.
+     */
+    public void copy(@NonNull InputStream input, @NonNull File destination) throws IOException {
+        File tempFile = tempFile(destination);
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            write(input, tempFile, buffer);
+            rename(tempFile, destination);
+        } finally {
+            releaseBuffer(buffer);
+            close(input);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Copies the stream into the destination file, through a temporary file, while the reader
+     * reads it, so the content is only read once. Whatever the reader leaves unread is copied
+     * afterwards. The destination is only replaced if the reader succeeds. The stream is closed.
+     *
+     * @return the result of the reader
+     */
+    public <T> T copy(@NonNull InputStream input, @NonNull File destination,
+            @NonNull StreamReader<T> reader) throws IOException {
+        File tempFile = tempFile(destination);
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(tempFile);
+            TeeInputStream tee = new TeeInputStream(input, output);
+            T result = reader.read(tee);
+            tee.drain();
+            output.getChannel().force(false);
+            output.close();
+            output = null;
+            rename(tempFile, destination);
+            return result;
+        } finally {
+            close(input);
+            close(output);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Copies a file with a channel transfer, which needs no buffer in the java heap
+     */
+    public void copy(@NonNull File source, @NonNull File destination) throws IOException {
+        File tempFile = tempFile(destination);
+        FileInputStream input = new FileInputStream(source);
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(tempFile);
+            FileChannel in = input.getChannel();
+            FileChannel out = output.getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(false);
+            output.close();
+            output = null;
+            rename(tempFile, destination);
+        } finally {
+            close(input);
+            close(output);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @return the CRC32 of the written data
+     */
+    private long write(InputStream input, File file, ByteBuffer buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bytes = buffer.array();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            int read;
+            while ((read = input.read(bytes, 0, bytes.length)) != -1) {
+                crc.update(bytes, 0, read);
+                buffer.clear();
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(false);
+        } finally {
+            output.close();
+        }
+        return crc.getValue();
+    }
+
+    private void rename(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Error renaming " + tempFile + " to " + file);
+        }
+    }
+
+    private File tempFile(File file) {
+        return new File(file.getParentFile(), "." + file.getName() + TEMP_SUFFIX);
+    }
+
+    private void mkdirs(File folder) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Error creating folder " + folder);
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        bufferPool.offer(buffer);
+    }
+
+    private void close(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Ignored
+            }
+        }
+    }
+
+    /**
+     * Writes everything read from the input to the output. Closing it does not close the
+     * input, so a reader cannot stop the copy.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream output;
+
+        TeeInputStream(InputStream input, OutputStream output) {
+            super(new BufferedInputStream(input, COMPRESSED_BUFFER_SIZE));
+            this.output = output;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value != -1) {
+                output.write(value);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) throws IOException {
+            int read = in.read(bytes, offset, length);
+            if (read > 0) {
+                output.write(bytes, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            byte[] bytes = new byte[(int) Math.min(count, COMPRESSED_BUFFER_SIZE)];
+            int read = read(bytes, 0, bytes.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The input is closed by the copy
+        }
+
+        void drain() throws IOException {
+            byte[] bytes = new byte[COMPRESSED_BUFFER_SIZE];
+            //noinspection StatementWithEmptyBody
+            while (read(bytes, 0, bytes.length) != -1) {
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.entity;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataPointStreamParserTest {
+
+    private final List<List<ApiDataPoint>> chunks = new ArrayList<>();
+
+    private final DataPointStreamParser.ChunkListener listener =
+            new DataPointStreamParser.ChunkListener() {
+                @Override
+                public void onChunk(@NonNull List<ApiDataPoint> dataPoints) {
+                    chunks.add(dataPoints);
+                }
+            };
+
+    @Test
+    public void parseShouldReturnDataPointsInChunks() throws IOException {
+        DataPointStreamParser parser = new DataPointStreamParser(new Gson(), 2);
+
+        int count = parser.parse(new StringReader(page(5)), listener);
+
+        assertEquals(5, count);
+        assertEquals(3, chunks.size());
+        assertEquals(2, chunks.get(0).size());
+        assertEquals(1, chunks.get(2).size());
+        ApiDataPoint last = chunks.get(2).get(0);
+        assertEquals("dp4", last.getId());
+        assertEquals(1004L, last.getLastModified());
+        assertEquals(1, last.getSurveyInstances().size());
+        assertEquals("a4", last.getSurveyInstances().get(0).getQasList().get(0).getAnswer());
+    }
+
+    @Test
+    public void parseShouldSkipOtherFields() throws IOException {
+        DataPointStreamParser parser = new DataPointStreamParser(new Gson(), 10);
+        String json = "{\"code\":0,\"extra\":{\"a\":[1,2]},\"surveyedLocaleData\":[{\"id\":\"1\"}],"
+                + "\"message\":\"ok\",\"resultCount\":1}";
+
+        int count = parser.parse(new StringReader(json), listener);
+
+        assertEquals(1, count);
+        assertEquals("1", chunks.get(0).get(0).getId());
+    }
+
+    @Test
+    public void parseShouldNotNotifyEmptyPages() throws IOException {
+        DataPointStreamParser parser = new DataPointStreamParser(new Gson(), 10);
+
+        int count = parser.parse(new StringReader("{\"surveyedLocaleData\":[]}"), listener);
+        count += parser.parse(new StringReader("{\"surveyedLocaleData\":null}"), listener);
+
+        assertEquals(0, count);
+        assertTrue(chunks.isEmpty());
+    }
+
+    private String page(int size) {
+        StringBuilder json = new StringBuilder("{\"surveyedLocaleData\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"dp").append(i)
+                    .append("\",\"displayName\":\"Data point ").append(i)
+                    .append("\",\"lat\":1.5,\"lon\":2.5,\"surveyGroupId\":1")
+                    .append(",\"lastUpdateDateTime\":").append(1000 + i)
+                    .append(",\"surveyInstances\":[{\"uuid\":\"u").append(i)
+                    .append("\",\"surveyId\":2,\"qasList\":[{\"q\":\"3\",\"a\":\"a").append(i)
+                    .append("\",\"t\":\"VALUE\"}]}]}");
+        }
+        return json.append("],\"resultCount\":").append(size).append('}').toString();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.entity;
+
+import android.support.v4.util.Pair;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.TextUtils;
+
+import com.google.gson.Gson;
+
+import org.akvo.flow.data.util.FileHelper;
+import org.akvo.flow.database.ResponseColumns;
+import org.akvo.flow.database.SurveyInstanceColumns;
+import org.akvo.flow.database.UserColumns;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+import org.akvo.flow.domain.util.TextValueCleaner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@SmallTest
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TextUtils.class)
+public class FormInstanceZipWriterTest {
+
+    private static final String[] COLUMNS = {
+            SurveyInstanceColumns.UUID, SurveyInstanceColumns.SURVEY_ID,
+            SurveyInstanceColumns.RECORD_ID, SurveyInstanceColumns.SUBMITTED_DATE,
+            SurveyInstanceColumns.DURATION, SurveyInstanceColumns.VERSION, UserColumns.NAME,
+            UserColumns.EMAIL, ResponseColumns.QUESTION_ID, ResponseColumns.ITERATION,
+            ResponseColumns.ANSWER, ResponseColumns.TYPE, ResponseColumns.FILENAME
+    };
+
+    private static final Object[][] RESPONSES = {
+            { "1", 0, "Some <b>text</b> & \u00fcn\u00efcode \"quoted\"", "VALUE", null },
+            { "2", 0, "  ", "VALUE", null },
+            { "3|1", 0, "{\"filename\":\"photo.jpg\"}", "IMAGE", "/akvoflow/media/photo.jpg" },
+            { "4", 2, "12.5", "VALUE", null },
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Gson gson = new Gson();
+    private FormInstanceMapper formInstanceMapper;
+    private FormInstanceZipWriter writer;
+
+    @Before
+    public void setUp() {
+        PowerMockito.mockStatic(TextUtils.class);
+        when(TextUtils.isEmpty(any(CharSequence.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                CharSequence a = (CharSequence) invocation.getArguments()[0];
+                return !(a != null && a.length() > 0);
+            }
+        });
+
+        TextValueCleaner textValueCleaner = new TextValueCleaner();
+        ResponseMapper responseMapper = new ResponseMapper();
+        formInstanceMapper = new FormInstanceMapper(textValueCleaner, responseMapper,
+                new FileHelper());
+        writer = new FormInstanceZipWriter(gson, formInstanceMapper, textValueCleaner,
+                responseMapper);
+    }
+
+    @Test
+    public void writeShouldProduceSameJsonAsFormInstance() throws IOException {
+        Pair<FormInstance, Set<String>> expected = formInstanceMapper
+                .getFormInstanceWithMedia("device", responsesCursor());
+
+        FormInstanceMetadata metadata = writer.write(responsesCursor(), "device",
+                folder.getRoot());
+
+        assertTrue(metadata.isValid());
+        assertEquals("uuid-1.zip", metadata.getZipFileName());
+        assertEquals("123", metadata.getFormId());
+        assertEquals(Collections.singleton("photo.jpg"), metadata.getMediaFileNames());
+        assertEquals(expected.second, metadata.getMediaFileNames());
+        assertEquals(gson.toJson(expected.first, FormInstance.class),
+                readDataJson(new File(folder.getRoot(), metadata.getZipFileName())));
+    }
+
+    @Test
+    public void writeShouldCloseCursor() throws IOException {
+        FakeCursor cursor = responsesCursor();
+
+        writer.write(cursor, "device", folder.getRoot());
+
+        assertTrue(cursor.isClosed());
+    }
+
+    @Test
+    public void writeShouldStreamResponsesToTheZipFile() throws IOException {
+        final int rows = 2000;
+        final String[] answers = randomAnswers(rows, 1024);
+        final File zipFile = new File(folder.getRoot(), "uuid-1.zip");
+        final long[] sizeAtLastRow = new long[1];
+        FakeCursor cursor = new FakeCursor(COLUMNS, rows) {
+            @Override
+            Object getValue(int row, String column) {
+                switch (column) {
+                    case ResponseColumns.QUESTION_ID:
+                        return String.valueOf(row);
+                    case ResponseColumns.ITERATION:
+                        return 0;
+                    case ResponseColumns.ANSWER:
+                        if (row == rows - 1) {
+                            sizeAtLastRow[0] = zipFile.length();
+                        }
+                        return answers[row];
+                    case ResponseColumns.TYPE:
+                        return "VALUE";
+                    case ResponseColumns.FILENAME:
+                        return null;
+                    default:
+                        return getInstanceValue(column);
+                }
+            }
+        };
+
+        writer.write(cursor, "device", folder.getRoot());
+
+        // Most of the file is on disk before the last response is even read
+        assertTrue(sizeAtLastRow[0] > zipFile.length() / 2);
+    }
+
+    @Test
+    public void writeShouldReturnInvalidMetadataIfEmptyCursor() throws IOException {
+        FakeCursor cursor = new FakeCursor(COLUMNS, 0) {
+            @Override
+            Object getValue(int row, String column) {
+                throw new IndexOutOfBoundsException();
+            }
+        };
+
+        FormInstanceMetadata metadata = writer.write(cursor, "device", folder.getRoot());
+
+        assertFalse(metadata.isValid());
+        assertTrue(cursor.isClosed());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void writeShouldReturnInvalidMetadataIfNullCursor() throws IOException {
+        FormInstanceMetadata metadata = writer.write(null, "device", folder.getRoot());
+
+        assertFalse(metadata.isValid());
+    }
+
+    private static String readDataJson(File zipFile) throws IOException {
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            ZipEntry entry = zip.getEntry("data.json");
+            assertNotNull(entry);
+            InputStream input = zip.getInputStream(entry);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static String[] randomAnswers(int count, int length) {
+        // Random letters, so that the responses do not compress to almost nothing
+        Random random = new Random(42);
+        String[] answers = new String[count];
+        char[] chars = new char[length];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            answers[i] = new String(chars);
+        }
+        return answers;
+    }
+
+    private FakeCursor responsesCursor() {
+        return new FakeCursor(COLUMNS, RESPONSES.length) {
+            @Override
+            Object getValue(int row, String column) {
+                switch (column) {
+                    case ResponseColumns.QUESTION_ID:
+                        return RESPONSES[row][0];
+                    case ResponseColumns.ITERATION:
+                        return RESPONSES[row][1];
+                    case ResponseColumns.ANSWER:
+                        return RESPONSES[row][2];
+                    case ResponseColumns.TYPE:
+                        return RESPONSES[row][3];
+                    case ResponseColumns.FILENAME:
+                        return RESPONSES[row][4];
+                    default:
+                        return getInstanceValue(column);
+                }
+            }
+        };
+    }
+
+    private static Object getInstanceValue(String column) {
+        switch (column) {
+            case SurveyInstanceColumns.UUID:
+                return "uuid-1";
+            case SurveyInstanceColumns.SURVEY_ID:
+                return "123";
+            case SurveyInstanceColumns.RECORD_ID:
+                return "abcd-efgh-ijkl";
+            case SurveyInstanceColumns.SUBMITTED_DATE:
+                return 1500000000000L;
+            case SurveyInstanceColumns.DURATION:
+                return 65000L;
+            case SurveyInstanceColumns.VERSION:
+                return 2.0;
+            case UserColumns.NAME:
+                return "Name, with\tspecial chars";
+            case UserColumns.EMAIL:
+                return null;
+            default:
+                throw new IllegalArgumentException(column);
+        }
+    }
+}
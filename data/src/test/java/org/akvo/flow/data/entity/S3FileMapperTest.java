@@ -45,6 +45,9 @@ import static junit.framework.TestCase.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 @SmallTest
@@ -107,8 +110,9 @@ public class S3FileMapperTest {
         S3FileMapper s3FileMapper = new S3FileMapper(mockFileBrowser, mockFileHelper);
         given(mockFileBrowser.getInternalFile(anyString(), anyString())).willReturn(mockFile);
         given(mockFile.exists()).willReturn(true);
-        given(mockFileHelper.getMd5Base64(any(File.class))).willReturn("123");
-        given(mockFileHelper.hexMd5(any(File.class))).willReturn("1234");
+        given(mockFileHelper.getMD5Checksum(any(File.class))).willReturn(new byte[] { 1 });
+        given(mockFileHelper.toBase64(any(byte[].class))).willReturn("123");
+        given(mockFileHelper.toHex(any(byte[].class))).willReturn("1234");
 
         S3File file = s3FileMapper.transform("data.zip");
 
@@ -123,8 +127,9 @@ public class S3FileMapperTest {
         S3FileMapper s3FileMapper = new S3FileMapper(mockFileBrowser, mockFileHelper);
         given(mockFileBrowser.getInternalFile(anyString(), anyString())).willReturn(mockFile);
         given(mockFile.exists()).willReturn(true);
-        given(mockFileHelper.getMd5Base64(any(File.class))).willReturn("123");
-        given(mockFileHelper.hexMd5(any(File.class))).willReturn("1234");
+        given(mockFileHelper.getMD5Checksum(any(File.class))).willReturn(new byte[] { 1 });
+        given(mockFileHelper.toBase64(any(byte[].class))).willReturn("123");
+        given(mockFileHelper.toHex(any(byte[].class))).willReturn("1234");
 
         S3File file = s3FileMapper.transform("data.jpg");
 
@@ -139,8 +144,9 @@ public class S3FileMapperTest {
         S3FileMapper s3FileMapper = new S3FileMapper(mockFileBrowser, mockFileHelper);
         given(mockFileBrowser.getInternalFile(anyString(), anyString())).willReturn(mockFile);
         given(mockFile.exists()).willReturn(true);
-        given(mockFileHelper.getMd5Base64(any(File.class))).willReturn("123");
-        given(mockFileHelper.hexMd5(any(File.class))).willReturn("1234");
+        given(mockFileHelper.getMD5Checksum(any(File.class))).willReturn(new byte[] { 1 });
+        given(mockFileHelper.toBase64(any(byte[].class))).willReturn("123");
+        given(mockFileHelper.toHex(any(byte[].class))).willReturn("1234");
 
         S3File file = s3FileMapper.transform("data.mp4");
 
@@ -155,8 +161,9 @@ public class S3FileMapperTest {
         S3FileMapper s3FileMapper = new S3FileMapper(mockFileBrowser, mockFileHelper);
         given(mockFileBrowser.getInternalFile(anyString(), anyString())).willReturn(mockFile);
         given(mockFile.exists()).willReturn(true);
-        given(mockFileHelper.getMd5Base64(any(File.class))).willReturn("123");
-        given(mockFileHelper.hexMd5(any(File.class))).willReturn("1234");
+        given(mockFileHelper.getMD5Checksum(any(File.class))).willReturn(new byte[] { 1 });
+        given(mockFileHelper.toBase64(any(byte[].class))).willReturn("123");
+        given(mockFileHelper.toHex(any(byte[].class))).willReturn("1234");
 
         S3File file = s3FileMapper.transform("data.txt");
 
@@ -165,4 +172,36 @@ public class S3FileMapperTest {
         assertNull(file.getDir());
         assertNull(file.getAction());
     }
+
+    @Test
+    public void shouldUseCachedChecksumIfFileNotModified() {
+        S3FileMapper s3FileMapper = new S3FileMapper(mockFileBrowser, mockFileHelper);
+        given(mockFileBrowser.getInternalFile(anyString(), anyString())).willReturn(mockFile);
+        given(mockFile.exists()).willReturn(true);
+        given(mockFile.length()).willReturn(100L);
+        given(mockFile.lastModified()).willReturn(200L);
+        given(mockFileHelper.fromHex("01")).willReturn(new byte[] { 1 });
+
+        S3File file = s3FileMapper.transform("data.zip", "01", 100L, 200L);
+
+        assertNotNull(file);
+        assertTrue(file.isChecksumCached());
+        verify(mockFileHelper, never()).getMD5Checksum(any(File.class));
+    }
+
+    @Test
+    public void shouldComputeChecksumIfFileModified() {
+        S3FileMapper s3FileMapper = new S3FileMapper(mockFileBrowser, mockFileHelper);
+        given(mockFileBrowser.getInternalFile(anyString(), anyString())).willReturn(mockFile);
+        given(mockFile.exists()).willReturn(true);
+        given(mockFile.length()).willReturn(100L);
+        given(mockFile.lastModified()).willReturn(300L);
+        given(mockFileHelper.fromHex("01")).willReturn(new byte[] { 1 });
+
+        S3File file = s3FileMapper.transform("data.zip", "01", 100L, 200L);
+
+        assertNotNull(file);
+        assertFalse(file.isChecksumCached());
+        verify(mockFileHelper, times(1)).getMD5Checksum(mockFile);
+    }
 }
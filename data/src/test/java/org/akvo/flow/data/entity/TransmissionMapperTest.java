@@ -34,6 +34,8 @@ import java.util.List;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.TestCase.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doNothing;
 
@@ -83,7 +85,8 @@ public class TransmissionMapperTest {
         given(mockCursor.getColumnIndexOrThrow(TransmissionColumns.SURVEY_INSTANCE_ID)).willReturn(2);
         given(mockCursor.getColumnIndexOrThrow(TransmissionColumns.FILENAME)).willReturn(3);
         given(mockCursor.getString(3)).willReturn("");
-        given(mockS3Mapper.transform(anyString())).willReturn(null);
+        given(mockS3Mapper.transform(anyString(), any(String.class), anyLong(), anyLong()))
+                .willReturn(null);
 
         List<Transmission> transmissions = mapper.transform(mockCursor);
 
@@ -103,7 +106,8 @@ public class TransmissionMapperTest {
                 .willReturn(2);
         given(mockCursor.getColumnIndexOrThrow(TransmissionColumns.FILENAME)).willReturn(3);
         given(mockCursor.getString(3)).willReturn("");
-        given(mockS3Mapper.transform(anyString())).willReturn(mockS3File);
+        given(mockS3Mapper.transform(anyString(), any(String.class), anyLong(), anyLong()))
+                .willReturn(mockS3File);
 
         List<Transmission> transmissions = mapper.transform(mockCursor);
 
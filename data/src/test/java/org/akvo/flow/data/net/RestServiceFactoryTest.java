@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.net;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.Call;
+import retrofit2.http.GET;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RestServiceFactoryTest {
+
+    private MockWebServer mockWebServer;
+    private RestServiceFactory serviceFactory;
+    private List<RequestMetrics> metrics;
+    private int signedRequests;
+
+    @Before
+    public void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        metrics = new ArrayList<>();
+        signedRequests = 0;
+        Interceptor hmacInterceptor = new Interceptor() {
+            @Override
+            public Response intercept(@NonNull Chain chain) throws IOException {
+                signedRequests++;
+                return chain.proceed(chain.request());
+            }
+        };
+        serviceFactory = new RestServiceFactory(new OkHttpClient(), hmacInterceptor,
+                new RequestMetricsListener() {
+                    @Override
+                    public void onRequestMetrics(@NonNull RequestMetrics requestMetrics) {
+                        metrics.add(requestMetrics);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void createServiceShouldReuseServiceForSameEndpoint() {
+        String baseUrl = mockWebServer.url("/").toString();
+
+        TestService first = serviceFactory.createRetrofitService(TestService.class, baseUrl);
+        TestService second = serviceFactory.createRetrofitService(TestService.class, baseUrl);
+
+        assertSame(first, second);
+        assertNotSame(first,
+                serviceFactory.createScalarsRetrofitService(TestService.class, baseUrl));
+        assertNotSame(first,
+                serviceFactory.createRetrofitServiceWithInterceptor(TestService.class, baseUrl));
+    }
+
+    @Test
+    public void endpointsShouldNotShareClients() {
+        OkHttpClient gae = serviceFactory.getClient(RestServiceFactory.Endpoint.GAE);
+        OkHttpClient s3 = serviceFactory.getClient(RestServiceFactory.Endpoint.S3);
+
+        assertSame(gae, serviceFactory.getClient(RestServiceFactory.Endpoint.GAE));
+        assertNotSame(gae.connectionPool(), s3.connectionPool());
+        assertEquals(0, gae.readTimeoutMillis());
+        assertTrue(s3.readTimeoutMillis() > 0);
+        assertFalse(s3.protocols().contains(Protocol.HTTP_2));
+    }
+
+    @Test
+    public void signedServiceShouldUseHmacInterceptor() throws IOException {
+        String baseUrl = mockWebServer.url("/").toString();
+        mockWebServer.enqueue(new MockResponse().setBody("ok"));
+        mockWebServer.enqueue(new MockResponse().setBody("\"ok\""));
+
+        serviceFactory.createScalarsRetrofitService(TestService.class, baseUrl).get().execute();
+        serviceFactory.createRetrofitServiceWithInterceptor(TestService.class, baseUrl).get()
+                .execute();
+
+        assertEquals(1, signedRequests);
+    }
+
+    @Test
+    public void callsShouldReportMetrics() throws IOException {
+        String baseUrl = mockWebServer.url("/").toString();
+        mockWebServer.enqueue(new MockResponse().setBody("first"));
+        mockWebServer.enqueue(new MockResponse().setBody("second"));
+        TestService service = serviceFactory.createScalarsRetrofitService(TestService.class,
+                baseUrl);
+
+        service.get().execute();
+        service.get().execute();
+
+        assertEquals(2, metrics.size());
+        RequestMetrics first = metrics.get(0);
+        assertEquals("GAE", first.getEndpoint());
+        assertEquals("GET", first.getMethod());
+        assertEquals("/test", first.getPath());
+        assertEquals(5, first.getResponseBytes());
+        assertFalse(first.isConnectionReused());
+        assertFalse(first.isFailed());
+        assertTrue(metrics.get(1).isConnectionReused());
+    }
+
+    interface TestService {
+        @GET("test")
+        Call<String> get();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.repository;
+
+import com.google.gson.Gson;
+
+import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.entity.ApiDataPoint;
+import org.akvo.flow.data.entity.DataPointStreamParser;
+import org.akvo.flow.data.net.Encoder;
+import org.akvo.flow.data.net.RestApi;
+import org.akvo.flow.data.util.ApiUrls;
+import org.akvo.flow.domain.util.DeviceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.subscribers.TestSubscriber;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.HttpException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DataPointPagerTest {
+
+    private static final long SURVEY_GROUP_ID = 1L;
+    private static final int DATA_POINTS = 25;
+    private static final int PAGE_SIZE = 10;
+
+    @Mock
+    DeviceHelper mockDeviceHelper;
+
+    @Mock
+    Encoder mockEncoder;
+
+    @Mock
+    DatabaseDataSource mockDatabaseDataSource;
+
+    private final List<String> savedIds = Collections.synchronizedList(new ArrayList<String>());
+    private MockWebServer mockWebServer;
+    private PaginatedServer server;
+    private DataPointPager pager;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new PaginatedServer();
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(server);
+        mockWebServer.start(8080);
+
+        when(mockDeviceHelper.getAndroidId()).thenReturn("123");
+        when(mockDeviceHelper.getImei()).thenReturn("123");
+        when(mockDeviceHelper.getPhoneNumber()).thenReturn("123");
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                List<?> dataPoints = (List<?>) invocation.getArguments()[0];
+                for (Object dataPoint : dataPoints) {
+                    savedIds.add(((ApiDataPoint) dataPoint).getId());
+                }
+                return null;
+            }
+        }).when(mockDatabaseDataSource).syncDataPoints(anyListOf(ApiDataPoint.class));
+
+        RestApi restApi = new RestApi(mockDeviceHelper, new TestRestServiceFactory(),
+                mockEncoder, "1.2.3", new ApiUrls("", ""), null, null, null);
+        pager = new DataPointPager(restApi, new DataPointStreamParser(new Gson(), 4),
+                mockDatabaseDataSource, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void downloadShouldSaveAllPagesWithoutDuplicates() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+
+        pager.download(SURVEY_GROUP_ID, "0").subscribe(subscriber);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+
+        subscriber.assertNoErrors();
+        subscriber.assertComplete();
+        // Pages overlap by one data point, the last page only has the last data point again
+        subscriber.assertValues(10, 19, 25, 25);
+        assertEquals(DATA_POINTS, savedIds.size());
+        assertEquals(DATA_POINTS, new HashSet<>(savedIds).size());
+        assertEquals(Arrays.asList("0", "1009", "1018", "1024"), server.requestedTimestamps);
+    }
+
+    @Test
+    public void downloadShouldResumeFromTimestamp() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+
+        pager.download(SURVEY_GROUP_ID, "1020").subscribe(subscriber);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+
+        subscriber.assertComplete();
+        subscriber.assertValues(5, 5);
+        assertEquals(Arrays.asList("dp20", "dp21", "dp22", "dp23", "dp24"), savedIds);
+    }
+
+    @Test
+    public void downloadShouldRetryWhenThrottled() {
+        server.throttledRequests = 2;
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+
+        pager.download(SURVEY_GROUP_ID, "0").subscribe(subscriber);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+
+        subscriber.assertNoErrors();
+        subscriber.assertValues(10, 19, 25, 25);
+        assertEquals(DATA_POINTS, new HashSet<>(savedIds).size());
+        assertEquals(6, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void downloadShouldNotRetryWhenForbidden() {
+        server.forbidden = true;
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+
+        pager.download(SURVEY_GROUP_ID, "0").subscribe(subscriber);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+
+        subscriber.assertError(HttpException.class);
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals(0, savedIds.size());
+    }
+
+    /**
+     * Returns the data points modified at, or after, the requested time, oldest first
+     */
+    private static class PaginatedServer extends Dispatcher {
+
+        final List<String> requestedTimestamps = Collections
+                .synchronizedList(new ArrayList<String>());
+        volatile int throttledRequests;
+        volatile boolean forbidden;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            if (forbidden) {
+                return new MockResponse().setResponseCode(403);
+            }
+            if (throttledRequests > 0) {
+                throttledRequests--;
+                return new MockResponse().setResponseCode(429).addHeader("Retry-After", "0");
+            }
+            String timestamp = request.getRequestUrl().queryParameter(ApiUrls.LAST_UPDATED);
+            requestedTimestamps.add(timestamp);
+            long lastUpdated = Long.parseLong(timestamp);
+            StringBuilder json = new StringBuilder("{\"surveyedLocaleData\":[");
+            int count = 0;
+            for (int i = 0; i < DATA_POINTS && count < PAGE_SIZE; i++) {
+                long lastModified = 1000 + i;
+                if (lastModified < lastUpdated) {
+                    continue;
+                }
+                if (count++ > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":\"dp").append(i)
+                        .append("\",\"surveyGroupId\":1,\"lastUpdateDateTime\":")
+                        .append(lastModified)
+                        .append(",\"surveyInstances\":[{\"uuid\":\"u").append(i)
+                        .append("\",\"qasList\":[]}]}");
+            }
+            json.append("],\"resultCount\":").append(count).append('}');
+            return new MockResponse().setResponseCode(200).setBody(json.toString());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Local stand-in for the S3 object and multipart upload requests used by the app, any other
+ * request is answered with an empty json object
+ */
+class FakeS3Dispatcher extends Dispatcher {
+
+    private final Map<String, byte[]> objects = new HashMap<>();
+    private final Map<String, TreeMap<Integer, byte[]>> uploads = new HashMap<>();
+    private final Map<Integer, Integer> partRequests = new HashMap<>();
+    private int uploadCount;
+    private int failingPart = -1;
+
+    /**
+     * The upload of the given part fails (once) with a server error
+     */
+    synchronized void failPartOnce(int partNumber) {
+        failingPart = partNumber;
+    }
+
+    synchronized byte[] getObject(String key) {
+        return objects.get(key);
+    }
+
+    synchronized boolean hasUpload(String uploadId) {
+        return uploads.containsKey(uploadId);
+    }
+
+    synchronized int getPartRequests(int partNumber) {
+        Integer requests = partRequests.get(partNumber);
+        return requests == null ? 0 : requests;
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        String key = url.encodedPath().substring(1);
+        String uploadId = url.queryParameter("uploadId");
+        String partNumber = url.queryParameter("partNumber");
+        if ("POST".equals(request.getMethod()) && url.queryParameterNames().contains("uploads")) {
+            uploadId = "upload-" + (++uploadCount);
+            uploads.put(uploadId, new TreeMap<Integer, byte[]>());
+            return new MockResponse().setBody("<InitiateMultipartUploadResult><Key>" + key
+                    + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+        } else if ("PUT".equals(request.getMethod()) && partNumber != null) {
+            return uploadPart(uploadId, Integer.parseInt(partNumber),
+                    request.getBody().readByteArray());
+        } else if ("POST".equals(request.getMethod()) && uploadId != null) {
+            return completeUpload(key, uploadId);
+        } else if ("DELETE".equals(request.getMethod()) && uploadId != null) {
+            return uploads.remove(uploadId) != null ? new MockResponse().setResponseCode(204)
+                    : noSuchUpload();
+        } else if ("PUT".equals(request.getMethod())) {
+            byte[] content = request.getBody().readByteArray();
+            objects.put(key, content);
+            return new MockResponse().addHeader("ETag", "\"" + md5Hex(content) + "\"");
+        }
+        return new MockResponse().setBody("{}");
+    }
+
+    private MockResponse uploadPart(String uploadId, int partNumber, byte[] content) {
+        Integer requests = partRequests.get(partNumber);
+        partRequests.put(partNumber, requests == null ? 1 : requests + 1);
+        TreeMap<Integer, byte[]> parts = uploads.get(uploadId);
+        if (parts == null) {
+            return noSuchUpload();
+        }
+        if (partNumber == failingPart) {
+            failingPart = -1;
+            return new MockResponse().setResponseCode(500);
+        }
+        parts.put(partNumber, content);
+        return new MockResponse().addHeader("ETag", "\"" + md5Hex(content) + "\"");
+    }
+
+    private MockResponse completeUpload(String key, String uploadId) {
+        TreeMap<Integer, byte[]> parts = uploads.remove(uploadId);
+        if (parts == null) {
+            return noSuchUpload();
+        }
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        MessageDigest md = md5();
+        for (byte[] part : parts.values()) {
+            object.write(part, 0, part.length);
+            md.update(md5(part));
+        }
+        objects.put(key, object.toByteArray());
+        String etag = toHex(md.digest()) + "-" + parts.size();
+        // S3 reports errors of this request with a 200 status code, only the body tells
+        return new MockResponse().setBody("<CompleteMultipartUploadResult><Key>" + key
+                + "</Key><ETag>&quot;" + etag + "&quot;</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private MockResponse noSuchUpload() {
+        return new MockResponse().setResponseCode(404)
+                .setBody("<Error><Code>NoSuchUpload</Code></Error>");
+    }
+
+    private static String md5Hex(byte[] content) {
+        return toHex(md5(content));
+    }
+
+    private static byte[] md5(byte[] content) {
+        return md5().digest(content);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
@@ -52,6 +52,7 @@ import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
 import okhttp3.ResponseBody;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -59,6 +60,8 @@ import okhttp3.mockwebserver.MockWebServer;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -116,8 +119,9 @@ public class FormDataRepositoryTest {
                 "1.2.3", new ApiUrls(null, null), mockAmazonAuth, mockDateFormat, null));
         DataSourceFactory dataSourceFactory = new DataSourceFactory(null, null,
                 mockDatabaseDataSource, null, mockFileDataSource, null);
+        // Sequential downloads, the mock server answers the requests in order
         formDataRepository = new FormDataRepository(mockFormHeaderParser, mockXmlParser,
-                restApi, dataSourceFactory, mockFormIdMapper);
+                restApi, dataSourceFactory, mockFormIdMapper, Schedulers.trampoline(), 1);
 
         when(mockFormHeaderParser.parseOne(anyString())).thenReturn(mockApiFormHeader);
         when(mockFormHeaderParser.parseMultiple(anyString())).thenReturn(
@@ -133,10 +137,16 @@ public class FormDataRepositoryTest {
         when(mockDatabaseDataSource
                 .insertSurvey(any(ApiFormHeader.class), anyBoolean(), any(Form.class)))
                 .thenReturn(Observable.just(true));
-        when(mockFileDataSource.extractRemoteArchive(any(ResponseBody.class), anyString()))
+        when(mockFileDataSource.extractFormArchive(any(ResponseBody.class), anyString()))
                 .thenReturn(Observable.just(true));
-        when(mockFileDataSource.getFormFile(anyString()))
+        when(mockFileDataSource.getStagedFormFile(anyString()))
                 .thenReturn(Observable.just(mockInputStream));
+        when(mockFileDataSource.publishStagedForm(anyString()))
+                .thenReturn(Observable.just(true));
+        when(mockFileDataSource.discardStagedForm(anyString()))
+                .thenReturn(Observable.just(true));
+        when(mockFileDataSource.extractResourceArchive(any(ResponseBody.class), anyString(),
+                anyString())).thenReturn(Observable.just(true));
     }
 
     @Test
@@ -167,7 +177,7 @@ public class FormDataRepositoryTest {
         observer.assertValueCount(1);
         verify(restApi, times(0)).downloadArchive(anyString());
         verify(mockFileDataSource, times(0))
-                .extractRemoteArchive(any(ResponseBody.class), anyString());
+                .extractFormArchive(any(ResponseBody.class), anyString());
     }
 
     @Test
@@ -191,7 +201,7 @@ public class FormDataRepositoryTest {
         observer.assertValueCount(1);
         verify(restApi, times(1)).downloadArchive(anyString());
         verify(mockFileDataSource, times(1))
-                .extractRemoteArchive(any(ResponseBody.class), anyString());
+                .extractFormArchive(any(ResponseBody.class), anyString());
     }
 
     @Test
@@ -205,7 +215,6 @@ public class FormDataRepositoryTest {
         when(mockFormIdMapper.mapToFormId(mockCursor)).thenReturn(formIds);
         when(mockDatabaseDataSource.formNeedsUpdate(any(ApiFormHeader.class)))
                 .thenReturn(Observable.just(true));
-        when(mockDatabaseDataSource.deleteAllForms()).thenReturn(Observable.just(true));
         when(mockXmlParser.parse(mockInputStream)).thenReturn(mockForm);
 
         mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(
@@ -235,7 +244,6 @@ public class FormDataRepositoryTest {
         when(mockDatabaseDataSource.getFormIds()).thenReturn(Observable.just(mockCursor));
         List<String> formIds = new ArrayList<>(0);
         when(mockFormIdMapper.mapToFormId(mockCursor)).thenReturn(formIds);
-        when(mockDatabaseDataSource.deleteAllForms()).thenReturn(Observable.just(true));
 
         formDataRepository.reloadForms("deviceId").subscribe(observer);
         observer.awaitTerminalEvent(2, TimeUnit.SECONDS);
@@ -245,6 +253,90 @@ public class FormDataRepositoryTest {
         verify(restApi, times(0)).downloadFormHeader(anyString(), anyString());
     }
 
+    @Test
+    public void reloadFormsShouldKeepInstalledFormIfNewVersionIsInvalid() {
+        TestObserver observer = new TestObserver<Integer>();
+        when(mockDatabaseDataSource.getFormIds()).thenReturn(Observable.just(mockCursor));
+        when(mockFormIdMapper.mapToFormId(mockCursor))
+                .thenReturn(Collections.singletonList("1"));
+        when(mockXmlParser.parse(mockInputStream))
+                .thenThrow(new IllegalArgumentException("Invalid form"));
+
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(
+                ",1,cde,abc,cde,6.0,cde,true,33\n"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{}"));
+
+        formDataRepository.reloadForms("deviceId").subscribe(observer);
+        observer.awaitTerminalEvent(2, TimeUnit.SECONDS);
+
+        observer.assertError(IllegalArgumentException.class);
+        verify(mockFileDataSource, times(1)).discardStagedForm("123456");
+        verify(mockFileDataSource, never()).publishStagedForm(anyString());
+        verify(mockDatabaseDataSource, never())
+                .insertSurvey(any(ApiFormHeader.class), anyBoolean(), any(Form.class));
+    }
+
+    @Test
+    public void downloadFormsShouldDownloadSharedResourcesOnce() {
+        TestObserver observer = new TestObserver<Integer>();
+        List<ApiFormHeader> headers = new ArrayList<>(2);
+        headers.add(formHeader("1"));
+        headers.add(formHeader("2"));
+        when(mockFormHeaderParser.parseMultiple(anyString())).thenReturn(headers);
+        when(mockDatabaseDataSource.formNeedsUpdate(any(ApiFormHeader.class)))
+                .thenReturn(Observable.just(true));
+        when(mockXmlParser.parse(mockInputStream)).thenReturn(mockForm);
+        when(mockForm.getResources()).thenReturn(Collections.singletonList("cascade-1"));
+
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("headers"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}")
+                .setHeader("ETag", "\"abc\""));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        formDataRepository.downloadForms("deviceId").subscribe(observer);
+        observer.awaitTerminalEvent(2, TimeUnit.SECONDS);
+
+        observer.assertNoErrors();
+        observer.assertValue(2);
+        verify(restApi, times(1)).downloadArchiveIfChanged(anyString(), anyString());
+        verify(mockFileDataSource, times(1))
+                .extractResourceArchive(any(ResponseBody.class), eq("cascade-1"), eq("abc"));
+        verify(mockDatabaseDataSource, times(2))
+                .insertSurvey(any(ApiFormHeader.class), eq(true), any(Form.class));
+    }
+
+    @Test
+    public void downloadFormsShouldSkipUnchangedResources() {
+        TestObserver observer = new TestObserver<Integer>();
+        when(mockFormHeaderParser.parseMultiple(anyString()))
+                .thenReturn(Collections.singletonList(formHeader("1")));
+        when(mockDatabaseDataSource.formNeedsUpdate(any(ApiFormHeader.class)))
+                .thenReturn(Observable.just(true));
+        when(mockXmlParser.parse(mockInputStream)).thenReturn(mockForm);
+        when(mockForm.getResources()).thenReturn(Collections.singletonList("cascade-1"));
+        when(mockFileDataSource.getResourceChecksum("cascade-1")).thenReturn("abc");
+
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("headers"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        formDataRepository.downloadForms("deviceId").subscribe(observer);
+        observer.awaitTerminalEvent(2, TimeUnit.SECONDS);
+
+        observer.assertNoErrors();
+        verify(restApi, times(1)).downloadArchiveIfChanged("cascade-1.zip", "abc");
+        verify(mockFileDataSource, never())
+                .extractResourceArchive(any(ResponseBody.class), anyString(), anyString());
+        verify(mockDatabaseDataSource, times(1))
+                .insertSurvey(any(ApiFormHeader.class), eq(true), any(Form.class));
+    }
+
+    private ApiFormHeader formHeader(String id) {
+        return new ApiFormHeader(id, "form " + id, "en", "1.0", 1, "group", true, id);
+    }
+
     @After
     public void tearDown() throws IOException {
         mockWebServer.shutdown();
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.repository;
+
+import android.database.Cursor;
+
+import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.entity.FormInstanceZipWriter;
+import org.akvo.flow.domain.entity.ExportResult;
+import org.akvo.flow.domain.entity.FormInstanceMetadata;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FormInstanceBatchExporterTest {
+
+    private static final File ZIP_FOLDER = new File("data");
+
+    @Mock
+    DatabaseDataSource mockDatabase;
+
+    @Mock
+    FormInstanceZipWriter mockZipWriter;
+
+    private FormInstanceBatchExporter exporter;
+
+    @Before
+    public void setUp() {
+        exporter = new FormInstanceBatchExporter(mockDatabase, mockZipWriter,
+                Schedulers.trampoline(), 2);
+        when(mockDatabase.saveExportedInstances(anyMap()))
+                .thenReturn(Collections.<Long>emptySet());
+    }
+
+    @Test
+    public void exportShouldSaveAllInstancesInOneTransaction() throws IOException {
+        mockInstance(1L, metadata("1.zip"));
+        mockInstance(2L, metadata("2.zip"));
+        mockInstance(3L, metadata("3.zip"));
+
+        List<ExportResult> results = exporter
+                .export(Arrays.asList(1L, 2L, 3L), "device", ZIP_FOLDER).blockingFirst();
+
+        Map<Long, FormInstanceMetadata> saved = captureSavedInstances();
+        assertEquals(Arrays.asList(1L, 2L, 3L), Arrays.asList(saved.keySet().toArray()));
+        assertEquals(3, results.size());
+        for (ExportResult result : results) {
+            assertTrue(result.isSuccess());
+        }
+    }
+
+    @Test
+    public void exportShouldKeepOtherInstancesIfZipFails() throws IOException {
+        mockInstance(1L, metadata("1.zip"));
+        Cursor cursor = mock(Cursor.class);
+        when(mockDatabase.getResponses(2L)).thenReturn(Observable.just(cursor));
+        when(mockZipWriter.write(eq(cursor), anyString(), any(File.class)))
+                .thenThrow(new IOException("No space left on device"));
+        mockInstance(3L, metadata("3.zip"));
+
+        List<ExportResult> results = exporter
+                .export(Arrays.asList(1L, 2L, 3L), "device", ZIP_FOLDER).blockingFirst();
+
+        assertEquals(Arrays.asList(1L, 3L),
+                Arrays.asList(captureSavedInstances().keySet().toArray()));
+        assertEquals(ExportResult.ResultCode.ERROR_FILE, resultCodes(results).get(2L));
+        assertEquals(ExportResult.ResultCode.SUCCESS, resultCodes(results).get(1L));
+        assertEquals(ExportResult.ResultCode.SUCCESS, resultCodes(results).get(3L));
+    }
+
+    @Test
+    public void exportShouldNotSaveInvalidInstances() throws IOException {
+        FormInstanceMetadata invalid = mock(FormInstanceMetadata.class);
+        when(invalid.isValid()).thenReturn(false);
+        mockInstance(1L, invalid);
+
+        List<ExportResult> results = exporter
+                .export(Collections.singletonList(1L), "device", ZIP_FOLDER).blockingFirst();
+
+        verify(mockDatabase, never()).saveExportedInstances(anyMap());
+        assertEquals(ExportResult.ResultCode.ERROR_INVALID_INSTANCE,
+                results.get(0).getResultCode());
+    }
+
+    @Test
+    public void exportShouldReportInstancesNotSaved() throws IOException {
+        mockInstance(1L, metadata("1.zip"));
+        mockInstance(2L, metadata("2.zip"));
+        when(mockDatabase.saveExportedInstances(anyMap()))
+                .thenReturn(Collections.singleton(2L));
+
+        List<ExportResult> results = exporter
+                .export(Arrays.asList(1L, 2L), "device", ZIP_FOLDER).blockingFirst();
+
+        assertEquals(ExportResult.ResultCode.SUCCESS, resultCodes(results).get(1L));
+        assertEquals(ExportResult.ResultCode.ERROR_DATABASE, resultCodes(results).get(2L));
+    }
+
+    private void mockInstance(long instanceId, FormInstanceMetadata metadata)
+            throws IOException {
+        Cursor cursor = mock(Cursor.class);
+        when(mockDatabase.getResponses(instanceId)).thenReturn(Observable.just(cursor));
+        when(mockZipWriter.write(cursor, "device", ZIP_FOLDER)).thenReturn(metadata);
+    }
+
+    private FormInstanceMetadata metadata(String zipFileName) {
+        return new FormInstanceMetadata(zipFileName, "123", Collections.<String>emptySet());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, FormInstanceMetadata> captureSavedInstances() {
+        ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        verify(mockDatabase, times(1)).saveExportedInstances(captor.capture());
+        return captor.getValue();
+    }
+
+    private Map<Long, ExportResult.ResultCode> resultCodes(List<ExportResult> results) {
+        Map<Long, ExportResult.ResultCode> resultCodes = new HashMap<>();
+        for (ExportResult result : results) {
+            resultCodes.put(result.getInstanceId(), result.getResultCode());
+        }
+        return resultCodes;
+    }
+}
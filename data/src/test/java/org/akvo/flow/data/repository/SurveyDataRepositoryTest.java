@@ -132,7 +132,8 @@ public class SurveyDataRepositoryTest {
                 .thenReturn("123");
 
         surveyDataRepository = new SurveyDataRepository(mockDataSourceFactory, null, null, restApi,
-                null, null, null, mockTransmissionMapper, null, mockFormIdMapper, null);
+                null, null, null, mockTransmissionMapper, null, mockFormIdMapper, null,
+                null);
 
         when(mockDeviceHelper.getPhoneNumber()).thenReturn("123");
         when(mockDeviceHelper.getImei()).thenReturn("123");
@@ -306,6 +307,25 @@ public class SurveyDataRepositoryTest {
         verify(mockDataBaseDataSource, times(0)).setFileTransmissionFailed(anyLong());
     }
 
+    @Test
+    public void shouldNotNotifyFileIfUploadFailed() {
+        TestObserver observer = new TestObserver<Set<String>>();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+
+        Transmission transmission = new Transmission(1L, 2L, "123", mockS3File);
+
+        surveyDataRepository.syncTransmission(transmission, "123").subscribe(observer);
+
+        observer.awaitTerminalEvent(2, TimeUnit.SECONDS);
+
+        observer.assertNoErrors();
+        observer.assertValueCount(1);
+        assertTrue(observer.values().get(0) instanceof UploadError);
+        assertEquals(1, mockWebServer.getRequestCount());
+        verify(mockDataBaseDataSource, times(0)).setFileTransmissionSucceeded(anyLong());
+        verify(mockDataBaseDataSource, times(1)).setFileTransmissionFailed(anyLong());
+    }
+
     @After
     public void tearDown() throws IOException {
         mockWebServer.shutdown();
@@ -37,7 +37,7 @@ public class TestRestServiceFactory extends RestServiceFactory {
     private final Retrofit retrofitScalar;
 
     public TestRestServiceFactory() {
-        super(null, null);
+        super(null, null, null);
         HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
         loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
         OkHttpClient okHttpClient = new OkHttpClient.Builder()
@@ -67,7 +67,17 @@ public class TestRestServiceFactory extends RestServiceFactory {
         return retrofit.create(clazz);
     }
 
+    @Override
+    public <T> T createRetrofitServiceWithInterceptor(final Class<T> clazz, String baseUrl) {
+        return retrofit.create(clazz);
+    }
+
     public <T> T createScalarsRetrofitService(final Class<T> clazz, String baseUrl) {
         return retrofitScalar.create(clazz);
     }
+
+    @Override
+    public <T> T createS3Service(final Class<T> clazz, String baseUrl) {
+        return retrofit.create(clazz);
+    }
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.repository;
+
+import org.akvo.flow.data.datasource.DatabaseDataSource;
+import org.akvo.flow.data.entity.MultipartUpload;
+import org.akvo.flow.data.entity.S3File;
+import org.akvo.flow.data.entity.Transmission;
+import org.akvo.flow.data.entity.UploadError;
+import org.akvo.flow.data.entity.UploadResult;
+import org.akvo.flow.data.entity.UploadSuccess;
+import org.akvo.flow.data.net.RestApi;
+import org.akvo.flow.data.net.s3.AmazonAuthHelper;
+import org.akvo.flow.data.net.s3.BodyCreator;
+import org.akvo.flow.data.util.ApiUrls;
+import org.akvo.flow.data.util.FileHelper;
+import org.akvo.flow.domain.util.DeviceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TransmissionUploaderTest {
+
+    private static final long TRANSMISSION_ID = 1L;
+    private static final int PART_SIZE = 1024;
+    private static final long RESUME_WINDOW = 60000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    DeviceHelper mockDeviceHelper;
+
+    @Mock
+    AmazonAuthHelper mockAmazonAuth;
+
+    @Mock
+    DatabaseDataSource mockDatabase;
+
+    private MockWebServer mockWebServer;
+    private FakeS3Dispatcher s3;
+    private TransmissionUploader uploader;
+
+    @Before
+    public void setUp() throws IOException {
+        s3 = new FakeS3Dispatcher();
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(s3);
+        mockWebServer.start(8080);
+
+        RestApi restApi = new RestApi(mockDeviceHelper, new TestRestServiceFactory(), null,
+                "1.2.3", new ApiUrls("", ""), mockAmazonAuth,
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ", Locale.US),
+                new BodyCreator(new FileHelper()));
+        // Files larger than 2 parts are uploaded in parts
+        uploader = new TransmissionUploader(restApi, mockDatabase, Schedulers.trampoline(), 1, 1,
+                2 * PART_SIZE, PART_SIZE, RESUME_WINDOW);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void sortForUploadShouldPutSmallArchivesFirst() throws IOException {
+        List<Transmission> transmissions = new ArrayList<>();
+        transmissions.add(transmission(1L, "video.mp4", 3000, S3File.ACTION_IMAGE));
+        transmissions.add(transmission(2L, "big.zip", 2000, S3File.ACTION_SUBMIT));
+        transmissions.add(transmission(3L, "image.jpg", 100, S3File.ACTION_IMAGE));
+        transmissions.add(transmission(4L, "small.zip", 10, S3File.ACTION_SUBMIT));
+
+        List<Transmission> sorted = TransmissionUploader.sortForUpload(transmissions);
+
+        assertEquals(4, sorted.size());
+        assertEquals(4L, sorted.get(0).getId().longValue());
+        assertEquals(2L, sorted.get(1).getId().longValue());
+        assertEquals(3L, sorted.get(2).getId().longValue());
+        assertEquals(1L, sorted.get(3).getId().longValue());
+    }
+
+    @Test
+    public void multipartUploadShouldResumeFromFirstMissingPart() throws IOException {
+        Transmission transmission = transmission(TRANSMISSION_ID, "video.mp4",
+                2 * PART_SIZE + PART_SIZE / 2, S3File.ACTION_IMAGE);
+        s3.failPartOnce(2);
+
+        UploadResult interrupted = uploader.upload(transmission, "123").blockingFirst();
+
+        assertTrue(interrupted instanceof UploadError);
+        verify(mockDatabase).startMultipartUpload(eq(TRANSMISSION_ID), eq("upload-1"),
+                eq((long) PART_SIZE), anyLong());
+        ArgumentCaptor<String> firstPartEtag = ArgumentCaptor.forClass(String.class);
+        verify(mockDatabase).saveUploadedPart(eq(TRANSMISSION_ID), eq(1),
+                firstPartEtag.capture());
+        verify(mockDatabase, never()).saveUploadedPart(eq(TRANSMISSION_ID), eq(2), anyString());
+
+        // As saved in the database
+        MultipartUpload savedUpload = new MultipartUpload("upload-1", PART_SIZE,
+                System.currentTimeMillis(), Collections.singletonMap(1, firstPartEtag.getValue()));
+        when(mockDatabase.getMultipartUpload(TRANSMISSION_ID)).thenReturn(savedUpload);
+
+        UploadResult resumed = uploader.upload(transmission, "123").blockingFirst();
+
+        assertTrue(resumed instanceof UploadSuccess);
+        assertEquals(1, s3.getPartRequests(1));
+        assertEquals(2, s3.getPartRequests(2));
+        assertEquals(1, s3.getPartRequests(3));
+        assertArrayEquals(readFile(transmission), s3.getObject("images/video.mp4"));
+        verify(mockDatabase).clearMultipartUpload(TRANSMISSION_ID);
+        verify(mockDatabase).setFileTransmissionSucceeded(TRANSMISSION_ID);
+    }
+
+    @Test
+    public void multipartUploadShouldBeForgottenIfExpired() throws IOException {
+        Transmission transmission = transmission(TRANSMISSION_ID, "video.mp4", 3 * PART_SIZE,
+                S3File.ACTION_IMAGE);
+        when(mockDatabase.getMultipartUpload(TRANSMISSION_ID))
+                .thenReturn(new MultipartUpload("expired", PART_SIZE, System.currentTimeMillis(),
+                        Collections.<Integer, String>emptyMap()));
+
+        UploadResult result = uploader.upload(transmission, "123").blockingFirst();
+
+        assertTrue(result instanceof UploadError);
+        verify(mockDatabase).clearMultipartUpload(TRANSMISSION_ID);
+        verify(mockDatabase).setFileTransmissionFailed(TRANSMISSION_ID);
+        verify(mockDatabase, never()).setFileTransmissionFormDeleted(anyLong());
+    }
+
+    @Test
+    public void multipartUploadShouldBeAbortedAfterResumeWindow() throws IOException {
+        Transmission transmission = transmission(TRANSMISSION_ID, "video.mp4", 3 * PART_SIZE,
+                S3File.ACTION_IMAGE);
+        s3.failPartOnce(2);
+        uploader.upload(transmission, "123").blockingFirst();
+        ArgumentCaptor<String> firstPartEtag = ArgumentCaptor.forClass(String.class);
+        verify(mockDatabase).saveUploadedPart(eq(TRANSMISSION_ID), eq(1),
+                firstPartEtag.capture());
+
+        // Started before the resume window
+        long startDate = System.currentTimeMillis() - RESUME_WINDOW - 1;
+        when(mockDatabase.getMultipartUpload(TRANSMISSION_ID))
+                .thenReturn(new MultipartUpload("upload-1", PART_SIZE, startDate,
+                        Collections.singletonMap(1, firstPartEtag.getValue())));
+
+        UploadResult result = uploader.upload(transmission, "123").blockingFirst();
+
+        assertTrue(result instanceof UploadSuccess);
+        assertFalse(s3.hasUpload("upload-1"));
+        verify(mockDatabase).startMultipartUpload(eq(TRANSMISSION_ID), eq("upload-2"),
+                eq((long) PART_SIZE), anyLong());
+        assertEquals(2, s3.getPartRequests(1));
+        assertArrayEquals(readFile(transmission), s3.getObject("images/video.mp4"));
+        // Once for the aborted upload, once for the completed one
+        verify(mockDatabase, times(2)).clearMultipartUpload(TRANSMISSION_ID);
+    }
+
+    @Test
+    public void smallFilesShouldBeUploadedAtOnce() throws IOException {
+        Transmission transmission = transmission(TRANSMISSION_ID, "image.jpg", PART_SIZE,
+                S3File.ACTION_IMAGE);
+
+        UploadResult result = uploader.upload(transmission, "123").blockingFirst();
+
+        assertTrue(result instanceof UploadSuccess);
+        assertEquals(0, s3.getPartRequests(1));
+        assertArrayEquals(readFile(transmission), s3.getObject("images/image.jpg"));
+        verify(mockDatabase, times(0)).getMultipartUpload(anyLong());
+    }
+
+    private Transmission transmission(long id, String name, int size, String action)
+            throws IOException {
+        File file = folder.newFile(name);
+        byte[] content = new byte[size];
+        new Random(id).nextBytes(content);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+        FileHelper fileHelper = new FileHelper();
+        String md5Hex = fileHelper.toHex(fileHelper.getMD5Checksum(file));
+        String dir = S3File.ACTION_SUBMIT.equals(action) ? S3File.S3_DATA_DIR
+                : S3File.S3_IMAGE_DIR;
+        S3File s3File = new S3File(file, false, dir, action, "", md5Hex);
+        return new Transmission(id, id, "123", s3File);
+    }
+
+    private byte[] readFile(Transmission transmission) throws IOException {
+        File file = transmission.getS3File().getFile();
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.readFully(content);
+        } finally {
+            input.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileHelperTest {
+
+    // Larger than the copy and digest buffers, and not a multiple of them
+    private static final int FILE_SIZE = 3 * 64 * 1024 + 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileHelper fileHelper;
+    private byte[] content;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        fileHelper = new FileHelper();
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        file = folder.newFile("video.mp4");
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void checksumShouldMatchWholeFileDigest() throws Exception {
+        byte[] expected = MessageDigest.getInstance("MD5").digest(content);
+
+        assertArrayEquals(expected, fileHelper.getMD5Checksum(file));
+    }
+
+    @Test
+    public void checksumShouldOnlyReadRequestedRange() throws Exception {
+        int offset = 1000;
+        int length = 2 * 64 * 1024;
+        byte[] expected = MessageDigest.getInstance("MD5")
+                .digest(Arrays.copyOfRange(content, offset, offset + length));
+
+        assertArrayEquals(expected, fileHelper.getMD5Checksum(file, offset, length));
+    }
+
+    @Test
+    public void checksumShouldBeNullIfFileIsMissing() {
+        assertNull(fileHelper.getMD5Checksum(new File(folder.getRoot(), "missing.mp4")));
+    }
+
+    @Test
+    public void hexShouldRoundTrip() throws Exception {
+        byte[] checksum = fileHelper.getMD5Checksum(file);
+        String hex = fileHelper.toHex(checksum);
+
+        assertEquals(32, hex.length());
+        assertArrayEquals(checksum, fileHelper.fromHex(hex));
+    }
+
+    @Test
+    public void copyFileShouldCopyAllBytes() throws IOException {
+        File destination = new File(folder.newFolder("copy"), "video.mp4");
+
+        String path = fileHelper.copyFile(file, destination);
+
+        assertEquals(destination.getAbsolutePath(), path);
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    @Test
+    public void copyFileShouldReturnNullIfFileIsMissing() throws IOException {
+        File destination = new File(folder.getRoot(), "copy.mp4");
+
+        assertNull(fileHelper.copyFile(new File(folder.getRoot(), "missing.mp4"), destination));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+}
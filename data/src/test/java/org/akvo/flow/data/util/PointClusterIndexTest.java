@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.util;
+
+import org.akvo.flow.domain.entity.PointCluster;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PointClusterIndexTest {
+
+    private static final int POINTS = 2000;
+
+    @Test
+    public void getClustersShouldCountEveryPointAtEveryZoom() {
+        PointClusterIndex index = new PointClusterIndex();
+        addRandomPoints(index, new Random(42), POINTS);
+
+        for (int zoom = 0; zoom <= PointClusterIndex.MAX_ZOOM; zoom++) {
+            assertEquals(POINTS, count(index.getClusters(zoom, -90, -180, 90, 180)));
+        }
+    }
+
+    @Test
+    public void getClustersShouldReturnSinglePointsWithTheirId() {
+        PointClusterIndex index = new PointClusterIndex();
+        index.put("a", "Well A", -1.25, 36.8);
+        index.put("b", "Well B", -1.2501, 36.8001);
+
+        List<PointCluster> far = index.getClusters(4, -2, 36, -1, 37);
+        assertEquals(1, far.size());
+        assertEquals(2, far.get(0).getCount());
+        assertNull(far.get(0).getDataPointId());
+        assertEquals(-1.25005, far.get(0).getLatitude(), 0.00001);
+
+        List<PointCluster> close = index.getClusters(PointClusterIndex.MAX_ZOOM, -2, 36, -1, 37);
+        assertEquals(2, close.size());
+        assertEquals("[a Well A -1.25 36.8, b Well B -1.2501 36.8001]", describe(close));
+    }
+
+    @Test
+    public void getClustersShouldOnlyReturnTheBoundingBox() {
+        PointClusterIndex index = new PointClusterIndex();
+        index.put("inside", null, 10, 10);
+        index.put("outside", null, 40, 40);
+
+        for (int zoom = 2; zoom <= PointClusterIndex.MAX_ZOOM; zoom++) {
+            assertEquals(1, count(index.getClusters(zoom, 9, 9, 11, 11)));
+        }
+    }
+
+    @Test
+    public void getClustersShouldCrossTheAntimeridian() {
+        PointClusterIndex index = new PointClusterIndex();
+        index.put("east", null, 0, 179.9);
+        index.put("west", null, 0, -179.9);
+        index.put("greenwich", null, 0, 0);
+
+        assertEquals(2, count(index.getClusters(5, -1, 179, 1, -179)));
+        assertEquals(2, count(index.getClusters(15, -1, 179, 1, -179)));
+    }
+
+    @Test
+    public void updatesShouldMatchANewIndex() {
+        Random random = new Random(7);
+        PointClusterIndex index = new PointClusterIndex();
+        addRandomPoints(index, random, POINTS);
+        for (int i = 0; i < POINTS; i += 3) {
+            index.remove("point-" + i);
+        }
+        for (int i = 1; i < POINTS; i += 3) {
+            index.put("point-" + i, "Moved " + i, random.nextDouble() * 10,
+                    random.nextDouble() * 10);
+        }
+
+        PointClusterIndex expected = new PointClusterIndex();
+        for (int i = 0; i < POINTS; i++) {
+            if (i % 3 != 0) {
+                PointCluster point = single(index, "point-" + i);
+                expected.put("point-" + i, point.getName(), point.getLatitude(),
+                        point.getLongitude());
+            }
+        }
+
+        assertEquals(POINTS - (POINTS + 2) / 3, index.size());
+        for (int zoom = 0; zoom <= PointClusterIndex.MAX_ZOOM; zoom += 3) {
+            assertEquals(describe(expected.getClusters(zoom, -60, -170, 60, 170)),
+                    describe(index.getClusters(zoom, -60, -170, 60, 170)));
+        }
+    }
+
+    private static void addRandomPoints(PointClusterIndex index, Random random, int points) {
+        for (int i = 0; i < points; i++) {
+            // Half of them in a small region
+            double latitude = i % 2 == 0 ? random.nextDouble() : random.nextDouble() * 170 - 85;
+            double longitude = i % 2 == 0 ? random.nextDouble() : random.nextDouble() * 360 - 180;
+            index.put("point-" + i, "Point " + i, latitude, longitude);
+        }
+    }
+
+    private static PointCluster single(PointClusterIndex index, String id) {
+        for (PointCluster cluster : index.getClusters(PointClusterIndex.MAX_ZOOM, -90, -180, 90,
+                180)) {
+            if (id.equals(cluster.getDataPointId())) {
+                return cluster;
+            }
+        }
+        throw new AssertionError("Missing point " + id);
+    }
+
+    private static int count(List<PointCluster> clusters) {
+        int count = 0;
+        for (PointCluster cluster : clusters) {
+            count += cluster.getCount();
+        }
+        return count;
+    }
+
+    private static String describe(List<PointCluster> clusters) {
+        List<String> descriptions = new ArrayList<>(clusters.size());
+        for (PointCluster cluster : clusters) {
+            if (cluster.getCount() == 1) {
+                descriptions.add(cluster.getDataPointId() + " " + cluster.getName() + " "
+                        + cluster.getLatitude() + " " + cluster.getLongitude());
+            } else {
+                descriptions.add(String.format(Locale.US, "%d %.6f %.6f", cluster.getCount(),
+                        cluster.getLatitude(), cluster.getLongitude()));
+            }
+        }
+        Collections.sort(descriptions);
+        return descriptions.toString();
+    }
+}
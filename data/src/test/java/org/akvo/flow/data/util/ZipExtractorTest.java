@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ZipExtractor zipExtractor;
+    private File destination;
+
+    @Before
+    public void setUp() throws IOException {
+        zipExtractor = new ZipExtractor();
+        destination = folder.newFolder("res");
+    }
+
+    @Test
+    public void extractShouldExtractFilesAfterDirectories() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(archive);
+        zos.putNextEntry(new ZipEntry("media/"));
+        zos.closeEntry();
+        addEntry(zos, "media/image.png", bytes(3 * ZipExtractor.BUFFER_SIZE + 17));
+        addEntry(zos, "cascade.sqlite", bytes(1000));
+        zos.close();
+
+        List<File> files = zipExtractor.extract(input(archive), destination);
+
+        assertEquals(2, files.size());
+        assertArrayEquals(bytes(3 * ZipExtractor.BUFFER_SIZE + 17),
+                read(new File(destination, "media/image.png")));
+        assertArrayEquals(bytes(1000), read(new File(destination, "cascade.sqlite")));
+        assertNoTempFiles(destination);
+    }
+
+    @Test
+    public void extractShouldKeepPreviousFilesWhenCrcIsInvalid() throws IOException {
+        File previous = new File(destination, "cascade.sqlite");
+        write(previous, bytes(10));
+        byte[] content = bytes(1000);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(archive);
+        addEntry(zos, "first.sqlite", bytes(100));
+        ZipEntry entry = new ZipEntry("cascade.sqlite");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc(content));
+        zos.putNextEntry(entry);
+        zos.write(content);
+        zos.closeEntry();
+        zos.close();
+        // Corrupt the stored content, the archive itself stays readable
+        byte[] corrupted = archive.toByteArray();
+        corrupted[indexOf(corrupted, content) + 500]++;
+
+        try {
+            zipExtractor.extract(new ByteArrayInputStream(corrupted), destination);
+            fail("Expected an invalid CRC");
+        } catch (ZipException e) {
+            // Expected
+        }
+
+        assertArrayEquals(bytes(10), read(previous));
+        assertFalse(new File(destination, "first.sqlite").exists());
+        assertNoTempFiles(destination);
+    }
+
+    @Test
+    public void extractShouldRejectEntriesOutsideDestination() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(archive);
+        addEntry(zos, "../evil.sqlite", bytes(10));
+        zos.close();
+
+        try {
+            zipExtractor.extract(input(archive), destination);
+            fail("Expected the entry to be rejected");
+        } catch (ZipException e) {
+            // Expected
+        }
+
+        assertFalse(new File(destination.getParentFile(), "evil.sqlite").exists());
+    }
+
+    @Test
+    public void copyShouldReplaceDestination() throws IOException {
+        File source = folder.newFile("source.xml");
+        write(source, bytes(ZipExtractor.BUFFER_SIZE + 1));
+        File target = new File(destination, "form.xml");
+        write(target, bytes(5));
+
+        zipExtractor.copy(source, target);
+        assertArrayEquals(bytes(ZipExtractor.BUFFER_SIZE + 1), read(target));
+
+        zipExtractor.copy(new ByteArrayInputStream(bytes(7)), target);
+        assertArrayEquals(bytes(7), read(target));
+        assertNoTempFiles(destination);
+    }
+
+    @Test
+    public void copyShouldCopyWhatReaderLeavesUnread() throws IOException {
+        byte[] content = bytes(3 * ZipExtractor.BUFFER_SIZE + 17);
+        File target = new File(destination, "form.xml");
+
+        byte[] header = zipExtractor.copy(new ByteArrayInputStream(content), target,
+                new ZipExtractor.StreamReader<byte[]>() {
+                    @Override
+                    public byte[] read(InputStream input) throws IOException {
+                        byte[] header = new byte[10];
+                        assertEquals(header.length, input.read(header));
+                        input.close();
+                        return header;
+                    }
+                });
+
+        assertArrayEquals(Arrays.copyOf(content, 10), header);
+        assertArrayEquals(content, read(target));
+        assertNoTempFiles(destination);
+    }
+
+    @Test
+    public void copyShouldKeepDestinationWhenReaderFails() throws IOException {
+        File target = new File(destination, "form.xml");
+        write(target, bytes(5));
+
+        try {
+            zipExtractor.copy(new ByteArrayInputStream(bytes(1000)), target,
+                    new ZipExtractor.StreamReader<Void>() {
+                        @Override
+                        public Void read(InputStream input) {
+                            throw new IllegalArgumentException("Invalid form");
+                        }
+                    });
+            fail("Expected the reader error");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertArrayEquals(bytes(5), read(target));
+        assertNoTempFiles(destination);
+    }
+
+    private static void addEntry(ZipOutputStream zos, String name, byte[] content)
+            throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(content);
+        zos.closeEntry();
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + size);
+        }
+        return bytes;
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static int indexOf(byte[] data, byte[] content) {
+        for (int i = 0; i <= data.length - content.length; i++) {
+            int j = 0;
+            while (j < content.length && data[i + j] == content[j]) {
+                j++;
+            }
+            if (j == content.length) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Content not found");
+    }
+
+    private static InputStream input(ByteArrayOutputStream archive) {
+        return new ByteArrayInputStream(archive.toByteArray());
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void assertNoTempFiles(File folder) {
+        String[] names = folder.list();
+        assertTrue(names != null);
+        for (String name : names) {
+            assertFalse(Arrays.toString(names), name.startsWith("."));
+        }
+    }
+}
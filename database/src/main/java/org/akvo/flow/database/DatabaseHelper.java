@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2010-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2010-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -40,12 +40,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "surveydata";
     public static final int VER_RESPONSE_ITERATION = 85;
     public static final int VER_TRANSMISSION_ITERATION = 86;
-    static final int DATABASE_VERSION = VER_TRANSMISSION_ITERATION;
+    public static final int VER_TRANSMISSION_CHECKSUM = 87;
+    public static final int VER_TRANSMISSION_MULTIPART = 88;
+    public static final int VER_RECORD_SEARCH = 89;
+    public static final int VER_RECORD_LOCATION = 90;
+    public static final int VER_RECORD_STATUS = 91;
+    public static final int VER_QUERY_INDEXES = 92;
+    public static final int VER_TRANSMISSION_PART_CLEANUP = 93;
+    static final int DATABASE_VERSION = VER_TRANSMISSION_PART_CLEANUP;
 
     private static SQLiteDatabase database;
     private static final Object LOCK_OBJ = new Object();
     private volatile static int instanceCount = 0;
     private final LanguageTable languageTable;
+    private final RecordSearchTable recordSearchTable = new RecordSearchTable();
+    private final RecordLocationTable recordLocationTable = new RecordLocationTable();
+    private final RecordStatusTriggers recordStatusTriggers = new RecordStatusTriggers();
 
     public DatabaseHelper(Context context, LanguageTable languageTable) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -117,7 +127,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + RecordColumns.LATITUDE + " REAL,"// REFERENCES ...
                 + RecordColumns.LONGITUDE + " REAL,"// REFERENCES ...
                 + RecordColumns.LAST_MODIFIED + " INTEGER NOT NULL DEFAULT 0,"
+                + RecordColumns.STATUS + " INTEGER NOT NULL DEFAULT 0,"
+                + RecordColumns.LAST_ACTIVITY + " INTEGER NOT NULL DEFAULT 0,"
                 + "UNIQUE (" + RecordColumns.RECORD_ID + ") ON CONFLICT REPLACE)");
+        // Rows removed by ON CONFLICT REPLACE do not run the delete triggers (recursive
+        // triggers are off), so the tables below derived from records and form instances, and
+        // the transmission parts, also have a BEFORE INSERT trigger for the replaced row.
+        recordSearchTable.onCreate(db);
+        recordLocationTable.onCreate(db);
+        recordStatusTriggers.onCreate(db);
 
         db.execSQL("CREATE TABLE " + Tables.TRANSMISSION + " ("
                 + TransmissionColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -127,8 +145,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + TransmissionColumns.STATUS + " INTEGER,"
                 + TransmissionColumns.START_DATE + " INTEGER,"
                 + TransmissionColumns.END_DATE + " INTEGER,"
+                + TransmissionColumns.MD5 + " TEXT,"
+                + TransmissionColumns.FILE_SIZE + " INTEGER,"
+                + TransmissionColumns.FILE_MODIFIED + " INTEGER,"
+                + TransmissionColumns.UPLOAD_ID + " TEXT,"
+                + TransmissionColumns.PART_SIZE + " INTEGER,"
+                + TransmissionColumns.UPLOAD_DATE + " INTEGER,"
                 + "UNIQUE (" + TransmissionColumns.FILENAME + ") ON CONFLICT REPLACE)");
 
+        createTransmissionPartTable(db);
+        createTransmissionPartTriggers(db);
+
         db.execSQL("CREATE TABLE " + Tables.SYNC_TIME + " ("
                 + SyncTimeColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + SyncTimeColumns.SURVEY_GROUP_ID + " INTEGER,"
@@ -149,6 +176,88 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         helper.migrateTransmissions(db);
     }
 
+    public void upgradeFromTransmissionIteration(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                + TransmissionColumns.MD5 + " TEXT");
+        db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                + TransmissionColumns.FILE_SIZE + " INTEGER");
+        db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                + TransmissionColumns.FILE_MODIFIED + " INTEGER");
+    }
+
+    public void upgradeFromTransmissionChecksum(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                + TransmissionColumns.UPLOAD_ID + " TEXT");
+        db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                + TransmissionColumns.PART_SIZE + " INTEGER");
+        createTransmissionPartTable(db);
+    }
+
+    public void upgradeFromTransmissionMultipart(SQLiteDatabase db) {
+        recordSearchTable.onCreate(db);
+        recordSearchTable.populate(db);
+    }
+
+    public void upgradeFromRecordSearch(SQLiteDatabase db) {
+        recordLocationTable.onCreate(db);
+        recordLocationTable.populate(db);
+    }
+
+    public void upgradeFromRecordLocation(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Tables.RECORD + " ADD COLUMN "
+                + RecordColumns.STATUS + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + Tables.RECORD + " ADD COLUMN "
+                + RecordColumns.LAST_ACTIVITY + " INTEGER NOT NULL DEFAULT 0");
+        recordStatusTriggers.onCreate(db);
+        recordStatusTriggers.populate(db);
+    }
+
+    public void upgradeFromRecordStatus(SQLiteDatabase db) {
+        createQueryIndexes(db);
+    }
+
+    public void upgradeFromQueryIndexes(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                + TransmissionColumns.UPLOAD_DATE + " INTEGER");
+        // The age of the uploads in progress is unknown, they are given a full resume window
+        db.execSQL("UPDATE " + Tables.TRANSMISSION + " SET " + TransmissionColumns.UPLOAD_DATE
+                + " = " + System.currentTimeMillis() + " WHERE " + TransmissionColumns.UPLOAD_ID
+                + " IS NOT NULL");
+        db.execSQL("DELETE FROM " + Tables.TRANSMISSION_PART + " WHERE "
+                + TransmissionPartColumns.TRANSMISSION_ID + " NOT IN (SELECT "
+                + TransmissionColumns._ID + " FROM " + Tables.TRANSMISSION + ")");
+        createTransmissionPartTriggers(db);
+    }
+
+    private void createTransmissionPartTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.TRANSMISSION_PART + " ("
+                + TransmissionPartColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + TransmissionPartColumns.TRANSMISSION_ID + " INTEGER NOT NULL,"
+                + TransmissionPartColumns.PART_NUMBER + " INTEGER NOT NULL,"
+                + TransmissionPartColumns.ETAG + " TEXT NOT NULL,"
+                + "UNIQUE (" + TransmissionPartColumns.TRANSMISSION_ID + ", "
+                + TransmissionPartColumns.PART_NUMBER + ") ON CONFLICT REPLACE)");
+    }
+
+    /**
+     * The parts of a transmission are deleted with it
+     */
+    private void createTransmissionPartTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER transmission_part_after_delete AFTER DELETE ON "
+                + Tables.TRANSMISSION + " BEGIN "
+                + "DELETE FROM " + Tables.TRANSMISSION_PART + " WHERE "
+                + TransmissionPartColumns.TRANSMISSION_ID + " = old." + TransmissionColumns._ID
+                + "; END");
+        // Replaced rows, see onCreate
+        db.execSQL("CREATE TRIGGER transmission_part_before_insert BEFORE INSERT ON "
+                + Tables.TRANSMISSION + " BEGIN "
+                + "DELETE FROM " + Tables.TRANSMISSION_PART + " WHERE "
+                + TransmissionPartColumns.TRANSMISSION_ID + " IN (SELECT "
+                + TransmissionColumns._ID + " FROM " + Tables.TRANSMISSION + " WHERE "
+                + TransmissionColumns.FILENAME + " = new." + TransmissionColumns.FILENAME
+                + "); END");
+    }
+
     /**
      * This is not ideal but due to our setup, using something other than getWritableDatabase
      * produces errors.
@@ -201,5 +310,25 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + "(" + SurveyInstanceColumns.STATUS + ")");
         db.execSQL("CREATE INDEX response_modified_idx ON " + Tables.SURVEY_INSTANCE
                 + "(" + SurveyInstanceColumns.SUBMITTED_DATE + ")");
+        createQueryIndexes(db);
+    }
+
+    /**
+     * Indexes of the columns the transmissions, form instances, data points and forms are
+     * looked up by. survey_instance(record_id) is created with the record status triggers.
+     */
+    private void createQueryIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX transmission_instance_idx ON " + Tables.TRANSMISSION + "("
+                + TransmissionColumns.SURVEY_INSTANCE_ID + ")");
+        db.execSQL("CREATE INDEX transmission_status_idx ON " + Tables.TRANSMISSION + "("
+                + TransmissionColumns.STATUS + ", " + TransmissionColumns.SURVEY_ID + ")");
+        db.execSQL("CREATE INDEX survey_instance_survey_idx ON " + Tables.SURVEY_INSTANCE + "("
+                + SurveyInstanceColumns.SURVEY_ID + ", " + SurveyInstanceColumns.STATUS + ")");
+        // Same order as the pages of data points sorted by date
+        db.execSQL("CREATE INDEX record_modified_idx ON " + Tables.RECORD + "("
+                + RecordColumns.SURVEY_GROUP_ID + ", " + RecordColumns.LAST_MODIFIED + ", "
+                + RecordColumns.RECORD_ID + ")");
+        db.execSQL("CREATE INDEX survey_group_idx ON " + Tables.SURVEY + "("
+                + SurveyColumns.SURVEY_GROUP_ID + ")");
     }
 }
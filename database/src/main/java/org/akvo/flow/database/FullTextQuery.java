@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.database;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Builds full text MATCH queries from user input
+ */
+public class FullTextQuery {
+
+    /**
+     * Query which matches nothing, used when the input has no word to search for
+     */
+    public static final String NO_MATCH = "\"\"";
+
+    private FullTextQuery() {
+    }
+
+    /**
+     * Turns user input into a prefix query: every word has to match the beginning of a word
+     * of the indexed text. Each word is quoted, so words like OR or NEAR are searched for
+     * instead of being read as operators, and words made only of punctuation are dropped.
+     * The case is left to the tokenizer, which folds the query words like the indexed text.
+     *
+     * @return null if there is no input, so no filter has to be applied
+     */
+    @Nullable
+    public static String toPrefixQuery(@Nullable String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder();
+        String cleaned = query.replaceAll("[\"*]", " ");
+        for (String word : cleaned.trim().split("\\s+")) {
+            if (!hasLetterOrDigit(word)) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append('"').append(word).append("*\"");
+        }
+        return matchQuery.length() > 0 ? matchQuery.toString() : NO_MATCH;
+    }
+
+    private static boolean hasLetterOrDigit(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isLetterOrDigit(word.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
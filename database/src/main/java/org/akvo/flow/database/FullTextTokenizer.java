@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.database;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * Chooses the tokenizer of the full text tables
+ */
+public class FullTextTokenizer {
+
+    private static final String UNICODE = "unicode61";
+    private static final String SIMPLE = "simple";
+
+    private FullTextTokenizer() {
+    }
+
+    /**
+     * unicode61 folds the case of every letter and removes the diacritics, so "ecole" finds
+     * "École". It is only built into SQLite 3.7.13 and later, older Android versions fall back
+     * to simple, which only folds ASCII letters.
+     *
+     * @return the tokenize option to append to the columns of a fts3 or fts4 table
+     */
+    @NonNull
+    public static String getTokenizeOption(@NonNull SQLiteDatabase db) {
+        return "tokenize=" + (isUnicodeAvailable(db) ? UNICODE : SIMPLE);
+    }
+
+    private static boolean isUnicodeAvailable(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE temp.tokenizer_check USING fts4(tokenize="
+                    + UNICODE + ")");
+            db.execSQL("DROP TABLE temp.tokenizer_check");
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2010-2017 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2010-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -28,4 +28,6 @@ public class RecordColumns {
     public static final String LATITUDE = "latitude";
     public static final String LONGITUDE = "longitude";
     public static final String LAST_MODIFIED = "last_modified";
+    public static final String STATUS = "status";
+    public static final String LAST_ACTIVITY = "last_activity";
 }
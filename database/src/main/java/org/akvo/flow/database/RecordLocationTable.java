@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Grid index over the location of the data points (records). The world is split in cells of
+ * {@link #CELL_SIZE} degrees numbered row by row from the south west corner, and every record
+ * with a location has a row with its cell (tile) and a copy of its location, so a bounding box
+ * is answered from the (survey group, tile) index without reading the record table.
+ * The _id of each row is the _id of its record, the table is kept up to date by triggers on
+ * the record table.
+ */
+public class RecordLocationTable {
+
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_SURVEY_GROUP_ID = "survey_group_id";
+    public static final String COLUMN_TILE = "tile";
+    public static final String COLUMN_LATITUDE = "latitude";
+    public static final String COLUMN_LONGITUDE = "longitude";
+
+    public static final double CELL_SIZE = 0.25;
+    public static final int COLUMNS = (int) (360 / CELL_SIZE) + 1;
+
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.RECORD_LOCATION + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + COLUMN_SURVEY_GROUP_ID + " INTEGER,"
+                + COLUMN_TILE + " INTEGER NOT NULL,"
+                + COLUMN_LATITUDE + " REAL NOT NULL,"
+                + COLUMN_LONGITUDE + " REAL NOT NULL)");
+        db.execSQL("CREATE INDEX record_location_tile_idx ON " + Tables.RECORD_LOCATION
+                + "(" + COLUMN_SURVEY_GROUP_ID + ", " + COLUMN_TILE + ")");
+
+        // Replaced rows, see DatabaseHelper#onCreate
+        db.execSQL("CREATE TRIGGER record_location_before_insert BEFORE INSERT ON "
+                + Tables.RECORD + " BEGIN "
+                + "DELETE FROM " + Tables.RECORD_LOCATION + " WHERE " + COLUMN_ID + " IN (SELECT "
+                + RecordColumns._ID + " FROM " + Tables.RECORD + " WHERE "
+                + RecordColumns.RECORD_ID + " = new." + RecordColumns.RECORD_ID + "); END");
+        db.execSQL("CREATE TRIGGER record_location_after_insert AFTER INSERT ON "
+                + Tables.RECORD + " BEGIN " + insertStatement("new") + "; END");
+        db.execSQL("CREATE TRIGGER record_location_after_update AFTER UPDATE OF "
+                + RecordColumns.SURVEY_GROUP_ID + ", " + RecordColumns.LATITUDE + ", "
+                + RecordColumns.LONGITUDE + " ON " + Tables.RECORD + " BEGIN "
+                + deleteStatement() + "; " + insertStatement("new") + "; END");
+        db.execSQL("CREATE TRIGGER record_location_after_delete AFTER DELETE ON "
+                + Tables.RECORD + " BEGIN " + deleteStatement() + "; END");
+    }
+
+    /**
+     * Indexes all the existing records, the table has to be empty
+     */
+    public void populate(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + Tables.RECORD_LOCATION + " (" + COLUMN_ID + ", "
+                + COLUMN_SURVEY_GROUP_ID + ", " + COLUMN_TILE + ", " + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE + ") SELECT " + RecordColumns._ID + ", "
+                + RecordColumns.SURVEY_GROUP_ID + ", " + tileExpression("") + ", "
+                + RecordColumns.LATITUDE + ", " + RecordColumns.LONGITUDE + " FROM "
+                + Tables.RECORD + " WHERE " + locatedCondition(""));
+    }
+
+    /**
+     * Same cell row as the one computed by the triggers
+     */
+    public static int getRow(double latitude) {
+        return (int) ((Math.max(-90, Math.min(90, latitude)) + 90) / CELL_SIZE);
+    }
+
+    /**
+     * Same cell column as the one computed by the triggers
+     */
+    public static int getColumn(double longitude) {
+        return (int) ((Math.max(-180, Math.min(180, longitude)) + 180) / CELL_SIZE);
+    }
+
+    private static String tileExpression(String row) {
+        return "(CAST((" + row + RecordColumns.LATITUDE + " + 90) / " + CELL_SIZE
+                + " AS INTEGER) * " + COLUMNS + " + CAST((" + row + RecordColumns.LONGITUDE
+                + " + 180) / " + CELL_SIZE + " AS INTEGER))";
+    }
+
+    private static String locatedCondition(String row) {
+        return row + RecordColumns.LATITUDE + " IS NOT NULL AND " + row
+                + RecordColumns.LONGITUDE + " IS NOT NULL";
+    }
+
+    private static String insertStatement(String row) {
+        String prefix = row + ".";
+        return "INSERT INTO " + Tables.RECORD_LOCATION + " (" + COLUMN_ID + ", "
+                + COLUMN_SURVEY_GROUP_ID + ", " + COLUMN_TILE + ", " + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE + ") SELECT " + prefix + RecordColumns._ID + ", " + prefix
+                + RecordColumns.SURVEY_GROUP_ID + ", " + tileExpression(prefix) + ", " + prefix
+                + RecordColumns.LATITUDE + ", " + prefix + RecordColumns.LONGITUDE + " WHERE "
+                + locatedCondition(prefix);
+    }
+
+    private static String deleteStatement() {
+        return "DELETE FROM " + Tables.RECORD_LOCATION + " WHERE " + COLUMN_ID + " = old."
+                + RecordColumns._ID;
+    }
+}
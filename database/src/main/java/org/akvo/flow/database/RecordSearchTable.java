@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Full text index over the name and id of the data points (records). The docid of each row is
+ * the _id of its record. The index is kept up to date by triggers on the record table, so
+ * every write path (sync, form save, deletion) maintains it.
+ */
+public class RecordSearchTable {
+
+    public static final String COLUMN_NAME = "search_name";
+    public static final String COLUMN_RECORD_ID = "search_record_id";
+
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + Tables.RECORD_SEARCH + " USING fts4("
+                + COLUMN_NAME + ", " + COLUMN_RECORD_ID + ", "
+                + FullTextTokenizer.getTokenizeOption(db) + ")");
+
+        // Replaced rows, see DatabaseHelper#onCreate
+        db.execSQL("CREATE TRIGGER record_search_before_insert BEFORE INSERT ON "
+                + Tables.RECORD + " BEGIN "
+                + "DELETE FROM " + Tables.RECORD_SEARCH + " WHERE docid IN (SELECT "
+                + RecordColumns._ID + " FROM " + Tables.RECORD + " WHERE "
+                + RecordColumns.RECORD_ID + " = new." + RecordColumns.RECORD_ID + "); END");
+        db.execSQL("CREATE TRIGGER record_search_after_insert AFTER INSERT ON "
+                + Tables.RECORD + " BEGIN " + insertStatement("new") + "; END");
+        db.execSQL("CREATE TRIGGER record_search_after_update AFTER UPDATE OF "
+                + RecordColumns.NAME + ", " + RecordColumns.RECORD_ID + " ON " + Tables.RECORD
+                + " BEGIN " + deleteStatement() + "; " + insertStatement("new") + "; END");
+        db.execSQL("CREATE TRIGGER record_search_after_delete AFTER DELETE ON "
+                + Tables.RECORD + " BEGIN " + deleteStatement() + "; END");
+    }
+
+    /**
+     * Indexes all the existing records, the table has to be empty
+     */
+    public void populate(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + Tables.RECORD_SEARCH + " (docid, " + COLUMN_NAME + ", "
+                + COLUMN_RECORD_ID + ") SELECT " + RecordColumns._ID + ", "
+                + RecordColumns.NAME + ", " + RecordColumns.RECORD_ID + " FROM "
+                + Tables.RECORD);
+    }
+
+    private static String insertStatement(String row) {
+        return "INSERT INTO " + Tables.RECORD_SEARCH + " (docid, " + COLUMN_NAME + ", "
+                + COLUMN_RECORD_ID + ") VALUES (" + row + "." + RecordColumns._ID + ", " + row
+                + "." + RecordColumns.NAME + ", " + row + "." + RecordColumns.RECORD_ID + ")";
+    }
+
+    private static String deleteStatement() {
+        return "DELETE FROM " + Tables.RECORD_SEARCH + " WHERE docid = old." + RecordColumns._ID;
+    }
+}
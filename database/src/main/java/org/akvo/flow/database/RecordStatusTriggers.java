@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a copy of the status of every data point (record) in the record table: the lowest
+ * status of its form instances, 0 when it has none, and its last activity: the latest date of
+ * its form instances. Both are updated by triggers on the survey_instance table, in the same
+ * statement as the form instance, so the data point list is read from the (survey group,
+ * status) index instead of grouping all the form instances.
+ */
+public class RecordStatusTriggers {
+
+    private static final String INSTANCE_ALIAS = "si";
+
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX survey_instance_record_idx ON " + Tables.SURVEY_INSTANCE + "("
+                + SurveyInstanceColumns.RECORD_ID + ")");
+        db.execSQL("CREATE INDEX record_status_idx ON " + Tables.RECORD + "("
+                + RecordColumns.SURVEY_GROUP_ID + ", " + RecordColumns.STATUS + ", "
+                + RecordColumns.RECORD_ID + ")");
+
+        // Replaced rows, see DatabaseHelper#onCreate
+        db.execSQL("CREATE TRIGGER record_status_before_instance_insert BEFORE INSERT ON "
+                + Tables.SURVEY_INSTANCE + " BEGIN " + updateStatement(
+                " AND " + INSTANCE_ALIAS + "." + SurveyInstanceColumns.UUID + " IS NOT new."
+                        + SurveyInstanceColumns.UUID,
+                RecordColumns.RECORD_ID + " IN (SELECT " + SurveyInstanceColumns.RECORD_ID
+                        + " FROM " + Tables.SURVEY_INSTANCE + " WHERE "
+                        + SurveyInstanceColumns.UUID + " = new." + SurveyInstanceColumns.UUID
+                        + ") AND " + RecordColumns.RECORD_ID + " IS NOT new."
+                        + SurveyInstanceColumns.RECORD_ID) + "; END");
+        db.execSQL("CREATE TRIGGER record_status_after_instance_insert AFTER INSERT ON "
+                + Tables.SURVEY_INSTANCE + " BEGIN " + updateStatement("",
+                RecordColumns.RECORD_ID + " = new." + SurveyInstanceColumns.RECORD_ID)
+                + "; END");
+        db.execSQL("CREATE TRIGGER record_status_after_instance_update AFTER UPDATE OF "
+                + SurveyInstanceColumns.RECORD_ID + ", " + SurveyInstanceColumns.STATUS + ", "
+                + SurveyInstanceColumns.START_DATE + ", " + SurveyInstanceColumns.SAVED_DATE
+                + ", " + SurveyInstanceColumns.SUBMITTED_DATE + ", "
+                + SurveyInstanceColumns.EXPORTED_DATE + ", " + SurveyInstanceColumns.SYNC_DATE
+                + " ON " + Tables.SURVEY_INSTANCE + " BEGIN " + updateStatement("",
+                RecordColumns.RECORD_ID + " IN (old." + SurveyInstanceColumns.RECORD_ID
+                        + ", new." + SurveyInstanceColumns.RECORD_ID + ")") + "; END");
+        db.execSQL("CREATE TRIGGER record_status_after_instance_delete AFTER DELETE ON "
+                + Tables.SURVEY_INSTANCE + " BEGIN " + updateStatement("",
+                RecordColumns.RECORD_ID + " = old." + SurveyInstanceColumns.RECORD_ID)
+                + "; END");
+
+        // Synced data points replace their record, with the default status
+        db.execSQL("CREATE TRIGGER record_status_after_insert AFTER INSERT ON "
+                + Tables.RECORD + " BEGIN " + updateStatement("",
+                RecordColumns._ID + " = new." + RecordColumns._ID) + "; END");
+    }
+
+    /**
+     * Computes the status and last activity of all the existing records
+     */
+    public void populate(SQLiteDatabase db) {
+        db.execSQL(updateStatement("", null));
+    }
+
+    /**
+     * Consistency check of the copies against the form instances, meant to be run by tests
+     *
+     * @return the record ids of the data points whose status or last activity is out of date
+     */
+    public List<String> getInconsistentRecords(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT " + RecordColumns.RECORD_ID + " FROM "
+                + Tables.RECORD + " WHERE " + RecordColumns.STATUS + " IS NOT "
+                + statusExpression("") + " OR " + RecordColumns.LAST_ACTIVITY + " IS NOT "
+                + lastActivityExpression("") + " ORDER BY " + RecordColumns.RECORD_ID, null);
+        List<String> recordIds = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                recordIds.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return recordIds;
+    }
+
+    private static String updateStatement(String instanceCondition, String recordCondition) {
+        return "UPDATE " + Tables.RECORD + " SET " + RecordColumns.STATUS + " = "
+                + statusExpression(instanceCondition) + ", " + RecordColumns.LAST_ACTIVITY
+                + " = " + lastActivityExpression(instanceCondition)
+                + (recordCondition == null ? "" : " WHERE " + recordCondition);
+    }
+
+    private static String statusExpression(String instanceCondition) {
+        return "(SELECT IFNULL(MIN(" + INSTANCE_ALIAS + "." + SurveyInstanceColumns.STATUS
+                + "), 0)" + fromInstances(instanceCondition) + ")";
+    }
+
+    private static String lastActivityExpression(String instanceCondition) {
+        return "(SELECT IFNULL(MAX(MAX(" + dateOrZero(SurveyInstanceColumns.START_DATE) + ", "
+                + dateOrZero(SurveyInstanceColumns.SAVED_DATE) + ", "
+                + dateOrZero(SurveyInstanceColumns.SUBMITTED_DATE) + ", "
+                + dateOrZero(SurveyInstanceColumns.EXPORTED_DATE) + ", "
+                + dateOrZero(SurveyInstanceColumns.SYNC_DATE) + ")), 0)"
+                + fromInstances(instanceCondition) + ")";
+    }
+
+    private static String dateOrZero(String column) {
+        return "IFNULL(" + INSTANCE_ALIAS + "." + column + ", 0)";
+    }
+
+    private static String fromInstances(String instanceCondition) {
+        return " FROM " + Tables.SURVEY_INSTANCE + " AS " + INSTANCE_ALIAS + " WHERE "
+                + INSTANCE_ALIAS + "." + SurveyInstanceColumns.RECORD_ID + " = "
+                + Tables.RECORD + "." + RecordColumns.RECORD_ID + instanceCondition;
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2010-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2010-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -71,6 +71,14 @@ public class SurveyDbAdapter {
         this.context = ctx;
     }
 
+    /**
+     * Works on a database that is already open, {@link #open()} must not be called
+     */
+    public SurveyDbAdapter(SQLiteDatabase database) {
+        this.context = null;
+        this.database = database;
+    }
+
     /**
      * Open or create the db
      *
@@ -139,6 +147,18 @@ public class SurveyDbAdapter {
                 null, null, null);
     }
 
+    public void beginTransaction() {
+        database.beginTransaction();
+    }
+
+    public void setTransactionSuccessful() {
+        database.setTransactionSuccessful();
+    }
+
+    public void endTransaction() {
+        database.endTransaction();
+    }
+
     public long updateSurveyResponse(Long responseToSaveId, ContentValues initialValues) {
         long insertedResponseId = -1;
         if (responseToSaveId == null) {
@@ -514,6 +534,7 @@ public class SurveyDbAdapter {
                 RecordColumns.LATITUDE,
                 RecordColumns.LONGITUDE,
                 RecordColumns.LAST_MODIFIED,
+                RecordColumns.STATUS,
         };
 
         int _ID = 0;
@@ -523,6 +544,7 @@ public class SurveyDbAdapter {
         int LATITUDE = 4;
         int LONGITUDE = 5;
         int LAST_MODIFIED = 6;
+        int STATUS = 7;
     }
 
     public interface FormInstanceQuery {
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2010-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2010-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -30,5 +30,8 @@ public class Tables {
     public static final String SURVEY_GROUP = "survey_group";// Introduced in Point Updates
     public static final String RECORD = "record";// Introduced in Point Updates
     public static final String SYNC_TIME = "sync_time";// Introduced in Point Updates
+    public static final String TRANSMISSION_PART = "transmission_part";
+    public static final String RECORD_SEARCH = "record_search";
+    public static final String RECORD_LOCATION = "record_location";
 
 }
@@ -28,4 +28,12 @@ public class TransmissionColumns {
     public static final String STATUS = "status";// separate table/constants?
     public static final String START_DATE = "start_date";// do we really need this column?
     public static final String END_DATE = "end_date";
+    // MD5 of the file (hex), valid only while the file size and modification date are the same
+    public static final String MD5 = "md5";
+    public static final String FILE_SIZE = "file_size";
+    public static final String FILE_MODIFIED = "file_modified";
+    // Multipart upload in progress, its parts are in the transmission_part table
+    public static final String UPLOAD_ID = "upload_id";
+    public static final String PART_SIZE = "part_size";
+    public static final String UPLOAD_DATE = "upload_date";
 }
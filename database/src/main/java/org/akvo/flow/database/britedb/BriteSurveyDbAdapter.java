@@ -22,6 +22,7 @@ package org.akvo.flow.database.britedb;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -29,7 +30,9 @@ import android.text.TextUtils;
 import com.squareup.sqlbrite2.BriteDatabase;
 import com.squareup.sqlbrite2.SqlBrite;
 
+import org.akvo.flow.database.FullTextQuery;
 import org.akvo.flow.database.RecordColumns;
+import org.akvo.flow.database.RecordLocationTable;
 import org.akvo.flow.database.ResponseColumns;
 import org.akvo.flow.database.SurveyColumns;
 import org.akvo.flow.database.SurveyGroupColumns;
@@ -38,10 +41,12 @@ import org.akvo.flow.database.SurveyInstanceStatus;
 import org.akvo.flow.database.SyncTimeColumns;
 import org.akvo.flow.database.Tables;
 import org.akvo.flow.database.TransmissionColumns;
+import org.akvo.flow.database.TransmissionPartColumns;
 import org.akvo.flow.database.TransmissionStatus;
 import org.akvo.flow.database.UserColumns;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -53,16 +58,37 @@ import timber.log.Timber;
 import static org.akvo.flow.database.Constants.ORDER_BY_DATE;
 import static org.akvo.flow.database.Constants.ORDER_BY_DISTANCE;
 import static org.akvo.flow.database.Constants.ORDER_BY_NAME;
+import static org.akvo.flow.database.Constants.ORDER_BY_NONE;
 import static org.akvo.flow.database.Constants.ORDER_BY_STATUS;
 
 public class BriteSurveyDbAdapter {
 
-    private static final int DOES_NOT_EXIST = -1;
-
+    // Responses are always filtered, an outer join would make older SQLite versions read all
+    // the form instances first
     private static final String SURVEY_INSTANCE_JOIN_RESPONSE_USER = "survey_instance "
-            + "LEFT OUTER JOIN response ON survey_instance._id=response.survey_instance_id "
+            + "JOIN response ON survey_instance._id=response.survey_instance_id "
             + "LEFT OUTER JOIN user ON survey_instance.user_id=user._id";
 
+    /**
+     * Sorts the data points without location after all the others
+     */
+    private static final double NO_LOCATION_DISTANCE = 1e18;
+
+    /**
+     * Maximum number of tile ranges of a bounding box query
+     */
+    private static final int MAX_TILE_RANGES = 64;
+
+    /**
+     * Radius of the first bounding box searched for the nearest data points
+     */
+    private static final double NEAREST_INITIAL_RADIUS_KM = 1;
+
+    /**
+     * Maximum number of nearest data points loaded at once by their ids
+     */
+    private static final int NEAREST_PAGE_SIZE = 100;
+
     private final BriteDatabase briteDatabase;
 
     public BriteSurveyDbAdapter(BriteDatabase briteDatabase) {
@@ -74,40 +100,153 @@ public class BriteSurveyDbAdapter {
      */
     public Observable<Cursor> getFilteredDataPoints(long surveyGroupId, Double latitude,
             Double longitude, int orderBy) {
-        String queryString = "SELECT sl.*,"
-                + " MIN(r." + SurveyInstanceColumns.STATUS + ") as " + SurveyInstanceColumns.STATUS
-                + " FROM "
-                + Tables.RECORD + " AS sl LEFT JOIN " + Tables.SURVEY_INSTANCE + " AS r ON "
-                + "sl." + RecordColumns.RECORD_ID + "=" + "r." + SurveyInstanceColumns.RECORD_ID;
+        if (orderBy == ORDER_BY_DISTANCE && latitude != null && longitude != null) {
+            return getNearestDataPoints(surveyGroupId, latitude, longitude, null, -1);
+        }
+        String queryString = "SELECT sl.* FROM " + Tables.RECORD + " AS sl";
         String whereClause = " WHERE sl." + RecordColumns.SURVEY_GROUP_ID + " =?";
-        String groupBy = " GROUP BY sl." + RecordColumns.RECORD_ID;
 
-        String orderByStr = "";
+        return createDataPointsQuery(queryString + whereClause + getOrderByString(orderBy),
+                String.valueOf(surveyGroupId));
+    }
+
+    /**
+     * Loads one page of the data points of a survey group, optionally only the ones whose name
+     * or id have words starting with the words of the filter, using the record_search full
+     * text index. Pages are keyset paginated: every order is made total by the record id and
+     * the next page starts right after the given key, so filtering, ordering and paging are all
+     * done by SQLite without skipping rows.
+     *
+     * @param after the last data point of the previous page, null for the first page
+     * @param limit maximum number of data points, negative for no limit
+     */
+    public Observable<Cursor> getDataPointsPage(long surveyGroupId, @Nullable String filter,
+            Double latitude, Double longitude, int orderBy, @Nullable DataPointPageKey after,
+            int limit) {
+        if (orderBy == ORDER_BY_DISTANCE && (latitude == null || longitude == null)) {
+            orderBy = ORDER_BY_NONE;
+        }
+        String matchQuery = FullTextQuery.toPrefixQuery(filter);
+        if (orderBy == ORDER_BY_DISTANCE && matchQuery == null) {
+            return getNearestDataPoints(surveyGroupId, latitude, longitude, after, limit);
+        }
+        String sortKey = getPageSortKey(orderBy, "sl." + RecordColumns.LATITUDE,
+                "sl." + RecordColumns.LONGITUDE, latitude, longitude);
+        String comparison = orderBy == ORDER_BY_DATE ? " < " : " > ";
+        String direction = orderBy == ORDER_BY_DATE ? " DESC" : " ASC";
+        List<String> args = new ArrayList<>(8);
+
+        StringBuilder queryString = new StringBuilder("SELECT sl.* FROM ");
+        if (matchQuery != null) {
+            // Matches first, the planner would rather read the record index in page order
+            queryString.append(Tables.RECORD_SEARCH).append(" CROSS JOIN ");
+        }
+        queryString.append(Tables.RECORD).append(" AS sl");
+        if (matchQuery != null) {
+            queryString.append(" ON sl." + RecordColumns._ID + " = " + Tables.RECORD_SEARCH
+                    + ".docid");
+        }
+        queryString.append(" WHERE ");
+        if (matchQuery != null) {
+            queryString.append(Tables.RECORD_SEARCH).append(" MATCH ? AND ");
+            args.add(matchQuery);
+        }
+        queryString.append("sl." + RecordColumns.SURVEY_GROUP_ID + " =?");
+        args.add(String.valueOf(surveyGroupId));
+        if (after != null) {
+            queryString.append(" AND ");
+            appendAfterCondition(queryString, args, sortKey, comparison, orderBy, after,
+                    latitude, longitude);
+        }
+        queryString.append(" ORDER BY ");
+        if (sortKey != null) {
+            queryString.append(sortKey).append(direction).append(", ");
+        }
+        queryString.append("sl." + RecordColumns.RECORD_ID).append(direction);
+        queryString.append(" LIMIT ?");
+        args.add(String.valueOf(limit));
+
+        return createDataPointsQuery(queryString.toString(),
+                args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * @return the expression the data points of a page are sorted by before the record id,
+     * null when they are only sorted by record id
+     */
+    @Nullable
+    private String getPageSortKey(int orderBy, String latitudeColumn, String longitudeColumn,
+            Double latitude, Double longitude) {
         switch (orderBy) {
             case ORDER_BY_DATE:
-                orderByStr = " ORDER BY " + RecordColumns.LAST_MODIFIED + " DESC";
+                return "sl." + RecordColumns.LAST_MODIFIED;
+            case ORDER_BY_DISTANCE:
+                return "(CASE WHEN " + latitudeColumn + " IS NULL OR " + longitudeColumn
+                        + " IS NULL THEN " + NO_LOCATION_DISTANCE + " ELSE "
+                        + getDistanceExpression(latitudeColumn, longitudeColumn, latitude,
+                        longitude) + " END)";
+            case ORDER_BY_STATUS:
+                return "sl." + RecordColumns.STATUS;
+            case ORDER_BY_NAME:
+                return "IFNULL(sl." + RecordColumns.NAME + ", '') COLLATE NOCASE";
+            default:
+                return null;
+        }
+    }
+
+    private void appendAfterCondition(StringBuilder queryString, List<String> args,
+            @Nullable String sortKey, String comparison, int orderBy,
+            @NonNull DataPointPageKey after, Double latitude, Double longitude) {
+        String recordIdCondition = "sl." + RecordColumns.RECORD_ID + comparison + "?";
+        if (sortKey == null) {
+            queryString.append(recordIdCondition);
+            args.add(after.getRecordId());
+            return;
+        }
+        String afterKey;
+        if (orderBy == ORDER_BY_DISTANCE) {
+            // Computed from the stored location so that equal keys compare equal
+            afterKey = "(SELECT " + getPageSortKey(orderBy, RecordColumns.LATITUDE,
+                    RecordColumns.LONGITUDE, latitude, longitude) + " FROM " + Tables.RECORD
+                    + " WHERE " + RecordColumns.RECORD_ID + " = ?)";
+        } else if (orderBy == ORDER_BY_NAME) {
+            afterKey = "?";
+        } else {
+            // Arguments are bound as text, which would never compare equal to a number
+            afterKey = "CAST(? AS INTEGER)";
+        }
+        queryString.append("(").append(sortKey).append(comparison).append(afterKey)
+                .append(" OR (").append(sortKey).append(" = ").append(afterKey)
+                .append(" AND ").append(recordIdCondition).append("))");
+        for (int i = 0; i < 2; i++) {
+            addAfterKeyArgs(args, orderBy, after);
+        }
+        args.add(after.getRecordId());
+    }
+
+    private void addAfterKeyArgs(List<String> args, int orderBy,
+            @NonNull DataPointPageKey after) {
+        switch (orderBy) {
+            case ORDER_BY_DATE:
+                args.add(String.valueOf(after.getLastModified()));
                 break;
             case ORDER_BY_DISTANCE:
-                if (latitude != null && longitude != null) {
-                    orderByStr = getOrderByDistanceString(latitude, longitude);
-                }
+                args.add(after.getRecordId());
                 break;
             case ORDER_BY_STATUS:
-                orderByStr = " ORDER BY " + " MIN(r." + SurveyInstanceColumns.STATUS + ")";
+                args.add(String.valueOf(after.getStatus()));
                 break;
             case ORDER_BY_NAME:
-                orderByStr = " ORDER BY " + RecordColumns.NAME + " COLLATE NOCASE ASC";
+                args.add(after.getName() == null ? "" : after.getName());
                 break;
             default:
                 break;
         }
+    }
 
-        List<String> tables = new ArrayList<>(2);
-        tables.add(Tables.RECORD);
-        tables.add(Tables.SURVEY_INSTANCE);
+    private Observable<Cursor> createDataPointsQuery(String sql, String... args) {
         return briteDatabase
-                .createQuery(tables, queryString + whereClause + groupBy + orderByStr,
-                        String.valueOf(surveyGroupId))
+                .createQuery(getDataPointTables(), sql, args)
                 .concatMap(new Function<SqlBrite.Query, Observable<Cursor>>() {
                             @Override
                             public Observable<Cursor> apply(SqlBrite.Query query) {
@@ -117,19 +256,44 @@ public class BriteSurveyDbAdapter {
     }
 
     /**
-     * Uses a simple planar approximation of distance
+     * The status of the records is updated by triggers on the survey instances, which are not
+     * reported as changes of the record table
      */
-    private String getOrderByDistanceString(Double latitude, Double longitude) {
-        Double fudge = correctDistanceForShortening(latitude);
+    private List<String> getDataPointTables() {
+        List<String> tables = new ArrayList<>(2);
+        tables.add(Tables.RECORD);
+        tables.add(Tables.SURVEY_INSTANCE);
+        return tables;
+    }
 
-        String orderBy = " ORDER BY CASE WHEN " + RecordColumns.LATITUDE
-                + " IS NULL THEN 1 ELSE 0 END,"
-                + " ((%s - " + RecordColumns.LATITUDE + ") * (%s - "
-                + RecordColumns.LATITUDE
-                + ") + (%s - " + RecordColumns.LONGITUDE + ") * (%s - "
-                + RecordColumns.LONGITUDE + ") * %s)";
-        return String
-                .format(orderBy, latitude, latitude, longitude, longitude, fudge);
+    private String getOrderByString(int orderBy) {
+        String orderByStr = "";
+        switch (orderBy) {
+            case ORDER_BY_DATE:
+                orderByStr = " ORDER BY " + RecordColumns.LAST_MODIFIED + " DESC";
+                break;
+            case ORDER_BY_STATUS:
+                orderByStr = " ORDER BY " + RecordColumns.STATUS;
+                break;
+            case ORDER_BY_NAME:
+                orderByStr = " ORDER BY " + RecordColumns.NAME + " COLLATE NOCASE ASC";
+                break;
+            default:
+                break;
+        }
+        return orderByStr;
+    }
+
+    /**
+     * Simple planar approximation of the distance, only used to sort the search results as
+     * the full text index can not be combined with the location index
+     */
+    private String getDistanceExpression(String latitudeColumn, String longitudeColumn,
+            double latitude, double longitude) {
+        double fudge = correctDistanceForShortening(latitude);
+        return "((" + latitude + " - " + latitudeColumn + ") * (" + latitude + " - "
+                + latitudeColumn + ") + (" + longitude + " - " + longitudeColumn + ") * ("
+                + longitude + " - " + longitudeColumn + ") * " + fudge + ")";
     }
 
     /**
@@ -156,6 +320,267 @@ public class BriteSurveyDbAdapter {
                 });
     }
 
+    /**
+     * Id, name and location of every located data point of the survey, for the map clusters
+     */
+    public Cursor getLocatedDataPoints(long surveyGroupId) {
+        String sql = "SELECT sl." + RecordColumns.RECORD_ID + ", sl." + RecordColumns.NAME
+                + ", loc." + RecordLocationTable.COLUMN_LATITUDE + ", loc."
+                + RecordLocationTable.COLUMN_LONGITUDE + " FROM " + Tables.RECORD_LOCATION
+                + " AS loc JOIN " + Tables.RECORD + " AS sl ON sl." + RecordColumns._ID
+                + " = loc." + RecordLocationTable.COLUMN_ID + " WHERE loc."
+                + RecordLocationTable.COLUMN_SURVEY_GROUP_ID + " = ?";
+        return briteDatabase.query(sql, String.valueOf(surveyGroupId));
+    }
+
+    /**
+     * Emits once on subscription and again every time the data points are changed through
+     * this database, without querying them
+     */
+    public Observable<Boolean> getDataPointChanges() {
+        return briteDatabase.createQuery(Tables.RECORD, "SELECT NULL")
+                .map(new Function<SqlBrite.Query, Boolean>() {
+                    @Override
+                    public Boolean apply(SqlBrite.Query query) {
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Data points located inside the given bounds, looked up through the record_location grid
+     * index. When west is greater than east the bounds cross the antimeridian.
+     */
+    public Observable<Cursor> getDataPointsInBounds(long surveyGroupId, double south,
+            double west, double north, double east) {
+        List<String> args = new ArrayList<>();
+        StringBuilder queryString = new StringBuilder("SELECT sl.* FROM "
+                + Tables.RECORD_LOCATION + " AS loc JOIN " + Tables.RECORD + " AS sl ON sl."
+                + RecordColumns._ID + " = loc." + RecordLocationTable.COLUMN_ID
+                + " WHERE loc." + RecordLocationTable.COLUMN_SURVEY_GROUP_ID + " = ?");
+        args.add(String.valueOf(surveyGroupId));
+        appendBoundsCondition(queryString, args, south, west, north, east);
+
+        return briteDatabase.createQuery(Tables.RECORD, queryString.toString(),
+                args.toArray(new String[args.size()]))
+                .concatMap(new Function<SqlBrite.Query, Observable<? extends Cursor>>() {
+                    @Override
+                    public Observable<? extends Cursor> apply(SqlBrite.Query query) {
+                        return Observable.just(query.run());
+                    }
+                });
+    }
+
+    /**
+     * Appends the condition of the record_location rows (aliased loc) inside the bounds: the
+     * ranges of tiles of the bounds, read from the index, and then the exact bounds
+     */
+    private void appendBoundsCondition(StringBuilder queryString, List<String> args,
+            double south, double west, double north, double east) {
+        south = Math.max(south, -90);
+        north = Math.min(north, 90);
+        int firstRow = RecordLocationTable.getRow(south);
+        int lastRow = RecordLocationTable.getRow(north);
+        List<int[]> columnRanges = new ArrayList<>(2);
+        if (west <= east) {
+            columnRanges.add(new int[] {
+                    RecordLocationTable.getColumn(west), RecordLocationTable.getColumn(east)
+            });
+        } else {
+            columnRanges.add(new int[] {
+                    RecordLocationTable.getColumn(west), RecordLocationTable.COLUMNS - 1
+            });
+            columnRanges.add(new int[] {
+                    0, RecordLocationTable.getColumn(east)
+            });
+        }
+        String tile = "loc." + RecordLocationTable.COLUMN_TILE;
+        queryString.append(" AND (");
+        int rangeCount = 0;
+        if ((lastRow - firstRow + 1) * columnRanges.size() <= MAX_TILE_RANGES) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int[] columns : columnRanges) {
+                    if (rangeCount++ > 0) {
+                        queryString.append(" OR ");
+                    }
+                    queryString.append(tile).append(" BETWEEN ? AND ?");
+                    args.add(String.valueOf(row * RecordLocationTable.COLUMNS + columns[0]));
+                    args.add(String.valueOf(row * RecordLocationTable.COLUMNS + columns[1]));
+                }
+            }
+        } else {
+            // Too many rows for one range each, the rows are scanned whole instead
+            queryString.append(tile).append(" BETWEEN ? AND ?");
+            args.add(String.valueOf(firstRow * RecordLocationTable.COLUMNS));
+            args.add(String.valueOf((lastRow + 1) * RecordLocationTable.COLUMNS - 1));
+        }
+        queryString.append(")");
+
+        String latitude = "loc." + RecordLocationTable.COLUMN_LATITUDE;
+        String longitude = "loc." + RecordLocationTable.COLUMN_LONGITUDE;
+        queryString.append(" AND ").append(latitude).append(" BETWEEN ? AND ?");
+        args.add(String.valueOf(south));
+        args.add(String.valueOf(north));
+        if (west <= east) {
+            queryString.append(" AND ").append(longitude).append(" BETWEEN ? AND ?");
+        } else {
+            queryString.append(" AND (").append(longitude).append(" >= ? OR ")
+                    .append(longitude).append(" <= ?)");
+        }
+        args.add(String.valueOf(west));
+        args.add(String.valueOf(east));
+    }
+
+    /**
+     * Nearest data points to the given location by great circle distance, then the data points
+     * without location by record id. Pages are keyset paginated like
+     * {@link #getDataPointsPage(long, String, Double, Double, int, DataPointPageKey, int)}.
+     * The query is run again when the data points change.
+     *
+     * @param after the last data point of the previous page, null for the first page
+     * @param limit maximum number of data points, negative for no limit
+     */
+    public Observable<Cursor> getNearestDataPoints(final long surveyGroupId,
+            final double latitude, final double longitude,
+            @Nullable final DataPointPageKey after, final int limit) {
+        return briteDatabase.createQuery(getDataPointTables(), "SELECT NULL")
+                .map(new Function<SqlBrite.Query, Cursor>() {
+                    @Override
+                    public Cursor apply(SqlBrite.Query query) {
+                        return queryNearestDataPoints(surveyGroupId, latitude, longitude,
+                                after, limit);
+                    }
+                });
+    }
+
+    /**
+     * The candidates are read from the record_location grid inside a bounding box around the
+     * location, starting at {@link #NEAREST_INITIAL_RADIUS_KM}. The box is searched again with
+     * twice the radius until it holds enough data points closer than its radius, as the ones
+     * outside the box are all farther, or all the located data points of the survey, so only
+     * the data points around the location are read. The data points found are loaded
+     * {@link #NEAREST_PAGE_SIZE} at a time, followed by the data points without location.
+     */
+    private Cursor queryNearestDataPoints(long surveyGroupId, double latitude, double longitude,
+            @Nullable DataPointPageKey after, int limit) {
+        List<Long> ids = Collections.emptyList();
+        boolean afterLocated = after == null
+                || after.getLatitude() != null && after.getLongitude() != null;
+        if (afterLocated) {
+            int locatedCount = countLocatedDataPoints(surveyGroupId);
+            NearestDataPoints nearest = new NearestDataPoints(latitude, longitude, limit,
+                    after == null ? null : after.getLatitude(),
+                    after == null ? null : after.getLongitude(),
+                    after == null ? null : after.getRecordId());
+            double radius = Math.max(NEAREST_INITIAL_RADIUS_KM, nearest.getAfterDistance());
+            boolean searched = false;
+            while (!searched) {
+                boolean wholeWorld = limit < 0
+                        || radius >= NearestDataPoints.HALF_CIRCUMFERENCE_KM;
+                double[] bounds = wholeWorld ? new double[] {
+                        -90, -180, 90, 180
+                } : NearestDataPoints.getBoundingBox(latitude, longitude, radius);
+                nearest.clear();
+                int candidates = addNearestCandidates(nearest, surveyGroupId, bounds);
+                searched = wholeWorld || candidates >= locatedCount
+                        || nearest.isFull() && nearest.getFarthestDistance() <= radius;
+                radius *= 2;
+            }
+            ids = nearest.getIds();
+        }
+        List<Cursor> cursors = new ArrayList<>(ids.size() / NEAREST_PAGE_SIZE + 2);
+        for (int start = 0; start < ids.size(); start += NEAREST_PAGE_SIZE) {
+            cursors.add(getDataPointsById(
+                    ids.subList(start, Math.min(start + NEAREST_PAGE_SIZE, ids.size()))));
+        }
+        if (limit < 0 || ids.size() < limit || ids.isEmpty()) {
+            cursors.add(getUnlocatedDataPoints(surveyGroupId,
+                    afterLocated ? null : after.getRecordId(),
+                    limit < 0 ? -1 : limit - ids.size()));
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+    }
+
+    private int countLocatedDataPoints(long surveyGroupId) {
+        Cursor cursor = briteDatabase.query("SELECT COUNT(*) FROM " + Tables.RECORD_LOCATION
+                        + " WHERE " + RecordLocationTable.COLUMN_SURVEY_GROUP_ID + " = ?",
+                String.valueOf(surveyGroupId));
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the number of data points read inside the bounds
+     */
+    private int addNearestCandidates(NearestDataPoints nearest, long surveyGroupId,
+            double[] bounds) {
+        List<String> args = new ArrayList<>();
+        StringBuilder queryString = new StringBuilder("SELECT loc."
+                + RecordLocationTable.COLUMN_ID + ", sl." + RecordColumns.RECORD_ID + ", loc."
+                + RecordLocationTable.COLUMN_LATITUDE + ", loc."
+                + RecordLocationTable.COLUMN_LONGITUDE + " FROM " + Tables.RECORD_LOCATION
+                + " AS loc JOIN " + Tables.RECORD + " AS sl ON sl." + RecordColumns._ID
+                + " = loc." + RecordLocationTable.COLUMN_ID + " WHERE loc."
+                + RecordLocationTable.COLUMN_SURVEY_GROUP_ID + " = ?");
+        args.add(String.valueOf(surveyGroupId));
+        appendBoundsCondition(queryString, args, bounds[0], bounds[1], bounds[2], bounds[3]);
+        Cursor cursor = briteDatabase.query(queryString.toString(),
+                args.toArray(new String[args.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                nearest.offer(cursor.getLong(0), cursor.getString(1), cursor.getDouble(2),
+                        cursor.getDouble(3));
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Data points with their status, in the order of the given record _ids
+     */
+    private Cursor getDataPointsById(List<Long> ids) {
+        StringBuilder idList = new StringBuilder();
+        StringBuilder order = new StringBuilder("CASE sl." + RecordColumns._ID);
+        for (int i = 0; i < ids.size(); i++) {
+            // Record _ids read from the database, not user input
+            long id = ids.get(i);
+            if (i > 0) {
+                idList.append(", ");
+            }
+            idList.append(id);
+            order.append(" WHEN ").append(id).append(" THEN ").append(i);
+        }
+        order.append(" END");
+        return briteDatabase.query("SELECT sl.* FROM " + Tables.RECORD + " AS sl WHERE sl."
+                + RecordColumns._ID + " IN (" + idList + ") ORDER BY " + order);
+    }
+
+    private Cursor getUnlocatedDataPoints(long surveyGroupId, @Nullable String afterRecordId,
+            int limit) {
+        List<String> args = new ArrayList<>(3);
+        StringBuilder queryString = new StringBuilder("SELECT sl.* FROM " + Tables.RECORD
+                + " AS sl WHERE sl." + RecordColumns.SURVEY_GROUP_ID
+                + " = ? AND (sl." + RecordColumns.LATITUDE + " IS NULL OR sl."
+                + RecordColumns.LONGITUDE + " IS NULL)");
+        args.add(String.valueOf(surveyGroupId));
+        if (afterRecordId != null) {
+            queryString.append(" AND sl." + RecordColumns.RECORD_ID + " > ?");
+            args.add(afterRecordId);
+        }
+        queryString.append(" ORDER BY sl." + RecordColumns.RECORD_ID + " LIMIT ?");
+        args.add(String.valueOf(limit));
+        return briteDatabase.query(queryString.toString(),
+                args.toArray(new String[args.size()]));
+    }
+
     /**
      * Update the last modification date, if necessary
      */
@@ -172,12 +597,6 @@ public class BriteSurveyDbAdapter {
                 datapointId);
     }
 
-    public void updateRecord(String id, ContentValues values, long lastModified) {
-        briteDatabase.insert(Tables.RECORD, values);
-        // Update the record last modification date, if necessary
-        updateRecordModifiedDate(id, lastModified);
-    }
-
     /**
      * Get the synchronization time for a particular survey group.
      *
@@ -235,29 +654,6 @@ public class BriteSurveyDbAdapter {
         }
     }
 
-    public long syncSurveyInstance(ContentValues values, String surveyInstanceUuid) {
-        String sql =
-                "SELECT " + SurveyInstanceColumns._ID + "," + SurveyInstanceColumns.UUID + " FROM "
-                        + Tables.SURVEY_INSTANCE + " WHERE " + SurveyInstanceColumns.UUID + " = ?";
-        Cursor cursor = briteDatabase.query(sql, surveyInstanceUuid);
-
-        long id = DOES_NOT_EXIST;
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                id = cursor.getLong(0);
-            }
-            cursor.close();
-        }
-        if (id != DOES_NOT_EXIST) {
-            briteDatabase.update(Tables.SURVEY_INSTANCE, values, SurveyInstanceColumns.UUID
-                    + " = ?", surveyInstanceUuid);
-        } else {
-            values.put(SurveyInstanceColumns.UUID, surveyInstanceUuid);
-            id = briteDatabase.insert(Tables.SURVEY_INSTANCE, values);
-        }
-        return id;
-    }
-
     public Cursor getSurveyInstancesByStatus(int status) {
         String sql = "SELECT " + SurveyInstanceColumns._ID + ", " + SurveyInstanceColumns.UUID
                 + " FROM " + Tables.SURVEY_INSTANCE
@@ -290,58 +686,13 @@ public class BriteSurveyDbAdapter {
         return briteDatabase.newTransaction();
     }
 
-    public void syncResponse(long surveyInstanceId, ContentValues values, String questionId) {
-        Cursor cursor = getLastExistingResponse(surveyInstanceId, questionId);
-        boolean anotherIterationExists = cursor != null && cursor.moveToFirst();
-        if (anotherIterationExists) {
-            int iteration = cursor.getInt(cursor.getColumnIndexOrThrow(ResponseColumns.ITERATION));
-            boolean isFirstIterationFound = iteration == -1;
-            if (isFirstIterationFound) {
-                updateIterationOfFirstResponse(surveyInstanceId, questionId);
-                iteration = 0;
-            }
-            values.put(ResponseColumns.ITERATION, iteration + 1);
-        }
-        briteDatabase.insert(Tables.RESPONSE, values);
-        if (cursor != null) {
-            cursor.close();
-        }
-    }
-
-    private void updateIterationOfFirstResponse(long surveyInstanceId, String questionId) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(ResponseColumns.ITERATION, 0);
-        briteDatabase.update(Tables.RESPONSE, contentValues,
-                ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
-                        + ResponseColumns.QUESTION_ID + " = ?",
-                String.valueOf(surveyInstanceId), questionId);
-    }
-
-    public void deleteResponses(long surveyInstanceId, String questionId) {
-        briteDatabase.delete(Tables.RESPONSE,
-                ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND " + ResponseColumns.QUESTION_ID
-                        + " = ?", surveyInstanceId + "", questionId);
-    }
-
-    private Cursor getLastExistingResponse(long surveyInstanceId, @Nullable String questionId) {
-        if (questionId == null) {
-            return null;
-        }
-        String sql =
-                "SELECT " + ResponseColumns.SURVEY_INSTANCE_ID
-                        + ","
-                        + ResponseColumns.QUESTION_ID
-                        + ","
-                        + ResponseColumns.ITERATION
-                        + " FROM " + Tables.RESPONSE + " WHERE "
-                        + ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
-                        + ResponseColumns.QUESTION_ID + " = ? ORDER BY "
-                        + ResponseColumns.ITERATION
-                        + " DESC LIMIT 1";
-        return briteDatabase.query(sql, String.valueOf(surveyInstanceId), questionId);
+    /**
+     * The writer has to be closed before the transaction ends
+     */
+    public DataPointBulkWriter newDataPointWriter() {
+        return new DataPointBulkWriter(briteDatabase);
     }
 
-
     public void createTransmissions(Long instanceId, String formId, Set<String> filenames) {
         BriteDatabase.Transaction transaction = beginTransaction();
         try {
@@ -354,7 +705,19 @@ public class BriteSurveyDbAdapter {
         }
     }
 
-    private void createTransmission(long surveyInstanceId, String formID, String filename,
+    /**
+     * @return the id of the new transmission, queued for upload
+     */
+    public long createTransmission(long surveyInstanceId, String formId, String filename) {
+        return createTransmission(surveyInstanceId, formId, filename, TransmissionStatus.QUEUED);
+    }
+
+    public void deleteTransmission(long transmissionId) {
+        briteDatabase.delete(Tables.TRANSMISSION, TransmissionColumns._ID + " = ?",
+                String.valueOf(transmissionId));
+    }
+
+    private long createTransmission(long surveyInstanceId, String formID, String filename,
             int status) {
         ContentValues values = new ContentValues();
         values.put(TransmissionColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
@@ -366,7 +729,7 @@ public class BriteSurveyDbAdapter {
             values.put(TransmissionColumns.START_DATE, date);
             values.put(TransmissionColumns.END_DATE, date);
         }
-        briteDatabase.insert(Tables.TRANSMISSION, values);
+        return briteDatabase.insert(Tables.TRANSMISSION, values);
     }
 
     public void updateFailedTransmissions(@NonNull Set<String> filenames) {
@@ -404,16 +767,6 @@ public class BriteSurveyDbAdapter {
                 id + "");
     }
 
-    /**
-     * Delete any Record that contains no SurveyInstance
-     */
-    public void deleteEmptyRecords() {
-        briteDatabase.execute("DELETE FROM " + Tables.RECORD
-                + " WHERE " + RecordColumns.RECORD_ID + " NOT IN "
-                + "(SELECT DISTINCT " + SurveyInstanceColumns.RECORD_ID
-                + " FROM " + Tables.SURVEY_INSTANCE + ")");
-    }
-
     public Observable<Boolean> deleteSurveyAndGroup(long surveyGroupId) {
         deleteSurveyGroup(surveyGroupId);
         deleteSurvey(surveyGroupId);
@@ -668,6 +1021,7 @@ public class BriteSurveyDbAdapter {
         briteDatabase.delete(Tables.SURVEY_INSTANCE, null);
         briteDatabase.delete(Tables.RECORD, null);
         briteDatabase.delete(Tables.TRANSMISSION, null);
+        briteDatabase.delete(Tables.TRANSMISSION_PART, null);
     }
 
     private void deleteAllResponses() {
@@ -705,6 +1059,93 @@ public class BriteSurveyDbAdapter {
         return queryTransmissions(column, whereClause, selectionArgs);
     }
 
+    /**
+     * Caches the checksum of the file of a transmission, it stays valid as long as the file
+     * size and modification date do not change
+     */
+    public void updateTransmissionChecksum(long id, String md5Hex, long fileSize,
+            long fileModified) {
+        ContentValues values = new ContentValues(3);
+        values.put(TransmissionColumns.MD5, md5Hex);
+        values.put(TransmissionColumns.FILE_SIZE, fileSize);
+        values.put(TransmissionColumns.FILE_MODIFIED, fileModified);
+        briteDatabase.update(Tables.TRANSMISSION, values, TransmissionColumns._ID + " = ?",
+                String.valueOf(id));
+    }
+
+    /**
+     * @return the multipart upload in progress of a transmission (upload id, part size and
+     * start date)
+     */
+    public Cursor getTransmissionUpload(long id) {
+        String column = TransmissionColumns.UPLOAD_ID + ", " + TransmissionColumns.PART_SIZE
+                + ", " + TransmissionColumns.UPLOAD_DATE;
+        String whereClause = TransmissionColumns._ID + " = ? AND "
+                + TransmissionColumns.UPLOAD_ID + " IS NOT NULL";
+        return queryTransmissions(column, whereClause, new String[] { String.valueOf(id) });
+    }
+
+    /**
+     * @return the parts already uploaded of a transmission, by part number
+     */
+    public Cursor getTransmissionParts(long id) {
+        String sql = "SELECT " + TransmissionPartColumns.PART_NUMBER + ", "
+                + TransmissionPartColumns.ETAG + " FROM " + Tables.TRANSMISSION_PART
+                + " WHERE " + TransmissionPartColumns.TRANSMISSION_ID + " = ?"
+                + " ORDER BY " + TransmissionPartColumns.PART_NUMBER;
+        return briteDatabase.query(sql, String.valueOf(id));
+    }
+
+    public void startTransmissionUpload(long id, String uploadId, long partSize,
+            long startDate) {
+        BriteDatabase.Transaction transaction = beginTransaction();
+        try {
+            deleteTransmissionParts(id);
+            ContentValues values = new ContentValues(3);
+            values.put(TransmissionColumns.UPLOAD_ID, uploadId);
+            values.put(TransmissionColumns.PART_SIZE, partSize);
+            values.put(TransmissionColumns.UPLOAD_DATE, startDate);
+            briteDatabase.update(Tables.TRANSMISSION, values, TransmissionColumns._ID + " = ?",
+                    String.valueOf(id));
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    public void saveTransmissionPart(long id, int partNumber, String etag) {
+        ContentValues values = new ContentValues(3);
+        values.put(TransmissionPartColumns.TRANSMISSION_ID, id);
+        values.put(TransmissionPartColumns.PART_NUMBER, partNumber);
+        values.put(TransmissionPartColumns.ETAG, etag);
+        briteDatabase.insert(Tables.TRANSMISSION_PART, values);
+    }
+
+    /**
+     * Forgets the multipart upload of a transmission, once completed or when it can no longer
+     * be resumed
+     */
+    public void clearTransmissionUpload(long id) {
+        BriteDatabase.Transaction transaction = beginTransaction();
+        try {
+            deleteTransmissionParts(id);
+            ContentValues values = new ContentValues(3);
+            values.putNull(TransmissionColumns.UPLOAD_ID);
+            values.putNull(TransmissionColumns.PART_SIZE);
+            values.putNull(TransmissionColumns.UPLOAD_DATE);
+            briteDatabase.update(Tables.TRANSMISSION, values, TransmissionColumns._ID + " = ?",
+                    String.valueOf(id));
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    private void deleteTransmissionParts(long id) {
+        briteDatabase.delete(Tables.TRANSMISSION_PART,
+                TransmissionPartColumns.TRANSMISSION_ID + " = ?", String.valueOf(id));
+    }
+
     public Cursor getTransmissionForFileName(String filename) {
         String column = TransmissionColumns.SURVEY_INSTANCE_ID;
         String whereClause = TransmissionColumns.FILENAME + " = ? ";
@@ -729,7 +1170,10 @@ public class BriteSurveyDbAdapter {
                 TransmissionColumns._ID + ", "
                         + TransmissionColumns.SURVEY_INSTANCE_ID + ", "
                         + TransmissionColumns.SURVEY_ID + ", "
-                        + TransmissionColumns.FILENAME;
+                        + TransmissionColumns.FILENAME + ", "
+                        + TransmissionColumns.MD5 + ", "
+                        + TransmissionColumns.FILE_SIZE + ", "
+                        + TransmissionColumns.FILE_MODIFIED;
         String whereClause =
                 TransmissionColumns.STATUS + " IN (?, ?, ?) AND " + TransmissionColumns.FILENAME
                         + " LIKE '%.%'";
@@ -746,7 +1190,10 @@ public class BriteSurveyDbAdapter {
                 TransmissionColumns._ID + ", "
                         + TransmissionColumns.SURVEY_INSTANCE_ID + ", "
                         + TransmissionColumns.SURVEY_ID + ", "
-                        + TransmissionColumns.FILENAME;
+                        + TransmissionColumns.FILENAME + ", "
+                        + TransmissionColumns.MD5 + ", "
+                        + TransmissionColumns.FILE_SIZE + ", "
+                        + TransmissionColumns.FILE_MODIFIED;
         String whereClause =
                 TransmissionColumns.STATUS + " IN (?, ?, ?) AND " + TransmissionColumns.FILENAME
                         + " LIKE '%.%' AND " + TransmissionColumns.SURVEY_ID + " = ?";
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database.britedb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.squareup.sqlbrite2.BriteDatabase;
+
+import org.akvo.flow.database.RecordColumns;
+import org.akvo.flow.database.ResponseColumns;
+import org.akvo.flow.database.SurveyInstanceColumns;
+import org.akvo.flow.database.SurveyInstanceStatus;
+import org.akvo.flow.database.Tables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes downloaded data points with statements compiled once per batch. Rows are written
+ * straight to the database, so queries are only notified once, by deleteEmptyRecords(), which
+ * has to be the last call of the batch. Must be used within a transaction.
+ */
+public class DataPointBulkWriter {
+
+    // SQLite default limit of host parameters in a statement
+    private static final int MAX_QUERY_PARAMETERS = 999;
+
+    private static final Set<String> SYNCED_TABLES = new HashSet<>(
+            Arrays.asList(Tables.RECORD, Tables.SURVEY_INSTANCE, Tables.RESPONSE));
+
+    private final BriteDatabase briteDatabase;
+    private final SQLiteDatabase database;
+    private final SQLiteStatement insertRecord;
+    private final SQLiteStatement insertSurveyInstance;
+    private final SQLiteStatement updateSurveyInstance;
+    private final SQLiteStatement deleteResponses;
+    private final SQLiteStatement insertResponse;
+
+    DataPointBulkWriter(BriteDatabase briteDatabase) {
+        this.briteDatabase = briteDatabase;
+        this.database = briteDatabase.getWritableDatabase();
+        this.insertRecord = database.compileStatement("INSERT OR REPLACE INTO " + Tables.RECORD
+                + " (" + RecordColumns.RECORD_ID + ", " + RecordColumns.SURVEY_GROUP_ID + ", "
+                + RecordColumns.NAME + ", " + RecordColumns.LATITUDE + ", "
+                + RecordColumns.LONGITUDE + ", " + RecordColumns.LAST_MODIFIED
+                + ") VALUES (?, ?, ?, ?, ?, ?)");
+        this.insertSurveyInstance = database.compileStatement("INSERT INTO "
+                + Tables.SURVEY_INSTANCE + " (" + SurveyInstanceColumns.SURVEY_ID + ", "
+                + SurveyInstanceColumns.SUBMITTED_DATE + ", " + SurveyInstanceColumns.RECORD_ID
+                + ", " + SurveyInstanceColumns.STATUS + ", " + SurveyInstanceColumns.SYNC_DATE
+                + ", " + SurveyInstanceColumns.SUBMITTER + ", " + SurveyInstanceColumns.UUID
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        this.updateSurveyInstance = database.compileStatement("UPDATE "
+                + Tables.SURVEY_INSTANCE + " SET " + SurveyInstanceColumns.SURVEY_ID + " = ?, "
+                + SurveyInstanceColumns.SUBMITTED_DATE + " = ?, "
+                + SurveyInstanceColumns.RECORD_ID + " = ?, "
+                + SurveyInstanceColumns.STATUS + " = ?, "
+                + SurveyInstanceColumns.SYNC_DATE + " = ?, "
+                + SurveyInstanceColumns.SUBMITTER + " = ? WHERE "
+                + SurveyInstanceColumns._ID + " = ?");
+        this.deleteResponses = database.compileStatement("DELETE FROM " + Tables.RESPONSE
+                + " WHERE " + ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
+                + ResponseColumns.QUESTION_ID + " = ?");
+        this.insertResponse = database.compileStatement("INSERT INTO " + Tables.RESPONSE
+                + " (" + ResponseColumns.SURVEY_INSTANCE_ID + ", " + ResponseColumns.QUESTION_ID
+                + ", " + ResponseColumns.ANSWER + ", " + ResponseColumns.TYPE + ", "
+                + ResponseColumns.INCLUDE + ", " + ResponseColumns.ITERATION
+                + ") VALUES (?, ?, ?, ?, 1, ?)");
+    }
+
+    /**
+     * Looks up the ids of the existing survey instances with the given uuids, in as few queries
+     * as possible
+     *
+     * @return ids by uuid, the uuids not found are not included
+     */
+    @NonNull
+    public Map<String, Long> getSurveyInstanceIds(@NonNull Set<String> uuids) {
+        Map<String, Long> ids = new HashMap<>(uuids.size() * 2);
+        List<String> batch = new ArrayList<>(Math.min(uuids.size(), MAX_QUERY_PARAMETERS));
+        for (String uuid : uuids) {
+            batch.add(uuid);
+            if (batch.size() == MAX_QUERY_PARAMETERS) {
+                querySurveyInstanceIds(batch, ids);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            querySurveyInstanceIds(batch, ids);
+        }
+        return ids;
+    }
+
+    private void querySurveyInstanceIds(List<String> uuids, Map<String, Long> ids) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < uuids.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        Cursor cursor = database.rawQuery("SELECT " + SurveyInstanceColumns._ID + ", "
+                        + SurveyInstanceColumns.UUID + " FROM " + Tables.SURVEY_INSTANCE
+                        + " WHERE " + SurveyInstanceColumns.UUID + " IN (" + placeholders + ")",
+                uuids.toArray(new String[uuids.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getString(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The data point is replaced, with its last modification date
+     */
+    public void insertRecord(@NonNull String recordId, long surveyGroupId,
+            @Nullable String name, @Nullable Double latitude, @Nullable Double longitude,
+            long lastModified) {
+        insertRecord.clearBindings();
+        insertRecord.bindString(1, recordId);
+        insertRecord.bindLong(2, surveyGroupId);
+        bindString(insertRecord, 3, name);
+        bindDouble(insertRecord, 4, latitude);
+        bindDouble(insertRecord, 5, longitude);
+        insertRecord.bindLong(6, Math.max(lastModified, 0));
+        insertRecord.executeInsert();
+    }
+
+    /**
+     * @return the id of the new survey instance
+     */
+    public long insertSurveyInstance(@NonNull String uuid, long surveyId, long submittedDate,
+            @NonNull String recordId, long syncDate, @Nullable String submitter) {
+        SQLiteStatement statement = insertSurveyInstance;
+        bindSurveyInstance(statement, surveyId, submittedDate, recordId, syncDate, submitter);
+        statement.bindString(7, uuid);
+        return statement.executeInsert();
+    }
+
+    public void updateSurveyInstance(long id, long surveyId, long submittedDate,
+            @NonNull String recordId, long syncDate, @Nullable String submitter) {
+        SQLiteStatement statement = updateSurveyInstance;
+        bindSurveyInstance(statement, surveyId, submittedDate, recordId, syncDate, submitter);
+        statement.bindLong(7, id);
+        statement.executeUpdateDelete();
+    }
+
+    private void bindSurveyInstance(SQLiteStatement statement, long surveyId,
+            long submittedDate, String recordId, long syncDate, @Nullable String submitter) {
+        statement.clearBindings();
+        statement.bindLong(1, surveyId);
+        statement.bindLong(2, submittedDate);
+        statement.bindString(3, recordId);
+        statement.bindLong(4, SurveyInstanceStatus.DOWNLOADED);
+        statement.bindLong(5, syncDate);
+        bindString(statement, 6, submitter);
+    }
+
+    /**
+     * Deletes all the iterations of the responses to a question
+     */
+    public void deleteResponses(long surveyInstanceId, @NonNull String questionId) {
+        deleteResponses.bindLong(1, surveyInstanceId);
+        deleteResponses.bindString(2, questionId);
+        deleteResponses.executeUpdateDelete();
+    }
+
+    public void insertResponse(long surveyInstanceId, @NonNull String questionId,
+            @Nullable String answer, @Nullable String type, int iteration) {
+        insertResponse.clearBindings();
+        insertResponse.bindLong(1, surveyInstanceId);
+        insertResponse.bindString(2, questionId);
+        bindString(insertResponse, 3, answer);
+        bindString(insertResponse, 4, type);
+        insertResponse.bindLong(5, iteration);
+        insertResponse.executeInsert();
+    }
+
+    /**
+     * Delete any Record that contains no SurveyInstance and notify the queries of all the
+     * changes of the batch
+     */
+    public void deleteEmptyRecords() {
+        briteDatabase.executeAndTrigger(SYNCED_TABLES, "DELETE FROM " + Tables.RECORD
+                + " WHERE " + RecordColumns.RECORD_ID + " NOT IN "
+                + "(SELECT DISTINCT " + SurveyInstanceColumns.RECORD_ID
+                + " FROM " + Tables.SURVEY_INSTANCE + ")");
+    }
+
+    public void close() {
+        insertRecord.close();
+        insertSurveyInstance.close();
+        updateSurveyInstance.close();
+        deleteResponses.close();
+        insertResponse.close();
+    }
+
+    private static void bindString(SQLiteStatement statement, int index,
+            @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindDouble(SQLiteStatement statement, int index,
+            @Nullable Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database.britedb;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Sort values of the last data point of a page. The next page starts right after it, whatever
+ * was inserted or deleted before it in the meantime.
+ */
+public class DataPointPageKey {
+
+    private final String recordId;
+    private final long lastModified;
+    private final String name;
+    private final int status;
+    private final Double latitude;
+    private final Double longitude;
+
+    public DataPointPageKey(@NonNull String recordId, long lastModified, @Nullable String name,
+            int status, @Nullable Double latitude, @Nullable Double longitude) {
+        this.recordId = recordId;
+        this.lastModified = lastModified;
+        this.name = name;
+        this.status = status;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    @NonNull
+    public String getRecordId() {
+        return recordId;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Nullable
+    public String getName() {
+        return name;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    @Nullable
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    @Nullable
+    public Double getLongitude() {
+        return longitude;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database.britedb;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the data points closest to a location among the candidates offered, ranked by their
+ * great circle (haversine) distance and then by record id. Only the candidates ranked after the
+ * given page key are kept, and no more than the limit, so choosing k data points out of n
+ * candidates costs O(n log k).
+ */
+class NearestDataPoints {
+
+    static final double EARTH_RADIUS_KM = 6371.0088;
+    static final double HALF_CIRCUMFERENCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    private static final Comparator<Candidate> NEAREST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate first, Candidate second) {
+            return compareRank(first.distance, first.recordId, second.distance,
+                    second.recordId);
+        }
+    };
+
+    private final double latitude;
+    private final double longitude;
+    private final int limit;
+    private final double afterDistance;
+    @Nullable
+    private final String afterRecordId;
+    private final PriorityQueue<Candidate> farthestFirst;
+
+    /**
+     * @param limit         maximum number of data points, negative for no limit
+     * @param afterLatitude location of the last data point of the previous page, if any
+     * @param afterRecordId record id of the last data point of the previous page, if any
+     */
+    NearestDataPoints(double latitude, double longitude, int limit,
+            @Nullable Double afterLatitude, @Nullable Double afterLongitude,
+            @Nullable String afterRecordId) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.limit = limit;
+        if (afterRecordId != null && afterLatitude != null && afterLongitude != null) {
+            this.afterDistance = distance(latitude, longitude, afterLatitude, afterLongitude);
+            this.afterRecordId = afterRecordId;
+        } else {
+            this.afterDistance = 0;
+            this.afterRecordId = null;
+        }
+        this.farthestFirst = new PriorityQueue<>(limit > 0 ? limit + 1 : 11,
+                Collections.reverseOrder(NEAREST_FIRST));
+    }
+
+    /**
+     * Distance of the last data point of the previous page, 0 for the first page
+     */
+    double getAfterDistance() {
+        return afterDistance;
+    }
+
+    void clear() {
+        farthestFirst.clear();
+    }
+
+    void offer(long id, @NonNull String recordId, double candidateLatitude,
+            double candidateLongitude) {
+        double distance = distance(latitude, longitude, candidateLatitude, candidateLongitude);
+        if (afterRecordId != null
+                && compareRank(distance, recordId, afterDistance, afterRecordId) <= 0) {
+            return;
+        }
+        if (limit == 0) {
+            return;
+        }
+        if (isFull()) {
+            Candidate farthest = farthestFirst.peek();
+            if (compareRank(distance, recordId, farthest.distance, farthest.recordId) >= 0) {
+                return;
+            }
+            farthestFirst.poll();
+        }
+        farthestFirst.add(new Candidate(id, recordId, distance));
+    }
+
+    boolean isFull() {
+        return limit >= 0 && farthestFirst.size() >= limit;
+    }
+
+    /**
+     * Distance of the farthest data point kept, 0 if there are none
+     */
+    double getFarthestDistance() {
+        Candidate farthest = farthestFirst.peek();
+        return farthest == null ? 0 : farthest.distance;
+    }
+
+    /**
+     * @return the ids of the data points kept, the nearest first
+     */
+    @NonNull
+    List<Long> getIds() {
+        List<Candidate> candidates = new ArrayList<>(farthestFirst);
+        Collections.sort(candidates, NEAREST_FIRST);
+        List<Long> ids = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            ids.add(candidate.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Smallest bounding box around the circle of the given radius: south, west, north, east.
+     * West is greater than east when it crosses the antimeridian, the box spans all the
+     * longitudes when the circle reaches a pole.
+     */
+    static double[] getBoundingBox(double latitude, double longitude, double radiusKm) {
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        double south = latitude - Math.toDegrees(angle);
+        double north = latitude + Math.toDegrees(angle);
+        if (south <= -90 || north >= 90 || angle >= Math.PI / 2) {
+            return new double[] {
+                    Math.max(south, -90), -180, Math.min(north, 90), 180
+            };
+        }
+        double longitudeAngle = Math.toDegrees(Math.asin(
+                Math.min(1, Math.sin(angle) / Math.cos(Math.toRadians(latitude)))));
+        if (longitudeAngle >= 180) {
+            return new double[] {
+                    south, -180, north, 180
+            };
+        }
+        return new double[] {
+                south, normalizeLongitude(longitude - longitudeAngle), north,
+                normalizeLongitude(longitude + longitudeAngle)
+        };
+    }
+
+    /**
+     * Great circle distance in kilometres, with the haversine formula
+     */
+    static double distance(double latitude1, double longitude1, double latitude2,
+            double longitude2) {
+        double latitudeSin = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double longitudeSin = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = latitudeSin * latitudeSin + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * longitudeSin * longitudeSin;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        return longitude;
+    }
+
+    private static int compareRank(double distance1, String recordId1, double distance2,
+            String recordId2) {
+        int byDistance = Double.compare(distance1, distance2);
+        return byDistance != 0 ? byDistance : recordId1.compareTo(recordId2);
+    }
+
+    private static class Candidate {
+
+        final long id;
+        final String recordId;
+        final double distance;
+
+        Candidate(long id, String recordId, double distance) {
+            this.id = id;
+            this.recordId = recordId;
+            this.distance = distance;
+        }
+    }
+}
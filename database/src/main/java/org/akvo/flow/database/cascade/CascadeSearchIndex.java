@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database.cascade;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.database.FullTextQuery;
+import org.akvo.flow.database.FullTextTokenizer;
+
+import java.io.File;
+import java.util.Arrays;
+
+import timber.log.Timber;
+
+/**
+ * Full text index over the node names of a cascade resource, stored in the resource file
+ * itself. For every node the names and ids of its ancestors are stored as well, so a match
+ * can be displayed (and selected) with its full path without walking up the tree.
+ * The index is built once, when the resource is extracted.
+ */
+public class CascadeSearchIndex {
+
+    public static final String TABLE_SEARCH = "nodes_search";
+    public static final String TABLE_PATHS = "nodes_path";
+
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_ID = "id";
+    public static final String COLUMN_ANCESTOR_IDS = "ancestor_ids";
+    public static final String COLUMN_ANCESTOR_NAMES = "ancestor_names";
+
+    /**
+     * Separates the ancestors, root first, in the path columns
+     */
+    public static final String PATH_SEPARATOR = "\u001F";
+
+    private static final String TABLE_NODES = "nodes";
+    private static final String NODE_ID = "id";
+    private static final String NODE_NAME = "name";
+    private static final String NODE_CODE = "code";
+    private static final String NODE_PARENT = "parent";
+
+    // Cascades are trees, this only protects against corrupted resources
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * Builds the search index of the given cascade file, unless it already exists
+     *
+     * @return true if the index is available
+     */
+    public boolean createIndex(@NonNull File cascadeFile) {
+        SQLiteDatabase db = null;
+        try {
+            db = SQLiteDatabase.openDatabase(cascadeFile.getAbsolutePath(), null,
+                    SQLiteDatabase.OPEN_READWRITE);
+            if (hasIndex(db)) {
+                return true;
+            }
+            long start = System.currentTimeMillis();
+            db.beginTransaction();
+            try {
+                createIndex(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Timber.d("Search index of %s built in %d ms", cascadeFile.getName(),
+                    System.currentTimeMillis() - start);
+            return true;
+        } catch (SQLException e) {
+            Timber.e(e, "Could not build the search index of %s", cascadeFile.getName());
+            return false;
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+    }
+
+    public static boolean hasIndex(@NonNull SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name=?",
+                new String[] { TABLE_PATHS });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Matches the node names containing words starting with each of the words of the query.
+     * Results are not sorted, so the limit can stop the query early with very short queries.
+     * Columns: id, name, code, parent, ancestor_ids, ancestor_names
+     */
+    @Nullable
+    public static Cursor search(@NonNull SQLiteDatabase db, @Nullable String query, int limit) {
+        String matchQuery = toMatchQuery(query);
+        if (matchQuery == null) {
+            return null;
+        }
+        return db.rawQuery("SELECT s.docid AS " + COLUMN_ID + ", s." + COLUMN_NAME + ", n."
+                        + NODE_CODE + ", n." + NODE_PARENT + ", p." + COLUMN_ANCESTOR_IDS
+                        + ", p." + COLUMN_ANCESTOR_NAMES
+                        + " FROM " + TABLE_SEARCH + " s JOIN " + TABLE_PATHS + " p ON p."
+                        + COLUMN_ID + " = s.docid JOIN " + TABLE_NODES + " n ON n." + NODE_ID
+                        + " = s.docid"
+                        + " WHERE s." + COLUMN_NAME + " MATCH ?"
+                        + " LIMIT " + limit,
+                new String[] { matchQuery });
+    }
+
+    /**
+     * @return null if there is nothing to search
+     * @see FullTextQuery#toPrefixQuery(String)
+     */
+    @Nullable
+    static String toMatchQuery(@Nullable String query) {
+        return FullTextQuery.toPrefixQuery(query);
+    }
+
+    private void createIndex(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH);
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts3(" + COLUMN_NAME + ", "
+                + FullTextTokenizer.getTokenizeOption(db) + ")");
+        db.execSQL("CREATE TABLE " + TABLE_PATHS + " (" + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_ANCESTOR_IDS + " TEXT, " + COLUMN_ANCESTOR_NAMES + " TEXT)");
+
+        Nodes nodes = loadNodes(db);
+        SQLiteStatement insertName = db.compileStatement(
+                "INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_NAME + ") VALUES (?, ?)");
+        SQLiteStatement insertPath = db.compileStatement("INSERT INTO " + TABLE_PATHS + " ("
+                + COLUMN_ID + ", " + COLUMN_ANCESTOR_IDS + ", " + COLUMN_ANCESTOR_NAMES
+                + ") VALUES (?, ?, ?)");
+        StringBuilder ancestorIds = new StringBuilder();
+        StringBuilder ancestorNames = new StringBuilder();
+        for (int i = 0; i < nodes.size; i++) {
+            insertName.bindLong(1, nodes.ids[i]);
+            insertName.bindString(2, nodes.names[i]);
+            insertName.executeInsert();
+
+            nodes.buildPath(i, ancestorIds, ancestorNames);
+            insertPath.bindLong(1, nodes.ids[i]);
+            insertPath.bindString(2, ancestorIds.toString());
+            insertPath.bindString(3, ancestorNames.toString());
+            insertPath.executeInsert();
+        }
+        insertName.close();
+        insertPath.close();
+    }
+
+    private Nodes loadNodes(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_NODES, new String[] { NODE_ID, NODE_NAME, NODE_PARENT },
+                null, null, null, null, NODE_ID);
+        try {
+            Nodes nodes = new Nodes(cursor.getCount());
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(1);
+                nodes.add(cursor.getLong(0), name == null ? "" : name, cursor.getLong(2));
+            }
+            return nodes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * All the nodes of the cascade, sorted by id
+     */
+    private static class Nodes {
+        final long[] ids;
+        final long[] parents;
+        final String[] names;
+        final int[] path = new int[MAX_DEPTH];
+        int size;
+
+        Nodes(int capacity) {
+            ids = new long[capacity];
+            parents = new long[capacity];
+            names = new String[capacity];
+        }
+
+        void add(long id, String name, long parent) {
+            ids[size] = id;
+            names[size] = name;
+            parents[size] = parent;
+            size++;
+        }
+
+        /**
+         * Fills the builders with the ancestors of the given node, root first
+         */
+        void buildPath(int position, StringBuilder ancestorIds, StringBuilder ancestorNames) {
+            ancestorIds.setLength(0);
+            ancestorNames.setLength(0);
+            int depth = 0;
+            int current = indexOf(parents[position]);
+            while (current >= 0 && depth < MAX_DEPTH) {
+                path[depth++] = current;
+                current = indexOf(parents[current]);
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                if (ancestorIds.length() > 0) {
+                    ancestorIds.append(PATH_SEPARATOR);
+                    ancestorNames.append(PATH_SEPARATOR);
+                }
+                ancestorIds.append(ids[path[i]]);
+                ancestorNames.append(names[path[i]]);
+            }
+        }
+
+        private int indexOf(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            return index >= 0 ? index : -1;
+        }
+    }
+}
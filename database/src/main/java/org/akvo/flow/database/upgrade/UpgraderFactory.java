@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -34,6 +34,20 @@ public class UpgraderFactory {
         switch (upgradingFromVersion) {
             case DatabaseHelper.VER_RESPONSE_ITERATION:
                 databaseUpgrader.addUpgrader(new ResponsesUpgrader(helper, db));
+            case DatabaseHelper.VER_TRANSMISSION_ITERATION:
+                databaseUpgrader.addUpgrader(new TransmissionChecksumUpgrader(helper, db));
+            case DatabaseHelper.VER_TRANSMISSION_CHECKSUM:
+                databaseUpgrader.addUpgrader(new TransmissionMultipartUpgrader(helper, db));
+            case DatabaseHelper.VER_TRANSMISSION_MULTIPART:
+                databaseUpgrader.addUpgrader(new RecordSearchUpgrader(helper, db));
+            case DatabaseHelper.VER_RECORD_SEARCH:
+                databaseUpgrader.addUpgrader(new RecordLocationUpgrader(helper, db));
+            case DatabaseHelper.VER_RECORD_LOCATION:
+                databaseUpgrader.addUpgrader(new RecordStatusUpgrader(helper, db));
+            case DatabaseHelper.VER_RECORD_STATUS:
+                databaseUpgrader.addUpgrader(new QueryIndexesUpgrader(helper, db));
+            case DatabaseHelper.VER_QUERY_INDEXES:
+                databaseUpgrader.addUpgrader(new TransmissionPartCleanupUpgrader(helper, db));
             default:
                 break;
         }
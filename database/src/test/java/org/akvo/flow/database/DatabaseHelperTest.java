@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -48,6 +48,13 @@ public class DatabaseHelperTest {
 
     private void configureDatabaseHelper(DatabaseHelper helper) {
         doNothing().when(helper).upgradeFromResponses(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromTransmissionIteration(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromTransmissionChecksum(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromTransmissionMultipart(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromRecordSearch(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromRecordLocation(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromRecordStatus(any(SQLiteDatabase.class));
+        doNothing().when(helper).upgradeFromQueryIndexes(any(SQLiteDatabase.class));
     }
 
     @Test
@@ -59,5 +66,30 @@ public class DatabaseHelperTest {
         helper.onUpgrade(mockDb, DatabaseHelper.VER_RESPONSE_ITERATION, DatabaseHelper.DATABASE_VERSION);
 
         verify(helper, times(1)).upgradeFromResponses(mockDb);
+        verify(helper, times(1)).upgradeFromTransmissionIteration(mockDb);
+        verify(helper, times(1)).upgradeFromTransmissionChecksum(mockDb);
+        verify(helper, times(1)).upgradeFromTransmissionMultipart(mockDb);
+        verify(helper, times(1)).upgradeFromRecordSearch(mockDb);
+        verify(helper, times(1)).upgradeFromRecordLocation(mockDb);
+        verify(helper, times(1)).upgradeFromRecordStatus(mockDb);
+        verify(helper, times(1)).upgradeFromQueryIndexes(mockDb);
+    }
+
+    @Test
+    public void onUpgradeShouldUpgradeCorrectlyIfVersionTransmissionIteration() {
+        DatabaseHelper helper = spy(
+                new DatabaseHelper(mockContext, mockLanguageTable));
+        configureDatabaseHelper(helper);
+
+        helper.onUpgrade(mockDb, DatabaseHelper.VER_TRANSMISSION_ITERATION, DatabaseHelper.DATABASE_VERSION);
+
+        verify(helper, times(0)).upgradeFromResponses(mockDb);
+        verify(helper, times(1)).upgradeFromTransmissionIteration(mockDb);
+        verify(helper, times(1)).upgradeFromTransmissionChecksum(mockDb);
+        verify(helper, times(1)).upgradeFromTransmissionMultipart(mockDb);
+        verify(helper, times(1)).upgradeFromRecordSearch(mockDb);
+        verify(helper, times(1)).upgradeFromRecordLocation(mockDb);
+        verify(helper, times(1)).upgradeFromRecordStatus(mockDb);
+        verify(helper, times(1)).upgradeFromQueryIndexes(mockDb);
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database.britedb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NearestDataPointsTest {
+
+    @Test
+    public void distanceShouldBeTheGreatCircleDistance() {
+        // Nairobi to Kampala
+        assertEquals(505, NearestDataPoints.distance(-1.2864, 36.8172, 0.3476, 32.5825), 1);
+        assertEquals(111.2, NearestDataPoints.distance(0, 0, 1, 0), 0.1);
+        assertEquals(NearestDataPoints.HALF_CIRCUMFERENCE_KM,
+                NearestDataPoints.distance(0, 0, 0, 180), 0.001);
+    }
+
+    @Test
+    public void nearestShouldKeepTheClosestInOrder() {
+        NearestDataPoints nearest = new NearestDataPoints(0, 0, 3, null, null, null);
+        nearest.offer(1, "a", 0, 3);
+        nearest.offer(2, "b", 0, 1);
+        nearest.offer(3, "c", 0, 4);
+        nearest.offer(4, "d", 0, -2);
+        nearest.offer(5, "e", 0, -1);
+
+        assertEquals(Arrays.asList(2L, 5L, 4L), nearest.getIds());
+        assertTrue(nearest.isFull());
+        assertEquals(NearestDataPoints.distance(0, 0, 0, 2), nearest.getFarthestDistance(),
+                0.000001);
+    }
+
+    @Test
+    public void nearestShouldBreakTiesByRecordIdAfterTheKey() {
+        NearestDataPoints nearest = new NearestDataPoints(0, 0, 10, 0.0, 1.0, "b");
+        nearest.offer(1, "a", 0, 1);
+        nearest.offer(2, "b", 0, 1);
+        nearest.offer(3, "c", 1, 0);
+        nearest.offer(4, "d", 0, -1);
+        nearest.offer(5, "e", 0, 0.5);
+
+        assertEquals(Arrays.asList(3L, 4L), nearest.getIds());
+    }
+
+    @Test
+    public void boundingBoxShouldContainTheCircle() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            double latitude = random.nextDouble() * 170 - 85;
+            double longitude = random.nextDouble() * 360 - 180;
+            double radius = Math.pow(10, random.nextDouble() * 4);
+            double[] box = NearestDataPoints.getBoundingBox(latitude, longitude, radius);
+            for (int j = 0; j < 20; j++) {
+                double pointLatitude = Math.max(-90, Math.min(90,
+                        latitude + (random.nextDouble() * 2 - 1) * radius / 50));
+                double pointLongitude = longitude + (random.nextDouble() * 2 - 1) * radius / 20;
+                pointLongitude = (pointLongitude % 360 + 540) % 360 - 180;
+                if (NearestDataPoints.distance(latitude, longitude, pointLatitude,
+                        pointLongitude) <= radius) {
+                    assertTrue(contains(box, pointLatitude, pointLongitude));
+                }
+            }
+        }
+    }
+
+    private static boolean contains(double[] box, double latitude, double longitude) {
+        if (latitude < box[0] || latitude > box[2]) {
+            return false;
+        }
+        return box[1] <= box[3] ? longitude >= box[1] && longitude <= box[3]
+                : longitude >= box[1] || longitude <= box[3];
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.database.cascade;
+
+import org.akvo.flow.database.FullTextQuery;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CascadeSearchIndexTest {
+
+    @Test
+    public void toMatchQueryShouldMatchPrefixOfEveryWord() {
+        assertEquals("\"Nairobi*\" \"We*\"", CascadeSearchIndex.toMatchQuery("  Nairobi   We "));
+    }
+
+    @Test
+    public void toMatchQueryShouldDropSyntaxCharacters() {
+        assertEquals("\"kis*\" \"(mu)*\"", CascadeSearchIndex.toMatchQuery("\"kis*\" (mu)"));
+        assertEquals("\"St-Mary*\"", CascadeSearchIndex.toMatchQuery("St-Mary"));
+    }
+
+    @Test
+    public void toMatchQueryShouldQuoteOperators() {
+        assertEquals("\"east*\" \"OR*\" \"west*\" \"NEAR/2*\"",
+                CascadeSearchIndex.toMatchQuery("east OR west NEAR/2"));
+        assertEquals("\"and*\"", CascadeSearchIndex.toMatchQuery("and"));
+    }
+
+    @Test
+    public void toMatchQueryShouldReturnNullWithoutInput() {
+        assertNull(CascadeSearchIndex.toMatchQuery(null));
+        assertNull(CascadeSearchIndex.toMatchQuery(""));
+        assertNull(CascadeSearchIndex.toMatchQuery("   "));
+    }
+
+    @Test
+    public void toMatchQueryShouldMatchNothingWithoutWords() {
+        assertEquals(FullTextQuery.NO_MATCH, CascadeSearchIndex.toMatchQuery(" * - "));
+    }
+}
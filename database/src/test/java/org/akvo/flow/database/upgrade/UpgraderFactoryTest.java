@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017-2018 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -39,22 +39,129 @@ public class UpgraderFactoryTest {
         UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
                 .createUpgrader(DatabaseHelper.VER_RESPONSE_ITERATION, null, null);
 
-        assertEquals(1, upgrader.getUpgraders().size());
-        assertTrue(containsResponsesUpgrader(upgrader.getUpgraders()));
+        assertEquals(8, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), ResponsesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), TransmissionChecksumUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), TransmissionMultipartUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordSearchUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordLocationUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordStatusUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
     }
 
     @Test
-    public void createUpgraderShouldCreateNoUpgraderWhenTransmissionIteration() {
+    public void createUpgraderShouldCreateCorrectUpgraderWhenTransmissionIteration() {
         UpgraderFactory upgraderFactory = new UpgraderFactory();
         UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
                 .createUpgrader(DatabaseHelper.VER_TRANSMISSION_ITERATION, null, null);
 
+        assertEquals(7, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), TransmissionChecksumUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), TransmissionMultipartUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordSearchUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordLocationUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordStatusUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateCorrectUpgraderWhenTransmissionChecksum() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_TRANSMISSION_CHECKSUM, null, null);
+
+        assertEquals(6, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), TransmissionMultipartUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordSearchUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordLocationUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordStatusUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateCorrectUpgraderWhenTransmissionMultipart() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_TRANSMISSION_MULTIPART, null, null);
+
+        assertEquals(5, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordSearchUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordLocationUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordStatusUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateCorrectUpgraderWhenRecordSearch() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_RECORD_SEARCH, null, null);
+
+        assertEquals(4, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordLocationUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordStatusUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateCorrectUpgraderWhenRecordLocation() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_RECORD_LOCATION, null, null);
+
+        assertEquals(3, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), RecordStatusUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateCorrectUpgraderWhenRecordStatus() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_RECORD_STATUS, null, null);
+
+        assertEquals(2, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(), QueryIndexesUpgrader.class));
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateCorrectUpgraderWhenQueryIndexes() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_QUERY_INDEXES, null, null);
+
+        assertEquals(1, upgrader.getUpgraders().size());
+        assertTrue(containsUpgrader(upgrader.getUpgraders(),
+                TransmissionPartCleanupUpgrader.class));
+    }
+
+    @Test
+    public void createUpgraderShouldCreateNoUpgraderWhenTransmissionPartCleanup() {
+        UpgraderFactory upgraderFactory = new UpgraderFactory();
+        UpgraderVisitor upgrader = (UpgraderVisitor) upgraderFactory
+                .createUpgrader(DatabaseHelper.VER_TRANSMISSION_PART_CLEANUP, null, null);
+
         assertEquals(0, upgrader.getUpgraders().size());
     }
 
-    private boolean containsResponsesUpgrader(List<DatabaseUpgrader> upgraders) {
+    private boolean containsUpgrader(List<DatabaseUpgrader> upgraders,
+            Class<? extends DatabaseUpgrader> upgraderClass) {
         for (DatabaseUpgrader upgrader : upgraders) {
-            if (upgrader instanceof ResponsesUpgrader) {
+            if (upgraderClass.isInstance(upgrader)) {
                 return true;
             }
         }
@@ -39,6 +39,7 @@ public class DownloadResult {
     }
 
     public enum ResultCode {
+        IN_PROGRESS,
         SUCCESS,
         ERROR_NO_NETWORK,
         ERROR_ASSIGNMENT_MISSING
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.domain.entity;
+
+/**
+ * Outcome of the export of a single form instance
+ */
+public class ExportResult {
+
+    private final long instanceId;
+    private final ResultCode resultCode;
+
+    public ExportResult(long instanceId, ResultCode resultCode) {
+        this.instanceId = instanceId;
+        this.resultCode = resultCode;
+    }
+
+    public long getInstanceId() {
+        return instanceId;
+    }
+
+    public ResultCode getResultCode() {
+        return resultCode;
+    }
+
+    public boolean isSuccess() {
+        return resultCode == ResultCode.SUCCESS;
+    }
+
+    public enum ResultCode {
+        SUCCESS,
+        ERROR_INVALID_INSTANCE,
+        ERROR_FILE,
+        ERROR_DATABASE
+    }
+}
@@ -31,13 +31,11 @@ public class FormInstanceMetadata {
     private final String zipFileName;
     private final String formId;
     private final Set<String> mediaFileNames = new HashSet<>();
-    private final String formInstanceData;
 
-    public FormInstanceMetadata(String zipFileName, String formId, String formInstanceData,
+    public FormInstanceMetadata(String zipFileName, String formId,
             @NonNull Set<String> mediaFileNames) {
         this.zipFileName = zipFileName;
         this.formId = formId;
-        this.formInstanceData = formInstanceData;
         this.mediaFileNames.addAll(mediaFileNames);
     }
 
@@ -53,12 +51,7 @@ public class FormInstanceMetadata {
         return mediaFileNames;
     }
 
-    public String getFormInstanceData() {
-        return formInstanceData;
-    }
-
     public boolean isValid() {
-        return !TextUtils.isEmpty(zipFileName) && !TextUtils.isEmpty(formInstanceData) && !TextUtils
-                .isEmpty(formId);
+        return !TextUtils.isEmpty(zipFileName) && !TextUtils.isEmpty(formId);
     }
 }
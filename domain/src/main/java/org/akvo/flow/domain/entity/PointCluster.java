@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.domain.entity;
+
+/**
+ * Data points close to each other at a zoom level, displayed as a single marker. A cluster of
+ * one data point has its id and name.
+ */
+public class PointCluster {
+
+    private final double latitude;
+    private final double longitude;
+    private final int count;
+    private final String dataPointId;
+    private final String name;
+
+    public PointCluster(double latitude, double longitude, int count, String dataPointId,
+            String name) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.count = count;
+        this.dataPointId = dataPointId;
+        this.name = name;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String getDataPointId() {
+        return dataPointId;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -26,6 +26,7 @@ import org.akvo.flow.domain.executor.PostExecutionThread;
 import org.akvo.flow.domain.executor.ThreadExecutor;
 import org.akvo.flow.domain.repository.SurveyRepository;
 import org.akvo.flow.domain.util.ConnectivityStateManager;
+import org.reactivestreams.Publisher;
 
 import java.util.Map;
 
@@ -77,12 +78,27 @@ public class DownloadDataPoints {
         return syncDataPoints(parameters);
     }
 
+    /**
+     * Reports the progress after each page (IN_PROGRESS) then the total (SUCCESS)
+     */
     private <T> Flowable<DownloadResult> syncDataPoints(Map<String, T> parameters) {
         return surveyRepository.downloadDataPoints((Long) parameters.get(KEY_SURVEY_GROUP_ID))
-                .map(new Function<Integer, DownloadResult>() {
+                .publish(new Function<Flowable<Integer>, Publisher<DownloadResult>>() {
                     @Override
-                    public DownloadResult apply(Integer integer) {
-                        return new DownloadResult(DownloadResult.ResultCode.SUCCESS, integer);
+                    public Publisher<DownloadResult> apply(Flowable<Integer> synced) {
+                        return Flowable.merge(synced.map(new Function<Integer, DownloadResult>() {
+                            @Override
+                            public DownloadResult apply(Integer integer) {
+                                return new DownloadResult(DownloadResult.ResultCode.IN_PROGRESS,
+                                        integer);
+                            }
+                        }), synced.last(0).map(new Function<Integer, DownloadResult>() {
+                            @Override
+                            public DownloadResult apply(Integer integer) {
+                                return new DownloadResult(DownloadResult.ResultCode.SUCCESS,
+                                        integer);
+                            }
+                        }).toFlowable());
                     }
                 })
                 .onErrorResumeNext(new Function<Throwable, Flowable<DownloadResult>>() {
@@ -23,7 +23,6 @@ package org.akvo.flow.domain.interactor;
 import org.akvo.flow.domain.entity.FormInstanceMetadata;
 import org.akvo.flow.domain.executor.PostExecutionThread;
 import org.akvo.flow.domain.executor.ThreadExecutor;
-import org.akvo.flow.domain.repository.FileRepository;
 import org.akvo.flow.domain.repository.SurveyRepository;
 import org.akvo.flow.domain.repository.UserRepository;
 import org.akvo.flow.domain.util.TextValueCleaner;
@@ -45,18 +44,15 @@ public class ExportSurveyInstance extends UseCase {
     private final UserRepository userRepository;
     private final TextValueCleaner valueCleaner;
     private final SurveyRepository surveyRepository;
-    private final FileRepository fileRepository;
 
     @Inject
     protected ExportSurveyInstance(ThreadExecutor threadExecutor,
             PostExecutionThread postExecutionThread, UserRepository userRepository,
-            TextValueCleaner valueCleaner, SurveyRepository surveyRepository,
-            FileRepository fileRepository) {
+            TextValueCleaner valueCleaner, SurveyRepository surveyRepository) {
         super(threadExecutor, postExecutionThread);
         this.userRepository = userRepository;
         this.valueCleaner = valueCleaner;
         this.surveyRepository = surveyRepository;
-        this.fileRepository = fileRepository;
     }
 
     @Override
@@ -86,7 +82,7 @@ public class ExportSurveyInstance extends UseCase {
                 .concatMap(new Function<Boolean, Observable<Boolean>>() {
                     @Override
                     public Observable<Boolean> apply(Boolean aBoolean) {
-                        return surveyRepository.getFormInstanceData(instanceId, deviceId)
+                        return surveyRepository.exportFormInstance(instanceId, deviceId)
                                 .concatMap(
                                         new Function<FormInstanceMetadata, Observable<Boolean>>() {
                                             @Override
@@ -101,15 +97,8 @@ public class ExportSurveyInstance extends UseCase {
 
     private Observable<Boolean> exportSurveyInstance(final FormInstanceMetadata metadata,
             @NonNull final Long instanceId) {
-        return fileRepository.createDataZip(metadata.getZipFileName(), metadata.getFormInstanceData())
-                .concatMap(new Function<Boolean, Observable<Boolean>>() {
-                    @Override
-                    public Observable<Boolean> apply(Boolean ignored) {
-                        Set<String> filenames = new HashSet<>(metadata.getMediaFileNames());
-                        filenames.add(metadata.getZipFileName());
-                        return surveyRepository
-                                .createTransmissions(instanceId, metadata.getFormId(), filenames);
-                    }
-                });
+        Set<String> filenames = new HashSet<>(metadata.getMediaFileNames());
+        filenames.add(metadata.getZipFileName());
+        return surveyRepository.createTransmissions(instanceId, metadata.getFormId(), filenames);
     }
 }
@@ -20,41 +20,40 @@
 
 package org.akvo.flow.domain.interactor;
 
-import org.akvo.flow.domain.entity.FormInstanceMetadata;
-import org.akvo.flow.domain.repository.FileRepository;
+import org.akvo.flow.domain.entity.ExportResult;
 import org.akvo.flow.domain.repository.SurveyRepository;
 import org.akvo.flow.domain.repository.UserRepository;
 import org.akvo.flow.domain.util.TextValueCleaner;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.inject.Inject;
 
 import io.reactivex.Observable;
-import io.reactivex.annotations.NonNull;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Function;
 import io.reactivex.observers.DisposableObserver;
 
+/**
+ * Exports all the pending form instances in batches of {@link #BATCH_SIZE}, emitting the
+ * outcome of each instance once its batch is done
+ */
 public class ExportSurveyInstances {
 
+    static final int BATCH_SIZE = 20;
+
     private final UserRepository userRepository;
     private final TextValueCleaner valueCleaner;
     private final SurveyRepository surveyRepository;
-    private final FileRepository fileRepository;
     private final CompositeDisposable disposables;
 
     @Inject
     protected ExportSurveyInstances(UserRepository userRepository,
-            TextValueCleaner valueCleaner, SurveyRepository surveyRepository,
-            FileRepository fileRepository) {
+            TextValueCleaner valueCleaner, SurveyRepository surveyRepository) {
         this.userRepository = userRepository;
         this.valueCleaner = valueCleaner;
         this.surveyRepository = surveyRepository;
-        this.fileRepository = fileRepository;
         this.disposables = new CompositeDisposable();
     }
 
@@ -82,69 +81,31 @@ public class ExportSurveyInstances {
                         return valueCleaner.cleanVal(deviceId);
                     }
                 })
-                .flatMap(new Function<String, Observable<Boolean>>() {
+                .flatMap(new Function<String, Observable<List<ExportResult>>>() {
                     @Override
-                    public Observable<Boolean> apply(final String deviceId) {
+                    public Observable<List<ExportResult>> apply(final String deviceId) {
                         return createInstancesZipFiles(deviceId);
                     }
                 });
     }
 
-    private Observable<Boolean> createInstancesZipFiles(final String deviceId) {
+    private Observable<List<ExportResult>> createInstancesZipFiles(final String deviceId) {
         return surveyRepository.getPendingSurveyInstances()
-                .concatMap(new Function<List<Long>, Observable<Boolean>>() {
+                .concatMap(new Function<List<Long>, Observable<List<ExportResult>>>() {
                     @Override
-                    public Observable<Boolean> apply(List<Long> instanceIds) {
+                    public Observable<List<ExportResult>> apply(List<Long> instanceIds) {
                         return Observable.fromIterable(instanceIds)
-                                .concatMap(new Function<Long, Observable<Boolean>>() {
-                                    @Override
-                                    public Observable<Boolean> apply(Long instanceId) {
-                                        return getFormInstanceData(instanceId, deviceId);
-                                    }
-                                })
-                                .toList()
-                                .toObservable()
-                                .map(new Function<List<Boolean>, Boolean>() {
-                                    @Override
-                                    public Boolean apply(List<Boolean> ignored) {
-                                        return true;
-                                    }
-                                });
-                    }
-                });
-    }
-
-    private Observable<Boolean> getFormInstanceData(@NonNull final Long instanceId,
-            final String deviceId) {
-        return surveyRepository.setInstanceStatusToRequested(instanceId)
-                .concatMap(new Function<Boolean, Observable<Boolean>>() {
-                    @Override
-                    public Observable<Boolean> apply(Boolean aBoolean) {
-                        return surveyRepository.getFormInstanceData(instanceId, deviceId)
+                                .buffer(BATCH_SIZE)
                                 .concatMap(
-                                        new Function<FormInstanceMetadata, Observable<Boolean>>() {
+                                        new Function<List<Long>, Observable<List<ExportResult>>>() {
                                             @Override
-                                            public Observable<Boolean> apply(
-                                                    final FormInstanceMetadata metadata) {
-                                                return createTransmissions(metadata, instanceId);
+                                            public Observable<List<ExportResult>> apply(
+                                                    List<Long> batch) {
+                                                return surveyRepository
+                                                        .exportFormInstances(batch, deviceId);
                                             }
                                         });
                     }
                 });
     }
-
-    private Observable<Boolean> createTransmissions(final FormInstanceMetadata metadata,
-            @NonNull final Long instanceId) {
-        return fileRepository
-                .createDataZip(metadata.getZipFileName(), metadata.getFormInstanceData())
-                .concatMap(new Function<Boolean, Observable<Boolean>>() {
-                    @Override
-                    public Observable<Boolean> apply(Boolean ignored) {
-                        Set<String> filenames = new HashSet<>(metadata.getMediaFileNames());
-                        filenames.add(metadata.getZipFileName());
-                        return surveyRepository
-                                .createTransmissions(instanceId, metadata.getFormId(), filenames);
-                    }
-                });
-    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.domain.interactor;
+
+import org.akvo.flow.domain.executor.PostExecutionThread;
+import org.akvo.flow.domain.executor.ThreadExecutor;
+import org.akvo.flow.domain.repository.SurveyRepository;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import io.reactivex.Observable;
+
+/**
+ * Map clusters of the data points inside a bounding box at a zoom level, kept up to date while
+ * the data points change
+ */
+public class GetDataPointClusters extends UseCase {
+
+    public static final String KEY_SURVEY_GROUP_ID = "survey_group_id";
+    public static final String KEY_RELOAD = "reload";
+    public static final String KEY_ZOOM = "zoom";
+    public static final String KEY_SOUTH = "south";
+    public static final String KEY_WEST = "west";
+    public static final String KEY_NORTH = "north";
+    public static final String KEY_EAST = "east";
+
+    private final SurveyRepository surveyRepository;
+
+    @Inject
+    protected GetDataPointClusters(ThreadExecutor threadExecutor,
+            PostExecutionThread postExecutionThread, SurveyRepository surveyRepository) {
+        super(threadExecutor, postExecutionThread);
+        this.surveyRepository = surveyRepository;
+    }
+
+    @Override
+    protected <T> Observable buildUseCaseObservable(Map<String, T> parameters) {
+        if (parameters == null || parameters.get(KEY_SURVEY_GROUP_ID) == null) {
+            return Observable.error(new IllegalArgumentException("Missing survey group id"));
+        }
+        if (parameters.get(KEY_ZOOM) == null) {
+            return Observable.error(new IllegalArgumentException("Missing zoom"));
+        }
+        if (parameters.get(KEY_SOUTH) == null || parameters.get(KEY_WEST) == null
+                || parameters.get(KEY_NORTH) == null || parameters.get(KEY_EAST) == null) {
+            return Observable.error(new IllegalArgumentException("Missing bounds"));
+        }
+        boolean reload = Boolean.TRUE.equals(parameters.get(KEY_RELOAD));
+        return surveyRepository.getDataPointClusters((Long) parameters.get(KEY_SURVEY_GROUP_ID),
+                reload, (Double) parameters.get(KEY_ZOOM), (Double) parameters.get(KEY_SOUTH),
+                (Double) parameters.get(KEY_WEST), (Double) parameters.get(KEY_NORTH),
+                (Double) parameters.get(KEY_EAST));
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ * Copyright (C) 2017-2019 Stichting Akvo (Akvo Foundation)
  *
  * This file is part of Akvo Flow.
  *
@@ -33,11 +33,6 @@ import java.util.Map;
 import javax.inject.Inject;
 
 import io.reactivex.Observable;
-import io.reactivex.ObservableSource;
-import io.reactivex.annotations.NonNull;
-import io.reactivex.annotations.Nullable;
-import io.reactivex.functions.Function;
-import io.reactivex.functions.Predicate;
 
 public class GetSavedDataPoints extends UseCase {
 
@@ -46,6 +41,10 @@ public class GetSavedDataPoints extends UseCase {
     public static final String KEY_LONGITUDE = "longitude";
     public static final String KEY_ORDER_BY = "order_by";
     public static final String KEY_FILTER = "filter";
+    public static final String KEY_PAGE_SIZE = "page_size";
+    public static final String KEY_AFTER = "after";
+
+    private static final int NO_LIMIT = -1;
 
     private final SurveyRepository surveyRepository;
 
@@ -65,49 +64,16 @@ public class GetSavedDataPoints extends UseCase {
         Double latitude = (Double) parameters.get(KEY_LATITUDE);
         Double longitude = (Double) parameters.get(KEY_LONGITUDE);
         Integer orderBy = (Integer) parameters.get(KEY_ORDER_BY);
-        final String filter = (String) parameters.get(KEY_FILTER);
-        if (TextUtils.isEmpty(filter)) {
+        String filter = (String) parameters.get(KEY_FILTER);
+        Integer pageSize = (Integer) parameters.get(KEY_PAGE_SIZE);
+        DataPoint after = (DataPoint) parameters.get(KEY_AFTER);
+        if (TextUtils.isEmpty(filter) && pageSize == null) {
             return surveyRepository.getDataPoints(surveyGroupId, latitude, longitude, orderBy);
-        } else {
-            return getFilteredDataPoints(surveyGroupId, latitude, longitude, orderBy, filter);
-        }
-    }
-
-    private Observable<List<DataPoint>> getFilteredDataPoints(Long surveyGroupId, Double latitude,
-            Double longitude, Integer orderBy, @NonNull final String filter) {
-        return surveyRepository.getDataPoints(surveyGroupId, latitude, longitude, orderBy)
-                .flatMap(new Function<List<DataPoint>, ObservableSource<List<DataPoint>>>() {
-                    @Override
-                    public ObservableSource<List<DataPoint>> apply(
-                            @NonNull List<DataPoint> dataPoints) throws Exception {
-                        return filterDataPoints(dataPoints, filter);
-                    }
-                });
-
-    }
-
-    private Observable<List<DataPoint>> filterDataPoints(@NonNull List<DataPoint> dataPoints,
-            @NonNull final String filter) {
-        return Observable
-                .fromIterable(dataPoints)
-                .filter(new Predicate<DataPoint>() {
-                    @Override
-                    public boolean test(@NonNull DataPoint dataPoint) throws Exception {
-                        String name = dataPoint.getName();
-                        String id = dataPoint.getId();
-                        return (fieldContains(name, filter)
-                                || fieldContains(id, filter));
-                    }
-                })
-                .toList()
-                .toObservable();
-    }
-
-    private boolean fieldContains(@Nullable String field, @NonNull String filter) {
-        if (field != null) {
-            field = field.toLowerCase();
         }
-        return field != null && field
-                .contains(filter.toLowerCase());
+        Observable<List<DataPoint>> page = surveyRepository
+                .getDataPointsPage(surveyGroupId, filter, latitude, longitude, orderBy, after,
+                        pageSize == null ? NO_LIMIT : pageSize);
+        // Only the first page follows the changes of the data points
+        return after == null ? page : page.take(1);
     }
 }
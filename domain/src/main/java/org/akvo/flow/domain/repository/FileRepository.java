@@ -53,6 +53,4 @@ public interface FileRepository {
     Observable<String> copyVideo(Uri uri, boolean removeOriginal);
 
     Observable<File> getZipFile(String uuid);
-
-    Observable<Boolean> createDataZip(String zipFileName, String formInstanceData);
 }
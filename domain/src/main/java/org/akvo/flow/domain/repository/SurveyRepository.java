@@ -23,8 +23,10 @@ package org.akvo.flow.domain.repository;
 import android.support.annotation.NonNull;
 
 import org.akvo.flow.domain.entity.DataPoint;
+import org.akvo.flow.domain.entity.ExportResult;
 import org.akvo.flow.domain.entity.FormInstanceMetadata;
 import org.akvo.flow.domain.entity.InstanceIdUuid;
+import org.akvo.flow.domain.entity.PointCluster;
 import org.akvo.flow.domain.entity.Survey;
 import org.akvo.flow.domain.entity.User;
 
@@ -41,6 +43,28 @@ public interface SurveyRepository {
     Observable<List<DataPoint>> getDataPoints(Long surveyGroupId, Double latitude,
             Double longitude, Integer orderBy);
 
+    /**
+     * One page of data points, only the ones whose name or id have words starting with the
+     * words of the filter when there is one
+     *
+     * @param after    the last data point of the previous page, null for the first page
+     * @param pageSize maximum number of data points, negative for no limit
+     */
+    Observable<List<DataPoint>> getDataPointsPage(Long surveyGroupId, String filter,
+            Double latitude, Double longitude, Integer orderBy, DataPoint after, int pageSize);
+
+    /**
+     * Clusters of the data points located inside the bounds at the given map zoom. The bounds
+     * cross the antimeridian when west is greater than east. Reload builds the clusters again
+     * from the saved data points.
+     */
+    Observable<List<PointCluster>> getDataPointClusters(long surveyGroupId, boolean reload,
+            double zoom, double south, double west, double north, double east);
+
+    /**
+     * Emits the number of data points synced so far after each page, the last value is the
+     * total
+     */
     Flowable<Integer> downloadDataPoints(long surveyGroupId);
 
     Observable<Boolean> deleteSurvey(long surveyToDeleteId);
@@ -73,7 +97,17 @@ public interface SurveyRepository {
 
     Observable<List<Long>> getPendingSurveyInstances();
 
-    Observable<FormInstanceMetadata> getFormInstanceData(Long instanceId, String deviceId);
+    /**
+     * Writes the data zip file of the given form instance
+     */
+    Observable<FormInstanceMetadata> exportFormInstance(Long instanceId, String deviceId);
+
+    /**
+     * Writes the data zip files of the given form instances in parallel and saves all their
+     * transmissions in a single transaction. An instance that fails is reported and left
+     * pending, without affecting the others.
+     */
+    Observable<List<ExportResult>> exportFormInstances(List<Long> instanceIds, String deviceId);
 
     Observable<Boolean> createTransmissions(Long instanceId, String formId, Set<String> fileNames);
 
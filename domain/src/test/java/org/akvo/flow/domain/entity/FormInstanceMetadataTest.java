@@ -57,7 +57,7 @@ public class FormInstanceMetadataTest {
 
     @Test
     public void isValidShouldReturnFalseIfAllFieldsNull() {
-        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata(null, null, null,
+        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata(null, null,
                 Collections.<String>emptySet());
 
         assertFalse(formInstanceMetadata.isValid());
@@ -65,7 +65,7 @@ public class FormInstanceMetadataTest {
 
     @Test
     public void isValidShouldReturnFalseIfAllFieldsEmpty() {
-        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("", "", "",
+        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("", "",
                 Collections.<String>emptySet());
 
         assertFalse(formInstanceMetadata.isValid());
@@ -74,15 +74,7 @@ public class FormInstanceMetadataTest {
 
     @Test
     public void isValidShouldReturnFalseZipFileNameNull() {
-        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata(null, "test", "test",
-                Collections.<String>emptySet());
-
-        assertFalse(formInstanceMetadata.isValid());
-    }
-
-    @Test
-    public void isValidShouldReturnFalseFormInstanceDataNull() {
-        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("test", null, "test",
+        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata(null, "test",
                 Collections.<String>emptySet());
 
         assertFalse(formInstanceMetadata.isValid());
@@ -90,7 +82,7 @@ public class FormInstanceMetadataTest {
 
     @Test
     public void isValidShouldReturnFalseFormIdNull() {
-        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("test", "test", null,
+        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("test", null,
                 Collections.<String>emptySet());
 
         assertFalse(formInstanceMetadata.isValid());
@@ -98,7 +90,7 @@ public class FormInstanceMetadataTest {
 
     @Test
     public void isValidShouldReturnTrueIfAllValuesValid() {
-        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("test", "test", "test",
+        FormInstanceMetadata formInstanceMetadata = new FormInstanceMetadata("test", "test",
                 Collections.<String>emptySet());
 
         assertTrue(formInstanceMetadata.isValid());